@@ -5,11 +5,17 @@ import com.google.gson.JsonPrimitive;
 import com.klinker.droneos.arch.Core;
 import com.klinker.droneos.arch.communication.messages.Message;
 import com.klinker.droneos.arch.nodes.Node;
+import com.klinker.droneos.arch.nodes.Signal;
 import com.klinker.droneos.cv.CVUtils;
+import com.klinker.droneos.cv.ChessboardTracker;
+import com.klinker.droneos.cv.FrameGrabber;
 import com.klinker.droneos.cv.ImageWindow;
+import com.klinker.droneos.cv.Pipeline;
 import com.klinker.droneos.hardware.Camera;
+import com.klinker.droneos.utils.Log;
 
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 
 /**
@@ -21,24 +27,96 @@ public class CVNode extends Node {
 
     public static final String MESSAGE_MANUAL_FIND = "manual-find";
 
+    /**
+     * The offset to the landing pad found in each frame it is visible in.
+     */
+    private static final int TAG_LANDING_OFFSET =
+            Core.MAPPING_TELEMETRY.registerTag("landing-offset", "x", "y");
+
+    // the results the pipeline stages pass on.
+    private static final String KEY_GREY = "grey";
+    private static final String KEY_CORNERS = "corners";
+    private static final String KEY_OFFSET = "offset";
+
     ///// Member Variables /////////////////////////////////////////////////////
 
     private ImageWindow mWindow;
 
     private Camera mCamera;
 
-    private boolean mIsLandingVisible;
+    /**
+     * Captures the next frame while the last one is being searched.
+     */
+    private FrameGrabber mGrabber;
 
-    private boolean mIsManualFindFinsihed;
+    /**
+     * Searches each frame for the landing pad.
+     */
+    private Pipeline mPipeline;
+
+    /**
+     * Finds the landing pad near where it was in the last frame, once it
+     * has been found. Only used by the pipeline's detect stage.
+     */
+    private ChessboardTracker mTracker;
+
+    private volatile boolean mIsLandingVisible;
+
+    /**
+     * Set once the landing pad has been found during the manual find task.
+     */
+    private Signal mManualFindFinished;
 
     ///// Construction /////////////////////////////////////////////////////////
 
     public CVNode(String dataPath) {
         super(dataPath);
         mCamera = new Camera();
+        mGrabber = new FrameGrabber(mCamera, Pipeline.DEFAULT_CAPACITY + 2);
+        mTracker = new ChessboardTracker();
+        mPipeline = createPipeline();
         mIsLandingVisible = false;
-        mIsManualFindFinsihed = false;
-        if (Core.IS_SIMULATION) mWindow = new ImageWindow("CVNode");
+        mManualFindFinished = new Signal();
+        if (Core.IS_SIMULATION && !Core.IS_HEADLESS)
+            mWindow = new ImageWindow("CVNode");
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Creates the pipeline that finds the landing pad: the frame is made
+     * greyscale, searched for the chessboard, drawn on, then shown and
+     * recorded.
+     */
+    private Pipeline createPipeline() {
+        return new Pipeline("cv", mGrabber)
+                .addStage("preprocess", work -> {
+                    CVUtils.toGreyscale(work.getImage(), work.getMat(KEY_GREY));
+                })
+                .addStage("detect", work -> {
+                    Mat grey = work.getMat(KEY_GREY);
+                    MatOfPoint2f corners = work.getScratch(KEY_CORNERS, MatOfPoint2f::new);
+                    if (mTracker.find(grey, corners)) {
+                        work.put(KEY_OFFSET, CVUtils.getChessboardOffset(work.getImage(), corners));
+                    }
+                })
+                .addStage("annotate", work -> {
+                    Point offset = work.get(KEY_OFFSET);
+                    if (offset != null) {
+                        MatOfPoint2f corners = work.getScratch(KEY_CORNERS, MatOfPoint2f::new);
+                        CVUtils.drawChessboard(work.getImage(), corners, offset);
+                    }
+                })
+                .addStage("publish", work -> {
+                    Point offset = work.get(KEY_OFFSET);
+                    if (mWindow != null)
+                        mWindow.loadImage(work.getImage());
+                    mIsLandingVisible = offset != null;
+                    if (offset != null) {
+                        Core.MAPPING_TELEMETRY.record(TAG_LANDING_OFFSET, offset.x, offset.y);
+                    }
+                });
     }
 
 
@@ -51,7 +129,7 @@ public class CVNode extends Node {
     public void onReceiveMessage(Message message) {
         switch (message.getName()) {
             case MESSAGE_MANUAL_FIND:
-                if (mIsLandingVisible) mIsManualFindFinsihed = true;
+                if (mIsLandingVisible) mManualFindFinished.set();
                 break;
         }
     }
@@ -67,6 +145,9 @@ public class CVNode extends Node {
 
     @Override
     protected void onExit() {
+        mPipeline.close();
+        mTracker.release();
+        mGrabber.close();
         mCamera.close();
     }
 
@@ -76,27 +157,40 @@ public class CVNode extends Node {
     protected void onInitializingTask() {
         super.onInitializingTask();
         mCamera.open();
-        if (Core.IS_SIMULATION)
+        mGrabber.start("cv-capture");
+        if (mWindow != null)
             mWindow.setVisible(true);
     }
 
     @Override
     protected void onManualFindTask() {
         super.onManualFindTask();
-        while (!mIsManualFindFinsihed) {
-            Mat frame = mCamera.getFrame();
-            Point vector = CVUtils.findChessboard(frame);
-            if (Core.IS_SIMULATION)
-                mWindow.loadImage(frame);
-            mIsLandingVisible = vector != null;
+        mTracker.reset();
+        mPipeline.start();
+        mManualFindFinished.await();
+        mPipeline.close();
+
+        Log.d("cv", String.format(
+                "Captured %d frames, dropped %d, %.1f ms average latency, %.1f ms max",
+                mGrabber.getCapturedCount(), mGrabber.getDroppedCount(),
+                mGrabber.getAverageLatency(), mGrabber.getMaxLatency()
+        ));
+        Log.d("cv", mTracker.toString());
+        Log.d("cv", mTracker.getDetector().toString());
+        Log.d("cv", mPipeline.getStats().toString());
+        for (Pipeline.Stats stage : mPipeline.getStageStats()) {
+            Log.d("cv", stage.toString());
         }
     }
 
     @Override
     protected void onFinishUpTask() {
         super.onFinishUpTask();
-        if (Core.IS_SIMULATION)
+        if (mWindow != null)
             mWindow.closeWindow();
+        mPipeline.close();
+        mTracker.release();
+        mGrabber.close();
         mCamera.close();
     }
 
@@ -4,9 +4,13 @@ import javax.naming.ldap.ControlFactory;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.klinker.droneos.arch.Core;
+import com.klinker.droneos.arch.communication.messages.ControlMessage;
 import com.klinker.droneos.arch.communication.messages.JsonMessage;
 import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.arch.nodes.Mailbox;
 import com.klinker.droneos.arch.nodes.Node;
+import com.klinker.droneos.arch.nodes.Signal;
 import com.klinker.droneos.hardware.FlightController;
 import com.klinker.droneos.utils.Log;
 import com.klinker.droneos.utils.Utils;
@@ -36,6 +40,21 @@ public class ControlsNode extends Node {
     public static final String MESSAGE_ARM = "arm";
     public static final String MESSAGE_DROP = "drop";
     public static final String MESSAGE_HOVER = "hover";
+    public static final String MESSAGE_CONTROL_SWITCH = "control-switch";
+
+    private static final int ID_CONTROL = Message.getNameId(MESSAGE_CONTROL);
+    private static final int ID_ARM = Message.getNameId(MESSAGE_ARM);
+    private static final int ID_DROP = Message.getNameId(MESSAGE_DROP);
+    private static final int ID_HOVER = Message.getNameId(MESSAGE_HOVER);
+    private static final int ID_CONTROL_SWITCH =
+            Message.getNameId(MESSAGE_CONTROL_SWITCH);
+
+    /**
+     * The PWM values sent to the flight controller after each move.
+     */
+    private static final int TAG_PWM = Core.SENSOR_TELEMETRY.registerTag(
+            "pwm", "strafeX", "strafeY", "angle", "lift"
+    );
 
     ///// Member Variables /////////////////////////////////////////////////////
 
@@ -43,12 +62,21 @@ public class ControlsNode extends Node {
 
     private FlightController mFlightController;
 
+    /**
+     * Set while the flight controller is armed.
+     */
+    private Signal mArmed;
+
     ///// Construction /////////////////////////////////////////////////////////
 
     public ControlsNode(String dataPath) {
         super(dataPath);
         mIsManual = true;
         mFlightController = FlightController.newInstance(0, 1, 2, 3);
+        mArmed = new Signal();
+        // only the newest stick position matters, so newer controls replace
+        // the ones that have not been applied yet instead of queueing.
+        getMailbox().setPolicy(MESSAGE_CONTROL, Mailbox.Policy.COALESCE_LATEST);
     }
 
     ///// Node Callbacks ///////////////////////////////////////////////////////
@@ -65,28 +93,48 @@ public class ControlsNode extends Node {
      *       "manual": boolean
     *         }</code></li>
      * </ol>
+     * Moves are normally sent as a {@link ControlMessage}, which is recycled
+     * once it has been applied.
+     * Control messages are coalesced, so if several arrive while one is
+     * being applied, only the latest is applied next.
      * @param message The message received
      */
     @Override
     protected void onReceiveMessage(Message message) {
+        int id = message.getNameId();
+        if (message.getClass() == ControlMessage.class) {
+            ControlMessage control = (ControlMessage) message;
+            if (id == ID_CONTROL && control.isManual() == mIsManual) {
+                move(
+                    control.getStrafeX(),
+                    control.getStrafeY(),
+                    control.getAngle(),
+                    control.getLift()
+                );
+            }
+            control.recycle();
+            return;
+        }
         if (message.getClass() != JsonMessage.class)
             return;
         JsonObject json = ((JsonMessage) message).getData();
 
-        if (message.getName().equals(MESSAGE_ARM)) {
-            mFlightController.arm(json.get("arm").getAsBoolean());
-        } else if (message.getName().equals(MESSAGE_HOVER)) {
+        if (id == ID_ARM) {
+            boolean arm = json.get("arm").getAsBoolean();
+            mFlightController.arm(arm);
+            mArmed.setIsSet(arm);
+        } else if (id == ID_HOVER) {
             mFlightController.hover(json.get("hover").getAsBoolean());
-        } else if (message.getName().equals(MESSAGE_DROP)) {
+        } else if (id == ID_DROP) {
             mFlightController.drop(json.get("drop").getAsBoolean());
-        } else if (message.getName().equals(MESSAGE_CONTROL) && json.get("isManual").getAsBoolean() == mIsManual) {
-            mFlightController.move(
+        } else if (id == ID_CONTROL && json.get("isManual").getAsBoolean() == mIsManual) {
+            move(
                 json.get("strafeX").getAsDouble(), 
                 json.get("strafeY").getAsDouble(),
                 json.get("angle").getAsDouble(), 
                 json.get("lift").getAsDouble()
             );
-        } else if (message.getName().equals("control-switch")) {
+        } else if (id == ID_CONTROL_SWITCH) {
             mIsManual = json.get("manual").getAsBoolean();
         } else {
             Log.d("controls", "Ignored message: " + message.toString());
@@ -104,6 +152,8 @@ public class ControlsNode extends Node {
             return new JsonPrimitive(mFlightController.getAnglePWM());
         case "lift":
             return new JsonPrimitive(mFlightController.getLiftPWM());
+        case "coalesced":
+            return new JsonPrimitive(getMailbox().getCoalescedCount());
         default:
             return null;
         }
@@ -120,11 +170,9 @@ public class ControlsNode extends Node {
     @Override
     protected void onManualFindTask() {
         super.onManualFindTask();
-        while (!mFlightController.isArmed()) 
-            Utils.sleep(100);
+        mArmed.await();
         Utils.sleep(1000);
-        while (mFlightController.isArmed())
-            Utils.sleep(100);
+        mArmed.awaitClear();
     }
 
     @Override
@@ -134,4 +182,18 @@ public class ControlsNode extends Node {
     }
 
     ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Moves the drone and records the PWM values it was given.
+     */
+    private void move(double strafeX, double strafeY, double angle, double lift) {
+        mFlightController.move(strafeX, strafeY, angle, lift);
+        Core.SENSOR_TELEMETRY.record(
+                TAG_PWM,
+                mFlightController.getStrafeXPWM(),
+                mFlightController.getStrafeYPWM(),
+                mFlightController.getAnglePWM(),
+                mFlightController.getLiftPWM()
+        );
+    }
 }
@@ -11,6 +11,7 @@ import com.google.gson.JsonPrimitive;
 import com.klinker.droneos.arch.Core;
 import com.klinker.droneos.arch.communication.messages.Message;
 import com.klinker.droneos.arch.nodes.Node;
+import com.klinker.droneos.arch.nodes.Signal;
 import com.klinker.droneos.network.InfoHandler;
 import com.klinker.droneos.network.ManualControlHandler;
 import com.klinker.droneos.network.PingRequestHandler;
@@ -100,13 +101,13 @@ public class NetworkNode extends Node {
      *
      * TODO: Added run IDs
      */
-    private boolean mIsConnected;
+    private Signal mConnected;
 
     /**
      * Whether or not there has been a POST to '/start', generally done by
      * the GUI's Start button in the task lists.
      */
-    private boolean mIsStarted;
+    private Signal mStarted;
 
 
     ///// Constructors /////////////////////////////////////////////////////////
@@ -122,8 +123,8 @@ public class NetworkNode extends Node {
     public NetworkNode(String dataPath) {
         super(dataPath);
         mAutoStart = getData().get("auto-start").getAsBoolean();
-        mIsStarted = false;
-        mIsConnected = false;
+        mStarted = new Signal();
+        mConnected = new Signal();
         try {
             mPort = getData().get("port").getAsInt();
             mServer = HttpServer.create(new InetSocketAddress(mPort), 0);
@@ -178,14 +179,10 @@ public class NetworkNode extends Node {
 
         if (!mAutoStart) {
             Log.d("network", "Awaiting connection to GUI");
-            while (!isConnected()) {
-                Utils.sleep(500);
-            }
+            mConnected.await();
             Log.d("network", "Connected to GUI");
             Log.d("network", "Awaiting start from GUI");
-            while (!isStarted()) {
-                Utils.sleep(500);
-            }
+            mStarted.await();
             Log.d("network", "GUI gave the go ahead");
         } else {
             Log.d("network", "Skipping GUI (set in NetworkNode's data file)");
@@ -195,23 +192,23 @@ public class NetworkNode extends Node {
 
     ///// Getters //////////////////////////////////////////////////////////////
 
-    public synchronized boolean isStarted() {
-        return mIsStarted;
+    public boolean isStarted() {
+        return mStarted.isSet();
     }
 
-    public synchronized boolean isConnected() {
-        return mIsConnected;
+    public boolean isConnected() {
+        return mConnected.isSet();
     }
 
 
     ///// Setters //////////////////////////////////////////////////////////////
 
-    public synchronized void setIsStarted(boolean isStarted) {
-        mIsStarted = isStarted;
+    public void setIsStarted(boolean isStarted) {
+        mStarted.setIsSet(isStarted);
     }
 
-    public synchronized void setIsConnected(boolean isConnected) {
-        mIsConnected = isConnected;
+    public void setIsConnected(boolean isConnected) {
+        mConnected.setIsSet(isConnected);
     }
 
 }
@@ -2,16 +2,20 @@ package com.klinker.droneos.arch;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.Map;
 
 import com.klinker.droneos.arch.manifest.Manifest;
 import com.klinker.droneos.arch.nodes.Node;
 import com.klinker.droneos.arch.nodes.NodeManager;
 import com.klinker.droneos.arch.simulation.Simulation;
+import com.klinker.droneos.arch.simulation.map.SimulationMap;
 import com.klinker.droneos.utils.Log;
 import com.klinker.droneos.utils.async.RunnableExecutor;
+import com.klinker.droneos.utils.telemetry.TelemetryRecorder;
 
 public class Core {
 
@@ -56,6 +60,12 @@ public class Core {
      */
     public static String DIR_SENSOR_OUTPUT = "output/" + START_TIME + "/sensor";
 
+    /**
+     * The path to the parsed simulation maps. Unlike the other output, it is
+     * shared between runs so a map is only parsed the first time.
+     */
+    public static String DIR_MAP_CACHE = "output/map-cache";
+
     /**
      * The default exit code for a successful run.
      */
@@ -107,11 +117,32 @@ public class Core {
      */
     public static boolean IS_SIMULATION = false;
 
+    /**
+     * Set whether or not the simulation runs without any windows, as fast as
+     * it can unless the manifest sets "simulation_speed". Implies
+     * {@link Core#IS_SIMULATION}.
+     */
+    public static boolean IS_HEADLESS = false;
+
     /**
      * The physical simulation.json in use if IS_SIMULATION is true;
      */
     public static Simulation SIMULATION = null;
 
+    /**
+     * Records the readings from the hardware, like the PWM values sent to
+     * the flight controller, into {@link Core#DIR_SENSOR_OUTPUT}.
+     */
+    public static final TelemetryRecorder SENSOR_TELEMETRY =
+            new TelemetryRecorder(DIR_SENSOR_OUTPUT, "sensor");
+
+    /**
+     * Records where the drone is and what it sees, like its pose and the
+     * offsets found by computer vision, into {@link Core#DIR_MAPPING_OUTPUT}.
+     */
+    public static final TelemetryRecorder MAPPING_TELEMETRY =
+            new TelemetryRecorder(DIR_MAPPING_OUTPUT, "mapping");
+
     /**
      * Whether or not the OS is windows.
      */
@@ -140,6 +171,9 @@ public class Core {
      * characters)
      * <ul style="list-style: none;">
      * <li>* <code>'-manifest /path/to/manifest'</code></li>
+     * <li><code>'-simulation'</code></li>
+     * <li><code>'-headless'</code>: a simulation without windows, faster
+     * than real time</li>
      * </ul>
      *
      * @param args The arguments that specifies which
@@ -148,6 +182,8 @@ public class Core {
     public static void main(String[] args) {
         createOutputFolders();
         Log.open();
+        SENSOR_TELEMETRY.open();
+        MAPPING_TELEMETRY.open();
         LinkedList<String> arguments = new LinkedList<>();
         arguments.addAll(Arrays.asList(args));
 
@@ -186,7 +222,10 @@ public class Core {
      *                 fatal errors, and so on.
      */
     public static void exit(int exitCode) {
-        sManager.forceStop();
+        // null when exiting on a bad argument, before any node has started.
+        if (sManager != null) sManager.forceStop();
+        SENSOR_TELEMETRY.close();
+        MAPPING_TELEMETRY.close();
         Log.close();
         System.exit(exitCode);
     }
@@ -218,9 +257,12 @@ public class Core {
 
         while (!args.isEmpty()) {
             String arg = args.removeFirst();
-            if (arg.equals("-simulation")) {
-                IS_SIMULATION = true;
-                SIMULATION = new Simulation();
+            if (arg.equals("-simulation") || arg.equals("-headless")) {
+                IS_HEADLESS |= arg.equals("-headless");
+                if (!IS_SIMULATION) {
+                    IS_SIMULATION = true;
+                    SIMULATION = new Simulation();
+                }
             } else if (arg.startsWith("-")) {
                 if (args.isEmpty()) {
                     Log.e(
@@ -248,6 +290,7 @@ public class Core {
                                 break;
                             case "-colored-log":
                                 IS_LOG_COLORED = Boolean.parseBoolean(param);
+                                Log.setColored(IS_LOG_COLORED);
                                 break;
                         }
                     }
@@ -267,6 +310,56 @@ public class Core {
             Core.exit(EXIT_CODE_ARCH_FATAL);
         }
 
+        for (Map.Entry<String, String> level
+                : manifest.getLogLevels().entrySet()) {
+            try {
+                Log.setLevel(
+                        level.getKey(),
+                        Log.Level.valueOf(level.getValue().toUpperCase())
+                );
+            } catch (IllegalArgumentException e) {
+                Log.w("arch", "Unknown log level '" + level.getValue()
+                        + "' for tag '" + level.getKey() + "'");
+            }
+        }
+
+        if (SIMULATION != null) {
+            if (manifest.getSimulationRate() > 0) {
+                SIMULATION.setFrameRate(manifest.getSimulationRate());
+                SIMULATION.setObservationRate(manifest.getSimulationRate());
+            }
+            if (manifest.getSimulationSubSteps() > 0) {
+                SIMULATION.setSubSteps(manifest.getSimulationSubSteps());
+            }
+            if (manifest.getSimulationObservationRate() > 0) {
+                SIMULATION.setObservationRate(
+                        manifest.getSimulationObservationRate()
+                );
+            }
+            if (manifest.getSimulationSpeed() != null) {
+                SIMULATION.setSpeed(manifest.getSimulationSpeed());
+            } else if (IS_HEADLESS) {
+                SIMULATION.setSpeed(0);
+            }
+            if (manifest.getSimulationMap() != null) {
+                try {
+                    long start = System.nanoTime();
+                    SIMULATION.setMap(SimulationMap.load(
+                            manifest.getSimulationMap(), DIR_MAP_CACHE
+                    ));
+                    Log.d("simulation", String.format(
+                            "Loaded %s in %.1f ms",
+                            manifest.getSimulationMap(),
+                            (System.nanoTime() - start) / 1e6
+                    ));
+                } catch (IOException e) {
+                    Log.e("simulation", "Could not load the simulation map "
+                            + manifest.getSimulationMap(), e);
+                    exit(EXIT_CODE_SIMULATION_FATAL);
+                }
+            }
+        }
+
         // Create and return the Node Manager for this device.
         return new NodeManager(manifest, device);
     }
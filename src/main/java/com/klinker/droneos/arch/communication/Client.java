@@ -1,12 +1,17 @@
 package com.klinker.droneos.arch.communication;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.ConnectException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.Scanner;
 
+import com.klinker.droneos.arch.communication.codec.BinaryMessageCodec;
+import com.klinker.droneos.arch.communication.codec.MessageCodec;
 import com.klinker.droneos.arch.communication.messages.Message;
 import com.klinker.droneos.arch.manifest.Device;
 import com.klinker.droneos.utils.Log;
@@ -94,22 +99,49 @@ public class Client {
 
     /**
      * The stream that writes data to the {@link Server}'s
-     * {@link ObjectInputStream}.
+     * {@link DataInputStream}.
      */
-    private ObjectOutputStream mOutput;
+    private DataOutputStream mOutput;
+
+    /**
+     * Converts messages to and from the bytes sent over
+     * {@link Client#mSocket}. The {@link Server} must use the same codec.
+     */
+    private final MessageCodec mCodec;
+
+    /**
+     * Batches and writes the messages sent through
+     * {@link Client#sendMessage(Message)} to {@link Client#mOutput}.
+     */
+    private MessageWriter mWriter;
 
 
     ///// Constructors /////////////////////////////////////////////////////////
 
     /**
+     * Creates a client that sends messages with a
+     * {@link BinaryMessageCodec} without any interned names.
+     *
      * @param device    The device this client is running on.
      * @param ipAddress The IP Address to connect to.
      * @param port      The port the server is running on.
      */
     public Client(Device device, String ipAddress, int port) {
+        this(device, ipAddress, port, new BinaryMessageCodec());
+    }
+
+    /**
+     * @param device    The device this client is running on.
+     * @param ipAddress The IP Address to connect to.
+     * @param port      The port the server is running on.
+     * @param codec     The codec used to send and receive messages.
+     */
+    public Client(Device device, String ipAddress, int port,
+                  MessageCodec codec) {
         mDevice = device;
         mIpAddress = ipAddress;
         mPort = port;
+        mCodec = codec;
         mIsOpen = false;
     }
 
@@ -119,22 +151,46 @@ public class Client {
     /**
      * Opens a connection to the {@link Server}. This will pause the thread
      * it is called from until the connection is made.
+     *
+     * @return <code>true</code> if the connection was opened.
      */
-    public void open() {
+    public boolean open() {
+        // everything for this connection stays local until it is fully
+        // open, so a failed attempt can't touch the previous connection.
+        Socket socket = null;
         try {
-            mSocket = new Socket(mIpAddress, mPort);
-            mOutput = new ObjectOutputStream(mSocket.getOutputStream());
-            mMessageHandler = new MessageHandler(
-                    new ObjectInputStream(mSocket.getInputStream())
+            socket = new Socket(mIpAddress, mPort);
+            socket.setTcpNoDelay(true);
+            DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream())
+            );
+            DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream())
             );
             // write the device's id to the sever, so it knows where to find
             // nodes that are on this device.
-            setIsOpen(true);
-            mOutput.writeLong(mDevice.getId());
-            mOutput.flush();
-            new Thread(mMessageHandler).start();
+            output.writeLong(mDevice.getId());
+            output.flush();
+            MessageWriter writer = new MessageWriter(output, mCodec);
+            writer.start("client-writer-" + mIpAddress + ":" + mPort);
+            MessageHandler handler = new MessageHandler(socket, input, writer);
+            synchronized (this) {
+                mSocket = socket;
+                mOutput = output;
+                mWriter = writer;
+                mMessageHandler = handler;
+                mIsOpen = true;
+            }
+            new Thread(handler).start();
+            return true;
+        } catch (ConnectException e) {
+            Log.w("comm", "Could not connect to " + mIpAddress + ":" + mPort);
+            closeSocket(socket);
+            return false;
         } catch (IOException e) {
             Log.e("comm", "Error opening client socket", e);
+            closeSocket(socket);
+            return false;
         }
     }
 
@@ -142,10 +198,26 @@ public class Client {
      * Closes the connection to the {@link Server}.
      */
     public void close() {
+        Socket socket;
+        DataOutputStream output;
+        MessageWriter writer;
+        synchronized (this) {
+            mIsOpen = false;
+            socket = mSocket;
+            output = mOutput;
+            writer = mWriter;
+        }
+        if (writer != null) writer.close();
+        try {
+            if (output != null) output.close();
+        } catch (IOException e) {}
+        closeSocket(socket);
+    }
+
+    private static void closeSocket(Socket socket) {
         try {
-            mOutput.close();
-            mSocket.close();
-        } catch (Exception e) {}
+            if (socket != null) socket.close();
+        } catch (IOException e) {}
     }
 
 
@@ -162,13 +234,12 @@ public class Client {
     }
 
     /**
-     * This method should only be called from {@link Client#open()} and
-     * {@link Client#close()}.
-     * @param isOpen Whether or not this client is connected to the
-     * {@link Server}.
+     * Marks the client closed when a connection drops, unless it has already
+     * been replaced by a newer one.
+     * @param writer The writer of the connection that dropped.
      */
-    private synchronized void setIsOpen(boolean isOpen) {
-        mIsOpen = isOpen;
+    private synchronized void setClosed(MessageWriter writer) {
+        if (mWriter == writer) mIsOpen = false;
     }
 
 
@@ -181,6 +252,21 @@ public class Client {
         return mIsOpen;
     }
 
+    /**
+     * @param writer The writer of a connection.
+     * @return Whether or not that connection is the one currently open.
+     */
+    private synchronized boolean isOpen(MessageWriter writer) {
+        return mIsOpen && mWriter == writer;
+    }
+
+    /**
+     * @return The writer of the open connection, or null if it is closed.
+     */
+    private synchronized MessageWriter getWriter() {
+        return mIsOpen ? mWriter : null;
+    }
+
 
     ///// Inner Classes ////////////////////////////////////////////////////////
 
@@ -194,45 +280,66 @@ public class Client {
         ///// Member Variables /////////////////////////////////////////////////
 
         /**
-         * The object input stream for the {@link Client}. This is the stream
+         * The socket of the connection this handler reads from.
+         */
+        private final Socket mConnection;
+
+        /**
+         * The input stream for the {@link Client}. This is the stream
          * that listens for new {@link Message}s.
          */
-        private ObjectInputStream mReader;
+        private final DataInputStream mReader;
+
+        /**
+         * The writer of the same connection, closed along with it.
+         */
+        private final MessageWriter mConnectionWriter;
 
 
         ///// Constructors /////////////////////////////////////////////////////
 
         /**
          * Creates a separate thread for listening for {@link Message}s.
-         * @param reader The stream from a socket.
+         * @param connection The socket of the connection.
+         * @param reader     The stream from the socket.
+         * @param writer     The writer for the same connection.
          */
-        private MessageHandler(ObjectInputStream reader) {
+        private MessageHandler(Socket connection, DataInputStream reader,
+                               MessageWriter writer) {
+            mConnection = connection;
             mReader = reader;
+            mConnectionWriter = writer;
         }
 
 
         ///// Runnable Overrides ///////////////////////////////////////////////
 
         /**
-         * Runs a loop. When it receives a message, it will notify the
-         * listener on yet another thread, then repeats. It repeats while the
-         * connection is open.
+         * Runs a loop. When it receives a message, it hands it to the
+         * listener on this thread, so messages from the server are handled
+         * in the order they were sent. It repeats while the connection is
+         * open.
          */
         @Override
         public void run() {
             try {
-                while (isOpen()) {
-                    final Message message = (Message) mReader.readObject();
-                    if (mMessageListener != null) new Thread(() -> {
+                while (isOpen(mConnectionWriter)) {
+                    Message<?> message = mCodec.read(mReader);
+                    if (mMessageListener == null) continue;
+                    try {
                         mMessageListener.onReceiveMessage(message);
-                    }).start();
+                    } catch (Exception e) {
+                        Log.e("comm", "Error handling " + message, e);
+                    }
                 }
             } catch (SocketException e) {
                 Log.e("comm", "socket closed");
-            } catch (ClassNotFoundException | IOException e) {
-                if (isOpen()) Log.e("comm", "error receiving message.", e);
+            } catch (IOException e) {
+                if (isOpen(mConnectionWriter)) Log.e("comm", "error receiving message.", e);
             } finally {
-                setIsOpen(false);
+                setClosed(mConnectionWriter);
+                mConnectionWriter.close();
+                closeSocket(mConnection);
             }
         }
 
@@ -242,18 +349,15 @@ public class Client {
     ///// Member Methods ///////////////////////////////////////////////////////
 
     /**
-     * Sends a message to the connected {@link Server}.
+     * Sends a message to the connected {@link Server}. The message is queued
+     * and written in a batch on the writer's thread, so this does not wait
+     * for the socket.
      * @param message The message to send.
      */
     public void sendMessage(Message message) {
-        if (!isOpen()) {
+        MessageWriter writer = getWriter();
+        if (writer == null || !writer.send(message)) {
             Log.e("comm", "Connection closed, couldn't send message: " + message);
-            return;
-        }
-        try {
-            mOutput.writeObject(message);
-        } catch (IOException e) {
-            Log.e("comm", "Error sending message: " + message, e);
         }
     }
 
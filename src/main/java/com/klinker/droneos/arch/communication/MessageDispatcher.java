@@ -0,0 +1,207 @@
+package com.klinker.droneos.arch.communication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.utils.Log;
+
+/**
+ * Hands received {@link Message}s to an {@link OnMessageReceivedListener}
+ * on a fixed number of worker threads. The queue between the connections
+ * and the workers is bounded: when it is full,
+ * {@link MessageDispatcher#dispatch(Message)} waits, which stops reading
+ * from the socket and pushes back on the sending device through TCP instead
+ * of creating more threads.
+ * <p>
+ * With a single worker, messages are handed to the listener in the order
+ * they were received.
+ */
+public class MessageDispatcher {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The default number of messages that can wait to be dispatched.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The messages waiting for a worker.
+     */
+    private final ArrayBlockingQueue<Dispatch> mQueue;
+
+    /**
+     * The workers calling the listener.
+     */
+    private final Thread[] mWorkers;
+
+    /**
+     * The callback messages are handed to.
+     */
+    private volatile OnMessageReceivedListener mListener;
+
+    /**
+     * Whether or not the workers should keep running.
+     */
+    private volatile boolean mIsRunning;
+
+    /**
+     * The number of messages handed to the listener.
+     */
+    private final AtomicLong mDispatchedCount;
+
+    /**
+     * The sum of every dispatch latency in ns, used for the average.
+     */
+    private final AtomicLong mTotalLatency;
+
+    /**
+     * The longest dispatch latency seen in ns.
+     */
+    private final AtomicLong mMaxLatency;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param workerCount The number of threads calling the listener.
+     * @param capacity    The number of messages that can wait to be
+     *                    dispatched before
+     *                    {@link MessageDispatcher#dispatch(Message)} waits.
+     */
+    public MessageDispatcher(int workerCount, int capacity) {
+        mQueue = new ArrayBlockingQueue<>(capacity);
+        mWorkers = new Thread[workerCount];
+        mDispatchedCount = new AtomicLong();
+        mTotalLatency = new AtomicLong();
+        mMaxLatency = new AtomicLong();
+        mIsRunning = false;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Starts the worker threads.
+     */
+    public void start() {
+        if (mIsRunning) return;
+        mIsRunning = true;
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Thread(this::work, "message-dispatcher-" + i);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Stops the worker threads. Messages still waiting are dropped.
+     */
+    public void stop() {
+        mIsRunning = false;
+        for (Thread worker : mWorkers) {
+            if (worker != null) worker.interrupt();
+        }
+        mQueue.clear();
+    }
+
+    /**
+     * Queues a message for the listener, waiting for room if the queue is
+     * full.
+     *
+     * @param message The message that was received.
+     */
+    public void dispatch(Message<?> message) {
+        try {
+            mQueue.put(new Dispatch(message));
+        } catch (InterruptedException e) {
+            Log.w("comm", "Interrupted before dispatching " + message);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        while (mIsRunning) {
+            Dispatch dispatch;
+            try {
+                dispatch = mQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long latency = System.nanoTime() - dispatch.mQueuedAt;
+            mDispatchedCount.incrementAndGet();
+            mTotalLatency.addAndGet(latency);
+            mMaxLatency.accumulateAndGet(latency, Math::max);
+
+            OnMessageReceivedListener listener = mListener;
+            if (listener == null) continue;
+            try {
+                listener.onReceiveMessage(dispatch.mMessage);
+            } catch (Exception e) {
+                Log.e("comm", "Error handling " + dispatch.mMessage, e);
+            }
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of messages waiting for a worker.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return The number of messages handed to the listener.
+     */
+    public long getDispatchedCount() {
+        return mDispatchedCount.get();
+    }
+
+    /**
+     * @return The average time in ns a message waited between being
+     * received and being handed to the listener.
+     */
+    public double getAverageDispatchLatency() {
+        long count = mDispatchedCount.get();
+        return count == 0 ? 0 : mTotalLatency.get() / (double) count;
+    }
+
+    /**
+     * @return The longest time in ns a message waited between being
+     * received and being handed to the listener.
+     */
+    public long getMaxDispatchLatency() {
+        return mMaxLatency.get();
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    public void setOnMessageReceivedListener(OnMessageReceivedListener listener) {
+        mListener = listener;
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * A message and when it was queued.
+     */
+    private static class Dispatch {
+        private final Message<?> mMessage;
+        private final long mQueuedAt;
+
+        private Dispatch(Message<?> message) {
+            mMessage = message;
+            mQueuedAt = System.nanoTime();
+        }
+    }
+
+}
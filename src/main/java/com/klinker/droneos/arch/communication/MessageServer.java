@@ -0,0 +1,51 @@
+package com.klinker.droneos.arch.communication;
+
+import com.klinker.droneos.arch.communication.messages.Message;
+
+/**
+ * The side of a device-to-device connection that accepts {@link Client}s.
+ * The {@link Messenger} talks to the devices that connect to it through
+ * this interface, so the threading model can be swapped without changing
+ * how messages are routed.
+ *
+ * @see Server A thread per connection, using blocking sockets.
+ * @see NioServer A small, fixed set of selector threads for every
+ * connection.
+ */
+public interface MessageServer {
+
+    /**
+     * Starts accepting clients. This does not block.
+     */
+    void start();
+
+    /**
+     * Stops accepting clients and closes every connection.
+     */
+    void stop();
+
+    /**
+     * Sends a message to the {@link Client} running on the given device.
+     * This queues the message and does not wait for the socket.
+     *
+     * @param deviceId The id of the device the client is running on.
+     * @param message  The message to send.
+     * @return <code>false</code> if that device is not connected.
+     */
+    boolean sendMessage(long deviceId, Message<?> message);
+
+    /**
+     * @param deviceId The id of the device to check.
+     * @return Whether or not a client from that device is connected.
+     */
+    boolean isConnected(long deviceId);
+
+    /**
+     * Sets a listener whose
+     * {@link OnMessageReceivedListener#onReceiveMessage(Message)} will be
+     * called whenever a message is received.
+     * @param listener The listener that will be called.
+     */
+    void setOnMessageReceivedListener(OnMessageReceivedListener listener);
+
+}
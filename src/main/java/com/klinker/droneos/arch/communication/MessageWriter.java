@@ -0,0 +1,191 @@
+package com.klinker.droneos.arch.communication;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.klinker.droneos.arch.communication.codec.MessageCodec;
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.utils.Log;
+
+/**
+ * Writes {@link Message}s out to a single connection on its own thread.
+ * Senders only add the message to a queue, so they never wait on the socket
+ * and any number of messages can be in flight at once. The writer drains
+ * everything that is waiting (up to {@link MessageWriter#MAX_BATCH_SIZE})
+ * into the buffered stream before flushing, so a burst of messages goes out
+ * in a single write instead of one write per message.
+ * <p>
+ * Both {@link Client} and {@link Server.ClientHandler} send through one of
+ * these.
+ */
+class MessageWriter implements Runnable {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The most messages that will be written before the stream is flushed.
+     */
+    public static final int MAX_BATCH_SIZE = 64;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The stream the messages are written to. It should be wrapping a
+     * {@link java.io.BufferedOutputStream} so that only
+     * {@link DataOutputStream#flush()} touches the socket.
+     */
+    private final DataOutputStream mOutput;
+
+    /**
+     * Converts each message into the frame written to
+     * {@link MessageWriter#mOutput}.
+     */
+    private final MessageCodec mCodec;
+
+    /**
+     * The messages waiting to be written.
+     */
+    private final LinkedBlockingQueue<Message<?>> mQueue;
+
+    /**
+     * Whether or not the writer is still accepting messages.
+     */
+    private volatile boolean mIsOpen;
+
+    /**
+     * The thread running {@link MessageWriter#run()}.
+     */
+    private Thread mThread;
+
+    /**
+     * The number of messages written out.
+     */
+    private long mMessageCount;
+
+    /**
+     * The number of flushes, or writes to the socket.
+     */
+    private long mBatchCount;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param output The stream to write messages out to.
+     * @param codec  The codec used to write each message.
+     */
+    MessageWriter(DataOutputStream output, MessageCodec codec) {
+        mOutput = output;
+        mCodec = codec;
+        mQueue = new LinkedBlockingQueue<>();
+        mIsOpen = false;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Starts the thread that writes the queued messages.
+     *
+     * @param name The name to give the writer thread.
+     */
+    public void start(String name) {
+        mIsOpen = true;
+        mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Queues a message to be written. This does not block.
+     *
+     * @param message The message to send.
+     * @return <code>false</code> if the writer has already been closed.
+     */
+    public boolean send(Message<?> message) {
+        if (!mIsOpen) return false;
+        return mQueue.offer(message);
+    }
+
+    /**
+     * Stops the writer. Messages still in the queue are dropped.
+     */
+    public void close() {
+        mIsOpen = false;
+        if (mThread != null) mThread.interrupt();
+    }
+
+
+    ///// Runnable Overrides ///////////////////////////////////////////////////
+
+    /**
+     * Waits for a message, then writes it along with every other message
+     * that is already waiting, and flushes once at the end of the batch.
+     */
+    @Override
+    public void run() {
+        ArrayList<Message<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        try {
+            while (mIsOpen) {
+                batch.add(mQueue.take());
+                mQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                for (Message<?> message : batch) {
+                    mCodec.write(mOutput, message);
+                }
+                mOutput.flush();
+                addToCounts(batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed while waiting for the next message.
+        } catch (IOException e) {
+            if (mIsOpen) Log.e("comm", "Error writing messages", e);
+        } finally {
+            mIsOpen = false;
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return Whether or not the writer is still accepting messages.
+     */
+    public boolean isOpen() {
+        return mIsOpen;
+    }
+
+    /**
+     * @return The number of messages waiting to be written.
+     */
+    public int getQueueSize() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return The number of messages written out.
+     */
+    public synchronized long getMessageCount() {
+        return mMessageCount;
+    }
+
+    /**
+     * @return The number of batches written out. Each batch is a single
+     * flush to the socket.
+     */
+    public synchronized long getBatchCount() {
+        return mBatchCount;
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    private synchronized void addToCounts(int messages) {
+        mMessageCount += messages;
+        mBatchCount++;
+    }
+
+}
@@ -1,15 +1,170 @@
 package com.klinker.droneos.arch.communication;
 
+import java.util.HashMap;
+
+import com.klinker.droneos.arch.communication.codec.BinaryMessageCodec;
+import com.klinker.droneos.arch.communication.codec.MessageCodec;
 import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.arch.manifest.Device;
+import com.klinker.droneos.arch.manifest.Manifest;
+import com.klinker.droneos.utils.Clock;
+import com.klinker.droneos.utils.Log;
+import com.klinker.droneos.utils.Utils;
 
 /**
  * This class is responsible for sending the messages across devices. If the
  * node that the message is being sent to is on the same device as the one it
  * was sent from, it will be sent in
  * {@link com.klinker.droneos.arch.nodes.NodeManager#sendMessage(Message)}.
+ * <p>
+ * There is a single persistent connection between each pair of devices in
+ * the {@link Manifest}. The device with the lower id opens a {@link Client}
+ * to the device with the higher id, which accepts it on its {@link Server}.
+ * Both sides then send over that same connection. Messages are queued and
+ * written in batches (see {@link MessageWriter}), so sending never waits on
+ * the socket or on the other device. They are encoded with a
+ * {@link BinaryMessageCodec} built from the manifest.
  */
 public class Messenger {
 
-    // TODO
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * How long to wait, in ms, before trying to connect to a device again.
+     */
+    public static final long RECONNECT_DELAY = 1000;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The device this messenger is running on.
+     */
+    private final Device mDevice;
+
+    /**
+     * Accepts the connections from devices with a lower id than
+     * {@link Messenger#mDevice}. It is a {@link NioServer} when the manifest
+     * sets "nio_server", otherwise a {@link Server}.
+     */
+    private final MessageServer mServer;
+
+    /**
+     * The connections to the devices with a higher id than
+     * {@link Messenger#mDevice}, mapped by the device id.
+     */
+    private final HashMap<Long, Client> mClients;
+
+    /**
+     * The callback for messages received from other devices.
+     */
+    private OnMessageReceivedListener mMessageListener;
+
+    /**
+     * Whether or not the messenger has been started and not stopped.
+     */
+    private volatile boolean mIsRunning;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param manifest The manifest listing every device.
+     * @param device   The device this messenger is running on.
+     */
+    public Messenger(Manifest manifest, Device device) {
+        mDevice = device;
+        MessageCodec codec = new BinaryMessageCodec(manifest);
+        mServer = manifest.isNioServer()
+                ? new NioServer(device.getPort(), codec)
+                : new Server(device.getPort(), codec);
+        mClients = new HashMap<>();
+        mIsRunning = false;
+
+        OnMessageReceivedListener listener = message -> {
+            if (mMessageListener != null)
+                mMessageListener.onReceiveMessage(message);
+        };
+        mServer.setOnMessageReceivedListener(listener);
+        for (Device d : manifest.getDevices()) {
+            if (d.getId() > device.getId()) {
+                Client client = new Client(
+                        device, d.getIpAddress(), d.getPort(), codec
+                );
+                client.setOnMessageReceivedListener(listener);
+                mClients.put(d.getId(), client);
+            }
+        }
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Starts the server and begins connecting to the other devices. This
+     * does not wait for the connections to be made; each connection is
+     * retried in the background until it opens, and reopened if it drops.
+     */
+    public void start() {
+        if (mIsRunning) return;
+        mIsRunning = true;
+        mServer.start();
+        for (Client client : mClients.values()) {
+            Thread connector = new Thread(() -> {
+                while (mIsRunning) {
+                    if (!client.isOpen()) client.open();
+                    Utils.sleep(Clock.SYSTEM, RECONNECT_DELAY);
+                }
+            }, "messenger-connector");
+            connector.setDaemon(true);
+            connector.start();
+        }
+    }
+
+    /**
+     * Closes every connection and stops the server.
+     */
+    public void stop() {
+        mIsRunning = false;
+        for (Client client : mClients.values()) {
+            client.close();
+        }
+        mServer.stop();
+    }
+
+    /**
+     * Sends a message to a node on another device.
+     *
+     * @param message The message to send.
+     * @param to      The device the receiving node is running on.
+     * @return <code>false</code> if that device is not connected.
+     */
+    public boolean sendMessage(Message<?> message, Device to) {
+        boolean sent;
+        if (to.getId() > mDevice.getId()) {
+            Client client = mClients.get(to.getId());
+            sent = client != null && client.isOpen();
+            if (sent) client.sendMessage(message);
+        } else {
+            sent = mServer.sendMessage(to.getId(), message);
+        }
+        if (!sent) {
+            Log.w("comm", to.getName() + " is not connected, dropped " + message);
+        }
+        return sent;
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    /**
+     * Sets a listener whose
+     * {@link OnMessageReceivedListener#onReceiveMessage(Message)} will be
+     * called whenever a message is received from another device.
+     * @param listener The listener that will be called.
+     */
+    public void setOnMessageReceivedListener(OnMessageReceivedListener listener) {
+        mMessageListener = listener;
+    }
 
 }
@@ -0,0 +1,494 @@
+package com.klinker.droneos.arch.communication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.klinker.droneos.arch.communication.codec.BinaryMessageCodec;
+import com.klinker.droneos.arch.communication.codec.MessageCodec;
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.utils.Log;
+
+/**
+ * A {@link MessageServer} that runs every connection on a small, fixed set
+ * of event loop threads instead of a thread per {@link Client}. Each event
+ * loop owns a {@link Selector}; the first one also accepts new clients and
+ * spreads them across the loops.
+ * <p>
+ * Reads and writes go through direct {@link ByteBuffer}s. Received messages
+ * are decoded on the event loop and handed to a bounded
+ * {@link MessageDispatcher}, so a burst of messages queues up (and
+ * eventually pushes back on the sender) instead of starting a thread per
+ * message. Outgoing messages are queued per connection and encoded into the
+ * write buffer together, so a burst goes out in a single write.
+ * <p>
+ * It speaks the same protocol as {@link Server}: the client sends its
+ * device id as a <code>long</code>, followed by frames written by the
+ * {@link MessageCodec}.
+ */
+public class NioServer implements MessageServer {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The default number of event loop threads.
+     */
+    public static final int DEFAULT_EVENT_LOOP_COUNT = 2;
+
+    /**
+     * The starting size of each connection's read and write buffers. They
+     * grow if a single frame does not fit.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The port that the server is running on.
+     */
+    private final int mPort;
+
+    /**
+     * Converts messages to and from the bytes sent to each {@link Client}.
+     */
+    private final MessageCodec mCodec;
+
+    /**
+     * The event loops. Connections are assigned to them round robin.
+     */
+    private final EventLoop[] mLoops;
+
+    /**
+     * Hands received messages to the listener.
+     */
+    private final MessageDispatcher mDispatcher;
+
+    /**
+     * The connections, mapped by the id of the device on the other end.
+     */
+    private final ConcurrentHashMap<Long, Connection> mClients;
+
+    /**
+     * The number of connections that have been accepted.
+     */
+    private final AtomicLong mAcceptedCount;
+
+    /**
+     * The channel accepting new clients.
+     */
+    private ServerSocketChannel mServerChannel;
+
+    /**
+     * The event loop the next accepted connection will be assigned to.
+     */
+    private int mNextLoop;
+
+    /**
+     * Whether or not the server is running.
+     */
+    private volatile boolean mIsRunning;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a server with {@link NioServer#DEFAULT_EVENT_LOOP_COUNT} event
+     * loops and a single dispatcher thread, so messages reach the listener
+     * in the order they were received.
+     *
+     * @param port  The port that the sever will run on.
+     * @param codec The codec used to send and receive messages.
+     */
+    public NioServer(int port, MessageCodec codec) {
+        this(port, codec, DEFAULT_EVENT_LOOP_COUNT,
+                new MessageDispatcher(1, MessageDispatcher.DEFAULT_CAPACITY));
+    }
+
+    /**
+     * @param port       The port that the sever will run on.
+     * @param codec      The codec used to send and receive messages.
+     * @param loopCount  The number of event loop threads.
+     * @param dispatcher Hands the received messages to the listener.
+     */
+    public NioServer(int port, MessageCodec codec, int loopCount,
+                     MessageDispatcher dispatcher) {
+        mPort = port;
+        mCodec = codec;
+        mLoops = new EventLoop[loopCount];
+        mDispatcher = dispatcher;
+        mClients = new ConcurrentHashMap<>();
+        mAcceptedCount = new AtomicLong();
+        mIsRunning = false;
+    }
+
+
+    ///// MessageServer Overrides //////////////////////////////////////////////
+
+    @Override
+    public synchronized void start() {
+        if (mIsRunning) return;
+        try {
+            mServerChannel = ServerSocketChannel.open();
+            mServerChannel.bind(new InetSocketAddress(mPort));
+            mServerChannel.configureBlocking(false);
+            for (int i = 0; i < mLoops.length; i++) {
+                mLoops[i] = new EventLoop("nio-server-" + i);
+            }
+            mServerChannel.register(
+                    mLoops[0].mSelector, SelectionKey.OP_ACCEPT
+            );
+        } catch (IOException e) {
+            Log.e("comm", "Could not start server on port " + mPort, e);
+            return;
+        }
+        mIsRunning = true;
+        mDispatcher.start();
+        for (EventLoop loop : mLoops) {
+            loop.mThread.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!mIsRunning) return;
+        mIsRunning = false;
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            Log.e("comm", "Error closing server channel", e);
+        }
+        for (EventLoop loop : mLoops) {
+            loop.mSelector.wakeup();
+        }
+        mDispatcher.stop();
+    }
+
+    @Override
+    public boolean sendMessage(long deviceId, Message<?> message) {
+        Connection connection = mClients.get(deviceId);
+        if (connection == null) return false;
+        connection.send(message);
+        return true;
+    }
+
+    @Override
+    public boolean isConnected(long deviceId) {
+        return mClients.containsKey(deviceId);
+    }
+
+    @Override
+    public void setOnMessageReceivedListener(OnMessageReceivedListener listener) {
+        mDispatcher.setOnMessageReceivedListener(listener);
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of connections that have been accepted since the
+     * server started.
+     */
+    public long getAcceptedCount() {
+        return mAcceptedCount.get();
+    }
+
+    /**
+     * @return The number of connections that are open.
+     */
+    public int getConnectionCount() {
+        return mClients.size();
+    }
+
+    /**
+     * @return The dispatcher, which has the queue depth and dispatch latency
+     * metrics.
+     */
+    public MessageDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Accepts a waiting client and assigns it to the next event loop.
+     * Called on the first event loop.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = mServerChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        mAcceptedCount.incrementAndGet();
+        EventLoop loop = mLoops[mNextLoop];
+        mNextLoop = (mNextLoop + 1) % mLoops.length;
+        loop.execute(() -> {
+            try {
+                Connection connection = new Connection(channel, loop);
+                connection.mKey = channel.register(
+                        loop.mSelector, SelectionKey.OP_READ, connection
+                );
+            } catch (IOException e) {
+                Log.e("comm", "Could not register client", e);
+            }
+        });
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * A thread running a {@link Selector} over some of the connections.
+     */
+    private class EventLoop implements Runnable {
+
+        private final Selector mSelector;
+        private final Thread mThread;
+
+        /**
+         * Work from other threads that has to run on this loop, like
+         * registering a connection or flushing queued messages.
+         */
+        private final ConcurrentLinkedQueue<Runnable> mTasks;
+
+        private EventLoop(String name) throws IOException {
+            mSelector = Selector.open();
+            mTasks = new ConcurrentLinkedQueue<>();
+            mThread = new Thread(this, name);
+            mThread.setDaemon(true);
+        }
+
+        /**
+         * Runs a task on this loop's thread.
+         */
+        private void execute(Runnable task) {
+            mTasks.add(task);
+            mSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mIsRunning) {
+                    mSelector.select();
+                    Runnable task;
+                    while ((task = mTasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            Log.e("comm", "Error running event loop task", e);
+                        }
+                    }
+                    Iterator<SelectionKey> keys =
+                            mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (mIsRunning) Log.e("comm", "Event loop stopped", e);
+            } finally {
+                for (SelectionKey key : mSelector.keys()) {
+                    if (key.attachment() instanceof Connection)
+                        ((Connection) key.attachment()).close();
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        /**
+         * Accepts, reads or writes. A failure only closes the connection it
+         * happened on, so one bad client can't stop the loop.
+         */
+        private void handle(SelectionKey key) {
+            if (!key.isValid()) return;
+            if (key.isAcceptable()) {
+                try {
+                    accept();
+                } catch (IOException e) {
+                    // ex: out of file descriptors, or the client gave up.
+                    Log.e("comm", "Could not accept client", e);
+                }
+                return;
+            }
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable()) connection.read();
+                if (key.isValid() && key.isWritable()) connection.flush();
+            } catch (IOException e) {
+                connection.close();
+            } catch (RuntimeException e) {
+                Log.e("comm", "Closing client " + connection.mDeviceId, e);
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * A single client's connection. Everything except
+     * {@link Connection#send(Message)} runs on its event loop.
+     */
+    private class Connection {
+
+        private final SocketChannel mChannel;
+        private final EventLoop mLoop;
+        private SelectionKey mKey;
+
+        /**
+         * Bytes read from the socket that have not been decoded yet. Kept
+         * ready for the next read.
+         */
+        private ByteBuffer mReadBuffer;
+
+        /**
+         * Encoded bytes that have not been written to the socket yet. Kept
+         * ready to be written.
+         */
+        private ByteBuffer mWriteBuffer;
+
+        /**
+         * Messages waiting to be encoded.
+         */
+        private final ConcurrentLinkedQueue<Message<?>> mOutbound;
+
+        /**
+         * Whether or not a flush is waiting to run on the event loop.
+         */
+        private final AtomicBoolean mIsFlushScheduled;
+
+        /**
+         * The id of the device on the other end, or -1 until it is read.
+         */
+        private long mDeviceId;
+
+        private Connection(SocketChannel channel, EventLoop loop) {
+            mChannel = channel;
+            mLoop = loop;
+            mReadBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            mWriteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            mWriteBuffer.flip();
+            mOutbound = new ConcurrentLinkedQueue<>();
+            mIsFlushScheduled = new AtomicBoolean(false);
+            mDeviceId = -1;
+        }
+
+        /**
+         * Queues a message and makes sure a flush is scheduled on the event
+         * loop. Can be called from any thread.
+         */
+        private void send(Message<?> message) {
+            mOutbound.add(message);
+            if (mIsFlushScheduled.compareAndSet(false, true)) {
+                mLoop.execute(() -> {
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        close();
+                    } catch (RuntimeException e) {
+                        Log.e("comm", "Closing client " + mDeviceId, e);
+                        close();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Reads what is available, then decodes every complete frame.
+         */
+        private void read() throws IOException {
+            if (mChannel.read(mReadBuffer) < 0) {
+                close();
+                return;
+            }
+            mReadBuffer.flip();
+            if (mDeviceId < 0) {
+                if (mReadBuffer.remaining() < 8) {
+                    mReadBuffer.compact();
+                    return;
+                }
+                mDeviceId = mReadBuffer.getLong();
+                Connection old = mClients.put(mDeviceId, this);
+                if (old != null) old.mLoop.execute(old::close);
+            }
+            Message<?> message;
+            while ((message = mCodec.read(mReadBuffer)) != null) {
+                mDispatcher.dispatch(message);
+            }
+            int frameSize = mReadBuffer.remaining() >= 4
+                    ? 4 + mReadBuffer.getInt(mReadBuffer.position()) : 0;
+            mReadBuffer.compact();
+            if (frameSize > mReadBuffer.capacity()) {
+                mReadBuffer = grow(mReadBuffer, frameSize);
+            }
+        }
+
+        /**
+         * Encodes the queued messages and writes as much as the socket will
+         * take. If it does not take everything, the rest is written when the
+         * socket becomes writable.
+         */
+        private void flush() throws IOException {
+            mIsFlushScheduled.set(false);
+            if (!mChannel.isOpen()) return;
+            while (true) {
+                mWriteBuffer.compact();
+                Message<?> message;
+                while ((message = mOutbound.peek()) != null) {
+                    if (mCodec.write(mWriteBuffer, message)) {
+                        mOutbound.poll();
+                    } else if (mWriteBuffer.position() == 0) {
+                        // a single frame bigger than the whole buffer.
+                        mWriteBuffer = grow(
+                                mWriteBuffer, mWriteBuffer.capacity() * 2
+                        );
+                    } else {
+                        break;
+                    }
+                }
+                mWriteBuffer.flip();
+                mChannel.write(mWriteBuffer);
+                if (mWriteBuffer.hasRemaining()) {
+                    mKey.interestOps(
+                            SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    );
+                    return;
+                }
+                if (mOutbound.isEmpty()) {
+                    mKey.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        private void close() {
+            if (mDeviceId >= 0) mClients.remove(mDeviceId, this);
+            if (mKey != null) mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException e) {}
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.klinker.droneos.arch.communication;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.JsonObject;
+import com.klinker.droneos.arch.communication.messages.Query;
+import com.klinker.droneos.utils.Clock;
+
+/**
+ * The queries that have been sent and are waiting for a result, keyed by
+ * {@link Query#getUUID()}. Each one is a {@link CompletableFuture} that is
+ * completed when the result comes back, fails when its deadline passes,
+ * and is removed from the table either way, including when the caller
+ * cancels it. Once {@link PendingQueries#cancelAll()} is called, new
+ * queries are cancelled as soon as they are added.
+ * <p>
+ * Deadlines are kept by {@link Clock#get()}, read when each query is added,
+ * so in a headless simulation a query times out after its timeout in
+ * simulated time, not wall time.
+ */
+public class PendingQueries {
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The futures waiting on a result, mapped by the query's uuid.
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<JsonObject>> mPending;
+
+    /**
+     * The deadlines of the waiting queries, soonest first.
+     */
+    private final ConcurrentSkipListSet<Deadline> mDeadlines;
+
+    /**
+     * Breaks ties between deadlines at the same time.
+     */
+    private final AtomicLong mDeadlineCount;
+
+    /**
+     * Waits on the clock for the soonest deadline, and fails its query once
+     * it passes.
+     */
+    private final Thread mTimer;
+
+    /**
+     * Set by {@link PendingQueries#cancelAll()}, which also stops the timer.
+     */
+    private volatile boolean mIsClosed;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    public PendingQueries() {
+        mPending = new ConcurrentHashMap<>();
+        mDeadlines = new ConcurrentSkipListSet<>();
+        mDeadlineCount = new AtomicLong();
+        mTimer = new Thread(this::runTimer, "query-timeouts");
+        mTimer.setDaemon(true);
+        mTimer.start();
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Starts waiting for a query's result.
+     *
+     * @param query   The query that is about to be sent.
+     * @param timeout How long to wait for the result in ms.
+     * @return The future completed with the result. It fails with a
+     * {@link TimeoutException} if the result takes longer than the timeout,
+     * and is already cancelled if {@link PendingQueries#cancelAll()} was
+     * called.
+     */
+    public CompletableFuture<JsonObject> add(Query query, long timeout) {
+        String uuid = query.getUUID();
+        CompletableFuture<JsonObject> future = new CompletableFuture<>();
+        Clock clock = Clock.get();
+        Deadline deadline = new Deadline(
+                clock, clock.deadlineAfter(timeout), mDeadlineCount.incrementAndGet(),
+                future, "No result after " + timeout + " ms for query " + uuid
+        );
+        synchronized (this) {
+            if (mIsClosed) {
+                future.cancel(false);
+                return future;
+            }
+            // only once it will time out, so it can't be left waiting.
+            mDeadlines.add(deadline);
+            mPending.put(uuid, future);
+        }
+        future.whenComplete((result, error) -> {
+            mPending.remove(uuid, future);
+            mDeadlines.remove(deadline);
+        });
+        // it may be sooner than the one the timer is waiting for.
+        LockSupport.unpark(mTimer);
+        return future;
+    }
+
+    /**
+     * Completes the query with the given uuid.
+     *
+     * @param uuid   The {@link Query#getUUID()} of the query.
+     * @param result The filled out properties.
+     * @return <code>false</code> if the query is no longer waiting, because
+     * it timed out, was cancelled, or was never sent from here.
+     */
+    public boolean complete(String uuid, JsonObject result) {
+        CompletableFuture<JsonObject> future = mPending.get(uuid);
+        return future != null && future.complete(result);
+    }
+
+    /**
+     * Fails the query with the given uuid.
+     *
+     * @param uuid  The {@link Query#getUUID()} of the query.
+     * @param error Why the query failed.
+     * @return <code>false</code> if the query is no longer waiting.
+     */
+    public boolean fail(String uuid, Throwable error) {
+        CompletableFuture<JsonObject> future = mPending.get(uuid);
+        return future != null && future.completeExceptionally(error);
+    }
+
+    /**
+     * Cancels every waiting query, and every query added after, and stops
+     * the deadline timer.
+     */
+    public void cancelAll() {
+        synchronized (this) {
+            mIsClosed = true;
+        }
+        LockSupport.unpark(mTimer);
+        for (CompletableFuture<JsonObject> future : mPending.values()) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Parks until the soonest deadline passes, or a sooner one is added,
+     * and fails each query whose deadline has passed.
+     */
+    private void runTimer() {
+        while (!mIsClosed) {
+            // an iterator, since first() throws if the set empties meanwhile.
+            Iterator<Deadline> deadlines = mDeadlines.iterator();
+            Deadline next = deadlines.hasNext() ? deadlines.next() : null;
+            if (next == null) {
+                LockSupport.park(this);
+            } else if (!next.mClock.hasPassed(next.mNanos)) {
+                next.mClock.parkUntil(this, next.mNanos);
+            } else if (mDeadlines.remove(next)) {
+                next.mFuture.completeExceptionally(new TimeoutException(next.mMessage));
+            }
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of queries waiting for a result.
+     */
+    public int size() {
+        return mPending.size();
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * When a query times out, on the clock it was added with.
+     */
+    private static class Deadline implements Comparable<Deadline> {
+        private final Clock mClock;
+        private final long mNanos;
+        private final long mId;
+        private final CompletableFuture<JsonObject> mFuture;
+        private final String mMessage;
+
+        private Deadline(Clock clock, long nanos, long id,
+                         CompletableFuture<JsonObject> future, String message) {
+            mClock = clock;
+            mNanos = nanos;
+            mId = id;
+            mFuture = future;
+            mMessage = message;
+        }
+
+        @Override
+        public int compareTo(Deadline other) {
+            int order = Long.compare(mNanos, other.mNanos);
+            return order != 0 ? order : Long.compare(mId, other.mId);
+        }
+    }
+
+}
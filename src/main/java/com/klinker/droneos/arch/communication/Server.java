@@ -1,14 +1,18 @@
 package com.klinker.droneos.arch.communication;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.HashMap;
 
 import com.klinker.droneos.arch.Core;
+import com.klinker.droneos.arch.communication.codec.BinaryMessageCodec;
+import com.klinker.droneos.arch.communication.codec.MessageCodec;
 import com.klinker.droneos.arch.communication.messages.Message;
 import com.klinker.droneos.utils.Log;
 
@@ -20,7 +24,7 @@ import com.klinker.droneos.utils.Log;
  * A server can be connected to multiple clients, while a client can only be
  * connected to a single server.
  */
-public class Server {
+public class Server implements MessageServer {
 
     /**
      * Starts an instance of the server. This method is used to test out the
@@ -66,15 +70,39 @@ public class Server {
      */
     private OnMessageReceivedListener mMessageListener;
 
+    /**
+     * Converts messages to and from the bytes sent to each {@link Client}.
+     * The clients must use the same codec.
+     */
+    private final MessageCodec mCodec;
+
+    /**
+     * The socket accepting new clients. It is closed by
+     * {@link Server#stop()} to break out of the accept loop.
+     */
+    private ServerSocket mServerSocket;
+
 
     ///// Constructors /////////////////////////////////////////////////////////
 
     /**
-     * Creates a server located at this device's IP-address at the given port.
+     * Creates a server located at this device's IP-address at the given port
+     * that sends messages with a {@link BinaryMessageCodec} without any
+     * interned names.
      * @param port The port that the sever will run on.
      */
     public Server(int port) {
+        this(port, new BinaryMessageCodec());
+    }
+
+    /**
+     * Creates a server located at this device's IP-address at the given port.
+     * @param port The port that the sever will run on.
+     * @param codec The codec used to send and receive messages.
+     */
+    public Server(int port, MessageCodec codec) {
         mPort = port;
+        mCodec = codec;
         mIsRunning = false;
         mClients = new HashMap<>(3);
     }
@@ -90,19 +118,21 @@ public class Server {
      * waits for another client to connect until {@link Server#stop()} is
      * called.
      */
+    @Override
     public void start() {
         if (isRunning()) return;
 
         new Thread(() -> {
             setIsRunning(true);
             try {
-                ServerSocket serverSocket = new ServerSocket(mPort);
+                mServerSocket = new ServerSocket(mPort);
                 while (isRunning()) {
-                    Socket clientConnection = serverSocket.accept();
+                    Socket clientConnection = mServerSocket.accept();
+                    clientConnection.setTcpNoDelay(true);
                     ClientHandler handler = new ClientHandler(clientConnection);
                     new Thread(handler).start();
                 }
-                serverSocket.close();
+                mServerSocket.close();
             } catch (SocketException e) {
                 Log.d("com", "server stopped.");
             } catch (IOException e) {
@@ -117,8 +147,41 @@ public class Server {
      * {@link ClientHandler}s will also stop because they loop based on
      * {@link Server#mIsRunning}, just like above in {@link Server#start()}.
      */
+    @Override
     public void stop() {
         setIsRunning(false);
+        try {
+            if (mServerSocket != null) mServerSocket.close();
+        } catch (IOException e) {
+            Log.e("comm", "Error closing server socket", e);
+        }
+        for (ClientHandler handler : getClients()) {
+            handler.close();
+        }
+    }
+
+    /**
+     * Sends a message to the {@link Client} running on the given device.
+     * The message is queued and written in a batch on that connection's
+     * writer thread, so this does not wait for the socket.
+     *
+     * @param deviceId The id of the device the client is running on.
+     * @param message  The message to send.
+     * @return <code>false</code> if that device is not connected.
+     */
+    @Override
+    public boolean sendMessage(long deviceId, Message<?> message) {
+        ClientHandler handler = getClient(deviceId);
+        return handler != null && handler.sendMessage(message);
+    }
+
+    /**
+     * @param deviceId The id of the device to check.
+     * @return Whether or not a client from that device is connected.
+     */
+    @Override
+    public boolean isConnected(long deviceId) {
+        return getClient(deviceId) != null;
     }
 
     /**
@@ -127,6 +190,7 @@ public class Server {
      * called whenever a message is received.
      * @param listener The listener that will be called.
      */
+    @Override
     public void setOnMessageReceivedListener(OnMessageReceivedListener listener) {
         mMessageListener = listener;
     }
@@ -139,7 +203,26 @@ public class Server {
      *                interaction (sending and receiving messages).
      */
     private synchronized void addClient(long deviceId, ClientHandler handler) {
-        mClients.put(deviceId, handler);
+        ClientHandler old = mClients.put(deviceId, handler);
+        if (old != null && old != handler) old.close();
+    }
+
+    /**
+     * Removes a {@link ClientHandler} from {@link Server#mClients} if it is
+     * still the handler for that device.
+     * @param deviceId The id of the device that disconnected.
+     * @param handler The handler for the connection that closed.
+     */
+    private synchronized void removeClient(long deviceId, ClientHandler handler) {
+        if (mClients.get(deviceId) == handler) mClients.remove(deviceId);
+    }
+
+    private synchronized ClientHandler getClient(long deviceId) {
+        return mClients.get(deviceId);
+    }
+
+    private synchronized ClientHandler[] getClients() {
+        return mClients.values().toArray(new ClientHandler[0]);
     }
 
 
@@ -182,12 +265,19 @@ public class Server {
         /**
          * The stream used to send messages.
          */
-        private ObjectOutputStream mWriter;
+        private DataOutputStream mOutput;
+
+        /**
+         * Batches and writes the messages sent through
+         * {@link ClientHandler#sendMessage(Message)} to
+         * {@link ClientHandler#mOutput}.
+         */
+        private MessageWriter mWriter;
 
         /**
          * The stream that messages are received from.
          */
-        private ObjectInputStream mReader;
+        private DataInputStream mReader;
 
         /**
          * The actual connection to the {@link Client}.
@@ -210,22 +300,26 @@ public class Server {
         ///// Runnable Overrides ///////////////////////////////////////////////
 
         /**
-         * Initializes the streams,
+         * Initializes the streams, reads the client's device id, then reads
+         * messages until the connection or server is closed.
          */
         @Override
         public void run() {
+            long connectedDeviceId = -1;
             try {
-                mReader = new ObjectInputStream(
+                mReader = new DataInputStream(new BufferedInputStream(
                         mClientConnection.getInputStream()
-                );
-                mWriter = new ObjectOutputStream(
+                ));
+                mOutput = new DataOutputStream(new BufferedOutputStream(
                         mClientConnection.getOutputStream()
-                );
+                ));
 
                 try {
                     // Gets the client's device id for the server to know
                     // where to send messages.
-                    Long connectedDeviceId = mReader.readLong();
+                    connectedDeviceId = mReader.readLong();
+                    mWriter = new MessageWriter(mOutput, mCodec);
+                    mWriter.start("server-writer-" + connectedDeviceId);
                     addClient(connectedDeviceId, this);
                     // The client does not need to know which device it is
                     // connected to. It will send any message to the server, and
@@ -239,19 +333,22 @@ public class Server {
                     );
                     Core.exit(Core.EXIT_CODE_ARCH_FATAL);
                 }
+                // messages are handed over on this thread, so each client's
+                // messages arrive in the order they were sent.
                 while (isRunning()) {
+                    Message<?> message = mCodec.read(mReader);
+                    if (mMessageListener == null) continue;
                     try {
-                        Message message = (Message) mReader.readObject();
-                        if (mMessageListener != null) new Thread(() -> {
-                            mMessageListener.onReceiveMessage(message);
-                        }).start();
-                    } catch (Exception e) {}
+                        mMessageListener.onReceiveMessage(message);
+                    } catch (Exception e) {
+                        Log.e("comm", "Error handling " + message, e);
+                    }
                 }
-                mReader.close();
-                mWriter.close();
-                mClientConnection.close();
             } catch (IOException e) {
-                Log.e("comm", "Client handler stopped", e);
+                if (isRunning()) Log.e("comm", "Client handler stopped", e);
+            } finally {
+                removeClient(connectedDeviceId, this);
+                close();
             }
         }
 
@@ -259,18 +356,26 @@ public class Server {
         ///// Member Methods ///////////////////////////////////////////////////////
 
         /**
-         * Sends a message. It will be sent from the same thread it is called
-         * from. The message is received on a different thread. The message
-         * contains the destination, and by the time this method is called,
-         * the {@link Messenger} should have sent it to the corrent
-         * {@link ClientHandler}.
+         * Sends a message. It is queued and written from this connection's
+         * {@link MessageWriter} thread, batched with any other messages
+         * waiting to be sent. The message contains the destination, and by
+         * the time this method is called, the {@link Messenger} should have
+         * sent it to the corrent {@link ClientHandler}.
          * @param message The message to be sent.
+         * @return <code>false</code> if the connection is closed.
          */
-        public void sendMessage(Message message) {
-            if (mWriter == null) return;
+        public boolean sendMessage(Message<?> message) {
+            return mWriter != null && mWriter.send(message);
+        }
+
+        /**
+         * Closes the connection to the {@link Client}.
+         */
+        public void close() {
+            if (mWriter != null) mWriter.close();
             try {
-                mWriter.writeObject(message);
-            } catch (Exception e) {}
+                mClientConnection.close();
+            } catch (IOException e) {}
         }
 
 
@@ -0,0 +1,643 @@
+package com.klinker.droneos.arch.communication.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.klinker.droneos.arch.communication.messages.ControlMessage;
+import com.klinker.droneos.arch.communication.messages.JsonMessage;
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.arch.communication.messages.Query;
+import com.klinker.droneos.arch.communication.messages.QueryResult;
+import com.klinker.droneos.arch.communication.messages.TextMessage;
+import com.klinker.droneos.arch.manifest.Device;
+import com.klinker.droneos.arch.manifest.Manifest;
+import com.klinker.droneos.arch.manifest.NodeInfo;
+import com.klinker.droneos.arch.nodes.Node;
+
+/**
+ * A compact binary {@link MessageCodec}. Every frame is an
+ * <code>int</code> length followed by the body:
+ * <pre>
+ * byte   type       (TEXT, JSON, QUERY, QUERY_RESULT or CONTROL)
+ * string to         node class
+ * string from       node class
+ * string name       message name
+ * ...    data       depends on the type
+ * </pre>
+ * Node classes and message names are interned to small integer ids. The ids
+ * are the order the classes and names appear in the {@link Manifest}, so
+ * every device reading the same manifest agrees on them without any
+ * handshake. Anything not in the manifest is written out as a literal
+ * string. JSON keys are looked up in the same name table.
+ * <p>
+ * {@link TextMessage}s, {@link JsonMessage}s, {@link Query}s,
+ * {@link QueryResult}s and {@link ControlMessage}s are written field by
+ * field. No other {@link Message} type can be sent, and a frame of any
+ * other type is rejected. Nothing read off the wire is ever deserialized
+ * as a Java object, and a node class sent as a literal name is only looked
+ * up, never initialized, and must be a {@link Node}.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The largest frame that will be read. Anything larger means the stream
+     * is corrupt.
+     */
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final byte TYPE_TEXT = 1;
+    private static final byte TYPE_JSON = 2;
+    private static final byte TYPE_QUERY = 3;
+    private static final byte TYPE_QUERY_RESULT = 4;
+    private static final byte TYPE_CONTROL = 5;
+
+    private static final byte JSON_NULL = 0;
+    private static final byte JSON_OBJECT = 1;
+    private static final byte JSON_ARRAY = 2;
+    private static final byte JSON_STRING = 3;
+    private static final byte JSON_TRUE = 4;
+    private static final byte JSON_FALSE = 5;
+    private static final byte JSON_LONG = 6;
+    private static final byte JSON_DOUBLE = 7;
+
+    /**
+     * Interned strings are written as a varint. These are the two values
+     * that are not an id.
+     */
+    private static final int STRING_NULL = 0;
+    private static final int STRING_LITERAL = 1;
+    private static final int STRING_FIRST_ID = 2;
+
+    /**
+     * Each thread has its own buffers, so a single codec can be shared by
+     * every connection's reader and writer threads.
+     */
+    private static final ThreadLocal<FrameWriter> sWriter =
+            ThreadLocal.withInitial(FrameWriter::new);
+    private static final ThreadLocal<FrameReader> sReader =
+            ThreadLocal.withInitial(FrameReader::new);
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The node classes, indexed by id.
+     */
+    private final Class<?>[] mClasses;
+
+    /**
+     * The id of each class in {@link BinaryMessageCodec#mClasses}.
+     */
+    private final HashMap<Class<?>, Integer> mClassIds;
+
+    /**
+     * Node classes by name, for classes sent as a literal. Starts with the
+     * classes in the manifest, and caches any other node class once it has
+     * been looked up.
+     */
+    private final ConcurrentHashMap<String, Class<? extends Node>> mClassesByName;
+
+    /**
+     * The message names and JSON keys, indexed by id.
+     */
+    private final String[] mNames;
+
+    /**
+     * The id of each name in {@link BinaryMessageCodec#mNames}.
+     */
+    private final HashMap<String, Integer> mNameIds;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a codec without any interned names. Everything is written as a
+     * literal string.
+     */
+    public BinaryMessageCodec() {
+        this(new ArrayList<>(), new ArrayList<>());
+    }
+
+    /**
+     * Creates a codec that interns the node classes and message names listed
+     * in the manifest.
+     *
+     * @param manifest The manifest shared by every device.
+     */
+    public BinaryMessageCodec(Manifest manifest) {
+        this(getNodeClasses(manifest), manifest.getMessageNames());
+    }
+
+    private BinaryMessageCodec(List<Class<?>> classes, List<String> names) {
+        mClasses = classes.toArray(new Class<?>[0]);
+        mClassIds = new HashMap<>();
+        mClassesByName = new ConcurrentHashMap<>();
+        for (int i = 0; i < mClasses.length; i++) {
+            mClassIds.put(mClasses[i], i);
+            if (Node.class.isAssignableFrom(mClasses[i])) {
+                mClassesByName.put(
+                        mClasses[i].getName(), mClasses[i].asSubclass(Node.class)
+                );
+            }
+        }
+        mNames = names.toArray(new String[0]);
+        mNameIds = new HashMap<>();
+        for (int i = 0; i < mNames.length; i++) {
+            mNameIds.put(mNames[i], i);
+        }
+    }
+
+    private static List<Class<?>> getNodeClasses(Manifest manifest) {
+        ArrayList<Class<?>> classes = new ArrayList<>();
+        for (Device device : manifest.getDevices()) {
+            for (NodeInfo info : device.getNodes()) {
+                try {
+                    Class<?> klass = Class.forName(info.getClasspath());
+                    if (!classes.contains(klass)) classes.add(klass);
+                } catch (ClassNotFoundException e) {
+                    // written as a literal, and reported by the NodeManager.
+                }
+            }
+        }
+        return classes;
+    }
+
+
+    ///// MessageCodec Overrides ///////////////////////////////////////////////
+
+    @Override
+    public void write(DataOutputStream out, Message<?> message)
+            throws IOException {
+        FrameWriter frame = encode(message);
+        out.writeInt(frame.mSize);
+        out.write(frame.mBuffer, 0, frame.mSize);
+    }
+
+    @Override
+    public Message<?> read(DataInputStream in) throws IOException {
+        int size = checkFrameSize(in.readInt());
+        FrameReader frame = sReader.get();
+        frame.reset(size);
+        in.readFully(frame.mBuffer, 0, size);
+        return decode(frame);
+    }
+
+    @Override
+    public boolean write(ByteBuffer out, Message<?> message) throws IOException {
+        FrameWriter frame = encode(message);
+        if (out.remaining() < 4 + frame.mSize) return false;
+        out.putInt(frame.mSize);
+        out.put(frame.mBuffer, 0, frame.mSize);
+        return true;
+    }
+
+    @Override
+    public Message<?> read(ByteBuffer in) throws IOException {
+        if (in.remaining() < 4) return null;
+        int size = checkFrameSize(in.getInt(in.position()));
+        if (in.remaining() < 4 + size) return null;
+        in.position(in.position() + 4);
+        FrameReader frame = sReader.get();
+        frame.reset(size);
+        in.get(frame.mBuffer, 0, size);
+        return decode(frame);
+    }
+
+
+    ///// Encoding /////////////////////////////////////////////////////////////
+
+    /**
+     * Writes the body of a frame into this thread's {@link FrameWriter}.
+     */
+    private FrameWriter encode(Message<?> message) throws IOException {
+        FrameWriter frame = sWriter.get();
+        frame.reset();
+        Class<?> type = message.getClass();
+        if (type == TextMessage.class) {
+            frame.writeByte(TYPE_TEXT);
+            writeHeader(frame, message);
+            frame.writeString((String) message.getData());
+        } else if (type == JsonMessage.class) {
+            frame.writeByte(TYPE_JSON);
+            writeHeader(frame, message);
+            writeJson(frame, (JsonElement) message.getData());
+        } else if (type == Query.class) {
+            frame.writeByte(TYPE_QUERY);
+            writeHeader(frame, message);
+            frame.writeString(((Query) message).getUUID());
+            writeJson(frame, (JsonElement) message.getData());
+        } else if (type == QueryResult.class) {
+            frame.writeByte(TYPE_QUERY_RESULT);
+            writeHeader(frame, message);
+            frame.writeString(((QueryResult) message).getUUID());
+            writeJson(frame, (JsonElement) message.getData());
+        } else if (type == ControlMessage.class) {
+            ControlMessage control = (ControlMessage) message;
+            frame.writeByte(TYPE_CONTROL);
+            writeHeader(frame, message);
+            frame.writeDouble(control.getStrafeX());
+            frame.writeDouble(control.getStrafeY());
+            frame.writeDouble(control.getAngle());
+            frame.writeDouble(control.getLift());
+            frame.writeByte(control.isManual() ? 1 : 0);
+        } else {
+            throw new IOException("Can't send a " + type.getName()
+                    + ", send the data in a JsonMessage instead");
+        }
+        return frame;
+    }
+
+    /**
+     * Reads a message out of a frame body.
+     */
+    private Message<?> decode(FrameReader frame) throws IOException {
+        byte type = frame.readByte();
+        if (type < TYPE_TEXT || type > TYPE_CONTROL) {
+            throw new IOException("Unknown message frame type: " + type);
+        }
+
+        Class<? extends Node> to = readClass(frame);
+        Class<? extends Node> from = readClass(frame);
+        String name = readName(frame);
+        switch (type) {
+            case TYPE_TEXT:
+                return new TextMessage(to, from, name, frame.readString());
+            case TYPE_JSON:
+                return new JsonMessage(to, from, name, readJsonObject(frame));
+            case TYPE_QUERY:
+                String uuid = frame.readString();
+                return new Query(to, from, uuid, readJsonObject(frame));
+            case TYPE_QUERY_RESULT:
+                String resultUUID = frame.readString();
+                return new QueryResult(to, from, resultUUID, readJsonObject(frame));
+            case TYPE_CONTROL:
+                return ControlMessage.obtain(
+                        to, from, name,
+                        frame.readDouble(), frame.readDouble(),
+                        frame.readDouble(), frame.readDouble(),
+                        frame.readByte() != 0
+                );
+            default:
+                throw new IOException("Unknown message frame type: " + type);
+        }
+    }
+
+    private static int checkFrameSize(int size) throws IOException {
+        if (size <= 0 || size > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid message frame size: " + size);
+        }
+        return size;
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private void writeHeader(FrameWriter frame, Message<?> message) {
+        writeClass(frame, message.getTo());
+        writeClass(frame, message.getFrom());
+        writeName(frame, message.getName());
+    }
+
+    private void writeClass(FrameWriter frame, Class<?> klass) {
+        if (klass == null) {
+            frame.writeVarInt(STRING_NULL);
+            return;
+        }
+        Integer id = mClassIds.get(klass);
+        if (id != null) {
+            frame.writeVarInt(STRING_FIRST_ID + id);
+        } else {
+            frame.writeVarInt(STRING_LITERAL);
+            frame.writeString(klass.getName());
+        }
+    }
+
+    private Class<? extends Node> readClass(FrameReader frame)
+            throws IOException {
+        int id = frame.readVarInt();
+        if (id == STRING_NULL) return null;
+        if (id == STRING_LITERAL) return findClass(frame.readString());
+        if (id < STRING_FIRST_ID || id - STRING_FIRST_ID >= mClasses.length) {
+            throw new IOException("Unknown node class id: " + id);
+        }
+        Class<?> klass = mClasses[id - STRING_FIRST_ID];
+        if (!Node.class.isAssignableFrom(klass)) {
+            throw new IOException(klass.getName() + " is not a node class");
+        }
+        return klass.asSubclass(Node.class);
+    }
+
+    /**
+     * Looks up a node class sent by name. The class is loaded without being
+     * initialized, so a name off the wire can't run any static initializer,
+     * and it is rejected unless it is a {@link Node}.
+     */
+    private Class<? extends Node> findClass(String className)
+            throws IOException {
+        Class<? extends Node> known = mClassesByName.get(className);
+        if (known != null) return known;
+
+        Class<?> klass;
+        try {
+            klass = Class.forName(
+                    className, false, BinaryMessageCodec.class.getClassLoader()
+            );
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new IOException("Unknown node class " + className, e);
+        }
+        if (!Node.class.isAssignableFrom(klass)) {
+            throw new IOException(className + " is not a node class");
+        }
+        Class<? extends Node> node = klass.asSubclass(Node.class);
+        mClassesByName.putIfAbsent(className, node);
+        return node;
+    }
+
+    private void writeName(FrameWriter frame, String name) {
+        if (name == null) {
+            frame.writeVarInt(STRING_NULL);
+            return;
+        }
+        Integer id = mNameIds.get(name);
+        if (id != null) {
+            frame.writeVarInt(STRING_FIRST_ID + id);
+        } else {
+            frame.writeVarInt(STRING_LITERAL);
+            frame.writeString(name);
+        }
+    }
+
+    private String readName(FrameReader frame) throws IOException {
+        int id = frame.readVarInt();
+        if (id == STRING_NULL) return null;
+        if (id == STRING_LITERAL) return frame.readString();
+        if (id >= STRING_FIRST_ID && id - STRING_FIRST_ID < mNames.length)
+            return mNames[id - STRING_FIRST_ID];
+        throw new IOException("Unknown message name id: " + id);
+    }
+
+    private void writeJson(FrameWriter frame, JsonElement json) {
+        if (json == null || json.isJsonNull()) {
+            frame.writeByte(JSON_NULL);
+        } else if (json.isJsonObject()) {
+            JsonObject object = json.getAsJsonObject();
+            frame.writeByte(JSON_OBJECT);
+            frame.writeVarInt(object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                writeName(frame, entry.getKey());
+                writeJson(frame, entry.getValue());
+            }
+        } else if (json.isJsonArray()) {
+            JsonArray array = json.getAsJsonArray();
+            frame.writeByte(JSON_ARRAY);
+            frame.writeVarInt(array.size());
+            for (JsonElement element : array) {
+                writeJson(frame, element);
+            }
+        } else {
+            JsonPrimitive primitive = json.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                frame.writeByte(primitive.getAsBoolean() ? JSON_TRUE : JSON_FALSE);
+            } else if (primitive.isNumber()) {
+                writeNumber(frame, primitive.getAsNumber());
+            } else {
+                frame.writeByte(JSON_STRING);
+                frame.writeString(primitive.getAsString());
+            }
+        }
+    }
+
+    /**
+     * Whole numbers are written as a varint, everything else as a double.
+     */
+    private void writeNumber(FrameWriter frame, Number number) {
+        if (number instanceof Integer || number instanceof Long
+                || number instanceof Short || number instanceof Byte) {
+            frame.writeByte(JSON_LONG);
+            frame.writeVarLong(number.longValue());
+            return;
+        }
+        if (!(number instanceof Double || number instanceof Float)) {
+            // Parsed numbers, keep them whole if they were written that way.
+            String text = number.toString();
+            if (text.indexOf('.') < 0 && text.indexOf('e') < 0
+                    && text.indexOf('E') < 0) {
+                try {
+                    long value = Long.parseLong(text);
+                    frame.writeByte(JSON_LONG);
+                    frame.writeVarLong(value);
+                    return;
+                } catch (NumberFormatException e) {
+                    // too big for a long, send it as a double.
+                }
+            }
+        }
+        frame.writeByte(JSON_DOUBLE);
+        frame.writeDouble(number.doubleValue());
+    }
+
+    /**
+     * Reads the data of a message, which is always a JSON object.
+     */
+    private JsonObject readJsonObject(FrameReader frame) throws IOException {
+        JsonElement json = readJson(frame);
+        if (!json.isJsonObject()) {
+            throw new IOException("Expected a json object, but read " + json);
+        }
+        return json.getAsJsonObject();
+    }
+
+    private JsonElement readJson(FrameReader frame) throws IOException {
+        byte type = frame.readByte();
+        switch (type) {
+            case JSON_NULL:
+                return JsonNull.INSTANCE;
+            case JSON_OBJECT: {
+                JsonObject object = new JsonObject();
+                int size = frame.readVarInt();
+                for (int i = 0; i < size; i++) {
+                    String key = readName(frame);
+                    if (key == null) throw new IOException("Null json key");
+                    object.add(key, readJson(frame));
+                }
+                return object;
+            }
+            case JSON_ARRAY: {
+                JsonArray array = new JsonArray();
+                int size = frame.readVarInt();
+                for (int i = 0; i < size; i++) {
+                    array.add(readJson(frame));
+                }
+                return array;
+            }
+            case JSON_STRING:
+                return new JsonPrimitive(frame.readString());
+            case JSON_TRUE:
+                return new JsonPrimitive(true);
+            case JSON_FALSE:
+                return new JsonPrimitive(false);
+            case JSON_LONG:
+                return new JsonPrimitive(frame.readVarLong());
+            case JSON_DOUBLE:
+                return new JsonPrimitive(frame.readDouble());
+            default:
+                throw new IOException("Unknown json element type: " + type);
+        }
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * A growable buffer that a frame body is written into before the length
+     * is known. It is reused for every frame written on a thread.
+     */
+    private static class FrameWriter {
+
+        private byte[] mBuffer = new byte[256];
+        private int mSize;
+
+        void reset() {
+            mSize = 0;
+        }
+
+        private void ensure(int extra) {
+            if (mSize + extra > mBuffer.length) {
+                mBuffer = Arrays.copyOf(
+                        mBuffer, Math.max(mBuffer.length * 2, mSize + extra)
+                );
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            mBuffer[mSize++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mSize, bytes.length);
+            mSize += bytes.length;
+        }
+
+        void writeVarInt(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                mBuffer[mSize++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mSize++] = (byte) value;
+        }
+
+        /**
+         * Zig-zag encoded, so small negative numbers stay small.
+         */
+        void writeVarLong(long value) {
+            ensure(10);
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                mBuffer[mSize++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            mBuffer[mSize++] = (byte) v;
+        }
+
+        void writeDouble(double value) {
+            ensure(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mBuffer[mSize++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            writeBytes(bytes);
+        }
+    }
+
+    /**
+     * Reads the values written by {@link FrameWriter} out of a frame body.
+     * It is reused for every frame read on a thread.
+     */
+    private static class FrameReader {
+
+        private byte[] mBuffer = new byte[256];
+        private int mPosition;
+        private int mSize;
+
+        void reset(int size) {
+            if (mBuffer.length < size) mBuffer = new byte[size];
+            mPosition = 0;
+            mSize = size;
+        }
+
+        private void check(int length) throws IOException {
+            if (length < 0 || length > mSize - mPosition) {
+                throw new IOException("Message frame ended early");
+            }
+        }
+
+        byte readByte() throws IOException {
+            check(1);
+            return mBuffer[mPosition++];
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return (v >>> 1) ^ -(v & 1);
+            }
+            throw new IOException("Malformed varlong");
+        }
+
+        double readDouble() throws IOException {
+            check(8);
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (mBuffer[mPosition++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            check(length);
+            String value = new String(
+                    mBuffer, mPosition, length, StandardCharsets.UTF_8
+            );
+            mPosition += length;
+            return value;
+        }
+    }
+
+}
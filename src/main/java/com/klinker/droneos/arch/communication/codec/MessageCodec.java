@@ -0,0 +1,65 @@
+package com.klinker.droneos.arch.communication.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.klinker.droneos.arch.communication.messages.Message;
+
+/**
+ * Converts {@link Message}s to and from the bytes sent between devices by
+ * the {@link com.klinker.droneos.arch.communication.Client} and
+ * {@link com.klinker.droneos.arch.communication.Server}. Each message is
+ * written as a single frame, so a reader always knows where one message
+ * ends and the next one begins.
+ * <p>
+ * Implementations must be safe to use from multiple connections at once.
+ */
+public interface MessageCodec {
+
+    /**
+     * Writes a single message frame. This does not flush the stream.
+     *
+     * @param out     The stream to write to.
+     * @param message The message to write.
+     * @throws IOException If the stream could not be written to.
+     */
+    void write(DataOutputStream out, Message<?> message) throws IOException;
+
+    /**
+     * Reads a single message frame written by
+     * {@link MessageCodec#write(DataOutputStream, Message)}. This blocks
+     * until the whole frame has been read.
+     *
+     * @param in The stream to read from.
+     * @return The message that was read.
+     * @throws IOException If the stream closed or the frame was malformed.
+     */
+    Message<?> read(DataInputStream in) throws IOException;
+
+    /**
+     * Writes a single message frame into a buffer, in the same format as
+     * {@link MessageCodec#write(DataOutputStream, Message)}. Nothing is
+     * written if the whole frame does not fit.
+     *
+     * @param out     The buffer to write to.
+     * @param message The message to write.
+     * @return <code>false</code> if there was not enough room left in the
+     * buffer.
+     * @throws IOException If the message could not be encoded.
+     */
+    boolean write(ByteBuffer out, Message<?> message) throws IOException;
+
+    /**
+     * Reads a single message frame out of a buffer if the whole frame is
+     * there. Otherwise the buffer is left untouched.
+     *
+     * @param in The buffer to read from.
+     * @return The message that was read, or <code>null</code> if the buffer
+     * does not hold a complete frame yet.
+     * @throws IOException If the frame was malformed.
+     */
+    Message<?> read(ByteBuffer in) throws IOException;
+
+}
@@ -0,0 +1,142 @@
+package com.klinker.droneos.arch.communication.messages;
+
+import com.klinker.droneos.arch.nodes.Node;
+
+/**
+ * A movement command for the flight controller, carried as primitive fields
+ * instead of a {@link com.google.gson.JsonObject}. Commands are sent many
+ * times a second, so they are pooled: get one with
+ * {@link ControlMessage#obtain}, and the node that handles it gives it back
+ * with {@link ControlMessage#recycle()}. Once sent, the sender must not
+ * touch it again.
+ * <p>
+ * Each axis is the percent from -1 to 1, except lift, which is 0 to 1.
+ */
+public class ControlMessage extends Message<Void> {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The most recycled messages kept for reuse.
+     */
+    private static final int POOL_SIZE = 16;
+
+
+    ///// Static Variables /////////////////////////////////////////////////////
+
+    /**
+     * The recycled messages, used as a stack.
+     */
+    private static final ControlMessage[] sPool = new ControlMessage[POOL_SIZE];
+
+    /**
+     * The number of messages in {@link ControlMessage#sPool}.
+     */
+    private static int sPoolSize = 0;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private double mStrafeX;
+    private double mStrafeY;
+    private double mAngle;
+    private double mLift;
+    private boolean mIsManual;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    private ControlMessage(Class<? extends Node> to, Class<? extends Node> from,
+                           String name) {
+        super(to, from, name, null);
+    }
+
+    /**
+     * Gets a recycled message, or creates one if there are none.
+     *
+     * @param to       The node receiving the command.
+     * @param from     The node sending the command.
+     * @param name     The name of the message.
+     * @param strafeX  Left and right.
+     * @param strafeY  Forward and backward.
+     * @param angle    The turning speed.
+     * @param lift     Up and down.
+     * @param isManual Whether the command came from the manual controls.
+     * @return The filled out message.
+     */
+    public static ControlMessage obtain(Class<? extends Node> to,
+                                        Class<? extends Node> from, String name,
+                                        double strafeX, double strafeY,
+                                        double angle, double lift,
+                                        boolean isManual) {
+        ControlMessage message = null;
+        synchronized (sPool) {
+            if (sPoolSize > 0) {
+                message = sPool[--sPoolSize];
+                sPool[sPoolSize] = null;
+            }
+        }
+        if (message == null) {
+            message = new ControlMessage(to, from, name);
+        } else {
+            message.reset(to, from, name);
+        }
+        message.mStrafeX = strafeX;
+        message.mStrafeY = strafeY;
+        message.mAngle = angle;
+        message.mLift = lift;
+        message.mIsManual = isManual;
+        return message;
+    }
+
+    /**
+     * Gives the message back to the pool. It must not be used after this.
+     */
+    @Override
+    public void recycle() {
+        synchronized (sPool) {
+            if (sPoolSize < POOL_SIZE) sPool[sPoolSize++] = this;
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    public double getStrafeX() {
+        return mStrafeX;
+    }
+
+    public double getStrafeY() {
+        return mStrafeY;
+    }
+
+    public double getAngle() {
+        return mAngle;
+    }
+
+    public double getLift() {
+        return mLift;
+    }
+
+    public boolean isManual() {
+        return mIsManual;
+    }
+
+
+    ///// Object Overrides /////////////////////////////////////////////////////
+
+    @Override
+    public String toString() {
+        return String.format(
+                "%s { from: %s, to: %s, strafeX: %f, strafeY: %f, angle: %f, "
+                        + "lift: %f, manual: %b }",
+                getClass().getSimpleName(),
+                getFrom().getSimpleName(),
+                getTo().getSimpleName(),
+                mStrafeX, mStrafeY, mAngle, mLift, mIsManual
+        );
+    }
+
+}
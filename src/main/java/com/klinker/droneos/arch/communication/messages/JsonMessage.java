@@ -1,6 +1,7 @@
 package com.klinker.droneos.arch.communication.messages;
 
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.klinker.droneos.arch.nodes.Node;
 
 public class JsonMessage extends Message<JsonObject> {
@@ -8,4 +9,17 @@ public class JsonMessage extends Message<JsonObject> {
                        String name, JsonObject data) {
         super(to, from, name, data);
     }
+
+    /**
+     * {@link JsonObject} is not serializable, so it is sent as a string.
+     */
+    @Override
+    protected Object writeData() {
+        return getData().toString();
+    }
+
+    @Override
+    protected JsonObject readData(Object data) {
+        return new JsonParser().parse((String) data).getAsJsonObject();
+    }
 }
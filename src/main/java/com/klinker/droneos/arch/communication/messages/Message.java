@@ -2,7 +2,12 @@ package com.klinker.droneos.arch.communication.messages;
 
 import com.klinker.droneos.arch.nodes.Node;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Messages are the base object that are passed between nodes. To send a
@@ -18,6 +23,17 @@ public class Message<T> implements Serializable {
      */
     private static long ID_COUNTER = 0;
 
+    /**
+     * The id given to each message name, see {@link Message#getNameId()}.
+     */
+    private static final ConcurrentHashMap<String, Integer> sNameIds =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The last id given out in {@link Message#sNameIds}.
+     */
+    private static final AtomicInteger sLastNameId = new AtomicInteger();
+
 
     ///// Member Variables /////////////////////////////////////////////////////
 
@@ -42,9 +58,17 @@ public class Message<T> implements Serializable {
     private String mName;
 
     /**
-     * The content of the message.
+     * The content of the message. It is written out through
+     * {@link Message#writeData()}, so the data does not have to be
+     * {@link Serializable} itself.
      */
-    private T mData;
+    private transient T mData;
+
+    /**
+     * The cached id of {@link Message#mName}, or 0 if it has not been looked
+     * up yet.
+     */
+    private transient int mNameId;
 
 
     ///// Constructors /////////////////////////////////////////////////////////
@@ -67,6 +91,56 @@ public class Message<T> implements Serializable {
     }
 
 
+    /**
+     * Lets pooled messages be sent again as a new message.
+     * @param to   The Node's class the message is being sent to.
+     * @param from The Node's class the message is being sent from.
+     * @param name The name of the message.
+     */
+    protected void reset(Class<? extends Node> to, Class<? extends Node> from,
+                         String name) {
+        mId = getNextID();
+        mTo = to;
+        mFrom = from;
+        if (mName == null || !mName.equals(name)) mNameId = 0;
+        mName = name;
+    }
+
+    /**
+     * Gives a pooled message back to its pool. Called on a message that is
+     * dropped or replaced before it is handled, since the node that would
+     * have recycled it never sees it. Does nothing for messages that aren't
+     * pooled. The message must not be used after this.
+     */
+    public void recycle() {
+    }
+
+
+    ///// Static Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Gives each message name a small integer id, so nodes can check which
+     * message they received by comparing ints instead of strings. The ids
+     * are only unique within this process, never send them to another
+     * device. Store the id of the names a node handles in a constant:
+     * <code>
+     *     static final int ID_ARM = Message.getNameId("arm");
+     * </code>
+     * @param name A message name.
+     * @return The id of the name, or 0 if the name is null.
+     */
+    public static int getNameId(String name) {
+        if (name == null) return 0;
+        Integer id = sNameIds.get(name);
+        if (id == null) {
+            id = sNameIds.computeIfAbsent(
+                    name, n -> sLastNameId.incrementAndGet()
+            );
+        }
+        return id;
+    }
+
+
     ///// Getters //////////////////////////////////////////////////////////////
 
     /**
@@ -106,6 +180,53 @@ public class Message<T> implements Serializable {
         return mName;
     }
 
+    /**
+     * @return The id of the message's name from
+     * {@link Message#getNameId(String)}.
+     */
+    public int getNameId() {
+        int id = mNameId;
+        if (id == 0) {
+            id = getNameId(mName);
+            mNameId = id;
+        }
+        return id;
+    }
+
+
+    ///// Serialization ////////////////////////////////////////////////////////
+
+    /**
+     * Converts {@link Message#mData} into something that can be written to
+     * an {@link ObjectOutputStream}. Override this when the data is not
+     * {@link Serializable}.
+     * @return The serializable form of the data.
+     */
+    protected Object writeData() {
+        return mData;
+    }
+
+    /**
+     * The inverse of {@link Message#writeData()}.
+     * @param data The object written out by {@link Message#writeData()}.
+     * @return The data of the message.
+     */
+    @SuppressWarnings("unchecked")
+    protected T readData(Object data) {
+        return (T) data;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(writeData());
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        mData = readData(in.readObject());
+    }
+
 
     ///// Object Overrides /////////////////////////////////////////////////////
 
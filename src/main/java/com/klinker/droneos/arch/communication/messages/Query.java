@@ -7,6 +7,12 @@ import com.klinker.droneos.utils.random.RandomString;
 
 public class Query extends JsonMessage {
 
+    /**
+     * How long, in ms, to wait for a query's result when no timeout is
+     * given.
+     */
+    public static final long DEFAULT_TIMEOUT = 1000;
+
     public interface QueryCallback {
         void onQueryReturned(JsonObject result);
     }
@@ -23,6 +29,16 @@ public class Query extends JsonMessage {
         this.mUUID = sRandomStringGen.nextString();
     }
 
+    /**
+     * Recreates a query that was received from another device, keeping the
+     * uuid it was sent with.
+     */
+    public Query(Class<? extends Node> to, Class<? extends Node> from,
+                 String uuid, JsonObject data) {
+        super(to, from, "", data);
+        this.mUUID = uuid;
+    }
+
     public String getUUID() {
         return mUUID;
     }
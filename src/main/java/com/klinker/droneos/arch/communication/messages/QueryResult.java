@@ -0,0 +1,36 @@
+package com.klinker.droneos.arch.communication.messages;
+
+import com.google.gson.JsonObject;
+import com.klinker.droneos.arch.nodes.Node;
+
+/**
+ * The answer to a {@link Query} from a node on another device. It is sent
+ * back to the node that sent the query, and is matched to it by the
+ * query's uuid.
+ */
+public class QueryResult extends JsonMessage {
+
+    private static final long serialVersionUID = 1L;
+
+    private String mUUID;
+
+    /**
+     * @param to     The node that sent the query.
+     * @param from   The node that filled out the query.
+     * @param uuid   The {@link Query#getUUID()} of the query being answered.
+     * @param result The filled out properties.
+     */
+    public QueryResult(Class<? extends Node> to, Class<? extends Node> from,
+                       String uuid, JsonObject result) {
+        super(to, from, "", result);
+        mUUID = uuid;
+    }
+
+    /**
+     * @return The {@link Query#getUUID()} of the query being answered.
+     */
+    public String getUUID() {
+        return mUUID;
+    }
+
+}
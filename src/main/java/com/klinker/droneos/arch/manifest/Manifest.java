@@ -1,7 +1,10 @@
 package com.klinker.droneos.arch.manifest;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -28,11 +31,83 @@ public class Manifest {
     private List<Device> mDevices;
 
     /**
-     * The path to the json file that contains the map data.
+     * The path to the json file that contains the map data. A relative path
+     * is relative to the manifest's own directory.
      */
     @SerializedName("simulation_map")
     private String mSimulationMap;
 
+    /**
+     * The directory the manifest was read from, or null if it wasn't read
+     * from a file.
+     */
+    private transient File mDirectory;
+
+    /**
+     * Message names and common JSON keys sent between devices. The
+     * {@link com.klinker.droneos.arch.communication.codec.BinaryMessageCodec}
+     * sends these as small ids instead of strings, so every device must use
+     * the same list. The json tag for this variable is "message_names".
+     */
+    @SerializedName("message_names")
+    private List<String> mMessageNames;
+
+    /**
+     * Whether devices accept connections on a
+     * {@link com.klinker.droneos.arch.communication.NioServer} instead of a
+     * thread per connection. The json tag for this variable is "nio_server".
+     */
+    @SerializedName("nio_server")
+    private boolean mIsNioServer;
+
+    /**
+     * Whether node tasks and queries run on virtual threads, or a shared
+     * work-stealing pool on JVMs without them, instead of a fixed pool per
+     * task. The json tag for this variable is "virtual_threads".
+     */
+    @SerializedName("virtual_threads")
+    private boolean mIsVirtualThreads;
+
+    /**
+     * The lowest {@link Log.Level} written for each log tag, ex:
+     * <code>{ "simulation": "debug" }</code>. The json tag for this
+     * variable is "log_levels".
+     */
+    @SerializedName("log_levels")
+    private Map<String, String> mLogLevels;
+
+    /**
+     * The frames per second the simulation's physics runs at, or 0 for
+     * {@link com.klinker.droneos.arch.simulation.Simulation#FPS}. The json
+     * tag for this variable is "simulation_rate".
+     */
+    @SerializedName("simulation_rate")
+    private double mSimulationRate;
+
+    /**
+     * The number of physics steps in each simulation frame, or 0 for the
+     * default. The json tag for this variable is "simulation_sub_steps".
+     */
+    @SerializedName("simulation_sub_steps")
+    private int mSimulationSubSteps;
+
+    /**
+     * The times per simulated second the simulation is observed, like
+     * recording the drone's pose, or 0 for the frame rate. The json tag for
+     * this variable is "simulation_observation_rate".
+     */
+    @SerializedName("simulation_observation_rate")
+    private double mSimulationObservationRate;
+
+    /**
+     * How many times faster than real time the simulation runs, or 0 for as
+     * fast as it can. When not set, the simulation runs in real time, or as
+     * fast as it can when it is headless. The json tag for this variable is
+     * "simulation_speed".
+     */
+    @SerializedName("simulation_speed")
+    private Double mSimulationSpeed;
+
 
     ///// Static Factory Methods ///////////////////////////////////////////////
 
@@ -47,7 +122,9 @@ public class Manifest {
             JsonFile file = new JsonFile(jsonPath);
             Gson gson = new GsonBuilder().create();
             JsonElement jsonElement = file.read();
-            return gson.fromJson(jsonElement, Manifest.class);
+            Manifest manifest = gson.fromJson(jsonElement, Manifest.class);
+            manifest.mDirectory = new File(jsonPath).getAbsoluteFile().getParentFile();
+            return manifest;
         } catch (Exception e) {
             Log.e(
                     "arch",
@@ -65,8 +142,46 @@ public class Manifest {
         return mDevices;
     }
 
+    /**
+     * @return The path to the simulation map, resolved against the
+     * manifest's directory if it is relative, or null if there isn't one.
+     */
     public String getSimulationMap() {
-        return mSimulationMap;
+        if (mSimulationMap == null || mDirectory == null) return mSimulationMap;
+        File map = new File(mSimulationMap);
+        return map.isAbsolute() ? mSimulationMap : new File(mDirectory, mSimulationMap).getPath();
+    }
+
+    public List<String> getMessageNames() {
+        return mMessageNames == null ? new ArrayList<>() : mMessageNames;
+    }
+
+    public boolean isNioServer() {
+        return mIsNioServer;
+    }
+
+    public boolean isVirtualThreads() {
+        return mIsVirtualThreads;
+    }
+
+    public Map<String, String> getLogLevels() {
+        return mLogLevels == null ? new HashMap<>() : mLogLevels;
+    }
+
+    public double getSimulationRate() {
+        return mSimulationRate;
+    }
+
+    public int getSimulationSubSteps() {
+        return mSimulationSubSteps;
+    }
+
+    public double getSimulationObservationRate() {
+        return mSimulationObservationRate;
+    }
+
+    public Double getSimulationSpeed() {
+        return mSimulationSpeed;
     }
 
 
@@ -0,0 +1,174 @@
+package com.klinker.droneos.arch.nodes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.klinker.droneos.arch.communication.messages.Message;
+
+/**
+ * Holds the latest value of messages where only the newest one matters,
+ * like stick positions sent to the
+ * {@link com.klinker.droneos.ControlsNode}. There is at most one
+ * {@link Slot} waiting for each receiving node and message name. A newer
+ * message with the same key replaces the one in the slot instead of
+ * waiting behind it, so once the receiver gets to it, it always handles the
+ * newest value and never a stale one. Replaced messages are given back with
+ * {@link Message#recycle()}.
+ * <p>
+ * This is lock-free: offering a message is a map lookup and a compare and
+ * set.
+ */
+public class CoalescingChannel {
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The slots waiting to be taken, mapped by receiving node and name.
+     */
+    private final ConcurrentHashMap<Key, Slot> mWaiting;
+
+    /**
+     * The number of messages replaced by a newer one before being taken.
+     */
+    private final AtomicLong mCoalescedCount;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    public CoalescingChannel() {
+        mWaiting = new ConcurrentHashMap<>();
+        mCoalescedCount = new AtomicLong();
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Puts a message into the waiting slot for its receiver and name.
+     *
+     * @param message The message being sent.
+     * @return A new slot which must be queued for the receiver and passed to
+     * {@link CoalescingChannel#take(Slot)}, or null if the message replaced
+     * one that is already waiting in a queued slot.
+     */
+    public Slot offer(Message<?> message) {
+        Key key = new Key(message.getTo(), message.getName());
+        while (true) {
+            Slot waiting = mWaiting.get(key);
+            if (waiting != null) {
+                if (waiting.replace(message)) {
+                    mCoalescedCount.incrementAndGet();
+                    return null;
+                }
+                // it was taken while replacing it, so it needs a new slot.
+                mWaiting.remove(key, waiting);
+            } else {
+                Slot slot = new Slot(key, message);
+                if (mWaiting.putIfAbsent(key, slot) == null) return slot;
+            }
+        }
+    }
+
+    /**
+     * Takes the latest message out of a slot. Any message with the same key
+     * offered after this goes into a new slot.
+     *
+     * @param slot A slot returned from
+     *             {@link CoalescingChannel#offer(Message)}.
+     * @return The latest message, or null if the slot was already taken.
+     */
+    public Message<?> take(Slot slot) {
+        mWaiting.remove(slot.mKey, slot);
+        return slot.mMessage.getAndSet(null);
+    }
+
+    /**
+     * Drops every waiting slot, recycling their messages.
+     */
+    public void clear() {
+        for (Slot slot : mWaiting.values()) {
+            Message<?> message = take(slot);
+            if (message != null) message.recycle();
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of slots waiting to be taken.
+     */
+    public int getWaitingCount() {
+        return mWaiting.size();
+    }
+
+    /**
+     * @return The number of messages replaced by a newer one before they
+     * were taken.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * The latest message for one receiving node and message name.
+     */
+    public static class Slot {
+        private final Key mKey;
+        private final AtomicReference<Message<?>> mMessage;
+
+        private Slot(Key key, Message<?> message) {
+            mKey = key;
+            mMessage = new AtomicReference<>(message);
+        }
+
+        /**
+         * Replaces the message in the slot, and recycles the one replaced,
+         * which is never going to be taken.
+         *
+         * @return <code>false</code> if the slot was already taken.
+         */
+        private boolean replace(Message<?> message) {
+            while (true) {
+                Message<?> current = mMessage.get();
+                if (current == null) return false;
+                if (mMessage.compareAndSet(current, message)) {
+                    current.recycle();
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * A receiving node and message name.
+     */
+    private static class Key {
+        private final Class<?> mTo;
+        private final String mName;
+
+        private Key(Class<?> to, String name) {
+            mTo = to;
+            mName = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mTo == key.mTo
+                    && (mName == null ? key.mName == null : mName.equals(key.mName));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mTo)
+                    + (mName == null ? 0 : mName.hashCode());
+        }
+    }
+
+}
@@ -0,0 +1,498 @@
+package com.klinker.droneos.arch.nodes;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.klinker.droneos.arch.communication.OnMessageReceivedListener;
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.utils.Log;
+
+/**
+ * The messages waiting to be handled by a {@link Node}. Each of the
+ * mailbox's consumer threads has its own bounded, lock-free queue, and every
+ * message from the same sending node goes to the same consumer, so a node
+ * always handles one sender's messages in the order they were sent.
+ * <p>
+ * What happens when a queue is full is chosen by the message's name (see
+ * {@link Mailbox#setPolicy(String, Policy)}), so a node can let stale
+ * sensor readings go while still waiting for room for a command that must
+ * not be lost. Messages under {@link Policy#COALESCE_LATEST} go through a
+ * {@link CoalescingChannel} shared by every consumer, so the latest one
+ * wins no matter which node sent it. Messages that are dropped are given
+ * back with {@link Message#recycle()}.
+ */
+public class Mailbox {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * What to do with a message when the queue it is going into is full.
+     */
+    public enum Policy {
+        /**
+         * Wait for room, slowing the sender down to the node's pace. The
+         * sender is parked until the consumer frees a space, and gives up,
+         * dropping the message, if it is interrupted or the mailbox stops.
+         */
+        BLOCK,
+        /**
+         * Drop the message that has waited the longest to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the message being sent.
+         */
+        DROP_NEWEST,
+        /**
+         * Replace the message with the same name that is still waiting, so
+         * only the latest one is handled. These never wait for room, since
+         * there is at most one of them waiting per name. The newer message
+         * keeps the older one's place in the queue.
+         */
+        COALESCE_LATEST;
+
+        /**
+         * @param name The policy as written in a node's data, ex:
+         *             "drop-oldest".
+         * @return The matching policy.
+         * @throws IllegalArgumentException If no policy has that name.
+         */
+        public static Policy fromName(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    /**
+     * The default number of messages each consumer's queue can hold.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * The default number of threads handling messages.
+     */
+    public static final int DEFAULT_CONSUMER_COUNT = 1;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The name the consumer threads are given.
+     */
+    private final String mName;
+
+    /**
+     * The most messages each lane can hold.
+     */
+    private final int mCapacity;
+
+    /**
+     * One queue and consumer thread for each consumer.
+     */
+    private final Lane[] mLanes;
+
+    /**
+     * Called on a consumer thread with each message.
+     */
+    private final OnMessageReceivedListener mHandler;
+
+    /**
+     * Holds the latest {@link Policy#COALESCE_LATEST} message for each name.
+     */
+    private final CoalescingChannel mLatest;
+
+    /**
+     * The policy for each message name that does not use
+     * {@link Mailbox#mDefaultPolicy}.
+     */
+    private final ConcurrentHashMap<String, Policy> mPolicies;
+
+    /**
+     * The policy for any message name not in {@link Mailbox#mPolicies}.
+     */
+    private volatile Policy mDefaultPolicy;
+
+    /**
+     * Whether or not the consumers should keep running.
+     */
+    private volatile boolean mIsRunning;
+
+    /**
+     * The number of messages posted.
+     */
+    private final AtomicLong mReceivedCount;
+
+    /**
+     * The number of messages handed to {@link Mailbox#mHandler}.
+     */
+    private final AtomicLong mHandledCount;
+
+    /**
+     * The number of messages dropped because a queue was full.
+     */
+    private final AtomicLong mDroppedCount;
+
+    /**
+     * The sum of every wait in ns, used for the average.
+     */
+    private final AtomicLong mTotalLatency;
+
+    /**
+     * The longest wait in ns.
+     */
+    private final AtomicLong mMaxLatency;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param name          The name given to the consumer threads.
+     * @param consumerCount The number of threads handling messages.
+     * @param capacity      The number of messages each consumer's queue can
+     *                      hold.
+     * @param handler       Called with each message on a consumer thread.
+     */
+    public Mailbox(String name, int consumerCount, int capacity,
+                   OnMessageReceivedListener handler) {
+        mName = name;
+        mCapacity = capacity;
+        mHandler = handler;
+        mLanes = new Lane[Math.max(1, consumerCount)];
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new Lane();
+        }
+        mLatest = new CoalescingChannel();
+        mPolicies = new ConcurrentHashMap<>();
+        mDefaultPolicy = Policy.BLOCK;
+        mIsRunning = false;
+        mReceivedCount = new AtomicLong();
+        mHandledCount = new AtomicLong();
+        mDroppedCount = new AtomicLong();
+        mTotalLatency = new AtomicLong();
+        mMaxLatency = new AtomicLong();
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Starts the consumer threads.
+     */
+    public void start() {
+        if (mIsRunning) return;
+        mIsRunning = true;
+        for (int i = 0; i < mLanes.length; i++) {
+            Thread thread = new Thread(mLanes[i]::run, mName + "-mailbox-" + i);
+            thread.setDaemon(true);
+            mLanes[i].mThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the consumer threads. Messages still waiting are dropped.
+     */
+    public void stop() {
+        mIsRunning = false;
+        for (Lane lane : mLanes) {
+            if (lane.mThread != null) LockSupport.unpark(lane.mThread);
+            lane.wakeSenders();
+            Entry entry;
+            while ((entry = lane.mQueue.poll()) != null) {
+                Message<?> message = take(entry);
+                if (message != null) message.recycle();
+            }
+            lane.mSize.set(0);
+        }
+        mLatest.clear();
+    }
+
+    /**
+     * Queues a message to be handled, applying the policy for its name if
+     * the queue is full. This only waits under {@link Policy#BLOCK}.
+     *
+     * @param message The message to handle.
+     */
+    public void post(Message<?> message) {
+        mReceivedCount.incrementAndGet();
+        Class<?> from = message.getFrom();
+        int index = from == null
+                ? 0 : (from.hashCode() & Integer.MAX_VALUE) % mLanes.length;
+        mLanes[index].post(message, getPolicy(message.getName()));
+    }
+
+    /**
+     * @return The message in the entry, or null if it was a
+     * {@link CoalescingChannel.Slot} that was already taken.
+     */
+    private Message<?> take(Entry entry) {
+        return entry.mSlot != null ? mLatest.take(entry.mSlot) : entry.mMessage;
+    }
+
+    private void handle(Entry entry) {
+        Message<?> message = take(entry);
+        if (message == null) return;
+
+        long latency = System.nanoTime() - entry.mQueuedAt;
+        mTotalLatency.addAndGet(latency);
+        mMaxLatency.accumulateAndGet(latency, Math::max);
+        try {
+            mHandler.onReceiveMessage(message);
+        } catch (Exception e) {
+            Log.e("arch", "Error handling " + message, e);
+        }
+        mHandledCount.incrementAndGet();
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @param name A message name.
+     * @return The policy used for messages with that name.
+     */
+    public Policy getPolicy(String name) {
+        Policy policy = name == null ? null : mPolicies.get(name);
+        return policy == null ? mDefaultPolicy : policy;
+    }
+
+    /**
+     * @return The number of messages waiting to be handled.
+     */
+    public int getDepth() {
+        int depth = 0;
+        for (Lane lane : mLanes) {
+            depth += lane.mSize.get();
+        }
+        return depth;
+    }
+
+    /**
+     * @return The number of messages posted.
+     */
+    public long getReceivedCount() {
+        return mReceivedCount.get();
+    }
+
+    /**
+     * @return The number of messages handled.
+     */
+    public long getHandledCount() {
+        return mHandledCount.get();
+    }
+
+    /**
+     * @return The number of messages dropped because a queue was full.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * @return The number of messages replaced by a newer one before they
+     * were handled.
+     */
+    public long getCoalescedCount() {
+        return mLatest.getCoalescedCount();
+    }
+
+    /**
+     * @return The average time in ns a message waited before being handled.
+     */
+    public double getAverageLatency() {
+        long count = mHandledCount.get();
+        return count == 0 ? 0 : mTotalLatency.get() / (double) count;
+    }
+
+    /**
+     * @return The longest time in ns a message waited before being handled.
+     */
+    public long getMaxLatency() {
+        return mMaxLatency.get();
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    /**
+     * @param name   A message name.
+     * @param policy The policy to use for messages with that name.
+     */
+    public void setPolicy(String name, Policy policy) {
+        mPolicies.put(name, policy);
+    }
+
+    /**
+     * @param policy The policy to use for messages whose name has not been
+     *               given one with {@link Mailbox#setPolicy(String, Policy)}.
+     */
+    public void setDefaultPolicy(Policy policy) {
+        mDefaultPolicy = policy;
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * A single consumer's queue and thread.
+     */
+    private class Lane {
+
+        /**
+         * The messages waiting, in the order they were posted.
+         */
+        private final ConcurrentLinkedQueue<Entry> mQueue =
+                new ConcurrentLinkedQueue<>();
+
+        /**
+         * The number of entries in {@link Lane#mQueue}, since
+         * {@link ConcurrentLinkedQueue#size()} walks the whole queue.
+         */
+        private final AtomicInteger mSize = new AtomicInteger();
+
+        /**
+         * Whether or not the consumer is parked waiting for a message, so
+         * senders only wake it when they need to.
+         */
+        private volatile boolean mIsWaiting;
+
+        /**
+         * The consumer thread.
+         */
+        private volatile Thread mThread;
+
+        /**
+         * The senders parked waiting for room under {@link Policy#BLOCK}.
+         */
+        private final ConcurrentLinkedQueue<Thread> mBlockedSenders =
+                new ConcurrentLinkedQueue<>();
+
+        private void post(Message<?> message, Policy policy) {
+            if (policy == Policy.COALESCE_LATEST) {
+                CoalescingChannel.Slot slot = mLatest.offer(message);
+                if (slot != null) {
+                    mSize.incrementAndGet();
+                    enqueue(new Entry(null, slot));
+                }
+                return;
+            }
+
+            while (!reserve()) {
+                if (policy == Policy.DROP_NEWEST || !mIsRunning) {
+                    drop(message);
+                    return;
+                } else if (policy == Policy.DROP_OLDEST) {
+                    Entry oldest = mQueue.poll();
+                    if (oldest != null) {
+                        mSize.decrementAndGet();
+                        Message<?> dropped = take(oldest);
+                        if (dropped != null) {
+                            mDroppedCount.incrementAndGet();
+                            dropped.recycle();
+                        }
+                    }
+                } else if (Thread.currentThread() == mThread) {
+                    // the node is sending to itself from this lane, so
+                    // waiting for room here would never end.
+                    mSize.incrementAndGet();
+                    break;
+                } else if (!awaitRoom()) {
+                    drop(message);
+                    return;
+                }
+            }
+            enqueue(new Entry(message, null));
+        }
+
+        /**
+         * Parks the sender until the consumer frees a space in the queue.
+         *
+         * @return <code>true</code> if there is room now, or
+         * <code>false</code> if the sender was interrupted or the mailbox
+         * stopped first.
+         */
+        private boolean awaitRoom() {
+            Thread sender = Thread.currentThread();
+            mBlockedSenders.add(sender);
+            try {
+                // checked again once queued, so a space freed in between
+                // is not missed.
+                while (true) {
+                    if (!mIsRunning || sender.isInterrupted()) return false;
+                    if (mSize.get() < mCapacity) return true;
+                    LockSupport.park(this);
+                }
+            } finally {
+                mBlockedSenders.remove(sender);
+            }
+        }
+
+        /**
+         * Wakes every sender waiting for room. They all race for the space,
+         * and the ones that miss it park again.
+         */
+        private void wakeSenders() {
+            for (Thread sender : mBlockedSenders) {
+                LockSupport.unpark(sender);
+            }
+        }
+
+        private void drop(Message<?> message) {
+            mDroppedCount.incrementAndGet();
+            message.recycle();
+        }
+
+        /**
+         * Takes one space in the queue.
+         *
+         * @return <code>false</code> if the queue is full.
+         */
+        private boolean reserve() {
+            while (true) {
+                int size = mSize.get();
+                if (size >= mCapacity) return false;
+                if (mSize.compareAndSet(size, size + 1)) return true;
+            }
+        }
+
+        private void enqueue(Entry entry) {
+            mQueue.offer(entry);
+            if (mIsWaiting) LockSupport.unpark(mThread);
+        }
+
+        private void run() {
+            while (mIsRunning) {
+                Entry entry = mQueue.poll();
+                if (entry == null) {
+                    mIsWaiting = true;
+                    if (mQueue.isEmpty() && mIsRunning) LockSupport.park(this);
+                    mIsWaiting = false;
+                    continue;
+                }
+                mSize.decrementAndGet();
+                if (!mBlockedSenders.isEmpty()) wakeSenders();
+                handle(entry);
+            }
+        }
+
+    }
+
+    /**
+     * A message waiting in a {@link Lane}, or the slot holding the latest
+     * message with its name.
+     */
+    private static class Entry {
+        private final Message<?> mMessage;
+        private final CoalescingChannel.Slot mSlot;
+        private final long mQueuedAt;
+
+        private Entry(Message<?> message, CoalescingChannel.Slot slot) {
+            mMessage = message;
+            mSlot = slot;
+            mQueuedAt = System.nanoTime();
+        }
+    }
+
+}
@@ -1,5 +1,10 @@
 package com.klinker.droneos.arch.nodes;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.klinker.droneos.arch.communication.messages.Message;
@@ -43,6 +48,11 @@ public abstract class Node {
     FINISH_UP
     }
 
+    /**
+     * The number of threads filling out queries sent to a node.
+     */
+    public static final int QUERY_THREAD_COUNT = 2;
+
     ///// Member Variables /////////////////////////////////////////////////////
 
     /**
@@ -51,22 +61,29 @@ public abstract class Node {
      */
     private NodeManager mNodeManager = null;
 
-    private RunnableExecutor mMessageExecutor;
+    /**
+     * The messages waiting for {@link Node#onReceiveMessage(Message)}.
+     */
+    private Mailbox mMailbox;
 
-    private int mTaskCount;
+    /**
+     * Fills out the queries sent to this node.
+     */
+    private RunnableExecutor mQueryExecutor;
 
     private JsonObject mData;
 
     ///// Construction /////////////////////////////////////////////////////////
     protected Node(String dataPath) {
-        mMessageExecutor = RunnableExecutor.newParallel(10);
-        mTaskCount = 0;
+        mQueryExecutor = RunnableExecutor.newDefault(QUERY_THREAD_COUNT);
         JsonFile dataFile = new JsonFile(dataPath);
         if (dataFile.exists()) {
             mData = dataFile.read().getAsJsonObject();
         } else {
             mData = new JsonObject();
         }
+        mMailbox = createMailbox();
+        mMailbox.start();
         Log.d("arch", "Constructed " + getClass().getSimpleName());
     }
 
@@ -97,7 +114,9 @@ public abstract class Node {
 
     /**
      * This is the callback for when a {@link Node} receives a message.
-     * called in parallel to the node's task executables.
+     * called in parallel to the node's task executables, on one of the
+     * threads of the node's {@link Mailbox}. Messages from the same node are
+     * received in the order they were sent.
      * @param message The message being received.
      */
     protected abstract void onReceiveMessage(Message message);
@@ -133,22 +152,15 @@ public abstract class Node {
         mNodeManager.sendMessage(message);
     }
 
-    public synchronized void receiveMessage(Message message) {
-        mMessageExecutor.executeRunnable(() -> {
-            addToTaskCount(1);
-            onReceiveMessage(message);
-            addToTaskCount(-1);
-        });
-        int warningTaskCount = RunnableExecutor.MAX_PARALLEL_COUNT / 3;
-        if (mTaskCount > warningTaskCount) {
-            Log.w("arch",
-                    getClass().getSimpleName() + " has more than " + warningTaskCount + " active threads in parallel. "
-                            + "Be careful to not excede " + RunnableExecutor.MAX_PARALLEL_COUNT + ": " + mTaskCount);
-        }
-        if (mTaskCount > RunnableExecutor.MAX_PARALLEL_COUNT) {
-            Log.e("arch", getClass().getSimpleName() + " has more than 25 "
-                    + "tasks running. Change how you handle the message" + " results: " + mTaskCount);
-        }
+    /**
+     * Queues a message for {@link Node#onReceiveMessage(Message)}. This
+     * returns right away unless the mailbox is full and the message's policy
+     * is {@link Mailbox.Policy#BLOCK}.
+     *
+     * @param message The message being received.
+     */
+    public void receiveMessage(Message<?> message) {
+        mMailbox.post(message);
     }
 
     public JsonObject sendQuery(Query query) {
@@ -160,6 +172,58 @@ public abstract class Node {
         return mNodeManager.sendQuery(query);
     }
 
+    /**
+     * Sends a query without waiting for the result, giving up after
+     * {@link Query#DEFAULT_TIMEOUT}.
+     *
+     * @see Node#sendQueryAsync(Query, long)
+     */
+    public CompletableFuture<JsonObject> sendQueryAsync(Query query) {
+        return sendQueryAsync(query, Query.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Sends a query without waiting for the result. The query may go to a
+     * node on this device or another one.
+     *
+     * @param query   The query to send.
+     * @param timeout How long to wait for the result in ms.
+     * @return The future completed with the result. It fails with a
+     * {@link java.util.concurrent.TimeoutException} if the result takes
+     * longer than the timeout, and cancelling it stops waiting for the
+     * result.
+     */
+    public CompletableFuture<JsonObject> sendQueryAsync(Query query, long timeout) {
+        if (mNodeManager == null) {
+            Log.w("arch", "NodeManager for " + this.getClass().getSimpleName() + " is null");
+            CompletableFuture<JsonObject> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException(
+                    "NodeManager for " + getClass().getSimpleName() + " is null"
+            ));
+            return failed;
+        }
+
+        return mNodeManager.sendQueryAsync(query, timeout);
+    }
+
+    /**
+     * Sends a query and calls {@link Query.QueryCallback#onQueryReturned}
+     * with the result, once it is returned, on one of the receiving node's
+     * threads. Nothing is called if the query fails or times out.
+     *
+     * @param query    The query to send.
+     * @param callback The callback for the result.
+     */
+    public void sendQuery(Query query, Query.QueryCallback callback) {
+        sendQueryAsync(query).whenComplete((result, error) -> {
+            if (error != null) {
+                Log.e("arch", "Query failed: " + query + ", " + error);
+            } else {
+                callback.onQueryReturned(result);
+            }
+        });
+    }
+
     public JsonObject receiveQuery(Query query) {
         JsonObject queryData = query.getData();
         JsonObject input;
@@ -179,8 +243,91 @@ public abstract class Node {
         return result;
     }
 
-    private synchronized void addToTaskCount(int amount) {
-        mTaskCount += amount;
+    /**
+     * Fills out a query on this node's message threads instead of on the
+     * caller's thread.
+     *
+     * @param query The query to fill out.
+     * @return The future completed with the result of
+     * {@link Node#receiveQuery(Query)}, or failed if the node has stopped.
+     */
+    public CompletableFuture<JsonObject> receiveQueryAsync(Query query) {
+        try {
+            return CompletableFuture.supplyAsync(
+                    () -> receiveQuery(query), mQueryExecutor
+            );
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<JsonObject> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Builds the mailbox from the "mailbox" object in the node's data, ex:
+     * <code>{
+     *     "consumers": 1,
+     *     "capacity": 256,
+     *     "default-policy": "block",
+     *     "policies": {
+     *         "control": "coalesce-latest"
+     *     }
+     * }</code>
+     * Every field is optional.
+     */
+    private Mailbox createMailbox() {
+        JsonObject config = mData.has("mailbox")
+                ? mData.getAsJsonObject("mailbox") : new JsonObject();
+        Mailbox mailbox = new Mailbox(
+                getClass().getSimpleName(),
+                config.has("consumers")
+                        ? config.get("consumers").getAsInt()
+                        : Mailbox.DEFAULT_CONSUMER_COUNT,
+                config.has("capacity")
+                        ? config.get("capacity").getAsInt()
+                        : Mailbox.DEFAULT_CAPACITY,
+                this::onReceiveMessage
+        );
+        try {
+            if (config.has("default-policy")) {
+                mailbox.setDefaultPolicy(Mailbox.Policy.fromName(
+                        config.get("default-policy").getAsString()
+                ));
+            }
+            if (config.has("policies")) {
+                for (Map.Entry<String, JsonElement> policy
+                        : config.getAsJsonObject("policies").entrySet()) {
+                    mailbox.setPolicy(
+                            policy.getKey(),
+                            Mailbox.Policy.fromName(policy.getValue().getAsString())
+                    );
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e("arch", "Unknown mailbox policy for "
+                    + getClass().getSimpleName(), e);
+        }
+        return mailbox;
+    }
+
+    /**
+     * Stops handling messages and queries, and logs how the mailbox did.
+     * Called by the {@link NodeManager} after {@link Node#onExit()}.
+     */
+    void stopMailbox() {
+        mMailbox.stop();
+        mQueryExecutor.cancel();
+        Log.v("arch", String.format(
+                "%s mailbox: %d received, %d handled, %d dropped, %d coalesced,"
+                        + " %.3f ms average wait, %.3f ms max wait",
+                getClass().getSimpleName(),
+                mMailbox.getReceivedCount(),
+                mMailbox.getHandledCount(),
+                mMailbox.getDroppedCount(),
+                mMailbox.getCoalescedCount(),
+                mMailbox.getAverageLatency() / 1e6,
+                mMailbox.getMaxLatency() / 1e6
+        ));
     }
 
     ///// Task Methods /////////////////////////////////////////////////////////
@@ -224,8 +371,12 @@ public abstract class Node {
         return mNodeManager;
     }
 
-    public synchronized int getTaskCount() {
-        return mTaskCount;
+    /**
+     * @return The messages waiting to be handled by this node, and how they
+     * have been handled so far.
+     */
+    public Mailbox getMailbox() {
+        return mMailbox;
     }
 
     protected JsonObject getData() {
@@ -3,11 +3,16 @@ package com.klinker.droneos.arch.nodes;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import com.google.gson.JsonObject;
 import com.klinker.droneos.arch.Core;
+import com.klinker.droneos.arch.communication.Messenger;
+import com.klinker.droneos.arch.communication.PendingQueries;
 import com.klinker.droneos.arch.communication.messages.Message;
 import com.klinker.droneos.arch.communication.messages.Query;
+import com.klinker.droneos.arch.communication.messages.QueryResult;
 import com.klinker.droneos.arch.manifest.Device;
 import com.klinker.droneos.arch.manifest.Manifest;
 import com.klinker.droneos.arch.manifest.NodeInfo;
@@ -44,13 +49,27 @@ public class NodeManager {
      */
     private Node.Task mTask;
 
+    /**
+     * Sends messages to the nodes on other devices. It is null when every
+     * node in the manifest runs on this device.
+     */
+    private Messenger mMessenger;
+
+    /**
+     * The queries sent from this device that are waiting for a result.
+     */
+    private PendingQueries mPendingQueries;
+
 
     ///// Construction /////////////////////////////////////////////////////////
 
     public NodeManager(Manifest manifest, String deviceName) {
         mManifest = manifest;
+        // set before the nodes are created, since they create executors.
+        RunnableExecutor.setVirtualDefault(manifest.isVirtualThreads());
         mDeviceMap = new HashMap<>();
         mNodeMap = new HashMap<>();
+        mPendingQueries = new PendingQueries();
 
         // setup maps and initialize nodes.
         try {
@@ -73,6 +92,12 @@ public class NodeManager {
                     }
                 }
                 assert mDevice != null;
+                if (devices.size() > 1) {
+                    mMessenger = new Messenger(manifest, mDevice);
+                    mMessenger.setOnMessageReceivedListener(
+                            this::receiveRemoteMessage
+                    );
+                }
         } catch (ClassNotFoundException e) {
             Log.e(
                     "arch",
@@ -109,10 +134,12 @@ public class NodeManager {
                 Node.Task.FINISH_UP
         };
 
+        if (mMessenger != null) mMessenger.start();
+
         for (Node.Task currentTask : orderedTasks) {
             mTask = currentTask;
             Log.v("arch", "Task: " + currentTask.name());
-            RunnableExecutor executor = RunnableExecutor.newParallel(
+            RunnableExecutor executor = RunnableExecutor.newDefault(
                     mNodeMap.size()
             );
             for (Node node : mNodeMap.values()) {
@@ -123,20 +150,29 @@ public class NodeManager {
         }
         Log.w("arch", "finished running tasks, calling onExit()");
 
-        RunnableExecutor executor = RunnableExecutor.newParallel(
+        RunnableExecutor executor = RunnableExecutor.newDefault(
                 mNodeMap.size()
         );
         for (Node node : mNodeMap.values()) {
-            executor.addRunnable(() -> node.onExit());
+            executor.addRunnable(() -> {
+                node.onExit();
+                node.stopMailbox();
+            });
         }
         executor.start();
         executor.join();
+
+        mPendingQueries.cancelAll();
+        if (mMessenger != null) mMessenger.stop();
     }
 
     public void forceStop() {
         for (Node node : mNodeMap.values()) {
             node.onExit();
+            node.stopMailbox();
         }
+        mPendingQueries.cancelAll();
+        if (mMessenger != null) mMessenger.stop();
     }
 
     /**
@@ -162,11 +198,55 @@ public class NodeManager {
             return;
         }
 
-        // the node we want to send the message to is not on this device.
-        Log.e("arch", "CROSS DEVICE COMMUNICATION NOT SET UP: " + message);
-        // TODO: Call the messenger's send method.
+        // the node we want to send the message to is not on this device, so
+        // the messenger queues it on the connection to that device.
+        mMessenger.sendMessage(message, deviceRunningTo);
+    }
+
+    /**
+     * Called by the {@link Messenger} when a message arrives from another
+     * device. It is handed to the receiving node the same way a local
+     * message is. Queries are filled out and their result sent back, and
+     * query results complete the query that is waiting on them.
+     * @param message The {@link Message} that was received.
+     */
+    private void receiveRemoteMessage(Message<?> message) {
+        if (message instanceof QueryResult) {
+            QueryResult result = (QueryResult) message;
+            if (!mPendingQueries.complete(result.getUUID(), result.getData())) {
+                Log.w("arch", "Dropped a result for a query that is no longer"
+                        + " waiting: " + result);
+            }
+            return;
+        }
+
+        Node toNode = mNodeMap.get(message.getTo());
+        if (toNode == null) {
+            Log.w("arch", "Received a message for a node not on this device: "
+                    + message);
+            return;
+        }
+        if (message instanceof Query) {
+            Query query = (Query) message;
+            toNode.receiveQueryAsync(query).thenAccept(result -> sendMessage(
+                    new QueryResult(
+                            query.getFrom().asSubclass(Node.class),
+                            query.getTo().asSubclass(Node.class),
+                            query.getUUID(),
+                            result
+                    )
+            ));
+            return;
+        }
+        toNode.receiveMessage(message);
     }
 
+    /**
+     * Sends a query and waits for the result. Queries to another device
+     * wait at most {@link Query#DEFAULT_TIMEOUT}.
+     * @param query The query to send.
+     * @return The result, or null if the query failed.
+     */
     public JsonObject sendQuery(Query query) {
         Class<?> to = query.getTo();
         if (!mDeviceMap.containsKey(to)) {
@@ -183,12 +263,63 @@ public class NodeManager {
             // until it has finished getting the necessary data.
             return toNode.receiveQuery(query);
         }
-        // the node we want to send the message to is not on this device.
-        Log.e("arch", "CROSS DEVICE COMMUNICATION NOT SET UP: " + query);
-        // TODO: Implement waiting for the other device to respond...
+        // the node we want to send the message to is not on this device, so
+        // wait for its result to come back.
+        try {
+            return sendQueryAsync(query, Query.DEFAULT_TIMEOUT).get();
+        } catch (ExecutionException e) {
+            Log.e("arch", "Query failed: " + query, e);
+        } catch (InterruptedException e) {
+            Log.e("arch", "Interrupted waiting for " + query, e);
+            Thread.currentThread().interrupt();
+        }
         return null;
     }
 
+    /**
+     * Sends a query without waiting for the result. The result is matched
+     * to the query by {@link Query#getUUID()}.
+     * @param query   The query to send.
+     * @param timeout How long to wait for the result in ms.
+     * @return The future completed with the result. It fails if the node is
+     * not in the manifest, or the result takes longer than the timeout.
+     */
+    public CompletableFuture<JsonObject> sendQueryAsync(Query query, long timeout) {
+        Class<?> to = query.getTo();
+        if (!mDeviceMap.containsKey(to)) {
+            // the requested node from Message#getTo() was not on the manifest.
+            Log.w("arch", to.getName() + " is not a node in the manifest");
+            CompletableFuture<JsonObject> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalArgumentException(
+                    to.getName() + " is not a node in the manifest"
+            ));
+            return failed;
+        }
+
+        CompletableFuture<JsonObject> future = mPendingQueries.add(query, timeout);
+        // cancelled without being sent, since the manager has stopped.
+        if (future.isDone()) return future;
+        Device deviceRunningTo = mDeviceMap.get(to);
+        if (deviceRunningTo.equals(mDevice)) {
+            // the node we want to query is on the same device, so it fills
+            // the query out on its own threads.
+            mNodeMap.get(to).receiveQueryAsync(query).whenComplete(
+                    (result, error) -> {
+                        if (error != null) {
+                            mPendingQueries.fail(query.getUUID(), error);
+                        } else {
+                            mPendingQueries.complete(query.getUUID(), result);
+                        }
+                    }
+            );
+        } else if (!mMessenger.sendMessage(query, deviceRunningTo)) {
+            mPendingQueries.fail(query.getUUID(), new IllegalStateException(
+                    deviceRunningTo.getName() + " is not connected"
+            ));
+        }
+        return future;
+    }
+
 
     ///// Getters //////////////////////////////////////////////////////////////
     public Manifest getManifest() {
@@ -0,0 +1,200 @@
+package com.klinker.droneos.arch.nodes;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+
+import com.klinker.droneos.utils.Clock;
+
+/**
+ * A flag that a {@link Node} can wait on instead of polling it with
+ * {@link com.klinker.droneos.utils.Utils#sleep(long)}. One thread calls
+ * {@link Signal#set()} or {@link Signal#clear()}, and every thread waiting
+ * for that state wakes up right away. Threads that are waiting use no CPU.
+ * <p>
+ * Waiting is done through {@link ForkJoinPool#managedBlock}, so a node task
+ * waiting on the shared pool behind
+ * {@link com.klinker.droneos.utils.async.RunnableExecutor.Mode#VIRTUAL}
+ * does not starve the other tasks, and virtual threads are unmounted while
+ * they wait. Timeouts are kept by {@link Clock#get()}, so they follow a
+ * simulation running faster than real time.
+ * <p>
+ * A signal waits for a state, not a change: if it is set and cleared again
+ * before a waiting thread wakes up, that thread keeps waiting.
+ */
+public class Signal {
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * Whether or not the signal is set.
+     */
+    private volatile boolean mIsSet;
+
+    /**
+     * The threads waiting for the signal to change.
+     */
+    private final ConcurrentLinkedQueue<Thread> mWaiters;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a signal that is not set.
+     */
+    public Signal() {
+        this(false);
+    }
+
+    /**
+     * @param isSet Whether the signal starts off set.
+     */
+    public Signal(boolean isSet) {
+        mIsSet = isSet;
+        mWaiters = new ConcurrentLinkedQueue<>();
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Sets the signal, waking every thread waiting in
+     * {@link Signal#await()}.
+     */
+    public void set() {
+        setIsSet(true);
+    }
+
+    /**
+     * Clears the signal, waking every thread waiting in
+     * {@link Signal#awaitClear()}.
+     */
+    public void clear() {
+        setIsSet(false);
+    }
+
+    /**
+     * Waits until the signal is set.
+     *
+     * @return <code>false</code> if the thread was interrupted first.
+     */
+    public boolean await() {
+        return await(true, 0);
+    }
+
+    /**
+     * Waits until the signal is set, or the timeout passes.
+     *
+     * @param timeout The most time to wait in ms.
+     * @return Whether the signal is set.
+     */
+    public boolean await(long timeout) {
+        return timeout <= 0 ? mIsSet : await(true, timeout);
+    }
+
+    /**
+     * Waits until the signal is cleared.
+     *
+     * @return <code>false</code> if the thread was interrupted first.
+     */
+    public boolean awaitClear() {
+        return await(false, 0);
+    }
+
+    /**
+     * Waits until the signal is cleared, or the timeout passes.
+     *
+     * @param timeout The most time to wait in ms.
+     * @return Whether the signal is cleared.
+     */
+    public boolean awaitClear(long timeout) {
+        return timeout <= 0 ? !mIsSet : await(false, timeout);
+    }
+
+    /**
+     * @param state   The state to wait for.
+     * @param timeout The most time to wait in ms, or 0 to wait forever.
+     * @return Whether the signal is in that state.
+     */
+    private boolean await(boolean state, long timeout) {
+        if (mIsSet == state) return true;
+
+        Thread thread = Thread.currentThread();
+        mWaiters.add(thread);
+        try {
+            ForkJoinPool.managedBlock(new Waiter(state, timeout));
+        } catch (InterruptedException e) {
+            thread.interrupt();
+        } finally {
+            mWaiters.remove(thread);
+        }
+        return mIsSet == state;
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return Whether or not the signal is set. This never waits.
+     */
+    public boolean isSet() {
+        return mIsSet;
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    /**
+     * Sets or clears the signal, waking the threads waiting for it if it
+     * changed.
+     *
+     * @param isSet The new state.
+     */
+    public void setIsSet(boolean isSet) {
+        if (mIsSet == isSet) return;
+        mIsSet = isSet;
+        for (Thread waiter : mWaiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * Parks the waiting thread until the signal is in a state.
+     */
+    private class Waiter implements ForkJoinPool.ManagedBlocker {
+        private final Clock mClock;
+        private final boolean mState;
+        private final boolean mHasDeadline;
+        private final long mDeadline;
+
+        private Waiter(boolean state, long timeout) {
+            mClock = Clock.get();
+            mState = state;
+            mHasDeadline = timeout > 0;
+            mDeadline = mClock.deadlineAfter(timeout);
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            while (!isReleasable()) {
+                if (mHasDeadline) {
+                    mClock.parkUntil(Signal.this, mDeadline);
+                } else {
+                    LockSupport.park(Signal.this);
+                }
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return mIsSet == mState
+                    || (mHasDeadline && mClock.hasPassed(mDeadline));
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.klinker.droneos.arch.simulation;
+
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.CRASH_SPEED;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.DRAG;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.DRAG_RATE;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.HARD_LANDING_SPEED;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.MASS;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.MAX_LIFT;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.MAX_OMEGA;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.MAX_PWM;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.MAX_STRAFE;
+import static com.klinker.droneos.arch.simulation.map.DroneCollision.MAX_VELOCITY;
+
+import com.klinker.droneos.arch.simulation.map.DroneCollision;
+import com.klinker.droneos.utils.Utils;
+import com.klinker.droneos.utils.math.Point;
+
+/**
+ * The physics of many drones at once. Where each {@link DroneCollision}
+ * keeps its state in its own {@link Point}s behind synchronized getters,
+ * a swarm keeps each value for every drone in one primitive array, and
+ * updates them all in a single loop with no locks and no allocation.
+ * <p>
+ * {@link DroneSwarm#step(double)} does exactly the same math, in the same
+ * order, as {@link DroneCollision#updatePosition(double)}, so a drone in a
+ * swarm ends up in exactly the same place as a {@link DroneCollision} given
+ * the same inputs, which DroneSwarmTest checks.
+ * <p>
+ * A swarm is not thread safe. It should be stepped and read from one
+ * thread, like the simulation's.
+ */
+public class DroneSwarm {
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final int mCount;
+
+    // position [m]
+    private final double[] mX;
+    private final double[] mY;
+    private final double[] mZ;
+
+    // velocity [m/s]
+    private final double[] mVelocityX;
+    private final double[] mVelocityY;
+    private final double[] mVelocityZ;
+
+    /**
+     * The angle in radians, from the positive x-axis.
+     */
+    private final double[] mAngle;
+
+    // PWM signals, 0 to MAX_PWM
+    private final int[] mStrafeXPWM;
+    private final int[] mStrafeYPWM;
+    private final int[] mAnglePWM;
+    private final int[] mLiftPWM;
+
+    /**
+     * The number of times each drone hit the ground faster than
+     * {@link DroneCollision#HARD_LANDING_SPEED}, without crashing.
+     */
+    private final int[] mHardLandingCount;
+
+    /**
+     * Whether or not each drone has crashed.
+     */
+    private final boolean[] mIsCrashed;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a swarm with every drone on the ground at the origin, facing
+     * along the x-axis, with every PWM at 0.
+     *
+     * @param count The number of drones.
+     */
+    public DroneSwarm(int count) {
+        mCount = count;
+        mX = new double[count];
+        mY = new double[count];
+        mZ = new double[count];
+        mVelocityX = new double[count];
+        mVelocityY = new double[count];
+        mVelocityZ = new double[count];
+        mAngle = new double[count];
+        mStrafeXPWM = new int[count];
+        mStrafeYPWM = new int[count];
+        mAnglePWM = new int[count];
+        mLiftPWM = new int[count];
+        mHardLandingCount = new int[count];
+        mIsCrashed = new boolean[count];
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Updates every drone over several steps.
+     *
+     * @param dt       The time in seconds each step covers.
+     * @param subSteps The number of steps.
+     */
+    public void step(double dt, int subSteps) {
+        for (int i = 0; i < subSteps; i++) {
+            step(dt);
+        }
+    }
+
+    /**
+     * Updates every drone, the same way as
+     * {@link DroneCollision#updatePosition(double)}.
+     *
+     * @param dt The time in seconds since the last update.
+     */
+    public void step(double dt) {
+        // the same for every drone, so it is only worked out once.
+        double drag = Math.pow(1 - DRAG, dt * DRAG_RATE);
+        double[] x = mX, y = mY, z = mZ;
+        double[] vx = mVelocityX, vy = mVelocityY, vz = mVelocityZ;
+        double[] angle = mAngle;
+
+        for (int i = 0; i < mCount; i++) {
+            double ax = Utils.map(mStrafeXPWM[i], 0, MAX_PWM, -MAX_STRAFE, MAX_STRAFE);
+            double ay = Utils.map(mStrafeYPWM[i], 0, MAX_PWM, -MAX_STRAFE, MAX_STRAFE);
+            double az = (Utils.map(mLiftPWM[i], 0, MAX_PWM, 0, MAX_LIFT) - MASS) * 9.81 / MASS;
+            double omega = Utils.map(mAnglePWM[i], 0, MAX_PWM, -MAX_OMEGA, MAX_OMEGA);
+
+            double vxi = vx[i] + (ax * vx[i] < 0 ? 2 : 1) * ax * dt;
+            double vyi = vy[i] + (ay * vy[i] < 0 ? 2 : 1) * ay * dt;
+            double vzi = vz[i] + (az * vz[i] < 0 ? 2 : 1) * az * dt;
+            if (ax == 0) vxi *= drag;
+            if (ay == 0) vyi *= drag;
+
+            if (Math.abs(vxi) > MAX_VELOCITY.x) vxi = MAX_VELOCITY.x * (vxi < 0 ? -1 : 1);
+            if (Math.abs(vyi) > MAX_VELOCITY.y) vyi = MAX_VELOCITY.y * (vyi < 0 ? -1 : 1);
+            if (Math.abs(vzi) > MAX_VELOCITY.z) vzi = MAX_VELOCITY.z * (vzi < 0 ? -1 : 1);
+
+            double zi = z[i] + vzi * dt;
+            if (zi < 0) {
+                if (vzi < -CRASH_SPEED) {
+                    mIsCrashed[i] = true;
+                } else if (vzi < -HARD_LANDING_SPEED) {
+                    mHardLandingCount[i]++;
+                }
+                zi = 0;
+                vzi = 0;
+            }
+            if (zi > 0) {
+                double cos = Math.cos(angle[i]);
+                double sin = Math.sin(angle[i]);
+                x[i] += (vxi * cos + vyi * sin) * dt;
+                y[i] += (vxi * sin + vyi * cos) * dt;
+                angle[i] += omega * dt;
+            }
+
+            z[i] = zi;
+            vx[i] = vxi;
+            vy[i] = vyi;
+            vz[i] = vzi;
+        }
+    }
+
+    /**
+     * Copies a drone's pose, velocity and PWM signals into the swarm.
+     *
+     * @param index The drone in the swarm to set.
+     * @param drone The drone to copy.
+     */
+    public void set(int index, DroneCollision drone) {
+        Point position = drone.getPoint();
+        Point velocity = drone.getVelocity();
+        setPose(index, position.x, position.y, position.z, drone.getAngle());
+        mVelocityX[index] = velocity.x;
+        mVelocityY[index] = velocity.y;
+        mVelocityZ[index] = velocity.z;
+        setPWM(
+                index,
+                drone.getStrafeXPWM(), drone.getStrafeYPWM(),
+                drone.getAnglePWM(), drone.getLiftPWM()
+        );
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of drones.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    public double getX(int index) {
+        return mX[index];
+    }
+
+    public double getY(int index) {
+        return mY[index];
+    }
+
+    public double getZ(int index) {
+        return mZ[index];
+    }
+
+    public double getAngle(int index) {
+        return mAngle[index];
+    }
+
+    public double getVelocityX(int index) {
+        return mVelocityX[index];
+    }
+
+    public double getVelocityY(int index) {
+        return mVelocityY[index];
+    }
+
+    public double getVelocityZ(int index) {
+        return mVelocityZ[index];
+    }
+
+    public int getHardLandingCount(int index) {
+        return mHardLandingCount[index];
+    }
+
+    public boolean isCrashed(int index) {
+        return mIsCrashed[index];
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    /**
+     * @param index The drone to move.
+     * @param x     The x position [m].
+     * @param y     The y position [m].
+     * @param z     The height [m].
+     * @param angle The angle in radians, from the positive x-axis.
+     */
+    public void setPose(int index, double x, double y, double z, double angle) {
+        mX[index] = x;
+        mY[index] = y;
+        mZ[index] = z;
+        mAngle[index] = angle;
+    }
+
+    /**
+     * Sets the PWM signals of a drone, each from 0 to
+     * {@link DroneCollision#MAX_PWM}.
+     */
+    public void setPWM(int index, int strafeX, int strafeY, int angle,
+                       int lift) {
+        mStrafeXPWM[index] = strafeX;
+        mStrafeYPWM[index] = strafeY;
+        mAnglePWM[index] = angle;
+        mLiftPWM[index] = lift;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.klinker.droneos.arch.simulation;
+
+import java.util.Random;
+
+import com.klinker.droneos.arch.simulation.map.DroneCollision;
+import com.klinker.droneos.hardware.FlightController;
+import com.klinker.droneos.utils.math.Point;
+
+/**
+ * A simple autopilot for the {@link MonteCarloRunner}: it takes off, turns
+ * to face along the x-axis, flies over the target, then lands on it. Each
+ * axis is a proportional controller, and the position gain is the
+ * parameter being tuned. The position it flies by can be given Gaussian
+ * noise, like a real position sensor would have.
+ */
+public class LandingPilot implements MonteCarloRunner.Pilot {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The height [m] flown at while moving to the target.
+     */
+    public static final double CRUISE_ALTITUDE = 1.5;
+
+    /**
+     * How close [m] to the target the drone must be before landing.
+     */
+    public static final double LANDING_RADIUS = 0.1;
+
+    /**
+     * How fast [m/s] the drone comes down while landing.
+     */
+    public static final double DESCENT_SPEED = 0.3;
+
+    /**
+     * The lift that holds the drone's height.
+     */
+    private static final double HOVER_LIFT =
+            DroneCollision.MASS / DroneCollision.MAX_LIFT;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final double mPositionGain;
+
+    private final Point mTarget;
+
+    /**
+     * Adds noise to the position, or null for none.
+     */
+    private final Random mRandom;
+
+    /**
+     * The standard deviation [m] of the position noise.
+     */
+    private final double mNoise;
+
+    private boolean mIsLanding;
+
+    private boolean mHasTakenOff;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Lands on the origin.
+     *
+     * @param positionGain The strafe per meter from the target.
+     */
+    public LandingPilot(double positionGain) {
+        this(positionGain, new Point(0, 0, 0), null, 0);
+    }
+
+    /**
+     * Lands on the origin, with a noisy position.
+     *
+     * @param positionGain The strafe per meter from the target.
+     * @param random       Adds noise to the position.
+     * @param noise        The standard deviation [m] of the noise.
+     */
+    public LandingPilot(double positionGain, Random random, double noise) {
+        this(positionGain, new Point(0, 0, 0), random, noise);
+    }
+
+    /**
+     * @param positionGain The strafe per meter from the target.
+     * @param target       Where to land.
+     * @param random       Adds noise to the position, or null for none.
+     * @param noise        The standard deviation [m] of the noise.
+     */
+    public LandingPilot(double positionGain, Point target, Random random,
+                        double noise) {
+        mPositionGain = positionGain;
+        mTarget = target;
+        mRandom = random;
+        mNoise = noise;
+        mIsLanding = false;
+        mHasTakenOff = false;
+    }
+
+
+    ///// Pilot Callbacks //////////////////////////////////////////////////////
+
+    @Override
+    public boolean fly(double time, DroneCollision drone,
+                       FlightController controller) {
+        Point position = drone.getPoint();
+        Point velocity = drone.getVelocity();
+        double dx = mTarget.x - position.x + noise();
+        double dy = mTarget.y - position.y + noise();
+
+        if (position.z > 0) mHasTakenOff = true;
+        if (mIsLanding && mHasTakenOff && position.z == 0) {
+            controller.move(0, 0, 0, 0);
+            return false;
+        }
+
+        // the strafe axes only line up with x and y when facing along x.
+        double heading = Math.atan2(Math.sin(drone.getAngle()), Math.cos(drone.getAngle()));
+        double angle = clamp(-2 * heading, -1, 1);
+        boolean isAligned = Math.abs(heading) < 0.05;
+
+        double strafeX = 0;
+        double strafeY = 0;
+        if (isAligned && position.z > CRUISE_ALTITUDE / 2) {
+            strafeX = clamp(mPositionGain * dx - velocity.x, -1, 1) / 4;
+            strafeY = clamp(mPositionGain * dy - velocity.y, -1, 1) / 4;
+        }
+
+        if (!mIsLanding && isAligned && Math.hypot(dx, dy) < LANDING_RADIUS
+                && Math.hypot(velocity.x, velocity.y) < 0.1) {
+            mIsLanding = true;
+        }
+        double targetClimb = mIsLanding
+                ? -DESCENT_SPEED
+                : clamp(CRUISE_ALTITUDE - position.z, -1, 1);
+        double lift = clamp(HOVER_LIFT + 0.5 * (targetClimb - velocity.z), 0, 1);
+
+        controller.move(strafeX, strafeY, angle, lift);
+        return true;
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private double noise() {
+        return mRandom == null ? 0 : mRandom.nextGaussian() * mNoise;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+}
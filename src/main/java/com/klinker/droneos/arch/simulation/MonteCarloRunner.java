@@ -0,0 +1,448 @@
+package com.klinker.droneos.arch.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+import com.klinker.droneos.arch.simulation.map.DroneCollision;
+import com.klinker.droneos.hardware.FlightController;
+import com.klinker.droneos.hardware.FlightControllerSim;
+import com.klinker.droneos.utils.Log;
+import com.klinker.droneos.utils.math.Point;
+
+/**
+ * Flies a {@link Pilot} through many independent simulations at once, and
+ * sums up how they went: how far from the target the drone landed, how
+ * often it hit the ground hard, and how often it crashed. This is for
+ * tuning control parameters over thousands of runs instead of a single live
+ * one.
+ * <p>
+ * Every rollout gets its own {@link Simulation}, stepped directly with
+ * {@link Simulation#step()} instead of in real time, and its own
+ * {@link Random} seeded from the runner's seed and the rollout's index. So
+ * a run is repeatable no matter how many threads it is split across. The
+ * rollouts are split across a {@link ForkJoinPool} using every core.
+ * <pre>
+ * java -cp ... com.klinker.droneos.arch.simulation.MonteCarloRunner [rollouts] [seed]
+ * </pre>
+ */
+public class MonteCarloRunner {
+
+    ///// Interfaces ///////////////////////////////////////////////////////////
+
+    /**
+     * Flies the drone in a single rollout. Each rollout gets a new pilot, so
+     * it can keep state between frames.
+     */
+    public interface Pilot {
+        /**
+         * Called before each frame.
+         *
+         * @param time       The simulated time in seconds.
+         * @param drone      The simulated drone.
+         * @param controller Flies the drone.
+         * @return <code>false</code> once the mission is over, which ends
+         * the rollout.
+         */
+        boolean fly(double time, DroneCollision drone, FlightController controller);
+    }
+
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The default number of rollouts.
+     */
+    public static final int DEFAULT_ROLLOUT_COUNT = 1000;
+
+    /**
+     * The default most simulated seconds a rollout runs for.
+     */
+    public static final double DEFAULT_DURATION = 60;
+
+    /**
+     * The standard deviation [m] of the position noise given to the pilots
+     * in {@link MonteCarloRunner#main(String[])}.
+     */
+    private static final double POSITION_NOISE = 0.05;
+
+    /**
+     * Spreads the rollout index across the seed, so neighbouring rollouts
+     * do not get similar random sequences.
+     */
+    private static final long SEED_SPREAD = 0x9E3779B97F4A7C15L;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * Creates the pilot for each rollout from the rollout's random numbers.
+     */
+    private final Function<Random, Pilot> mPilots;
+
+    private int mRolloutCount;
+
+    private long mSeed;
+
+    private double mDuration;
+
+    private int mSubSteps;
+
+    private Point mTarget;
+
+    private int mParallelism;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param pilots Creates the pilot for each rollout from the rollout's
+     *               random numbers, ex: to add sensor noise.
+     */
+    public MonteCarloRunner(Function<Random, Pilot> pilots) {
+        mPilots = pilots;
+        mRolloutCount = DEFAULT_ROLLOUT_COUNT;
+        mSeed = 0;
+        mDuration = DEFAULT_DURATION;
+        mSubSteps = Simulation.DEFAULT_SUB_STEPS;
+        mTarget = new Point(0, 0, 0);
+        mParallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Runs every rollout and waits for them to finish.
+     *
+     * @return The combined outcome of the rollouts.
+     */
+    public Results run() {
+        Outcome[] outcomes = new Outcome[mRolloutCount];
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        try {
+            pool.invoke(new Rollouts(outcomes, 0, mRolloutCount));
+        } finally {
+            pool.shutdown();
+        }
+        return new Results(outcomes, System.nanoTime() - start);
+    }
+
+    /**
+     * Flies a single rollout.
+     *
+     * @param index The index of the rollout.
+     * @return How it went.
+     */
+    public Outcome runRollout(int index) {
+        Random random = new Random(mSeed + index * SEED_SPREAD);
+        Simulation simulation = new Simulation(random);
+        simulation.setSubSteps(mSubSteps);
+        DroneCollision drone = simulation.getDrone();
+        FlightControllerSim controller = new FlightControllerSim(drone, 0, 1, 2, 3);
+        controller.initialize();
+        Pilot pilot = mPilots.apply(random);
+
+        long frames = Math.round(mDuration * simulation.getFPS());
+        boolean isFinished = false;
+        for (long frame = 0; frame < frames && !drone.isCrashed(); frame++) {
+            if (!pilot.fly(simulation.getSimulatedTime(), drone, controller)) {
+                isFinished = true;
+                break;
+            }
+            simulation.step();
+        }
+
+        Point position = drone.getPoint();
+        return new Outcome(
+                Math.hypot(position.x - mTarget.x, position.y - mTarget.y),
+                isFinished && position.z == 0,
+                drone.getHardLandingCount(),
+                drone.isCrashed(),
+                simulation.getSimulatedTime()
+        );
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    public void setRolloutCount(int rolloutCount) {
+        mRolloutCount = rolloutCount;
+    }
+
+    /**
+     * @param seed Seeds every rollout, so runs with the same seed are the
+     *             same.
+     */
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * @param duration The most simulated seconds a rollout runs for.
+     */
+    public void setDuration(double duration) {
+        mDuration = duration;
+    }
+
+    public void setSubSteps(int subSteps) {
+        mSubSteps = subSteps;
+    }
+
+    /**
+     * @param target Where the drone should land. The landing error is the
+     *               horizontal distance from it.
+     */
+    public void setTarget(Point target) {
+        mTarget = target;
+    }
+
+    /**
+     * @param parallelism The number of threads flying rollouts.
+     */
+    public void setParallelism(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * Splits a range of rollouts in half until each task flies one.
+     */
+    private class Rollouts extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Outcome[] mOutcomes;
+        private final int mFrom;
+        private final int mTo;
+
+        private Rollouts(Outcome[] outcomes, int from, int to) {
+            mOutcomes = outcomes;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom == 1) {
+                mOutcomes[mFrom] = runRollout(mFrom);
+            } else if (mTo > mFrom) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(
+                        new Rollouts(mOutcomes, mFrom, middle),
+                        new Rollouts(mOutcomes, middle, mTo)
+                );
+            }
+        }
+    }
+
+    /**
+     * How a single rollout went.
+     */
+    public static class Outcome {
+        private final double mLandingError;
+        private final boolean mIsLanded;
+        private final int mHardLandingCount;
+        private final boolean mIsCrashed;
+        private final double mSimulatedTime;
+
+        private Outcome(double landingError, boolean isLanded,
+                        int hardLandingCount, boolean isCrashed,
+                        double simulatedTime) {
+            mLandingError = landingError;
+            mIsLanded = isLanded;
+            mHardLandingCount = hardLandingCount;
+            mIsCrashed = isCrashed;
+            mSimulatedTime = simulatedTime;
+        }
+
+        /**
+         * @return The horizontal distance from the target where the rollout
+         * ended.
+         */
+        public double getLandingError() {
+            return mLandingError;
+        }
+
+        /**
+         * @return Whether the pilot finished the mission on the ground.
+         */
+        public boolean isLanded() {
+            return mIsLanded;
+        }
+
+        public int getHardLandingCount() {
+            return mHardLandingCount;
+        }
+
+        public boolean isCrashed() {
+            return mIsCrashed;
+        }
+
+        public double getSimulatedTime() {
+            return mSimulatedTime;
+        }
+    }
+
+    /**
+     * The combined outcome of every rollout.
+     */
+    public static class Results {
+        private final Outcome[] mOutcomes;
+        private final long mElapsedNanos;
+        private final double[] mLandingErrors;
+        private final int mCrashCount;
+        private final int mHardLandingCount;
+        private final int mHardLandingRolloutCount;
+        private final double mSimulatedTime;
+
+        private Results(Outcome[] outcomes, long elapsedNanos) {
+            mOutcomes = outcomes;
+            mElapsedNanos = elapsedNanos;
+
+            double[] errors = new double[outcomes.length];
+            int landed = 0;
+            int crashes = 0;
+            int hardLandings = 0;
+            int hardLandingRollouts = 0;
+            double simulatedTime = 0;
+            for (Outcome outcome : outcomes) {
+                if (outcome.mIsLanded && !outcome.mIsCrashed) {
+                    errors[landed++] = outcome.mLandingError;
+                }
+                if (outcome.mIsCrashed) crashes++;
+                if (outcome.mHardLandingCount > 0) hardLandingRollouts++;
+                hardLandings += outcome.mHardLandingCount;
+                simulatedTime += outcome.mSimulatedTime;
+            }
+            mLandingErrors = Arrays.copyOf(errors, landed);
+            Arrays.sort(mLandingErrors);
+            mCrashCount = crashes;
+            mHardLandingCount = hardLandings;
+            mHardLandingRolloutCount = hardLandingRollouts;
+            mSimulatedTime = simulatedTime;
+        }
+
+        /**
+         * @return How each rollout went, by rollout index.
+         */
+        public Outcome[] getOutcomes() {
+            return mOutcomes;
+        }
+
+        public int getRolloutCount() {
+            return mOutcomes.length;
+        }
+
+        /**
+         * @return The number of rollouts that landed without crashing.
+         */
+        public int getLandedCount() {
+            return mLandingErrors.length;
+        }
+
+        public double getCrashRate() {
+            return mOutcomes.length == 0
+                    ? 0 : mCrashCount / (double) mOutcomes.length;
+        }
+
+        public int getCrashCount() {
+            return mCrashCount;
+        }
+
+        /**
+         * @return The hard landings across every rollout.
+         */
+        public int getHardLandingCount() {
+            return mHardLandingCount;
+        }
+
+        /**
+         * @return The number of rollouts with at least one hard landing.
+         */
+        public int getHardLandingRolloutCount() {
+            return mHardLandingRolloutCount;
+        }
+
+        /**
+         * @return The average landing error of the rollouts that landed.
+         */
+        public double getMeanLandingError() {
+            double sum = 0;
+            for (double error : mLandingErrors) {
+                sum += error;
+            }
+            return mLandingErrors.length == 0 ? 0 : sum / mLandingErrors.length;
+        }
+
+        /**
+         * @param percentile From 0 to 1, ex: 0.95.
+         * @return The landing error that fraction of the landed rollouts
+         * were within.
+         */
+        public double getLandingErrorPercentile(double percentile) {
+            if (mLandingErrors.length == 0) return 0;
+            int index = (int) Math.ceil(percentile * mLandingErrors.length) - 1;
+            return mLandingErrors[Math.max(0, Math.min(index, mLandingErrors.length - 1))];
+        }
+
+        /**
+         * @return The simulated seconds ran per second of wall time, across
+         * every thread.
+         */
+        public double getThroughput() {
+            return mElapsedNanos == 0 ? 0 : mSimulatedTime * 1e9 / mElapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%d rollouts: %d landed, error mean %.3f m, p50 %.3f m, "
+                            + "p95 %.3f m, max %.3f m; %d crashed (%.1f%%); "
+                            + "%d hard landings in %d rollouts; %.0f "
+                            + "simulated s in %.2f s (%.0fx)",
+                    getRolloutCount(), getLandedCount(),
+                    getMeanLandingError(),
+                    getLandingErrorPercentile(0.5),
+                    getLandingErrorPercentile(0.95),
+                    getLandingErrorPercentile(1),
+                    mCrashCount, getCrashRate() * 100,
+                    mHardLandingCount, mHardLandingRolloutCount,
+                    mSimulatedTime, mElapsedNanos / 1e9, getThroughput()
+            );
+        }
+    }
+
+
+    ///// Main /////////////////////////////////////////////////////////////////
+
+    /**
+     * Flies a {@link LandingPilot} with a few position gains and prints the
+     * results of each. The pilot's position has
+     * {@link MonteCarloRunner#POSITION_NOISE} of noise.
+     *
+     * @param args Optionally the number of rollouts, then the seed.
+     */
+    public static void main(String[] args) {
+        int rollouts = args.length > 0
+                ? Integer.parseInt(args[0]) : DEFAULT_ROLLOUT_COUNT;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        // thousands of rollouts would flood the log with hard landings.
+        Log.setLevel("simulation", Log.Level.ERROR);
+
+        for (double gain : new double[] {0.5, 1, 2, 4}) {
+            MonteCarloRunner runner = new MonteCarloRunner(
+                    random -> new LandingPilot(gain, random, POSITION_NOISE)
+            );
+            runner.setRolloutCount(rollouts);
+            runner.setSeed(seed);
+            System.out.println("gain " + gain + ": " + runner.run());
+        }
+        Log.flush();
+    }
+
+}
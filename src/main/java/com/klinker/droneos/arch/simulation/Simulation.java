@@ -2,6 +2,9 @@ package com.klinker.droneos.arch.simulation;
 
 import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -10,9 +13,13 @@ import com.klinker.droneos.arch.simulation.map.DroneCollision;
 import com.klinker.droneos.arch.simulation.map.BuoyCollision;
 import com.klinker.droneos.arch.simulation.map.CollisionObject;
 import com.klinker.droneos.arch.simulation.map.LineSegmentCollision;
+import com.klinker.droneos.arch.simulation.map.SimulationMap;
+import com.klinker.droneos.arch.simulation.map.SpatialGrid;
 import com.klinker.droneos.arch.simulation.map.Waypoint;
+import com.klinker.droneos.utils.Clock;
 import com.klinker.droneos.utils.Log;
 import com.klinker.droneos.utils.Utils;
+import com.klinker.droneos.utils.VirtualClock;
 import com.klinker.droneos.utils.async.RunnableExecutor;
 import com.klinker.droneos.utils.io.JsonFile;
 import com.klinker.droneos.utils.math.Point;
@@ -21,9 +28,28 @@ import com.klinker.droneos.utils.math.Point;
  * This is the class that holds all the data for the simulation. Once the
  * runnable from {@link Simulation#startRunnable()} is started, the simulation
  * will run in parallel and update at a given {@link Simulation#FPS}.
+ * <p>
+ * Each frame advances the physics by the same fixed time, split into
+ * {@link Simulation#getSubSteps()} smaller steps, no matter how long the
+ * frame took to compute, so a run with the same inputs always ends up in the
+ * same place. Frames are scheduled against {@link System#nanoTime()}
+ * deadlines, so the rate does not drift. If a frame runs past its deadline,
+ * the next ones run back to back until the simulation has caught up.
+ * <p>
+ * Observers, like the pose recorded to
+ * {@link Core#MAPPING_TELEMETRY}, run at their own rate in simulated time,
+ * see {@link Simulation#setObservationRate(double)}.
+ * <p>
+ * The simulation can also run faster than real time, or as fast as it can,
+ * with {@link Simulation#setSpeed(double)}. It then installs a
+ * {@link VirtualClock} as {@link Clock#get()} and advances it each frame,
+ * so the nodes' sleeps and timeouts keep pace with the simulated drone.
  *
- * To get an instance of the simulation, call {@link Simulation#getSingleton()}.
- * The single instance is stored in the core.
+ * To get the instance started by the core, call
+ * {@link Simulation#getSingleton()}. Other instances can be created and ran
+ * on their own, ex: with a
+ * {@link com.klinker.droneos.hardware.FlightControllerSim} built from
+ * {@link Simulation#getDrone()}.
  */
 public class Simulation {
 
@@ -49,6 +75,24 @@ public class Simulation {
      */
     public static final double FPS = 60.0;
 
+    /**
+     * The default number of physics steps in each frame.
+     */
+    public static final int DEFAULT_SUB_STEPS = 4;
+
+    /**
+     * The most time, in ns, the simulation will fall behind before giving up
+     * on catching up. The frames it is behind by are skipped instead.
+     */
+    private static final long MAX_LAG = 250_000_000L;
+
+    /**
+     * The drone's position and angle after each update.
+     */
+    private static final int TAG_POSE = Core.MAPPING_TELEMETRY.registerTag(
+            "simulated-pose", "x", "y", "z", "angle"
+    );
+
 
     ///// Member Variables /////////////////////////////////////////////////////
 
@@ -58,6 +102,43 @@ public class Simulation {
      */
     private ArrayList<CollisionObject> mObjects;
 
+    /**
+     * Finds the objects the drone might be touching, or null until there
+     * are objects.
+     */
+    private SpatialGrid mIndex;
+
+    /**
+     * Sweeps the drone against each object the index finds. Kept so a frame
+     * doesn't allocate a new one.
+     */
+    private final SpatialGrid.OnCandidateListener mSweep;
+
+    // the drone's move in the sub-step being checked, and the earliest
+    // object it hit along the way.
+    private double mSweepX;
+    private double mSweepY;
+    private double mSweepDX;
+    private double mSweepDY;
+    private double mImpactTime;
+    private CollisionObject mImpact;
+
+    /**
+     * The object the drone hit last frame, so a hit is only reported when
+     * it starts.
+     */
+    private CollisionObject mContact;
+
+    /**
+     * Where the drone was when it last hit something.
+     */
+    private final Point mContactPoint;
+
+    /**
+     * The number of objects the drone has hit.
+     */
+    private volatile long mCollisionCount;
+
     private ArrayList<BuoyCollision> mBuoys;
 
     private LinkedList<Waypoint> mWaypoints;
@@ -66,6 +147,75 @@ public class Simulation {
 
     private boolean mIsRunning;
 
+    /**
+     * The frames per second the physics runs at.
+     */
+    private double mFrameRate;
+
+    /**
+     * The number of physics steps in each frame.
+     */
+    private int mSubSteps;
+
+    /**
+     * The times per simulated second the observers are called.
+     */
+    private double mObservationRate;
+
+    /**
+     * How many times faster than real time the simulation runs, or 0 to
+     * run as fast as it can.
+     */
+    private double mSpeed;
+
+    /**
+     * The clock the nodes wait on while the simulation is not running in
+     * real time, otherwise null.
+     */
+    private VirtualClock mClock;
+
+    /**
+     * Called at {@link Simulation#mObservationRate}.
+     */
+    private final CopyOnWriteArrayList<Observer> mObservers;
+
+    /**
+     * The number of frames ran since the simulation started.
+     */
+    private volatile long mFrameCount;
+
+    /**
+     * The number of frames that finished after their deadline.
+     */
+    private volatile long mOverrunCount;
+
+    /**
+     * The most time, in ns, a frame finished after its deadline.
+     */
+    private volatile long mMaxOverrun;
+
+    /**
+     * The number of frames skipped after falling more than
+     * {@link Simulation#MAX_LAG} behind.
+     */
+    private volatile long mSkippedFrameCount;
+
+    /**
+     * The simulated time in seconds the observers are next due at.
+     */
+    private double mNextObservation;
+
+    /**
+     * {@link System#nanoTime()} when the simulation started.
+     */
+    private volatile long mStartNanos;
+
+    /**
+     * {@link System#nanoTime()} when the simulation finished, or 0 while it
+     * is running.
+     */
+    private volatile long mEndNanos;
+
 
     ///// Constructors /////////////////////////////////////////////////////////
 
@@ -74,14 +224,47 @@ public class Simulation {
      * data should be given in the manifest
      */
     public Simulation() {
-        mIsRunning = false;
-        // set boat start location
-        mDrone = new DroneCollision(
-                this,
+        this(
                 Utils.random(-9, 9),
                 Utils.random(-9, 9),
                 Utils.random(0, Math.PI * 2)
         );
+    }
+
+    /**
+     * Constructs a simulation whose drone starts at a pose picked from a
+     * random number generator, so runs with the same seed start in the same
+     * place.
+     *
+     * @param random Picks the drone's starting pose.
+     */
+    public Simulation(Random random) {
+        this(
+                -9 + random.nextDouble() * 18,
+                -9 + random.nextDouble() * 18,
+                random.nextDouble() * Math.PI * 2
+        );
+    }
+
+    /**
+     * Constructs a simulation with the drone at a given pose.
+     *
+     * @param x     The drone's starting x position.
+     * @param y     The drone's starting y position.
+     * @param angle The angle, in radians, the drone starts facing.
+     */
+    public Simulation(double x, double y, double angle) {
+        mIsRunning = false;
+        mFrameRate = FPS;
+        mSubSteps = DEFAULT_SUB_STEPS;
+        mObservationRate = FPS;
+        mSpeed = 1;
+        mObservers = new CopyOnWriteArrayList<>();
+        mObservers.add(Simulation::recordPose);
+        mSweep = this::sweep;
+        mContactPoint = new Point(0, 0);
+        // set boat start location
+        mDrone = new DroneCollision(this, x, y, angle);
 
         Log.v("simulation", "##### SIMULATION #####");
     }
@@ -100,31 +283,199 @@ public class Simulation {
      *         {@link RunnableExecutor}.
      */
     public Runnable startRunnable() {
+        // installed now, before any node can start waiting on the clock.
+        VirtualClock clock = mSpeed == 1 ? null : new VirtualClock();
+        mClock = clock;
+        if (clock != null) Clock.set(clock);
+
         return () -> {
             Log.d("simulation", "Simulation started");
             setIsRunning(true);
+            long framePeriod = Math.round(1e9 / mFrameRate);
+            long wallPeriod = mSpeed > 0 ? Math.round(framePeriod / mSpeed) : 0;
+
+            mFrameCount = 0;
+            mNextObservation = 0;
+            mOverrunCount = 0;
+            mMaxOverrun = 0;
+            mSkippedFrameCount = 0;
+            mEndNanos = 0;
+            mStartNanos = System.nanoTime();
+            long deadline = mStartNanos;
             while (isRunning()) {
-                long start = System.currentTimeMillis();
-                Simulation.this.loop();
-
-                // 60 fps is ~17ms / frame, so:
-                // sleep = 17 - (time it took to loop)
-                Utils.sleep((long) (
-                        (1000f / FPS) - (System.currentTimeMillis() - start)
-                ));
+                step();
+                if (clock != null) clock.advance(framePeriod);
+
+                // as fast as possible, so there is no deadline to keep.
+                if (wallPeriod == 0) continue;
+
+                deadline += wallPeriod;
+                long lateness = System.nanoTime() - deadline;
+                if (lateness > 0) {
+                    mOverrunCount++;
+                    if (lateness > mMaxOverrun) mMaxOverrun = lateness;
+                    if (lateness > MAX_LAG) {
+                        long skipped = lateness / wallPeriod;
+                        mSkippedFrameCount += skipped;
+                        deadline += skipped * wallPeriod;
+                    }
+                } else {
+                    parkUntil(deadline);
+                }
             }
-            Log.d("simulation", "Simulation finished");
+            mEndNanos = System.nanoTime();
+            if (clock != null) {
+                clock.release();
+                Clock.set(null);
+            }
+            Log.d("simulation", String.format(
+                    "Simulation finished: %d frames at %.1f Hz (target %.1f "
+                            + "Hz), %d overran by up to %.2f ms, %d skipped, "
+                            + "%.1f simulated s in %.1f s (%.1fx)",
+                    mFrameCount, getAchievedRate(), mFrameRate * mSpeed,
+                    mOverrunCount, mMaxOverrun / 1e6, mSkippedFrameCount,
+                    getSimulatedTime(), getElapsedTime(), getThroughput()
+            ));
         };
     }
 
     /**
-     * The main loop for the simulation. It checks for boat collisions and
-     * updates the boat position.
-     *
-     * Check for boat collisions, then update.
+     * Runs a single frame and calls the observers if they are due. This is
+     * what the runnable from {@link Simulation#startRunnable()} calls each
+     * frame, and can be called directly to step a simulation that is not
+     * started, as fast as the caller likes.
+     */
+    public void step() {
+        loop();
+        mFrameCount++;
+        if (mDrone.isCrashed() && this == getSingleton()) {
+            Log.e("simulation", "Crashed into the ground at "
+                    + mDrone.getImpactSpeed() + " m/s");
+            Core.exit(Core.EXIT_CODE_SIMULATION_FATAL);
+        }
+
+        // observers run on simulated time, so they see the same frames no
+        // matter how fast the simulation is running.
+        double simulatedTime = getSimulatedTime();
+        if (simulatedTime >= mNextObservation) {
+            observe();
+            mNextObservation += 1 / mObservationRate;
+            if (mNextObservation < simulatedTime) {
+                mNextObservation = simulatedTime + 1 / mObservationRate;
+            }
+        }
+    }
+
+    /**
+     * The main loop for the simulation. It updates the drone's position,
+     * once for each sub-step, sweeping it against the objects as it moves.
      */
     private void loop() {
-        mDrone.updatePosition();
+        double dt = getStepTime();
+        Point position = mDrone.getPoint();
+        CollisionObject contact = null;
+        for (int i = 0; i < mSubSteps; i++) {
+            double x = position.x;
+            double y = position.y;
+            mDrone.updatePosition(dt);
+            if (mIndex != null) {
+                CollisionObject impact = sweep(x, y, position.x - x, position.y - y);
+                if (impact != null) contact = impact;
+            }
+        }
+
+        if (contact != null && contact != mContact) {
+            mCollisionCount++;
+            Log.w("simulation", "Drone hit " + contact + " at " + mContactPoint);
+        }
+        mContact = contact;
+    }
+
+    /**
+     * Sweeps the drone along its move in a sub-step, and stops it at the
+     * first object it hits. The whole move is checked, not just where the
+     * drone ends up, so it can't pass through a thin wall or a buoy however
+     * fast it goes or however long the step is.
+     *
+     * @return The object hit, or null.
+     */
+    private CollisionObject sweep(double x, double y, double dx, double dy) {
+        if (dx == 0 && dy == 0) return null;
+        mSweepX = x;
+        mSweepY = y;
+        mSweepDX = dx;
+        mSweepDY = dy;
+        mImpactTime = CollisionObject.NO_IMPACT;
+        mImpact = null;
+
+        double r = mDrone.r;
+        mIndex.query(
+                Math.min(x, x + dx) - r, Math.min(y, y + dy) - r,
+                Math.max(x, x + dx) + r, Math.max(y, y + dy) + r,
+                mSweep
+        );
+        if (mImpact != null) {
+            mContactPoint.x = x + mImpactTime * dx;
+            mContactPoint.y = y + mImpactTime * dy;
+            mDrone.hit(mContactPoint.x, mContactPoint.y);
+        }
+        return mImpact;
+    }
+
+    /**
+     * The narrow phase: finds when the drone hits an object the index
+     * found, if it is earlier than any other.
+     */
+    private void sweep(CollisionObject candidate) {
+        double t = candidate.timeOfImpact(
+                mSweepX, mSweepY, mDrone.r, mSweepDX, mSweepDY
+        );
+        if (t < mImpactTime) {
+            mImpactTime = t;
+            mImpact = candidate;
+        }
+    }
+
+    /**
+     * Records the drone's position and angle.
+     */
+    private void recordPose() {
+        // only the simulation the nodes are flying is recorded.
+        if (this != getSingleton()) return;
+        Point position = mDrone.getPoint();
+        Core.MAPPING_TELEMETRY.record(
+                TAG_POSE, position.x, position.y, position.z, mDrone.getAngle()
+        );
+    }
+
+    private void observe() {
+        for (Observer observer : mObservers) {
+            observer.onObserve(this);
+        }
+    }
+
+    /**
+     * Waits until {@link System#nanoTime()} reaches a deadline.
+     */
+    private void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+
+    /**
+     * Adds an observer called at the observation rate while the simulation
+     * runs.
+     *
+     * @param observer Called on the simulation's thread.
+     */
+    public void addObserver(Observer observer) {
+        mObservers.add(observer);
+    }
+
+    public void removeObserver(Observer observer) {
+        mObservers.remove(observer);
     }
 
     public void stop() {
@@ -147,14 +498,123 @@ public class Simulation {
     }
 
     public double getFPS() {
-        return FPS;
+        return mFrameRate;
+    }
+
+    public int getSubSteps() {
+        return mSubSteps;
+    }
+
+    public double getObservationRate() {
+        return mObservationRate;
+    }
+
+    /**
+     * @return The time in seconds each physics step covers.
+     */
+    public double getStepTime() {
+        return 1 / (mFrameRate * mSubSteps);
+    }
+
+    /**
+     * @return The frames per second actually ran since the simulation
+     * started.
+     */
+    public double getAchievedRate() {
+        double elapsed = getElapsedTime();
+        return elapsed <= 0 ? 0 : mFrameCount / elapsed;
+    }
+
+    /**
+     * @return The seconds of simulated time ran since the simulation
+     * started.
+     */
+    public double getSimulatedTime() {
+        return mFrameCount / mFrameRate;
+    }
+
+    /**
+     * @return The seconds of wall time since the simulation started, until
+     * it finished.
+     */
+    public double getElapsedTime() {
+        long end = mEndNanos != 0 ? mEndNanos : System.nanoTime();
+        return (end - mStartNanos) / 1e9;
+    }
+
+    /**
+     * @return The simulated seconds ran per second of wall time. This is
+     * about {@link Simulation#getSpeed()} when it keeps up.
+     */
+    public double getThroughput() {
+        double elapsed = getElapsedTime();
+        return elapsed <= 0 ? 0 : getSimulatedTime() / elapsed;
+    }
+
+    /**
+     * @return How many times faster than real time the simulation is set to
+     * run, or 0 for as fast as it can.
+     */
+    public double getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * @return The clock the nodes wait on while the simulation is not
+     * running in real time, otherwise null.
+     */
+    public VirtualClock getClock() {
+        return mClock;
+    }
+
+    /**
+     * @return The number of frames ran since the simulation started.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The number of frames that finished after their deadline.
+     */
+    public long getOverrunCount() {
+        return mOverrunCount;
+    }
+
+    /**
+     * @return The most time, in ns, a frame finished after its deadline.
+     */
+    public long getMaxOverrun() {
+        return mMaxOverrun;
+    }
+
+    /**
+     * @return The number of frames skipped because the simulation fell too
+     * far behind to catch up.
+     */
+    public long getSkippedFrameCount() {
+        return mSkippedFrameCount;
+    }
+
+    /**
+     * @return The index of the objects, or null if there are none.
+     */
+    public SpatialGrid getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * @return The number of times the drone has hit an object.
+     */
+    public long getCollisionCount() {
+        return mCollisionCount;
     }
 
     public ArrayList<BuoyCollision> getBuoys() {
         return mBuoys;
     }
  
-    public LinkedList<Waypoint> geWaypoints() {
+    public LinkedList<Waypoint> getWaypoints() {
         return mWaypoints;
     }
 
@@ -165,4 +625,80 @@ public class Simulation {
         this.mIsRunning = isRunning;
     }
 
+    /**
+     * Sets the course the drone flies: the buoys, walls and waypoints. Must
+     * be set before the simulation starts.
+     *
+     * @param map The course, see {@link SimulationMap}.
+     */
+    public void setMap(SimulationMap map) {
+        mObjects = map.getObjects();
+        mIndex = map.getIndex();
+        mContact = null;
+        mBuoys = map.getBuoys();
+        mWaypoints = map.getWaypoints();
+    }
+
+    /**
+     * Sets the objects the drone can hit, and indexes them. Must be set
+     * before the simulation starts.
+     *
+     * @param objects The objects, which shouldn't move once set.
+     */
+    public void setObjects(ArrayList<CollisionObject> objects) {
+        mObjects = objects;
+        mIndex = objects == null ? null : SpatialGrid.build(objects);
+        mContact = null;
+    }
+
+    /**
+     * Sets the frames per second the physics runs at. Must be set before
+     * the simulation starts.
+     */
+    public void setFrameRate(double frameRate) {
+        mFrameRate = frameRate;
+    }
+
+    /**
+     * Sets the number of physics steps in each frame. More steps integrate
+     * more accurately without changing the frame rate. Must be set before
+     * the simulation starts.
+     */
+    public void setSubSteps(int subSteps) {
+        mSubSteps = Math.max(1, subSteps);
+    }
+
+    /**
+     * Sets the times per simulated second the observers are called. They
+     * are called at most once a frame. Must be set before the simulation
+     * starts.
+     */
+    public void setObservationRate(double observationRate) {
+        mObservationRate = observationRate;
+    }
+
+    /**
+     * Sets how many times faster than real time the simulation runs. Must be
+     * set before {@link Simulation#startRunnable()} is called.
+     *
+     * @param speed 1 for real time, ex: 100 for 100 times faster, or 0 to
+     *              run as fast as possible.
+     */
+    public void setSpeed(double speed) {
+        mSpeed = Math.max(0, speed);
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * Watches the simulation at the observation rate.
+     */
+    public interface Observer {
+        /**
+         * @param simulation The simulation being observed.
+         */
+        void onObserve(Simulation simulation);
+    }
+
 }
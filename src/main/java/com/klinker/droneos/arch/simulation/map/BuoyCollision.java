@@ -1,6 +1,5 @@
 package com.klinker.droneos.arch.simulation.map;
 
-import com.klinker.droneos.arch.simulation.SimulationUtils;
 import com.klinker.droneos.utils.math.Point;
 
 /**
@@ -8,6 +7,14 @@ import com.klinker.droneos.utils.math.Point;
  */
 public class BuoyCollision extends CircleCollision {
 
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The radius [m] of a buoy, in the same units as the map.
+     */
+    public static final double RADIUS = 0.25;
+
+
     ///// Member Variables /////////////////////////////////////////////////////
 
     /**
@@ -21,14 +28,24 @@ public class BuoyCollision extends CircleCollision {
     /**
      * Default constructor. Creates a buoy at a given location and gives it a
      * color.
-     * @param x The x location of the buoy.
-     * @param y The y location of the buoy.
+     * @param x The x location [m] of the buoy.
+     * @param y The y location [m] of the buoy.
      * @param color A hexadecimal string starting with a '#'. Check out
      *              {@link java.awt.Color} for more details.
      */
     public BuoyCollision(double x, double y, String color) {
-        super(new Point(x, y), SimulationUtils.mToGPS(0.25));
-        this.color = Integer.parseInt(color.substring(1), 16); // remove the #
+        this(x, y, Integer.parseInt(color.substring(1), 16)); // remove the #
+    }
+
+    /**
+     * Creates a buoy at a given location with a color already parsed.
+     * @param x The x location [m] of the buoy.
+     * @param y The y location [m] of the buoy.
+     * @param color The color as an int, ex: 0xff0000 for red.
+     */
+    public BuoyCollision(double x, double y, int color) {
+        super(new Point(x, y), RADIUS);
+        this.color = color;
     }
 
 
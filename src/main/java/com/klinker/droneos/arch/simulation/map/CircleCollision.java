@@ -13,19 +13,39 @@ public class CircleCollision extends CollisionObject {
     }
 
     @Override
-    protected Point collideLine(LineCollision other) {
-        return this.lineCircleCollision(other, this);
+    protected boolean collideLine(LineCollision other, Point result) {
+        return lineCircleCollision(other, this, result);
     }
 
     @Override
-    protected Point collideLineSegment(LineSegmentCollision other) {
-        Point p = this.lineCircleCollision(other, this);
-        return LineSegmentCollision.assertBounds(other, p) ? p : null;
+    protected boolean collideCircle(CircleCollision other, Point result) {
+        return circleCircleCollision(this, other, result);
     }
 
     @Override
-    protected Point collideCircle(BuoyCollision other) {
-        return this.circleCircleCollision(this, other);
+    public double timeOfImpact(double x, double y, double r, double dx,
+                               double dy) {
+        return circleSweep(x, y, dx, dy, c.x, c.y, this.r + r);
+    }
+
+    @Override
+    public double getMinX() {
+        return c.x - r;
+    }
+
+    @Override
+    public double getMinY() {
+        return c.y - r;
+    }
+
+    @Override
+    public double getMaxX() {
+        return c.x + r;
+    }
+
+    @Override
+    public double getMaxY() {
+        return c.y + r;
     }
 
     @Override
@@ -4,6 +4,13 @@ import com.klinker.droneos.utils.math.Point;
 
 public abstract class CollisionObject {
 
+    /**
+     * Returned by {@link CollisionObject#timeOfImpact} when there is no
+     * impact. It is larger than any time, so the earliest impact can be found
+     * with {@link Math#min(double, double)}.
+     */
+    public static final double NO_IMPACT = Double.POSITIVE_INFINITY;
+
     /**
      * Checks whether or not this collision object collides with another
      * collision object
@@ -13,83 +20,268 @@ public abstract class CollisionObject {
      * no collision.
      */
     public Point collide(CollisionObject other) {
-        if (other.getClass() == LineCollision.class) {
-            return collideLine((LineCollision) other);
-        }
-        if (other.getClass() == LineSegmentCollision.class) {
-            return collideLineSegment((LineSegmentCollision) other);
+        Point result = new Point(0, 0);
+        return collide(other, result) ? result : null;
+    }
+
+    /**
+     * Checks whether or not this collision object collides with another
+     * collision object, without allocating anything, so it can be called for
+     * every candidate in a frame.
+     *
+     * @param other  The other collision object to check with this one.
+     * @param result Set to the point of the collision, if there is one. Left
+     *               as it was otherwise.
+     * @return Whether or not there is a collision.
+     */
+    public boolean collide(CollisionObject other, Point result) {
+        if (other instanceof LineCollision) {
+            return collideLine((LineCollision) other, result);
         }
         if (other instanceof CircleCollision) {
-            return collideCircle((BuoyCollision) other);
+            return collideCircle((CircleCollision) other, result);
         }
-        return null;
+        return false;
     }
 
-    protected abstract Point collideLine(LineCollision other);
-
-    protected abstract Point collideLineSegment(LineSegmentCollision other);
-
-    protected abstract Point collideCircle(BuoyCollision other);
-
-    /**
-     * Determines the collision between a line and a circle.
-     * @param l The {@link LineCollision}
-     * @param cir The {@link CircleCollision}
-     * @return The Point where they collide or null if there is no collision.
-     */
-    protected Point lineCircleCollision(LineCollision l, CircleCollision cir) {
-        double m1 = (l.p2.y - l.p1.y) / (l.p2.x - l.p1.x);
-        double A = l.p1.y - m1 * l.p1.x - cir.c.y;
-        double a = m1 * m1 + 1f;
-        double b = 2f * m1 * A - 2f * cir.c.x;
-        double c = A * A + cir.c.x * cir.c.x - cir.r * cir.r;
-        double b2 = b * b;
-        double ac4 = 4f * a * c;
-        if (b2 > ac4) {
-            // There are 2 collision points (1 and 2), currently just choosing
-            // one.
-            // TODO: Determine which point is closer
-            double x1 = (-b + Math.sqrt(b2 - ac4)) / (2f * a);
-            double y1 = m1 * (x1 - l.p1.x) + l.p1.y;
-            double x2 = (-b +  Math.sqrt(b2 - ac4)) / (2f * a);
-            double y2 = m1 * (x1 - l.p1.x) + l.p1.y;
-            return new Point(x1, y1);
-        } else if (b2 == ac4) {
-            // Only 1 intersect.
-            double x = -b / 2f / a;
-            double y = m1 * (x - l.p1.x) + l.p1.y;
-            return new Point(x, y);
-        } else {
-            // No intersects
-            return null;
+    /**
+     * @param other  A line, or a line segment if it is bounded.
+     * @param result Set to the point of the collision, if there is one.
+     * @return Whether or not there is a collision.
+     */
+    protected abstract boolean collideLine(LineCollision other, Point result);
+
+    /**
+     * @param other  The circle.
+     * @param result Set to the point of the collision, if there is one.
+     * @return Whether or not there is a collision.
+     */
+    protected abstract boolean collideCircle(CircleCollision other, Point result);
+
+    /**
+     * Sweeps a circle along a straight line, and finds when it first
+     * touches this object. Unlike checking where the circle ends up, this
+     * can't miss an object the circle passes all the way through in one
+     * step, however fast it goes. A circle already touching the object only
+     * counts as an impact if it is moving further into it, so it can always
+     * move away.
+     *
+     * @param x  The x of the circle's center when it starts moving.
+     * @param y  The y of the circle's center when it starts moving.
+     * @param r  The radius of the circle.
+     * @param dx How far the circle moves along x.
+     * @param dy How far the circle moves along y.
+     * @return The fraction of the move, from 0 to 1, when the circle first
+     * touches this object, or {@link CollisionObject#NO_IMPACT}.
+     */
+    public abstract double timeOfImpact(double x, double y, double r,
+                                        double dx, double dy);
+
+    /**
+     * @return Whether or not the object fits in a box. If not, like an
+     * infinite {@link LineCollision}, the bounds are meaningless and the
+     * object may collide with anything.
+     */
+    public boolean isBounded() {
+        return true;
+    }
+
+    /**
+     * @return The smallest x of the box around the object.
+     */
+    public abstract double getMinX();
+
+    /**
+     * @return The smallest y of the box around the object.
+     */
+    public abstract double getMinY();
+
+    /**
+     * @return The largest x of the box around the object.
+     */
+    public abstract double getMaxX();
+
+    /**
+     * @return The largest y of the box around the object.
+     */
+    public abstract double getMaxY();
+
+    /**
+     * Determines the collision between a line and a circle. They collide if
+     * the point on the line closest to the circle's center is inside the
+     * circle. Only squared distances are compared, so there are no roots.
+     *
+     * @param l      The {@link LineCollision}, which is only as long as its
+     *               points if it is a {@link LineSegmentCollision}.
+     * @param cir    The {@link CircleCollision}
+     * @param result Set to the point on the line closest to the circle's
+     *               center, if they collide.
+     * @return Whether or not they collide.
+     */
+    protected static boolean lineCircleCollision(LineCollision l,
+                                                 CircleCollision cir,
+                                                 Point result) {
+        double dx = l.p2.x - l.p1.x;
+        double dy = l.p2.y - l.p1.y;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0
+                : ((cir.c.x - l.p1.x) * dx + (cir.c.y - l.p1.y) * dy) / lengthSquared;
+        if (l.isBounded()) {
+            t = Math.max(0, Math.min(1, t));
         }
+
+        double x = l.p1.x + t * dx;
+        double y = l.p1.y + t * dy;
+        double ex = cir.c.x - x;
+        double ey = cir.c.y - y;
+        if (ex * ex + ey * ey > cir.r * cir.r) {
+            return false;
+        }
+        result.x = x;
+        result.y = y;
+        return true;
     }
 
-    protected Point lineLineCollision(LineCollision l1, LineCollision l2) {
-        double m1 = (l1.p2.y - l1.p1.y) / (l1.p2.x - l1.p1.x);
-        double m2 = (l2.p2.y - l2.p1.y) / (l2.p2.x - l2.p1.x);
-        if (m1 == m2) { // parallel
-            return null;
-        } else {
-            double x =
-                    (m1 * l1.p1.x - m2 * l2.p1.x - l1.p1.y + l2.p1.y)
-                            / (m1 - m2);
-            double y = m1 * (x - l1.p1.x) + l1.p1.y;
-            return new Point(x, y);
+    /**
+     * Determines the collision between two lines, either of which may be a
+     * {@link LineSegmentCollision}. Parallel lines never collide.
+     *
+     * @param result Set to where the lines cross, if they collide.
+     * @return Whether or not they collide.
+     */
+    protected static boolean lineLineCollision(LineCollision l1,
+                                               LineCollision l2,
+                                               Point result) {
+        double dx1 = l1.p2.x - l1.p1.x;
+        double dy1 = l1.p2.y - l1.p1.y;
+        double dx2 = l2.p2.x - l2.p1.x;
+        double dy2 = l2.p2.y - l2.p1.y;
+        double cross = dx1 * dy2 - dy1 * dx2;
+        if (cross == 0) { // parallel
+            return false;
         }
+
+        // how far along each line, from p1 to p2, they cross.
+        double ex = l2.p1.x - l1.p1.x;
+        double ey = l2.p1.y - l1.p1.y;
+        double t = (ex * dy2 - ey * dx2) / cross;
+        double u = (ex * dy1 - ey * dx1) / cross;
+        if (l1.isBounded() && (t < 0 || t > 1)) return false;
+        if (l2.isBounded() && (u < 0 || u > 1)) return false;
+
+        result.x = l1.p1.x + t * dx1;
+        result.y = l1.p1.y + t * dy1;
+        return true;
     }
 
-    protected Point circleCircleCollision(CircleCollision c1,
-                                          CircleCollision c2) {
-        double d = Math.sqrt(Math.pow(c1.c.x - c2.c.x, 2)
-                + Math.pow(c1.c.y - c2.c.y, 2)
-        );
-        if (d <= (c1.r + c2.r)) {
-            double x = (c1.c.x + c2.c.x) / 2f;
-            double y = (c1.c.y + c2.c.y) / 2f;
-            return new Point(x, y);
+    /**
+     * Determines the collision between two circles, comparing squared
+     * distances.
+     *
+     * @param result Set to halfway between the centers, if they collide.
+     * @return Whether or not they collide.
+     */
+    protected static boolean circleCircleCollision(CircleCollision c1,
+                                                   CircleCollision c2,
+                                                   Point result) {
+        double dx = c1.c.x - c2.c.x;
+        double dy = c1.c.y - c2.c.y;
+        double r = c1.r + c2.r;
+        if (dx * dx + dy * dy > r * r) {
+            return false;
+        }
+        result.x = (c1.c.x + c2.c.x) / 2;
+        result.y = (c1.c.y + c2.c.y) / 2;
+        return true;
+    }
+
+    /**
+     * Finds when a moving circle first touches a still one.
+     *
+     * @param radius The sum of both circles' radii.
+     * @return The fraction of the move, or {@link CollisionObject#NO_IMPACT}.
+     * @see CollisionObject#timeOfImpact(double, double, double, double, double)
+     */
+    protected static double circleSweep(double x, double y, double dx,
+                                        double dy, double cx, double cy,
+                                        double radius) {
+        double mx = x - cx;
+        double my = y - cy;
+        double b = mx * dx + my * dy;
+        if (b >= 0) { // not getting any closer
+            return NO_IMPACT;
+        }
+        double c = mx * mx + my * my - radius * radius;
+        if (c <= 0) { // already touching
+            return 0;
+        }
+        double a = dx * dx + dy * dy;
+        double discriminant = b * b - a * c;
+        if (discriminant < 0) { // passes by
+            return NO_IMPACT;
+        }
+        // only the first of the two roots is when they start touching.
+        double t = (-b - Math.sqrt(discriminant)) / a;
+        return t <= 1 ? t : NO_IMPACT;
+    }
+
+    /**
+     * Finds when a moving circle first touches a line, or a
+     * {@link LineSegmentCollision}. A segment is hit either along its length
+     * or on one of its ends.
+     *
+     * @return The fraction of the move, or {@link CollisionObject#NO_IMPACT}.
+     * @see CollisionObject#timeOfImpact(double, double, double, double, double)
+     */
+    protected static double lineSweep(LineCollision l, double x, double y,
+                                      double r, double dx, double dy) {
+        double lx = l.p2.x - l.p1.x;
+        double ly = l.p2.y - l.p1.y;
+        double lengthSquared = lx * lx + ly * ly;
+        if (lengthSquared == 0) {
+            return circleSweep(x, y, dx, dy, l.p1.x, l.p1.y, r);
         }
-        return null;
+
+        // the circle's distance from the line at the start, and how much it
+        // changes over the move, both times the length of the line.
+        double distance = lx * (y - l.p1.y) - ly * (x - l.p1.x);
+        double change = lx * dy - ly * dx;
+        double radius = r * Math.sqrt(lengthSquared);
+        boolean isApproaching = distance * change < 0;
+
+        if (Math.abs(distance) <= radius) {
+            if (!l.isBounded() || isAlongSegment(l, x, y, lengthSquared)) {
+                return isApproaching ? 0 : NO_IMPACT;
+            }
+        } else if (isApproaching) {
+            double t = (Math.abs(distance) - radius) / Math.abs(change);
+            if (t > 1) {
+                return NO_IMPACT;
+            }
+            if (!l.isBounded() || isAlongSegment(l, x + t * dx, y + t * dy, lengthSquared)) {
+                return t;
+            }
+        } else {
+            // the ends are within a radius of the line, so can't be hit
+            // without getting that close first.
+            return NO_IMPACT;
+        }
+
+        return Math.min(
+                circleSweep(x, y, dx, dy, l.p1.x, l.p1.y, r),
+                circleSweep(x, y, dx, dy, l.p2.x, l.p2.y, r)
+        );
+    }
+
+    /**
+     * @return Whether or not a point is beside a segment, rather than past
+     * one of its ends.
+     */
+    private static boolean isAlongSegment(LineCollision l, double x, double y,
+                                          double lengthSquared) {
+        double along = (x - l.p1.x) * (l.p2.x - l.p1.x)
+                + (y - l.p1.y) * (l.p2.y - l.p1.y);
+        return along >= 0 && along <= lengthSquared;
     }
 
 }
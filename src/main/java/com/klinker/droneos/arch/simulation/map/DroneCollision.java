@@ -53,6 +53,28 @@ public class DroneCollision extends CircleCollision {
      */
     public static final int MAX_PWM = 2500;
 
+    /**
+     * The fraction of the horizontal velocity lost every 1 / {@link #DRAG_RATE}
+     * seconds while the drone is not strafing on that axis.
+     */
+    public static final double DRAG = 0.1;
+
+    /**
+     * The rate [Hz] {@link #DRAG} was tuned at, so the drag is the same no
+     * matter how often the drone is updated.
+     */
+    public static final double DRAG_RATE = 60;
+
+    /**
+     * Hitting the ground faster than this [m/s] counts as a hard landing.
+     */
+    public static final double HARD_LANDING_SPEED = 0.5;
+
+    /**
+     * Hitting the ground faster than this [m/s] is a crash.
+     */
+    public static final double CRASH_SPEED = 1;
+
     ///// Member Variables /////////////////////////////////////////////////////
 
     /**
@@ -105,6 +127,23 @@ public class DroneCollision extends CircleCollision {
      */
     private int mStrafeYPWM;
 
+    /**
+     * The number of times the drone hit the ground faster than
+     * {@link #HARD_LANDING_SPEED}, without crashing.
+     */
+    private int mHardLandingCount;
+
+    /**
+     * Whether or not the drone hit the ground faster than
+     * {@link #CRASH_SPEED}.
+     */
+    private boolean mIsCrashed;
+
+    /**
+     * How fast [m/s] the drone hit the ground when it crashed.
+     */
+    private double mImpactSpeed;
+
     ///// Constructors /////////////////////////////////////////////////////////
 
     /**
@@ -127,13 +166,25 @@ public class DroneCollision extends CircleCollision {
 
     ///// Member Methods ///////////////////////////////////////////////////////
 
+    /**
+     * Applies the physics of the boat's motion resistance to the actual
+     * velocity of the boat, over one update of
+     * {@link Simulation#getStepTime()} seconds.
+     */
+    public void updatePosition() {
+        updatePosition(mSimulation == null
+                ? 1.0 / Simulation.FPS : mSimulation.getStepTime());
+    }
+
     /**
      * Applies the physics of the boat's motion resistance to the actual
      * velocity of the boat.
      *
      * Update position then change velocity and angle.
+     *
+     * @param dt The time in seconds since the last update.
      */
-    public void updatePosition() {
+    public void updatePosition(double dt) {
         // Update third order
         this.mAcceleration.x = Utils.map(getStrafeXPWM(), 0, MAX_PWM, -MAX_STRAFE, MAX_STRAFE);
         this.mAcceleration.y = Utils.map(getStrafeYPWM(), 0, MAX_PWM, -MAX_STRAFE, MAX_STRAFE);
@@ -142,13 +193,17 @@ public class DroneCollision extends CircleCollision {
 
 
         // Update Second order
-        mVelocity.x += (mAcceleration.x * mVelocity.x < 0 ? 2 : 1) * mAcceleration.x / Simulation.FPS;
-        mVelocity.y += (mAcceleration.y * mVelocity.y < 0 ? 2 : 1) * mAcceleration.y / Simulation.FPS;
-        mVelocity.z += (mAcceleration.z * mVelocity.z < 0 ? 2 : 1) * mAcceleration.z / Simulation.FPS;
-        mAngularVelocity = mAngularAcceleration / Simulation.FPS;
-
-        if (mAcceleration.x == 0) mVelocity.x -= 0.1 * mVelocity.x;
-        if (mAcceleration.y == 0) mVelocity.y -= 0.1 * mVelocity.y;
+        mVelocity.x += (mAcceleration.x * mVelocity.x < 0 ? 2 : 1) * mAcceleration.x * dt;
+        mVelocity.y += (mAcceleration.y * mVelocity.y < 0 ? 2 : 1) * mAcceleration.y * dt;
+        mVelocity.z += (mAcceleration.z * mVelocity.z < 0 ? 2 : 1) * mAcceleration.z * dt;
+        // the angle stick sets the turning speed directly, up to MAX_OMEGA.
+        mAngularVelocity = Utils.map(getAnglePWM(), 0, MAX_PWM, -MAX_OMEGA, MAX_OMEGA);
+
+        if (mAcceleration.x == 0 || mAcceleration.y == 0) {
+            double drag = Math.pow(1 - DRAG, dt * DRAG_RATE);
+            if (mAcceleration.x == 0) mVelocity.x *= drag;
+            if (mAcceleration.y == 0) mVelocity.y *= drag;
+        }
         // if (mAngularAcceleration == 0) mAngularVelocity -= 0.1 * mAngularVelocity;
         // if (Math.abs(mVelocity.x) < 0.01) mVelocity.x = 0;
         // if (Math.abs(mVelocity.y) < 0.01) mVelocity.y = 0;
@@ -161,14 +216,16 @@ public class DroneCollision extends CircleCollision {
             mVelocity.z = MAX_VELOCITY.z * (mVelocity.z < 0 ? -1 : 1);
 
         // Update first order
-        this.c.z += mVelocity.z / 60.0;
+        this.c.z += mVelocity.z * dt;
 
         if (this.c.z < 0) {
-            if (mVelocity.z < -0.5) {
+            if (mVelocity.z < -CRASH_SPEED) {
+                // the simulation decides what a crash means, see isCrashed().
+                mIsCrashed = true;
+                mImpactSpeed = -mVelocity.z;
+            } else if (mVelocity.z < -HARD_LANDING_SPEED) {
+                mHardLandingCount++;
                 Log.w("simulation", "Hit the ground hard at " + mVelocity.z + " m/s");
-            } else if (mVelocity.z < -1) {
-                Log.e("simulation", "Crashed into the ground at " + mVelocity.z + " m/s");
-                Core.exit(Core.EXIT_CODE_SIMULATION_FATAL);
             }
             this.c.z = 0;
             mVelocity.z = 0;
@@ -177,9 +234,9 @@ public class DroneCollision extends CircleCollision {
         if (this.c.z > 0) {
             double xSpeed = mVelocity.x * Math.cos(mAngle) + mVelocity.y * Math.sin(mAngle);
             double ySpeed = mVelocity.x * Math.sin(mAngle) + mVelocity.y * Math.cos(mAngle);
-            this.c.x += xSpeed / 60.0;
-            this.c.y += ySpeed / 60.0;
-            mAngle += mAngularVelocity / 60.0;
+            this.c.x += xSpeed * dt;
+            this.c.y += ySpeed * dt;
+            mAngle += mAngularVelocity * dt;
         }
         // if (this.c.z > 5) {
         //     Log.e("simulation", "Crashed into the ceiling at " + mVelocity.z + " m/s");
@@ -187,12 +244,56 @@ public class DroneCollision extends CircleCollision {
         // }
 
         // Log.d("simulation", "position: " + this.c.toString());
-        Log.v("simulation", "velocity: " + mVelocity.toString());
+        if (Log.isLoggable("simulation", Log.Level.VERBOSE)) {
+            Point velocity = new Point(mVelocity.x, mVelocity.y, mVelocity.z);
+            Log.v("simulation", () -> "velocity: " + velocity);
+        }
         // Log.w("simulation", "accelera: " + mAcceleration.toString());
     }
 
+    /**
+     * Moves the drone back to where it hit something, and stops it moving
+     * sideways so it stays there until it is flown away.
+     *
+     * @param x The x of the drone's center when it hit.
+     * @param y The y of the drone's center when it hit.
+     */
+    public synchronized void hit(double x, double y) {
+        this.c.x = x;
+        this.c.y = y;
+        mVelocity.x = 0;
+        mVelocity.y = 0;
+    }
+
     ///// Getters //////////////////////////////////////////////////////////////
 
+    /**
+     * @return The number of times the drone hit the ground faster than
+     * {@link #HARD_LANDING_SPEED}, without crashing.
+     */
+    public int getHardLandingCount() {
+        return mHardLandingCount;
+    }
+
+    /**
+     * @return Whether or not the drone hit the ground faster than
+     * {@link #CRASH_SPEED}.
+     */
+    public boolean isCrashed() {
+        return mIsCrashed;
+    }
+
+    /**
+     * @return How fast [m/s] the drone hit the ground when it crashed.
+     */
+    public double getImpactSpeed() {
+        return mImpactSpeed;
+    }
+
+    public synchronized Point getVelocity() {
+        return mVelocity;
+    }
+
     public synchronized Point getLinearAcceleration() {
         return mAcceleration;
     }
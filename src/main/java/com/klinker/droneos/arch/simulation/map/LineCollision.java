@@ -16,19 +16,47 @@ public class LineCollision extends CollisionObject {
     }
 
     @Override
-    protected Point collideLine(LineCollision other) {
-        return this.lineLineCollision(this, other);
+    protected boolean collideLine(LineCollision other, Point result) {
+        return lineLineCollision(this, other, result);
     }
 
     @Override
-    protected Point collideLineSegment(LineSegmentCollision other) {
-        Point p = collideLine(other);
-        return LineSegmentCollision.assertBounds(other, p) ? p : null;
+    protected boolean collideCircle(CircleCollision other, Point result) {
+        return lineCircleCollision(this, other, result);
     }
 
     @Override
-    protected Point collideCircle(BuoyCollision other) {
-        return this.lineCircleCollision(this, other);
+    public double timeOfImpact(double x, double y, double r, double dx,
+                               double dy) {
+        return lineSweep(this, x, y, r, dx, dy);
+    }
+
+    /**
+     * @return <code>false</code>, since the line goes on forever.
+     */
+    @Override
+    public boolean isBounded() {
+        return false;
+    }
+
+    @Override
+    public double getMinX() {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public double getMinY() {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public double getMaxX() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public double getMaxY() {
+        return Double.POSITIVE_INFINITY;
     }
 
     @Override
@@ -8,24 +8,33 @@ public class LineSegmentCollision extends LineCollision {
         super(p1, p2);
     }
 
+    /**
+     * @return <code>true</code>, so collisions are only found between the
+     * two points.
+     */
     @Override
-    protected Point collideLine(LineCollision other) {
-        Point p = this.lineLineCollision(this, other);
-        return LineSegmentCollision.assertBounds(this, p) ? p : null;
+    public boolean isBounded() {
+        return true;
     }
 
     @Override
-    protected Point collideLineSegment(LineSegmentCollision other) {
-        Point p = collideLine(other);
-        return LineSegmentCollision.assertBounds(other, p)
-                && LineSegmentCollision.assertBounds(this, p)
-                ? p : null;
+    public double getMinX() {
+        return Math.min(p1.x, p2.x);
     }
 
     @Override
-    protected Point collideCircle(BuoyCollision other) {
-        Point p = this.lineCircleCollision(this, other);
-        return LineSegmentCollision.assertBounds(this, p) ? p : null;
+    public double getMinY() {
+        return Math.min(p1.y, p2.y);
+    }
+
+    @Override
+    public double getMaxX() {
+        return Math.max(p1.x, p2.x);
+    }
+
+    @Override
+    public double getMaxY() {
+        return Math.max(p1.y, p2.y);
     }
 
     public static boolean assertBounds(LineSegmentCollision collision,
@@ -0,0 +1,506 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import com.google.gson.stream.JsonReader;
+import com.klinker.droneos.utils.Log;
+import com.klinker.droneos.utils.math.LocalFrame;
+import com.klinker.droneos.utils.math.Point;
+
+/**
+ * The course the simulated drone flies, loaded from the json file named by
+ * "simulation_map" in the manifest:
+ * <pre>
+ * {
+ *   "buoys": [{ "x": 0, "y": 0, "color": "#ff0000" }],
+ *   "walls": [{ "x1": 0, "y1": 0, "x2": 1, "y2": 0 }],
+ *   "lines": [{ "x1": 0, "y1": 0, "x2": 1, "y2": 0 }],
+ *   "waypoints": [{ "x": 0, "y": 0, "radius": 1 }],
+ *   "origin": { "longitude": -86.2, "latitude": 41.7 },
+ *   "gps_waypoints": [{ "longitude": -86.2, "latitude": 41.7, "radius": 1 }]
+ * }
+ * </pre>
+ * Every position and radius is in meters, the same units the simulated
+ * drone moves in, and every buoy is {@link BuoyCollision#RADIUS} in
+ * radius. The exception is "gps_waypoints", given in degrees, which are
+ * moved into meters once, with a {@link LocalFrame} centered on the
+ * "origin", and follow the other waypoints. Walls are {@link LineSegmentCollision}s and lines are infinitely
+ * long {@link LineCollision}s. Every section is optional, and anything else
+ * is skipped.
+ * <p>
+ * The json is read one value at a time with a {@link JsonReader}, straight
+ * into the objects, instead of being parsed into a tree first, so a big
+ * course never has to fit in memory twice. Once parsed, the course is
+ * cached in a compact binary form named after the hash of the json file,
+ * so loading the same course again only reads the cache.
+ */
+public class SimulationMap {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The first bytes of a cache file, "MAP1".
+     */
+    private static final int CACHE_MAGIC = 0x4D415031;
+
+    /**
+     * Changed whenever the cache layout changes, so old caches are ignored.
+     */
+    private static final int CACHE_VERSION = 1;
+
+    private static final int BUOY_SIZE = 8 + 8 + 4;
+    private static final int LINE_SIZE = 4 * 8;
+    private static final int WAYPOINT_SIZE = 3 * 8;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final ArrayList<BuoyCollision> mBuoys;
+
+    private final ArrayList<LineSegmentCollision> mWalls;
+
+    private final ArrayList<LineCollision> mLines;
+
+    private final LinkedList<Waypoint> mWaypoints;
+
+    /**
+     * Every buoy, wall and line.
+     */
+    private final ArrayList<CollisionObject> mObjects;
+
+    private SpatialGrid mIndex;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates an empty map.
+     */
+    public SimulationMap() {
+        mBuoys = new ArrayList<>();
+        mWalls = new ArrayList<>();
+        mLines = new ArrayList<>();
+        mWaypoints = new LinkedList<>();
+        mObjects = new ArrayList<>();
+    }
+
+
+    ///// Static Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Loads a map, from its cache if the json file hasn't changed since it
+     * was cached, otherwise from the json file, which is then cached.
+     *
+     * @param path     The path to the json file.
+     * @param cacheDir The directory for cached maps, or null to not cache.
+     * @return The map.
+     * @throws IOException If the json file can't be read or parsed.
+     */
+    public static SimulationMap load(String path, String cacheDir)
+            throws IOException {
+        File file = new File(path);
+        if (cacheDir == null) {
+            return parse(file);
+        }
+
+        File cache = new File(cacheDir, hash(file) + ".map");
+        if (cache.exists()) {
+            try {
+                SimulationMap map = readCache(cache);
+                Log.d("simulation", "Loaded " + path + " from " + cache);
+                return map;
+            } catch (IOException e) {
+                Log.w("simulation", "Ignoring unreadable map cache " + cache);
+            }
+        }
+
+        SimulationMap map = parse(file);
+        try {
+            map.writeCache(cache);
+        } catch (IOException e) {
+            // the map still works, it will just be parsed again next time.
+            Log.w("simulation", "Could not cache map at " + cache);
+        }
+        return map;
+    }
+
+    /**
+     * Parses a map from a json file.
+     *
+     * @param file The json file.
+     * @return The map.
+     * @throws IOException If the file can't be read or parsed.
+     */
+    public static SimulationMap parse(File file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(
+                file.toPath(), StandardCharsets.UTF_8
+        )) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Parses a map from json, one value at a time.
+     *
+     * @param in The json.
+     * @return The map.
+     * @throws IOException If the json can't be read or is not a map.
+     */
+    public static SimulationMap parse(Reader in) throws IOException {
+        SimulationMap map = new SimulationMap();
+        JsonReader reader = new JsonReader(in);
+        Point origin = null;
+        // the origin may come after them, so they are moved into meters last.
+        ArrayList<Point> gpsWaypoints = new ArrayList<>();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String section = reader.nextName();
+                switch (section) {
+                    case "buoys":
+                        reader.beginArray();
+                        while (reader.hasNext()) map.addBuoy(readBuoy(reader));
+                        reader.endArray();
+                        break;
+                    case "walls":
+                        reader.beginArray();
+                        while (reader.hasNext()) map.addWall(readWall(reader));
+                        reader.endArray();
+                        break;
+                    case "lines":
+                        reader.beginArray();
+                        while (reader.hasNext()) map.addLine(readLine(reader));
+                        reader.endArray();
+                        break;
+                    case "waypoints":
+                        reader.beginArray();
+                        while (reader.hasNext()) map.addWaypoint(readWaypoint(reader));
+                        reader.endArray();
+                        break;
+                    case "origin":
+                        origin = readGps(reader);
+                        break;
+                    case "gps_waypoints":
+                        reader.beginArray();
+                        while (reader.hasNext()) gpsWaypoints.add(readGps(reader));
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // thrown by the reader for json that isn't shaped like a map.
+            throw new IOException("Not a simulation map: " + e.getMessage(), e);
+        }
+
+        if (!gpsWaypoints.isEmpty()) {
+            if (origin == null) {
+                throw new IOException("Not a simulation map: gps_waypoints without an origin");
+            }
+            LocalFrame frame = new LocalFrame(origin);
+            for (Point gps : gpsWaypoints) {
+                map.addWaypoint(new Waypoint(frame.getEast(gps), frame.getNorth(gps), gps.z));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Reads a map back from its cache.
+     */
+    private static SimulationMap readCache(File cache) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(cache.toPath()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (buffer.getInt() != CACHE_MAGIC || buffer.getInt() != CACHE_VERSION) {
+                throw new IOException("Not a map cache");
+            }
+            int buoys = buffer.getInt();
+            int walls = buffer.getInt();
+            int lines = buffer.getInt();
+            int waypoints = buffer.getInt();
+            // checked before anything is allocated for them, so a corrupt
+            // count can't ask for more memory than the file could fill.
+            long size = (long) buoys * BUOY_SIZE
+                    + ((long) walls + lines) * LINE_SIZE
+                    + (long) waypoints * WAYPOINT_SIZE;
+            if (buoys < 0 || walls < 0 || lines < 0 || waypoints < 0
+                    || size != buffer.remaining()) {
+                throw new IOException("Map cache is the wrong size");
+            }
+
+            SimulationMap map = new SimulationMap();
+            map.mBuoys.ensureCapacity(buoys);
+            map.mWalls.ensureCapacity(walls);
+            map.mLines.ensureCapacity(lines);
+            map.mObjects.ensureCapacity(buoys + walls + lines);
+            for (int i = 0; i < buoys; i++) {
+                map.addBuoy(new BuoyCollision(
+                        buffer.getDouble(), buffer.getDouble(), buffer.getInt()
+                ));
+            }
+            for (int i = 0; i < walls; i++) {
+                map.addWall(new LineSegmentCollision(
+                        new Point(buffer.getDouble(), buffer.getDouble()),
+                        new Point(buffer.getDouble(), buffer.getDouble())
+                ));
+            }
+            for (int i = 0; i < lines; i++) {
+                map.addLine(new LineCollision(
+                        new Point(buffer.getDouble(), buffer.getDouble()),
+                        new Point(buffer.getDouble(), buffer.getDouble())
+                ));
+            }
+            for (int i = 0; i < waypoints; i++) {
+                map.addWaypoint(new Waypoint(
+                        buffer.getDouble(), buffer.getDouble(), buffer.getDouble()
+                ));
+            }
+            return map;
+        } catch (RuntimeException e) {
+            // a cache cut short by a crash while it was written.
+            throw new IOException("Corrupt map cache", e);
+        }
+    }
+
+    /**
+     * @return The SHA-256 of a file, in hex.
+     */
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to have SHA-256.
+            throw new IOException(e);
+        }
+        byte[] chunk = new byte[1 << 16];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                digest.update(chunk, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static BuoyCollision readBuoy(JsonReader reader) throws IOException {
+        double x = 0, y = 0;
+        String color = "#000000";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "x": x = reader.nextDouble(); break;
+                case "y": y = reader.nextDouble(); break;
+                case "color": color = reader.nextString(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new BuoyCollision(x, y, color);
+    }
+
+    private static LineSegmentCollision readWall(JsonReader reader)
+            throws IOException {
+        Point[] points = readPoints(reader);
+        return new LineSegmentCollision(points[0], points[1]);
+    }
+
+    private static LineCollision readLine(JsonReader reader) throws IOException {
+        Point[] points = readPoints(reader);
+        return new LineCollision(points[0], points[1]);
+    }
+
+    /**
+     * Reads the two points of a wall or line.
+     */
+    private static Point[] readPoints(JsonReader reader) throws IOException {
+        Point p1 = new Point(0, 0);
+        Point p2 = new Point(0, 0);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "x1": p1.x = reader.nextDouble(); break;
+                case "y1": p1.y = reader.nextDouble(); break;
+                case "x2": p2.x = reader.nextDouble(); break;
+                case "y2": p2.y = reader.nextDouble(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Point[]{p1, p2};
+    }
+
+    private static Waypoint readWaypoint(JsonReader reader) throws IOException {
+        double x = 0, y = 0, radius = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "x": x = reader.nextDouble(); break;
+                case "y": y = reader.nextDouble(); break;
+                case "radius": radius = reader.nextDouble(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Waypoint(x, y, radius);
+    }
+
+    /**
+     * @return The longitude as x, the latitude as y, and the radius, if
+     * there is one, as z.
+     */
+    private static Point readGps(JsonReader reader) throws IOException {
+        Point gps = new Point(0, 0, 0);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "longitude": gps.x = reader.nextDouble(); break;
+                case "latitude": gps.y = reader.nextDouble(); break;
+                case "radius": gps.z = reader.nextDouble(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return gps;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    public void addBuoy(BuoyCollision buoy) {
+        mBuoys.add(buoy);
+        mObjects.add(buoy);
+        mIndex = null;
+    }
+
+    public void addWall(LineSegmentCollision wall) {
+        mWalls.add(wall);
+        mObjects.add(wall);
+        mIndex = null;
+    }
+
+    public void addLine(LineCollision line) {
+        mLines.add(line);
+        mObjects.add(line);
+        mIndex = null;
+    }
+
+    public void addWaypoint(Waypoint waypoint) {
+        mWaypoints.add(waypoint);
+    }
+
+    /**
+     * Writes the map to a cache file. It is written to a temporary file
+     * first, so a cache that exists is always complete.
+     */
+    private void writeCache(File cache) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(
+                6 * 4
+                        + mBuoys.size() * BUOY_SIZE
+                        + (mWalls.size() + mLines.size()) * LINE_SIZE
+                        + mWaypoints.size() * WAYPOINT_SIZE
+        ).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(CACHE_MAGIC)
+                .putInt(CACHE_VERSION)
+                .putInt(mBuoys.size())
+                .putInt(mWalls.size())
+                .putInt(mLines.size())
+                .putInt(mWaypoints.size());
+        for (BuoyCollision buoy : mBuoys) {
+            buffer.putDouble(buoy.c.x).putDouble(buoy.c.y).putInt(buoy.getColor());
+        }
+        for (LineCollision wall : mWalls) {
+            putLine(buffer, wall);
+        }
+        for (LineCollision line : mLines) {
+            putLine(buffer, line);
+        }
+        for (Waypoint waypoint : mWaypoints) {
+            buffer.putDouble(waypoint.x)
+                    .putDouble(waypoint.y)
+                    .putDouble(waypoint.getRadius());
+        }
+
+        File dir = cache.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File temp = File.createTempFile("map", ".tmp", dir);
+        try {
+            Files.write(temp.toPath(), buffer.array());
+            Files.move(
+                    temp.toPath(), cache.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE
+            );
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private static void putLine(ByteBuffer buffer, LineCollision line) {
+        buffer.putDouble(line.p1.x)
+                .putDouble(line.p1.y)
+                .putDouble(line.p2.x)
+                .putDouble(line.p2.y);
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    public ArrayList<BuoyCollision> getBuoys() {
+        return mBuoys;
+    }
+
+    public ArrayList<LineSegmentCollision> getWalls() {
+        return mWalls;
+    }
+
+    public ArrayList<LineCollision> getLines() {
+        return mLines;
+    }
+
+    public LinkedList<Waypoint> getWaypoints() {
+        return mWaypoints;
+    }
+
+    /**
+     * @return Every buoy, wall and line.
+     */
+    public ArrayList<CollisionObject> getObjects() {
+        return mObjects;
+    }
+
+    /**
+     * @return The index of every buoy, wall and line. It is built the first
+     * time it is needed after the map changes.
+     */
+    public SpatialGrid getIndex() {
+        if (mIndex == null) {
+            mIndex = SpatialGrid.build(mObjects);
+        }
+        return mIndex;
+    }
+
+}
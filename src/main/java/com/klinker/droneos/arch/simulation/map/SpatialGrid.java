@@ -0,0 +1,402 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The broad phase of the simulation's collision checks. It sorts the static
+ * objects of a map into a uniform grid of square cells by the box around
+ * each of them, so finding what might touch something only looks at the
+ * objects in the cells its box covers instead of at every object. The
+ * candidates it gives still have to be checked with
+ * {@link CollisionObject#collide(CollisionObject)}, but every pair that
+ * collides is always one of them.
+ * <p>
+ * The grid is built once, with {@link SpatialGrid#build(List)}, and is laid
+ * out as flat arrays: the objects of each cell sit next to each other in
+ * one array, after the objects of the cell before it. Queries allocate
+ * nothing. Objects that can't be boxed, like an infinite
+ * {@link LineCollision}, are a candidate for everything.
+ * <p>
+ * A grid is not thread safe. It should be queried from one thread, like the
+ * simulation's.
+ */
+public class SpatialGrid {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The most cells for each object, so a few huge objects spread far apart
+     * can't make a grid of mostly empty cells.
+     */
+    private static final int MAX_CELLS_PER_OBJECT = 4;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final CollisionObject[] mObjects;
+
+    /**
+     * The objects with no bounds, which are candidates for everything.
+     */
+    private final CollisionObject[] mUnbounded;
+
+    // the box around each object in mObjects, copied so queries don't have
+    // to call back into the objects.
+    private final double[] mMinX;
+    private final double[] mMinY;
+    private final double[] mMaxX;
+    private final double[] mMaxY;
+
+    // the area covered by the grid.
+    private final double mOriginX;
+    private final double mOriginY;
+    private final double mCellSize;
+    private final int mColumns;
+    private final int mRows;
+
+    /**
+     * Where each cell's objects start in {@link SpatialGrid#mCellObjects}.
+     * The cell's objects end where the next cell's start.
+     */
+    private final int[] mCellStarts;
+
+    /**
+     * The index in {@link SpatialGrid#mObjects} of every object in every
+     * cell, one cell after another.
+     */
+    private final int[] mCellObjects;
+
+    /**
+     * The last query each object was given to, so an object covering
+     * several cells is only given once.
+     */
+    private final int[] mQueryStamps;
+
+    private int mQuery;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    private SpatialGrid(CollisionObject[] objects, CollisionObject[] unbounded,
+                        double cellSize) {
+        mObjects = objects;
+        mUnbounded = unbounded;
+        int count = objects.length;
+        mMinX = new double[count];
+        mMinY = new double[count];
+        mMaxX = new double[count];
+        mMaxY = new double[count];
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            mMinX[i] = objects[i].getMinX();
+            mMinY[i] = objects[i].getMinY();
+            mMaxX[i] = objects[i].getMaxX();
+            mMaxY[i] = objects[i].getMaxY();
+            minX = Math.min(minX, mMinX[i]);
+            minY = Math.min(minY, mMinY[i]);
+            maxX = Math.max(maxX, mMaxX[i]);
+            maxY = Math.max(maxY, mMaxY[i]);
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        double width = maxX - minX, height = maxY - minY;
+        long maxCells = Math.max(1, (long) count * MAX_CELLS_PER_OBJECT);
+        if (!(cellSize > 0)) cellSize = 1;
+        while ((cells(width, cellSize)) * cells(height, cellSize) > maxCells) {
+            cellSize *= 2;
+        }
+        mOriginX = minX;
+        mOriginY = minY;
+        mCellSize = cellSize;
+        mColumns = (int) cells(width, cellSize);
+        mRows = (int) cells(height, cellSize);
+
+        // count the objects in each cell, then turn the counts into where
+        // each cell starts, then fill the cells from those starts.
+        mCellStarts = new int[mColumns * mRows + 1];
+        for (int i = 0; i < count; i++) {
+            for (int row = row(mMinY[i]); row <= row(mMaxY[i]); row++) {
+                for (int column = column(mMinX[i]); column <= column(mMaxX[i]); column++) {
+                    mCellStarts[row * mColumns + column + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < mColumns * mRows; cell++) {
+            mCellStarts[cell + 1] += mCellStarts[cell];
+        }
+        mCellObjects = new int[mCellStarts[mColumns * mRows]];
+        int[] next = Arrays.copyOf(mCellStarts, mColumns * mRows);
+        for (int i = 0; i < count; i++) {
+            for (int row = row(mMinY[i]); row <= row(mMaxY[i]); row++) {
+                for (int column = column(mMinX[i]); column <= column(mMaxX[i]); column++) {
+                    mCellObjects[next[row * mColumns + column]++] = i;
+                }
+            }
+        }
+
+        mQueryStamps = new int[count];
+        mQuery = 0;
+    }
+
+    /**
+     * Builds a grid with cells sized for the objects: big enough for a
+     * typical object to cover only a few, and small enough that a cell
+     * holds about one object.
+     *
+     * @param objects The objects to sort into the grid. The grid must be
+     *                built again if any of them move.
+     * @return The grid.
+     */
+    public static SpatialGrid build(List<? extends CollisionObject> objects) {
+        double size = 0;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        int count = 0;
+        for (CollisionObject object : objects) {
+            if (!object.isBounded()) continue;
+            size += Math.max(
+                    object.getMaxX() - object.getMinX(),
+                    object.getMaxY() - object.getMinY()
+            );
+            minX = Math.min(minX, object.getMinX());
+            minY = Math.min(minY, object.getMinY());
+            maxX = Math.max(maxX, object.getMaxX());
+            maxY = Math.max(maxY, object.getMaxY());
+            count++;
+        }
+        if (count == 0) return build(objects, 1);
+
+        double area = (maxX - minX) * (maxY - minY);
+        return build(objects, Math.max(size / count, Math.sqrt(area / count)));
+    }
+
+    /**
+     * Builds a grid with cells of a given size. The cells are made bigger if
+     * there would be more than a few for each object.
+     *
+     * @param objects  The objects to sort into the grid.
+     * @param cellSize The width of each cell, in the map's units.
+     * @return The grid.
+     */
+    public static SpatialGrid build(List<? extends CollisionObject> objects,
+                                    double cellSize) {
+        List<CollisionObject> bounded = new ArrayList<>();
+        List<CollisionObject> unbounded = new ArrayList<>();
+        for (CollisionObject object : objects) {
+            if (object.isBounded()) bounded.add(object);
+            else unbounded.add(object);
+        }
+        return new SpatialGrid(
+                bounded.toArray(new CollisionObject[0]),
+                unbounded.toArray(new CollisionObject[0]),
+                cellSize
+        );
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Finds every object that might collide with another one, which is
+     * usually not in the grid, like the drone.
+     *
+     * @param object   The object to check.
+     * @param listener Given each candidate once.
+     * @return The number of candidates.
+     */
+    public int query(CollisionObject object, OnCandidateListener listener) {
+        if (!object.isBounded()) {
+            return queryAll(listener);
+        }
+        return query(
+                object.getMinX(), object.getMinY(),
+                object.getMaxX(), object.getMaxY(),
+                listener
+        );
+    }
+
+    /**
+     * Finds every object whose box overlaps, or touches, a box.
+     *
+     * @param listener Given each candidate once.
+     * @return The number of candidates.
+     */
+    public int query(double minX, double minY, double maxX, double maxY,
+                     OnCandidateListener listener) {
+        int found = 0;
+        for (CollisionObject unbounded : mUnbounded) {
+            listener.onCandidate(unbounded);
+            found++;
+        }
+        if (mObjects.length == 0 || maxX < mOriginX || maxY < mOriginY
+                || minX > mOriginX + mColumns * mCellSize
+                || minY > mOriginY + mRows * mCellSize) {
+            return found;
+        }
+
+        int query = nextQuery();
+        int lastRow = row(maxY), lastColumn = column(maxX);
+        for (int row = row(minY); row <= lastRow; row++) {
+            for (int column = column(minX); column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                for (int j = mCellStarts[cell]; j < mCellStarts[cell + 1]; j++) {
+                    int i = mCellObjects[j];
+                    if (mQueryStamps[i] == query) continue;
+                    mQueryStamps[i] = query;
+                    if (mMaxX[i] < minX || mMinX[i] > maxX
+                            || mMaxY[i] < minY || mMinY[i] > maxY) {
+                        continue;
+                    }
+                    listener.onCandidate(mObjects[i]);
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds every pair of objects in the grid that might collide with each
+     * other. Each pair is given once.
+     *
+     * @param listener Given each candidate pair.
+     * @return The number of candidate pairs.
+     */
+    public int queryPairs(OnPairListener listener) {
+        int found = 0;
+        for (int u = 0; u < mUnbounded.length; u++) {
+            for (int v = u + 1; v < mUnbounded.length; v++) {
+                listener.onPair(mUnbounded[u], mUnbounded[v]);
+                found++;
+            }
+            for (CollisionObject object : mObjects) {
+                listener.onPair(mUnbounded[u], object);
+                found++;
+            }
+        }
+
+        for (int row = 0; row < mRows; row++) {
+            for (int column = 0; column < mColumns; column++) {
+                int cell = row * mColumns + column;
+                int end = mCellStarts[cell + 1];
+                for (int a = mCellStarts[cell]; a < end; a++) {
+                    int i = mCellObjects[a];
+                    for (int b = a + 1; b < end; b++) {
+                        int j = mCellObjects[b];
+                        if (mMaxX[i] < mMinX[j] || mMinX[i] > mMaxX[j]
+                                || mMaxY[i] < mMinY[j] || mMinY[i] > mMaxY[j]) {
+                            continue;
+                        }
+                        // two objects can share many cells, so the pair is
+                        // only given by the cell holding the corner where
+                        // their boxes start overlapping.
+                        if (row(Math.max(mMinY[i], mMinY[j])) != row
+                                || column(Math.max(mMinX[i], mMinX[j])) != column) {
+                            continue;
+                        }
+                        listener.onPair(mObjects[i], mObjects[j]);
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gives every object in the grid.
+     */
+    private int queryAll(OnCandidateListener listener) {
+        for (CollisionObject unbounded : mUnbounded) {
+            listener.onCandidate(unbounded);
+        }
+        for (CollisionObject object : mObjects) {
+            listener.onCandidate(object);
+        }
+        return mUnbounded.length + mObjects.length;
+    }
+
+    private int nextQuery() {
+        if (++mQuery == 0) {
+            // wrapped around, so old stamps could match new queries.
+            Arrays.fill(mQueryStamps, 0);
+            mQuery = 1;
+        }
+        return mQuery;
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @return The number of cells needed to cover a length.
+     */
+    private static long cells(double length, double cellSize) {
+        return Math.max(1, (long) Math.ceil(length / cellSize));
+    }
+
+    /**
+     * @return The column holding an x, clamped to the grid.
+     */
+    private int column(double x) {
+        int column = (int) Math.floor((x - mOriginX) / mCellSize);
+        return Math.max(0, Math.min(mColumns - 1, column));
+    }
+
+    /**
+     * @return The row holding a y, clamped to the grid.
+     */
+    private int row(double y) {
+        int row = (int) Math.floor((y - mOriginY) / mCellSize);
+        return Math.max(0, Math.min(mRows - 1, row));
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of objects in the grid, with or without bounds.
+     */
+    public int getObjectCount() {
+        return mObjects.length + mUnbounded.length;
+    }
+
+    /**
+     * @return The width of each cell, in the map's units.
+     */
+    public double getCellSize() {
+        return mCellSize;
+    }
+
+    public int getColumnCount() {
+        return mColumns;
+    }
+
+    public int getRowCount() {
+        return mRows;
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * Given each object that might collide with the one queried.
+     */
+    public interface OnCandidateListener {
+        void onCandidate(CollisionObject candidate);
+    }
+
+    /**
+     * Given each pair of objects that might collide with each other.
+     */
+    public interface OnPairListener {
+        void onPair(CollisionObject first, CollisionObject second);
+    }
+
+}
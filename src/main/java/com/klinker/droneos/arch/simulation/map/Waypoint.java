@@ -1,23 +1,48 @@
 package com.klinker.droneos.arch.simulation.map;
 
-import com.klinker.droneos.utils.Utils;
 import com.klinker.droneos.utils.math.Point;
 
+/**
+ * A point on the course to fly to, in meters like the rest of the
+ * {@link SimulationMap}. GPS waypoints are moved into meters once, with a
+ * {@link com.klinker.droneos.utils.math.LocalFrame} centered on the map's
+ * origin, when the map is parsed.
+ */
 public class Waypoint extends Point {
 
     private final double radius;
 
+    /**
+     * The square of the radius, so arrival is checked without a root.
+     */
+    private final double radiusSquared;
+
+    /**
+     * @param x      The x location [m] of the waypoint.
+     * @param y      The y location [m] of the waypoint.
+     * @param radius How close [m] to the waypoint counts as reaching it.
+     */
     public Waypoint(double x, double y, double radius) {
         super(x, y);
         this.radius = radius;
+        this.radiusSquared = radius * radius;
     }
 
     public double getRadius() {
         return this.radius;
     }
 
+    /**
+     * Checks whether a location is within the radius of the waypoint, with
+     * a few multiplies and adds instead of a haversine.
+     *
+     * @param other The location [m], in the same units as the waypoint.
+     * @return Whether or not it is close enough.
+     */
     public boolean checkPoint(Point other) {
-        return Utils.distanceConversion(this, other) < this.radius;
+        double dx = other.x - this.x;
+        double dy = other.y - this.y;
+        return dx * dx + dy * dy < this.radiusSquared;
     }
 
-}
\ No newline at end of file
+}
@@ -1,86 +1,194 @@
 package com.klinker.droneos.cv;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 
 import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Point3;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
 import org.opencv.imgproc.Imgproc;
 
 public class CVUtils {
 
+    /**
+     * @param frame A BGR or greyscale image.
+     * @return A new image with a copy of the frame, or null if it isn't one.
+     * @see #matToImage(Mat, BufferedImage)
+     */
     public static BufferedImage matToImage(Mat frame) {
-        BufferedImage image;
-        int cols = frame.cols();
-        int rows = frame.rows();
-        int elemSize = (int) frame.elemSize();
-        byte[] data = new byte[cols * rows * elemSize];
+        return matToImage(frame, null);
+    }
+
+    /**
+     * Copies a frame into an image, straight into the image's own buffer.
+     * {@link BufferedImage#TYPE_3BYTE_BGR} keeps its bytes in the same order
+     * as a BGR {@link Mat}, so nothing needs to be swapped.
+     *
+     * @param frame A BGR or greyscale image, with a byte per channel.
+     * @param image The image to copy into. It is reused if it is the same
+     *              size and type as the frame, otherwise a new image is made.
+     *              Can be null.
+     * @return The image copied into, or null if the frame isn't BGR or
+     * greyscale.
+     */
+    public static BufferedImage matToImage(Mat frame, BufferedImage image) {
         int type;
-        frame.get(0, 0, data);
         switch (frame.channels()) {
             case 1:
                 type = BufferedImage.TYPE_BYTE_GRAY;
                 break;
             case 3:
                 type = BufferedImage.TYPE_3BYTE_BGR;
-                // bgr to rgb
-                byte b;
-                for (int i = 0; i < data.length; i = i + 3) {
-                    b = data[i];
-                    data[i] = data[i + 2];
-                    data[i + 2] = b;
-                }
                 break;
             default:
                 return null;
         }
+        if (frame.depth() != CvType.CV_8U) return null;
 
-        // Reuse existing BufferedImage if possible
-        image = new BufferedImage(cols, rows, type);
-        image.getRaster().setDataElements(0, 0, cols, rows, data);
-
+        int cols = frame.cols();
+        int rows = frame.rows();
+        if (image == null || image.getType() != type
+                || image.getWidth() != cols || image.getHeight() != rows) {
+            image = new BufferedImage(cols, rows, type);
+        }
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        frame.get(0, 0, data);
         return image;
     }
 
+    /**
+     * The inner corners of the landing pad's chessboard, across and down.
+     */
+    public static final Size CHESSBOARD_SIZE = new Size(6, 4);
+
+    /**
+     * The smallest half size [px] of the window each corner is refined in.
+     */
+    private static final int MIN_REFINE_WINDOW = 2;
+
+    private static final TermCriteria REFINE_CRITERIA = new TermCriteria(
+            TermCriteria.EPS + TermCriteria.COUNT, 20, 0.03
+    );
+
     public static Point findChessboard(Mat image) {
-        
         Mat greyscale = new Mat();
-        Imgproc.cvtColor(image, greyscale, Imgproc.COLOR_BGR2GRAY);
+        MatOfPoint2f corners = new MatOfPoint2f();
+        try {
+            toGreyscale(image, greyscale);
+            if (!findChessboardCorners(greyscale, corners)) return null;
+            Point offset = getChessboardOffset(image, corners);
+            drawChessboard(image, corners, offset);
+            return offset;
+        } finally {
+            greyscale.release();
+            corners.release();
+        }
+    }
+
+    /**
+     * Converts a BGR image to greyscale.
+     *
+     * @param image The BGR image.
+     * @param grey  Set to the greyscale image. Its memory is reused if it is
+     *              already the right size.
+     */
+    public static void toGreyscale(Mat image, Mat grey) {
+        Imgproc.cvtColor(image, grey, Imgproc.COLOR_BGR2GRAY);
+    }
 
+    /**
+     * Finds the inner corners of the landing pad's chessboard.
+     *
+     * @param grey    The greyscale image to search.
+     * @param corners Set to the corners, if they are found.
+     * @return Whether or not the chessboard was found.
+     */
+    public static boolean findChessboardCorners(Mat grey, MatOfPoint2f corners) {
 //        Size size = new Size(4, 3);
 //        Size size = new Size(9, 7);
-        Size size = new Size(6, 4);
-        MatOfPoint2f corners = new MatOfPoint2f();
-        boolean found = Calib3d.findChessboardCorners(
-                greyscale,
-                size,
+        return Calib3d.findChessboardCorners(
+                grey,
+                CHESSBOARD_SIZE,
                 corners,
                 Calib3d.CALIB_CB_FAST_CHECK
         );
+    }
 
+    /**
+     * Refines the chessboard's corners to sub-pixel accuracy. Each corner is
+     * searched for in a window around where it is, kept to a quarter of the
+     * gap between corners so it never reaches the next one over.
+     *
+     * @param grey      The greyscale image the corners are in.
+     * @param corners   The corners, moved to where they are refined to.
+     * @param maxWindow The largest half size [px] of the window. It must be
+     *                  larger than how far off the corners could be.
+     */
+    public static void refineChessboardCorners(Mat grey, MatOfPoint2f corners,
+                                               int maxWindow) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Point p : corners.toArray()) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        double gap = Math.min(
+                (maxX - minX) / (CHESSBOARD_SIZE.width - 1),
+                (maxY - minY) / (CHESSBOARD_SIZE.height - 1)
+        );
+        int window = (int) Math.max(MIN_REFINE_WINDOW, Math.min(maxWindow, gap / 4));
+        Imgproc.cornerSubPix(
+                grey, corners, new Size(window, window), new Size(-1, -1),
+                REFINE_CRITERIA
+        );
+    }
+
+    /**
+     * @param image   The image the chessboard was found in.
+     * @param corners The corners of the chessboard.
+     * @return How far, in pixels, the middle of the chessboard is from the
+     * middle of the image.
+     */
+    public static Point getChessboardOffset(Mat image, MatOfPoint2f corners) {
         Point3 sums = new Point3(0, 0, 0);
         for (Point p : corners.toArray()) {
             sums.x += p.x;
             sums.y += p.y;
             sums.z++;
         }
-        Point goal = new Point(sums.x / sums.z, sums.y / sums.z);
+        return new Point(
+                sums.x / sums.z - image.width() / 2.0,
+                sums.y / sums.z - image.height() / 2.0
+        );
+    }
+
+    /**
+     * Draws the chessboard's corners onto the image, with a line from the
+     * middle of the image to the middle of the chessboard.
+     *
+     * @param image   The image to draw on.
+     * @param corners The corners of the chessboard.
+     * @param offset  The offset from {@link #getChessboardOffset}.
+     */
+    public static void drawChessboard(Mat image, MatOfPoint2f corners,
+                                      Point offset) {
         Point center = new Point(image.width() / 2.0, image.height() / 2.0);
+        Point goal = new Point(center.x + offset.x, center.y + offset.y);
 
-        if (!found) return null;
-        
         Scalar lineColor = new Scalar(0, 0, 255);
         Scalar pointColor = new Scalar(0, 180, 255);
-        Calib3d.drawChessboardCorners(image, size, corners, found);
+        Calib3d.drawChessboardCorners(image, CHESSBOARD_SIZE, corners, true);
         Imgproc.line(image, center, goal, lineColor, 2);
         Imgproc.circle(image, center, 2, pointColor, 4);
         Imgproc.circle(image, goal, 2, pointColor, 4);
-
-        return new Point(goal.x - center.x, goal.y - center.y);
     }
 
 }
@@ -0,0 +1,272 @@
+package com.klinker.droneos.cv;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+/**
+ * Finds the landing pad's chessboard in one frame after another. The whole
+ * frame, through a {@link PyramidDetector}, is only searched until the
+ * chessboard is found. After that, only a
+ * region around where it was last found is, since it moves little between
+ * frames. Each time it isn't found there the region is grown, and once it
+ * has been missed {@link ChessboardTracker#getMaxMisses()} times in a row
+ * the whole frame is searched again.
+ * <p>
+ * A tracker keeps state between frames, so it must only be used by one
+ * thread at a time, with frames from one camera.
+ */
+public class ChessboardTracker {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The number of frames in a row the chessboard can be missed in before
+     * the whole frame is searched again.
+     */
+    public static final int DEFAULT_MAX_MISSES = 3;
+
+    /**
+     * How far the region searched reaches past the last corners found, as a
+     * fraction of the larger side of the box around them. The outer squares
+     * of the chessboard are a fifth of that past the corners, and the rest
+     * is room for the chessboard to move.
+     */
+    public static final double DEFAULT_MARGIN = 0.5;
+
+    /**
+     * The least distance [px] the region searched reaches past the last
+     * corners found, for when the chessboard is far away.
+     */
+    private static final int MIN_PADDING = 16;
+
+    /**
+     * The largest half size [px] of the window each corner is refined in.
+     */
+    private static final int MAX_REFINE_WINDOW = 5;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final int mMaxMisses;
+
+    private final double mMargin;
+
+    private final boolean mIsRefining;
+
+    /**
+     * Searches whole frames.
+     */
+    private final PyramidDetector mDetector;
+
+    /**
+     * The box around the corners last found, or null if the chessboard is
+     * not being tracked.
+     */
+    private Rect mLastBounds;
+
+    /**
+     * The number of frames in a row the chessboard wasn't found in.
+     */
+    private int mMisses;
+
+    // counters, see the getters.
+    private long mTrackedCount;
+    private long mSearchedCount;
+    private long mFoundCount;
+    private long mLostCount;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a tracker that refines the corners it finds, with the default
+     * margin and misses, and pyramid levels.
+     */
+    public ChessboardTracker() {
+        this(new PyramidDetector(), DEFAULT_MAX_MISSES, DEFAULT_MARGIN, true);
+    }
+
+    /**
+     * @param detector   Searches whole frames. Use a detector with no levels
+     *                   to search them only at full size.
+     * @param maxMisses  The number of frames in a row the chessboard can be
+     *                   missed in before the whole frame is searched again.
+     * @param margin     How far the region searched reaches past the last
+     *                   corners found, as a fraction of their size. It grows
+     *                   by this much again with each miss.
+     * @param isRefining Whether or not to refine the corners found to
+     *                   sub-pixel accuracy.
+     */
+    public ChessboardTracker(PyramidDetector detector, int maxMisses,
+                             double margin, boolean isRefining) {
+        mDetector = detector;
+        mMaxMisses = Math.max(1, maxMisses);
+        mMargin = margin;
+        mIsRefining = isRefining;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Searches a frame for the chessboard, near where it was last found if it
+     * is being tracked.
+     *
+     * @param grey    The greyscale frame to search.
+     * @param corners Set to the corners, in the frame's pixels, if they are
+     *                found.
+     * @return Whether or not the chessboard was found.
+     */
+    public boolean find(Mat grey, MatOfPoint2f corners) {
+        if (mLastBounds != null) {
+            Rect region = getSearchRegion(grey);
+            if (region != null) {
+                mTrackedCount++;
+                Mat roi = grey.submat(region);
+                boolean isFound;
+                try {
+                    isFound = CVUtils.findChessboardCorners(roi, corners);
+                } finally {
+                    roi.release();
+                }
+                if (isFound) {
+                    Core.add(corners, new Scalar(region.x, region.y), corners);
+                    onFound(grey, corners, mIsRefining);
+                    return true;
+                }
+            }
+            if (region != null && ++mMisses < mMaxMisses) return false;
+            reset();
+            mLostCount++;
+        }
+
+        mSearchedCount++;
+        if (!mDetector.find(grey, corners)) return false;
+        // corners found in a smaller level were already refined in the frame.
+        onFound(grey, corners, mIsRefining && mDetector.getLastFoundLevel() == 0);
+        return true;
+    }
+
+    /**
+     * Frees the memory of the detector's pyramid.
+     */
+    public void release() {
+        mDetector.release();
+    }
+
+    /**
+     * Stops tracking, so the next frame is searched whole, ex: when the
+     * camera has been stopped for a while.
+     */
+    public void reset() {
+        mLastBounds = null;
+        mMisses = 0;
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @return The region around the last corners found to search, grown for
+     * each miss and cut to the frame, or null if none of it is in the frame.
+     */
+    private Rect getSearchRegion(Mat grey) {
+        int size = Math.max(mLastBounds.width, mLastBounds.height);
+        int padding = Math.max(
+                MIN_PADDING, (int) Math.ceil(size * mMargin * (mMisses + 1))
+        );
+        int left = Math.max(0, mLastBounds.x - padding);
+        int top = Math.max(0, mLastBounds.y - padding);
+        int right = Math.min(grey.cols(), mLastBounds.x + mLastBounds.width + padding);
+        int bottom = Math.min(grey.rows(), mLastBounds.y + mLastBounds.height + padding);
+        if (right <= left || bottom <= top) return null;
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Refines the corners found, if asked to, and remembers where they are.
+     */
+    private void onFound(Mat grey, MatOfPoint2f corners, boolean isRefining) {
+        mFoundCount++;
+        mMisses = 0;
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Point p : corners.toArray()) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        mLastBounds = new Rect(
+                (int) Math.floor(minX), (int) Math.floor(minY),
+                (int) Math.ceil(maxX - minX) + 1, (int) Math.ceil(maxY - minY) + 1
+        );
+
+        if (isRefining) {
+            CVUtils.refineChessboardCorners(grey, corners, MAX_REFINE_WINDOW);
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return Whether or not the chessboard is being tracked, so the next
+     * frame will only be searched near where it was last found.
+     */
+    public boolean isTracking() {
+        return mLastBounds != null;
+    }
+
+    public PyramidDetector getDetector() {
+        return mDetector;
+    }
+
+    public int getMaxMisses() {
+        return mMaxMisses;
+    }
+
+    /**
+     * @return The number of frames only searched near where the chessboard
+     * was last found.
+     */
+    public long getTrackedCount() {
+        return mTrackedCount;
+    }
+
+    /**
+     * @return The number of frames searched whole.
+     */
+    public long getSearchedCount() {
+        return mSearchedCount;
+    }
+
+    /**
+     * @return The number of frames the chessboard was found in.
+     */
+    public long getFoundCount() {
+        return mFoundCount;
+    }
+
+    /**
+     * @return The number of times the chessboard was missed too many times in
+     * a row, and the tracker went back to searching whole frames.
+     */
+    public long getLostCount() {
+        return mLostCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "Tracker: %d frames tracked, %d searched whole, %d found, lost %d times",
+                mTrackedCount, mSearchedCount, mFoundCount, mLostCount
+        );
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.klinker.droneos.cv;
+
+import org.opencv.core.Mat;
+
+/**
+ * A camera frame from a {@link FrameGrabber}. Its {@link Mat} belongs to the
+ * grabber and is written over again once the frame is released, so it must
+ * not be kept, or used, after {@link Frame#release()}.
+ */
+public class Frame {
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final FrameGrabber mGrabber;
+
+    private final Mat mMat;
+
+    /**
+     * The number of the frame since the grabber started, from 1.
+     */
+    private long mSequence;
+
+    /**
+     * {@link System#nanoTime()} when the frame finished being captured.
+     */
+    private long mCaptureTime;
+
+    /**
+     * Whether or not the frame is being used outside the grabber.
+     */
+    private boolean mIsHeld;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    Frame(FrameGrabber grabber) {
+        mGrabber = grabber;
+        mMat = new Mat();
+        mIsHeld = false;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Gives the frame back to its grabber to capture into again. Every frame
+     * taken from a grabber must be released exactly once.
+     *
+     * @throws IllegalStateException If the frame was already released.
+     */
+    public void release() {
+        mGrabber.recycle(this);
+    }
+
+    void setCaptured(long sequence, long captureTime) {
+        mSequence = sequence;
+        mCaptureTime = captureTime;
+    }
+
+    void setHeld(boolean isHeld) {
+        mIsHeld = isHeld;
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The image, only valid until the frame is released.
+     */
+    public Mat getMat() {
+        return mMat;
+    }
+
+    /**
+     * @return The number of the frame since the grabber started, from 1.
+     * Frames the grabber dropped leave gaps.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the frame finished being
+     * captured.
+     */
+    public long getCaptureTime() {
+        return mCaptureTime;
+    }
+
+    boolean isHeld() {
+        return mIsHeld;
+    }
+
+}
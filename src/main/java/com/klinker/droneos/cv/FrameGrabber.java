@@ -0,0 +1,305 @@
+package com.klinker.droneos.cv;
+
+import java.util.ArrayDeque;
+
+import com.klinker.droneos.hardware.Camera;
+import com.klinker.droneos.utils.Clock;
+import com.klinker.droneos.utils.Log;
+import com.klinker.droneos.utils.Utils;
+
+/**
+ * Captures frames from a {@link Camera} on its own thread, so the next frame
+ * is being read while the last one is processed, instead of the two taking
+ * turns. Frames are captured into a small ring of {@link Frame}s whose
+ * {@link org.opencv.core.Mat}s are reused, so no native memory is allocated
+ * once the camera is running.
+ * <p>
+ * Only the newest frame is handed on, by {@link FrameGrabber#take()}. A
+ * frame that is replaced by a newer one before it is taken is dropped and
+ * counted. Each frame taken must be given back with
+ * {@link Frame#release()}, which also times how long it took from being
+ * captured to being done with.
+ */
+public class FrameGrabber implements Runnable {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * Enough frames for one being captured, one waiting, and one being
+     * processed.
+     */
+    public static final int DEFAULT_RING_SIZE = 3;
+
+    /**
+     * How long [ms] to wait before trying again when the camera gives no
+     * frame, ex: before it is opened.
+     */
+    private static final long RETRY_DELAY = 10;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final Camera mCamera;
+
+    /**
+     * Every frame, so their memory can be released when the grabber closes.
+     */
+    private final Frame[] mRing;
+
+    /**
+     * The frames that can be captured into.
+     */
+    private final ArrayDeque<Frame> mFree;
+
+    /**
+     * The newest frame, until it is taken or replaced. Otherwise null.
+     */
+    private Frame mLatest;
+
+    private volatile boolean mIsOpen;
+
+    /**
+     * The thread running {@link FrameGrabber#run()}.
+     */
+    private Thread mThread;
+
+    private long mSequence;
+
+    // counters, see the getters.
+    private long mCapturedCount;
+    private long mDroppedCount;
+    private long mFailedCount;
+    private long mReleasedCount;
+    private long mTotalLatency;
+    private long mMaxLatency;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a grabber with {@link FrameGrabber#DEFAULT_RING_SIZE} frames.
+     *
+     * @param camera The camera to capture from. It is opened and closed by
+     *               its owner, not the grabber.
+     */
+    public FrameGrabber(Camera camera) {
+        this(camera, DEFAULT_RING_SIZE);
+    }
+
+    /**
+     * @param camera   The camera to capture from.
+     * @param ringSize The number of frames to capture into. At least 2 more
+     *                 than the number of frames held at once.
+     */
+    public FrameGrabber(Camera camera, int ringSize) {
+        mCamera = camera;
+        mRing = new Frame[Math.max(2, ringSize)];
+        mFree = new ArrayDeque<>(mRing.length);
+        for (int i = 0; i < mRing.length; i++) {
+            mRing[i] = new Frame(this);
+            mFree.add(mRing[i]);
+        }
+        mIsOpen = false;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Starts the thread that captures the frames.
+     *
+     * @param name The name to give the capture thread.
+     */
+    public void start(String name) {
+        mIsOpen = true;
+        mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Waits for a frame newer than the last one taken.
+     *
+     * @return The newest frame, which must be released, or null if the
+     * grabber was closed while waiting.
+     */
+    public synchronized Frame take() {
+        try {
+            while (mLatest == null && mIsOpen) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return poll();
+    }
+
+    /**
+     * @return The newest frame, which must be released, or null if there is
+     * no frame newer than the last one taken.
+     */
+    public synchronized Frame poll() {
+        if (!mIsOpen || mLatest == null) return null;
+        Frame frame = mLatest;
+        mLatest = null;
+        frame.setHeld(true);
+        return frame;
+    }
+
+    /**
+     * Stops capturing, and frees the memory of every frame once the capture
+     * thread has exited. Frames that are still held can no longer be used.
+     */
+    public void close() {
+        synchronized (this) {
+            if (!mIsOpen) return;
+            mIsOpen = false;
+            notifyAll();
+        }
+        if (mThread != null) {
+            mThread.interrupt();
+            try {
+                // the camera may still be writing into a frame.
+                mThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (mThread.isAlive()) {
+                // a read that never returns can't be waited on, so the
+                // frames are left to it rather than freed under it.
+                Log.w("cv", "Capture thread is still reading, not releasing "
+                        + mRing.length + " frames");
+                return;
+            }
+        }
+        for (Frame frame : mRing) {
+            frame.getMat().release();
+        }
+    }
+
+    /**
+     * Gives a frame back to be captured into again.
+     */
+    synchronized void recycle(Frame frame) {
+        if (!frame.isHeld()) {
+            throw new IllegalStateException(
+                    "Frame " + frame.getSequence() + " was already released"
+            );
+        }
+        frame.setHeld(false);
+        long latency = System.nanoTime() - frame.getCaptureTime();
+        mReleasedCount++;
+        mTotalLatency += latency;
+        mMaxLatency = Math.max(mMaxLatency, latency);
+        mFree.add(frame);
+        notifyAll();
+    }
+
+
+    ///// Runnable Overrides ///////////////////////////////////////////////////
+
+    /**
+     * Captures into a free frame, then makes it the newest frame, dropping
+     * the last newest frame if it was never taken.
+     */
+    @Override
+    public void run() {
+        try {
+            while (mIsOpen) {
+                Frame frame = takeFree();
+                if (frame == null) break;
+
+                if (!mCamera.read(frame.getMat())) {
+                    synchronized (this) {
+                        mFailedCount++;
+                        mFree.add(frame);
+                    }
+                    Utils.sleep(Clock.SYSTEM, RETRY_DELAY);
+                    continue;
+                }
+                publish(frame, System.nanoTime());
+            }
+        } catch (Exception e) {
+            if (mIsOpen) Log.e("cv", "Error capturing frames", e);
+        }
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Waits for a frame that isn't held or waiting to be taken.
+     *
+     * @return The frame, or null if the grabber closed.
+     */
+    private synchronized Frame takeFree() throws InterruptedException {
+        while (mFree.isEmpty() && mIsOpen) {
+            wait();
+        }
+        return mIsOpen ? mFree.poll() : null;
+    }
+
+    private synchronized void publish(Frame frame, long captureTime) {
+        frame.setCaptured(++mSequence, captureTime);
+        mCapturedCount++;
+        if (mLatest != null) {
+            mDroppedCount++;
+            mFree.add(mLatest);
+        }
+        mLatest = frame;
+        notifyAll();
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    public boolean isOpen() {
+        return mIsOpen;
+    }
+
+    /**
+     * @return The number of frames captured.
+     */
+    public synchronized long getCapturedCount() {
+        return mCapturedCount;
+    }
+
+    /**
+     * @return The number of frames replaced by a newer one before they were
+     * taken.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return The number of times the camera gave no frame.
+     */
+    public synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return The number of frames taken and released.
+     */
+    public synchronized long getReleasedCount() {
+        return mReleasedCount;
+    }
+
+    /**
+     * @return The average time [ms] from a frame being captured to it being
+     * released, or 0 before any are.
+     */
+    public synchronized double getAverageLatency() {
+        return mReleasedCount == 0 ? 0 : mTotalLatency / 1e6 / mReleasedCount;
+    }
+
+    /**
+     * @return The longest time [ms] from a frame being captured to it being
+     * released.
+     */
+    public synchronized double getMaxLatency() {
+        return mMaxLatency / 1e6;
+    }
+
+}
@@ -0,0 +1,197 @@
+package com.klinker.droneos.cv;
+
+import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import org.opencv.core.Mat;
+
+/**
+ * Shows frames as fast as the display can, and no faster. Frames are copied
+ * into one of two images kept for the frames' size, with
+ * {@link CVUtils#matToImage(Mat, BufferedImage)}, while the other is being
+ * painted, so nothing is allocated while the size stays the same.
+ * <p>
+ * A frame is skipped, without being copied, if it comes sooner than the
+ * display would show it, or before the last frame has been painted. Frames
+ * can be presented from any thread.
+ */
+public class FramePresenter extends JComponent {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The frames shown a second when the display's rate isn't known.
+     */
+    public static final int DEFAULT_REFRESH_RATE = 60;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The least time [ns] between frames shown.
+     */
+    private final long mFrameInterval;
+
+    /**
+     * The image being shown. Only painted, never copied into.
+     */
+    private BufferedImage mFront;
+
+    /**
+     * The image the next frame is copied into, or null before it is needed.
+     */
+    private BufferedImage mBack;
+
+    /**
+     * Whether or not the front image has yet to be painted.
+     */
+    private boolean mIsPaintPending;
+
+    /**
+     * {@link System#nanoTime()} when the last frame shown was presented.
+     */
+    private long mLastPresentTime;
+
+    // counters, see the getters.
+    private long mPresentedCount;
+    private long mSkippedCount;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a presenter that shows frames at the default screen's refresh
+     * rate.
+     */
+    public FramePresenter() {
+        this(getDisplayRefreshRate());
+    }
+
+    /**
+     * @param refreshRate The most frames to show a second.
+     */
+    public FramePresenter(int refreshRate) {
+        mFrameInterval = 1000000000L / Math.max(1, refreshRate);
+        mLastPresentTime = System.nanoTime() - mFrameInterval;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Shows a frame, unless it comes too soon after the last one.
+     *
+     * @param frame A BGR or greyscale image. It is copied before this
+     *              returns, so it can be written over after.
+     * @return Whether or not the frame will be shown.
+     */
+    public boolean present(Mat frame) {
+        long now = System.nanoTime();
+        BufferedImage back;
+        synchronized (this) {
+            if (mIsPaintPending || now - mLastPresentTime < mFrameInterval) {
+                mSkippedCount++;
+                return false;
+            }
+            back = mBack;
+        }
+
+        // the back image is never painted, so it can be copied into without
+        // holding the lock.
+        back = CVUtils.matToImage(frame, back);
+        if (back == null) return false;
+
+        boolean isResized;
+        synchronized (this) {
+            isResized = mFront == null
+                    || mFront.getWidth() != back.getWidth()
+                    || mFront.getHeight() != back.getHeight();
+            mBack = mFront;
+            mFront = back;
+            mIsPaintPending = true;
+            mLastPresentTime = now;
+            mPresentedCount++;
+        }
+
+        if (isResized) {
+            SwingUtilities.invokeLater(() -> {
+                revalidate();
+                java.awt.Window window = SwingUtilities.getWindowAncestor(this);
+                if (window != null) window.pack();
+            });
+        }
+        repaint();
+        return true;
+    }
+
+
+    ///// JComponent Overrides /////////////////////////////////////////////////
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        BufferedImage front;
+        synchronized (this) {
+            front = mFront;
+        }
+        if (front != null) g.drawImage(front, 0, 0, null);
+
+        // only once it is drawn, so the next frame can't be copied into the
+        // image being drawn.
+        synchronized (this) {
+            if (mFront == front) mIsPaintPending = false;
+        }
+    }
+
+    @Override
+    public synchronized Dimension getPreferredSize() {
+        if (mFront == null) return super.getPreferredSize();
+        return new Dimension(mFront.getWidth(), mFront.getHeight());
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @return The default screen's refresh rate, or
+     * {@link #DEFAULT_REFRESH_RATE} if it isn't known.
+     */
+    private static int getDisplayRefreshRate() {
+        try {
+            int rate = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice()
+                    .getDisplayMode()
+                    .getRefreshRate();
+            return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_REFRESH_RATE : rate;
+        } catch (HeadlessException e) {
+            return DEFAULT_REFRESH_RATE;
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of frames shown.
+     */
+    public synchronized long getPresentedCount() {
+        return mPresentedCount;
+    }
+
+    /**
+     * @return The number of frames skipped because they came too soon.
+     */
+    public synchronized long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+}
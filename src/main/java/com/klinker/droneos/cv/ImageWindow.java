@@ -2,26 +2,28 @@ package com.klinker.droneos.cv;
 
 import org.opencv.core.Mat;
 
-import javax.swing.*;
-
 public class ImageWindow extends Window {
 
-    private ImageIcon mImageView;
-    private JLabel mLabel;
+    private FramePresenter mPresenter;
 
     public ImageWindow(String title) {
         super(title);
-        mImageView = new ImageIcon();
-        mLabel = new JLabel(mImageView);
-        add(mLabel);
+        mPresenter = new FramePresenter();
+        add(mPresenter);
     }
 
+    /**
+     * Shows the image, if the display is ready for another frame. The window
+     * is only resized when the image's size changes.
+     */
     @Override
     public void loadImage(Mat image) {
         super.loadImage(image);
-        setSize(image.width(), image.height());
-        mImageView.setImage(CVUtils.matToImage(image));
-        mLabel.updateUI();
+        mPresenter.present(image);
+    }
+
+    public FramePresenter getPresenter() {
+        return mPresenter;
     }
 
 }
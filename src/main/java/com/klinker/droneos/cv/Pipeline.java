@@ -0,0 +1,605 @@
+package com.klinker.droneos.cv;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.klinker.droneos.utils.Log;
+
+import org.opencv.core.Mat;
+
+/**
+ * Runs each camera frame through a series of stages, ex: preprocess, detect,
+ * annotate, then publish. Every stage has its own thread, and frames are
+ * handed from one stage to the next through a queue, so while one frame is
+ * being published the next can be detected in and the one after that
+ * preprocessed. On a multi-core Pi this processes more frames a second than
+ * running every stage on one thread, at about the same latency per frame.
+ * <p>
+ * Stages that don't depend on each other, like two different detectors,
+ * can be added as one parallel stage, so they all work on the same frame at
+ * once.
+ * <p>
+ * Frames come from a {@link FrameGrabber}, which is started and closed by
+ * its owner. Each frame is carried through the stages by a {@link Work},
+ * and only {@link Pipeline#DEFAULT_CAPACITY} frames are in the pipeline at
+ * once, so when the stages fall behind the grabber drops frames instead of
+ * the queues growing. Every stage is timed, see {@link Pipeline#getStats()}.
+ */
+public class Pipeline {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The most frames in the pipeline at once.
+     */
+    public static final int DEFAULT_CAPACITY = 4;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final String mName;
+
+    private final FrameGrabber mGrabber;
+
+    private final List<StageWorker> mStages;
+
+    /**
+     * Every {@link Work}, so their memory can be released when the pipeline
+     * closes.
+     */
+    private final Work[] mWork;
+
+    /**
+     * The {@link Work} not carrying a frame.
+     */
+    private final ArrayBlockingQueue<Work> mFreeWork;
+
+    private volatile boolean mIsOpen;
+
+    /**
+     * Takes frames from the grabber into the first stage.
+     */
+    private Thread mCaptureThread;
+
+    private final Stats mStats;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a pipeline with {@link Pipeline#DEFAULT_CAPACITY}.
+     *
+     * @param name    The name of the pipeline, used to name its threads.
+     * @param grabber Where the frames come from.
+     */
+    public Pipeline(String name, FrameGrabber grabber) {
+        this(name, grabber, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param name     The name of the pipeline, used to name its threads.
+     * @param grabber  Where the frames come from.
+     * @param capacity The most frames in the pipeline at once. The grabber
+     *                 needs 2 more frames than this.
+     */
+    public Pipeline(String name, FrameGrabber grabber, int capacity) {
+        mName = name;
+        mGrabber = grabber;
+        mStages = new ArrayList<>();
+        mWork = new Work[Math.max(1, capacity)];
+        mFreeWork = new ArrayBlockingQueue<>(mWork.length);
+        for (int i = 0; i < mWork.length; i++) {
+            mWork[i] = new Work();
+            mFreeWork.add(mWork[i]);
+        }
+        mIsOpen = false;
+        mStats = new Stats(name);
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Adds a stage after the ones already added. Must be called before the
+     * pipeline starts.
+     *
+     * @param name  The name of the stage, used for its thread and timing.
+     * @param stage What the stage does to each frame.
+     * @return This pipeline.
+     */
+    public Pipeline addStage(String name, Stage stage) {
+        mStages.add(new StageWorker(name, stage));
+        return this;
+    }
+
+    /**
+     * Adds a stage after the ones already added that runs several stages
+     * on the same frame at once. They must not change the frame, or read
+     * anything the others write. Must be called before the pipeline starts.
+     *
+     * @param name   The name of the stage, used for its threads and timing.
+     * @param stages The stages to run at once.
+     * @return This pipeline.
+     */
+    public Pipeline addParallelStage(String name, Stage... stages) {
+        mStages.add(new StageWorker(name, new ParallelStage(name, stages)));
+        return this;
+    }
+
+    /**
+     * Starts a thread for each stage, and one taking frames from the
+     * grabber.
+     */
+    public void start() {
+        if (mIsOpen) return;
+        mIsOpen = true;
+        mStats.start();
+        for (int i = 0; i < mStages.size(); i++) {
+            StageWorker stage = mStages.get(i);
+            stage.mNext = i + 1 < mStages.size() ? mStages.get(i + 1) : null;
+            stage.mThread = new Thread(stage, mName + "-" + stage.mStats.mName);
+            stage.mThread.setDaemon(true);
+            stage.mThread.start();
+        }
+        mCaptureThread = new Thread(this::capture, mName + "-capture");
+        mCaptureThread.setDaemon(true);
+        mCaptureThread.start();
+    }
+
+    /**
+     * Stops every stage, and frees the memory used by the stages. Frames
+     * still in the pipeline are released back to the grabber. A closed
+     * pipeline can't be started again.
+     */
+    public void close() {
+        if (!mIsOpen) return;
+        mIsOpen = false;
+        List<Thread> threads = new ArrayList<>();
+        threads.add(mCaptureThread);
+        for (StageWorker stage : mStages) {
+            threads.add(stage.mThread);
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        // a stage may be inside a native call that can't be interrupted, so
+        // wait for every thread to exit before the memory it uses is freed.
+        boolean isInterrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+        }
+        for (StageWorker stage : mStages) {
+            isInterrupted |= stage.close();
+        }
+        if (isInterrupted) Thread.currentThread().interrupt();
+        for (Work work : mWork) {
+            if (work.getFrame() != null) work.finish();
+            work.close();
+        }
+    }
+
+    /**
+     * Moves frames from the grabber into the first stage, as long as there
+     * is room in the pipeline.
+     */
+    private void capture() {
+        try {
+            while (mIsOpen) {
+                Work work = mFreeWork.take();
+                Frame frame = mGrabber.take();
+                if (frame == null) {
+                    mFreeWork.add(work);
+                    break;
+                }
+                work.start(frame);
+                if (mStages.isEmpty()) {
+                    finish(work);
+                } else {
+                    mStages.get(0).mQueue.put(work);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed while waiting for a frame.
+        }
+    }
+
+    /**
+     * Records how long a frame took to get through the pipeline, then gives
+     * back its frame and work.
+     */
+    private void finish(Work work) {
+        mStats.record(System.nanoTime() - work.getFrame().getCaptureTime(), work.isFailed());
+        work.finish();
+        mFreeWork.add(work);
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return The timing of the whole pipeline, from a frame being captured
+     * to it leaving the last stage.
+     */
+    public Stats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return The timing of each stage, in order.
+     */
+    public List<Stats> getStageStats() {
+        List<Stats> stats = new ArrayList<>();
+        for (StageWorker stage : mStages) {
+            stats.add(stage.mStats);
+            if (stage.mStage instanceof ParallelStage) {
+                for (Stats branch : ((ParallelStage) stage.mStage).mStats) {
+                    stats.add(branch);
+                }
+            }
+        }
+        return stats;
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * A step each frame goes through.
+     */
+    public interface Stage {
+        /**
+         * @param work The frame, and what the stages before found in it.
+         * @throws Exception Skips the rest of the stages for this frame.
+         */
+        void process(Work work) throws Exception;
+    }
+
+    /**
+     * Carries a frame through the stages, along with what each stage finds
+     * in it. Each work is reused for frame after frame, so its scratch
+     * {@link Mat}s are only allocated for the first one.
+     */
+    public static class Work {
+
+        private Frame mFrame;
+
+        /**
+         * What the stages found in this frame, cleared for each frame.
+         */
+        private final ConcurrentHashMap<String, Object> mResults;
+
+        /**
+         * Kept for every frame this work carries.
+         */
+        private final HashMap<String, Object> mScratch;
+
+        private volatile boolean mIsFailed;
+
+        private Work() {
+            mResults = new ConcurrentHashMap<>();
+            mScratch = new HashMap<>();
+        }
+
+        private void start(Frame frame) {
+            mFrame = frame;
+            mIsFailed = false;
+        }
+
+        private void finish() {
+            mFrame.release();
+            mFrame = null;
+            mResults.clear();
+        }
+
+        private synchronized void close() {
+            for (Object scratch : mScratch.values()) {
+                if (scratch instanceof Mat) ((Mat) scratch).release();
+            }
+            mScratch.clear();
+        }
+
+        /**
+         * @return The frame, only valid until it leaves the last stage.
+         */
+        public Frame getFrame() {
+            return mFrame;
+        }
+
+        /**
+         * @return The frame's image.
+         */
+        public Mat getImage() {
+            return mFrame.getMat();
+        }
+
+        /**
+         * @param name The name of the Mat.
+         * @return A Mat kept for every frame this work carries, ex: for a
+         * greyscale copy of the image. It is released when the pipeline
+         * closes.
+         */
+        public Mat getMat(String name) {
+            return getScratch(name, Mat::new);
+        }
+
+        /**
+         * @param name   The name of the object.
+         * @param create Creates the object the first time.
+         * @return An object kept for every frame this work carries. If it is
+         * a {@link Mat}, it is released when the pipeline closes.
+         */
+        @SuppressWarnings("unchecked")
+        public synchronized <T> T getScratch(String name, Supplier<T> create) {
+            Object scratch = mScratch.get(name);
+            if (scratch == null) {
+                scratch = create.get();
+                mScratch.put(name, scratch);
+            }
+            return (T) scratch;
+        }
+
+        /**
+         * Saves something found in the frame, for the stages after.
+         *
+         * @param key   The name of the result.
+         * @param value The result, or null to remove it.
+         */
+        public void put(String key, Object value) {
+            if (value == null) mResults.remove(key);
+            else mResults.put(key, value);
+        }
+
+        /**
+         * @return A result saved by an earlier stage, or null.
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(String key) {
+            return (T) mResults.get(key);
+        }
+
+        /**
+         * @return Whether or not a stage failed on this frame.
+         */
+        public boolean isFailed() {
+            return mIsFailed;
+        }
+
+    }
+
+    /**
+     * Timing for a stage, or the whole pipeline.
+     */
+    public static class Stats {
+
+        private final String mName;
+        private long mStartNanos;
+        private long mCount;
+        private long mFailedCount;
+        private long mTotalNanos;
+        private long mMaxNanos;
+
+        private Stats(String name) {
+            mName = name;
+        }
+
+        private synchronized void start() {
+            mStartNanos = System.nanoTime();
+        }
+
+        private synchronized void record(long nanos, boolean isFailed) {
+            mCount++;
+            if (isFailed) mFailedCount++;
+            mTotalNanos += nanos;
+            mMaxNanos = Math.max(mMaxNanos, nanos);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return The number of frames.
+         */
+        public synchronized long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return The number of frames that failed.
+         */
+        public synchronized long getFailedCount() {
+            return mFailedCount;
+        }
+
+        /**
+         * @return The average time [ms] for each frame.
+         */
+        public synchronized double getAverageTime() {
+            return mCount == 0 ? 0 : mTotalNanos / 1e6 / mCount;
+        }
+
+        /**
+         * @return The longest time [ms] for a frame.
+         */
+        public synchronized double getMaxTime() {
+            return mMaxNanos / 1e6;
+        }
+
+        /**
+         * @return The frames a second since the pipeline started.
+         */
+        public synchronized double getFPS() {
+            long elapsed = System.nanoTime() - mStartNanos;
+            return elapsed <= 0 ? 0 : mCount * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s: %d frames (%d failed), %.1f fps, %.2f ms average, %.2f ms max",
+                    mName, getCount(), getFailedCount(), getFPS(),
+                    getAverageTime(), getMaxTime()
+            );
+        }
+
+    }
+
+    /**
+     * Runs a stage on its own thread.
+     */
+    private class StageWorker implements Runnable {
+
+        private final Stage mStage;
+        private final Stats mStats;
+        private final ArrayBlockingQueue<Work> mQueue;
+        private StageWorker mNext;
+        private Thread mThread;
+
+        private StageWorker(String name, Stage stage) {
+            mStage = stage;
+            mStats = new Stats(name);
+            // never fills, since only mWork.length frames are in the pipeline.
+            mQueue = new ArrayBlockingQueue<>(mWork.length);
+        }
+
+        @Override
+        public void run() {
+            mStats.start();
+            try {
+                while (mIsOpen) {
+                    Work work = mQueue.take();
+                    if (!work.isFailed()) {
+                        long start = System.nanoTime();
+                        try {
+                            mStage.process(work);
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            work.mIsFailed = true;
+                            Log.e("cv", "Error in the " + mStats.mName + " stage", e);
+                        }
+                        mStats.record(System.nanoTime() - start, work.isFailed());
+                    }
+                    if (mNext == null) finish(work);
+                    else mNext.mQueue.put(work);
+                }
+            } catch (InterruptedException e) {
+                // closed while waiting for a frame.
+            }
+        }
+
+        /**
+         * Stops the threads running parallel stages, and waits for them to
+         * exit.
+         *
+         * @return Whether or not the calling thread was interrupted while
+         * waiting.
+         */
+        private boolean close() {
+            if (!(mStage instanceof ParallelStage)) return false;
+            ExecutorService executor = ((ParallelStage) mStage).mExecutor;
+            executor.shutdownNow();
+            boolean isInterrupted = false;
+            while (!executor.isTerminated()) {
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            return isInterrupted;
+        }
+
+    }
+
+    /**
+     * Runs several stages on the same frame at once. The first runs on the
+     * stage's own thread, and the rest on threads of their own.
+     */
+    private static class ParallelStage implements Stage {
+
+        private final Stage[] mStages;
+        private final Stats[] mStats;
+        private final ExecutorService mExecutor;
+        private final List<Future<?>> mFutures;
+
+        private ParallelStage(String name, Stage[] stages) {
+            mStages = stages;
+            mStats = new Stats[stages.length];
+            for (int i = 0; i < stages.length; i++) {
+                mStats[i] = new Stats(name + "-" + i);
+                mStats[i].start();
+            }
+            mExecutor = Executors.newFixedThreadPool(
+                    Math.max(1, stages.length - 1),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, name + "-parallel");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+            );
+            mFutures = new ArrayList<>(stages.length);
+        }
+
+        @Override
+        public void process(Work work) throws Exception {
+            mFutures.clear();
+            for (int i = 1; i < mStages.length; i++) {
+                int branch = i;
+                mFutures.add(mExecutor.submit(() -> {
+                    runBranch(branch, work);
+                    return null;
+                }));
+            }
+            Exception error = null;
+            try {
+                runBranch(0, work);
+            } catch (Exception e) {
+                error = e;
+            }
+            for (Future<?> future : mFutures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause() instanceof Exception
+                                ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if (error != null) throw error;
+        }
+
+        private void runBranch(int branch, Work work) throws Exception {
+            long start = System.nanoTime();
+            boolean isFailed = true;
+            try {
+                mStages[branch].process(work);
+                isFailed = false;
+            } finally {
+                mStats[branch].record(System.nanoTime() - start, isFailed);
+            }
+        }
+
+    }
+
+}
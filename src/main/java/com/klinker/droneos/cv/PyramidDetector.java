@@ -0,0 +1,235 @@
+package com.klinker.droneos.cv;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds the landing pad's chessboard coarse to fine. The frame is halved
+ * into a pyramid, and the chessboard is searched for in the smallest level,
+ * which is far faster than searching the whole frame. Corners found in a
+ * smaller level are scaled back up, then refined in the frame, so they are
+ * as accurate as if they had been found in it.
+ * <p>
+ * A chessboard too far away to be seen in a small level can only be found
+ * in a larger one, but searching every level costs more than searching the
+ * whole frame. So when the chessboard hasn't been found, every level down
+ * to the frame itself is only searched on the first miss and then on every
+ * {@link #getFinerSearchInterval()}th miss in a row. Any other miss costs
+ * only the search of the smallest level, and a distant chessboard is still
+ * found within that many frames.
+ * <p>
+ * The levels' {@link Mat}s are kept and reused for the next frame, so a
+ * detector must only be used by one thread at a time.
+ */
+public class PyramidDetector {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The number of times the frame is halved, so the smallest level is a
+     * quarter of its size across.
+     */
+    public static final int DEFAULT_LEVELS = 2;
+
+    /**
+     * The fewest columns [px] a level can have. The chessboard is too small
+     * to find in anything smaller even when it is close.
+     */
+    public static final int MIN_WIDTH = 160;
+
+    /**
+     * By default, every level is searched on every 4th frame in a row the
+     * chessboard isn't found in.
+     */
+    public static final int DEFAULT_FINER_SEARCH_INTERVAL = 4;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The halved levels, where level i is 2^i times smaller than the frame.
+     * Level 0 is the frame itself, so it is never set.
+     */
+    private final Mat[] mLevels;
+
+    /**
+     * The number of frames the chessboard was found in, by the level it was
+     * found in.
+     */
+    private final long[] mFoundCounts;
+
+    /**
+     * Every level is searched on every this many misses in a row, or never
+     * if 0.
+     */
+    private final int mFinerSearchInterval;
+
+    /**
+     * The number of searches in a row the chessboard wasn't found in.
+     */
+    private int mMisses;
+
+    /**
+     * The level the chessboard was found in by the last search, or -1 if
+     * it wasn't found.
+     */
+    private int mLastFoundLevel = -1;
+
+    private long mSearchedCount;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a detector that halves frames {@link #DEFAULT_LEVELS} times,
+     * and searches every level every
+     * {@link #DEFAULT_FINER_SEARCH_INTERVAL} misses.
+     */
+    public PyramidDetector() {
+        this(DEFAULT_LEVELS, DEFAULT_FINER_SEARCH_INTERVAL);
+    }
+
+    /**
+     * @param levels              The most times to halve a frame. With 0 the
+     *                            frame is only searched whole.
+     * @param finerSearchInterval Search each larger level, down to the frame
+     *                            itself, on the first miss and every this
+     *                            many misses in a row after it. 1 searches
+     *                            them on every miss, and 0 only ever
+     *                            searches the smallest level.
+     */
+    public PyramidDetector(int levels, int finerSearchInterval) {
+        mFinerSearchInterval = Math.max(0, finerSearchInterval);
+        mLevels = new Mat[Math.max(0, levels) + 1];
+        for (int i = 1; i < mLevels.length; i++) {
+            mLevels[i] = new Mat();
+        }
+        mFoundCounts = new long[mLevels.length];
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Searches a frame for the chessboard in the smallest level, then in
+     * each larger one if it is time to search finer levels.
+     *
+     * @param grey    The greyscale frame to search.
+     * @param corners Set to the corners, in the frame's pixels, if they are
+     *                found.
+     * @return Whether or not the chessboard was found.
+     */
+    public boolean find(Mat grey, MatOfPoint2f corners) {
+        mSearchedCount++;
+        mLastFoundLevel = -1;
+        int top = buildPyramid(grey);
+        boolean isSearchingFiner = mFinerSearchInterval > 0
+                && mMisses % mFinerSearchInterval == 0;
+        int bottom = isSearchingFiner ? 0 : top;
+        for (int level = top; level >= bottom; level--) {
+            Mat image = level == 0 ? grey : mLevels[level];
+            if (!CVUtils.findChessboardCorners(image, corners)) continue;
+
+            if (level > 0) {
+                // each pixel of a level is centered on every other pixel of
+                // the one above it.
+                int scale = 1 << level;
+                corners.convertTo(corners, -1, scale);
+                CVUtils.refineChessboardCorners(grey, corners, scale + 1);
+            }
+            mFoundCounts[level]++;
+            mLastFoundLevel = level;
+            mMisses = 0;
+            return true;
+        }
+        mMisses++;
+        return false;
+    }
+
+    /**
+     * Frees the memory of the levels. The detector can still be used, and
+     * allocates them again.
+     */
+    public void release() {
+        for (int i = 1; i < mLevels.length; i++) {
+            mLevels[i].release();
+        }
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Halves the frame into the levels, stopping before a level would be
+     * narrower than {@link #MIN_WIDTH}.
+     *
+     * @return The smallest level built, or 0 if the frame is too small to
+     * halve.
+     */
+    private int buildPyramid(Mat grey) {
+        int level = 0;
+        int width = grey.cols();
+        while (level + 1 < mLevels.length && width / 2 >= MIN_WIDTH) {
+            Imgproc.pyrDown(level == 0 ? grey : mLevels[level], mLevels[level + 1]);
+            width = mLevels[++level].cols();
+        }
+        return level;
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The most times a frame is halved.
+     */
+    public int getLevelCount() {
+        return mLevels.length - 1;
+    }
+
+    /**
+     * @return Every level is searched on the first miss and every this many
+     * misses in a row after it, or never if 0.
+     */
+    public int getFinerSearchInterval() {
+        return mFinerSearchInterval;
+    }
+
+    /**
+     * @return The level the chessboard was found in by the last search, or
+     * -1 if it wasn't found. Corners found above level 0 have already been
+     * refined in the frame.
+     */
+    public int getLastFoundLevel() {
+        return mLastFoundLevel;
+    }
+
+    /**
+     * @return The number of frames searched.
+     */
+    public long getSearchedCount() {
+        return mSearchedCount;
+    }
+
+    /**
+     * @param level The level, where 0 is the frame itself.
+     * @return The number of frames the chessboard was found in at the level.
+     */
+    public long getFoundCount(int level) {
+        return mFoundCounts[level];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(
+                "Pyramid: %d frames searched, found at", mSearchedCount
+        ));
+        for (int level = mFoundCounts.length - 1; level >= 0; level--) {
+            builder.append(String.format(
+                    " 1/%d: %d%s", 1 << level, mFoundCounts[level], level > 0 ? "," : ""
+            ));
+        }
+        return builder.toString();
+    }
+
+}
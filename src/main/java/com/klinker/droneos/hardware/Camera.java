@@ -110,4 +110,17 @@ public class Camera {
         return frame;
     }
 
+    /**
+     * Reads the next frame into an existing {@link Mat}. The Mat's memory is
+     * reused as long as the frame size doesn't change, so reading into the
+     * same Mats over and over allocates nothing.
+     *
+     * @param frame The Mat to read into.
+     * @return Whether or not a frame was read. If the
+     * {@link Camera#mCapture} is closed, it will return false.
+     */
+    public boolean read(Mat frame) {
+        return mCapture.isOpened() && mCapture.read(frame) && !frame.empty();
+    }
+
 }
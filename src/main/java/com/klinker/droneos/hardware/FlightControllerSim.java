@@ -9,8 +9,16 @@ public class FlightControllerSim extends FlightController {
     private DroneCollision mDrone;
 
     FlightControllerSim(int strafeXPin, int strafeYPin, int anglePin, int liftPin) {
+        this(Simulation.getSingleton().getDrone(), strafeXPin, strafeYPin, anglePin, liftPin);
+    }
+
+    /**
+     * @param drone The simulated drone to fly, so a simulation other than
+     *              {@link Simulation#getSingleton()} can be flown.
+     */
+    public FlightControllerSim(DroneCollision drone, int strafeXPin, int strafeYPin, int anglePin, int liftPin) {
         super(strafeXPin, strafeYPin, anglePin, liftPin);
-        mDrone = Simulation.getSingleton().getDrone();
+        mDrone = drone;
     }
 
 	@Override
@@ -34,7 +42,7 @@ public class FlightControllerSim extends FlightController {
 
     @Override
     public void initialize() {
-
+        mIsInitialized = true;
     }
     
 }
\ No newline at end of file
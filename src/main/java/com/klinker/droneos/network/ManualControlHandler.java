@@ -1,7 +1,7 @@
 package com.klinker.droneos.network;
 
 import com.google.gson.JsonObject;
-import com.klinker.droneos.arch.communication.messages.JsonMessage;
+import com.klinker.droneos.arch.communication.messages.ControlMessage;
 import com.klinker.droneos.ControlsNode;
 import com.klinker.droneos.NetworkNode;
 
@@ -14,17 +14,15 @@ public class ManualControlHandler extends RequestHandler{
     protected Object performRequest(JsonObject parameters) {
         if (parameters.has("strafeX") && parameters.has("strafeY") && parameters.has("angle")
                 && parameters.has("lift")) {
-            JsonObject data = new JsonObject();
-            data.addProperty("strafeX", parameters.get("strafeX").getAsDouble());
-            data.addProperty("strafeY", parameters.get("strafeY").getAsDouble());
-            data.addProperty("angle", parameters.get("angle").getAsDouble());
-            data.addProperty("lift", parameters.get("lift").getAsDouble());
-            data.addProperty("isManual", true);
-            JsonMessage message = new JsonMessage(
+            ControlMessage message = ControlMessage.obtain(
                     ControlsNode.class,
                     NetworkNode.class,
                     ControlsNode.MESSAGE_CONTROL,
-                    data
+                    parameters.get("strafeX").getAsDouble(),
+                    parameters.get("strafeY").getAsDouble(),
+                    parameters.get("angle").getAsDouble(),
+                    parameters.get("lift").getAsDouble(),
+                    true
             );
             this.getNode().sendMessage(message);
 
@@ -0,0 +1,97 @@
+package com.klinker.droneos.utils;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The time that nodes wait against, through {@link Utils#sleep(long)} and
+ * the timeouts of {@link com.klinker.droneos.arch.nodes.Signal}. Normally
+ * this is {@link Clock#SYSTEM}, but a headless simulation swaps in a
+ * {@link VirtualClock} so that everything waiting on the clock moves at the
+ * simulation's pace instead of the wall clock's.
+ * <p>
+ * Times are in ns and only mean something relative to each other, like
+ * {@link System#nanoTime()}.
+ */
+public abstract class Clock {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The wall clock.
+     */
+    public static final Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void parkUntil(Object blocker, long deadline) {
+            LockSupport.parkNanos(blocker, deadline - System.nanoTime());
+        }
+    };
+
+
+    ///// Static Variables /////////////////////////////////////////////////////
+
+    /**
+     * The clock in use.
+     */
+    private static volatile Clock sClock = SYSTEM;
+
+
+    ///// Static Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @return The clock in use.
+     */
+    public static Clock get() {
+        return sClock;
+    }
+
+    /**
+     * Sets the clock in use. Threads already waiting keep waiting on the
+     * clock they started with.
+     *
+     * @param clock The new clock, or null for {@link Clock#SYSTEM}.
+     */
+    public static void set(Clock clock) {
+        sClock = clock == null ? SYSTEM : clock;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @return The current time in ns.
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Parks the current thread until {@link Clock#nanoTime()} reaches the
+     * deadline. Like {@link LockSupport#park(Object)}, this can return early
+     * if the thread is unparked or interrupted, or for no reason at all, so
+     * callers must check the time again.
+     *
+     * @param blocker  What the thread is waiting on, for debugging.
+     * @param deadline The time in ns to wake up at.
+     */
+    public abstract void parkUntil(Object blocker, long deadline);
+
+    /**
+     * @param ms A time in ms from now.
+     * @return The deadline in ns that far from now.
+     */
+    public long deadlineAfter(long ms) {
+        return nanoTime() + ms * 1000000L;
+    }
+
+    /**
+     * @param deadline A time in ns.
+     * @return Whether or not the deadline has passed.
+     */
+    public boolean hasPassed(long deadline) {
+        return nanoTime() - deadline >= 0;
+    }
+
+}
@@ -5,7 +5,14 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
 
 import com.klinker.droneos.arch.Core;
 
@@ -20,6 +27,16 @@ import com.klinker.droneos.arch.Core;
  * If it is a utility, either the tag should be the parent package's name.
  * For example: a tag for {@link com.klinker.droneos.arch.Core}
  * would be 'arch'.
+ * <p>
+ * Logging never formats or writes on the calling thread. Each call claims a
+ * slot in a fixed size, lock-free ring buffer and returns; a background
+ * thread formats everything waiting and writes it to the console and the
+ * log file in one batch. If the buffer is full the message is dropped and
+ * counted (see {@link Log#getDroppedCount()}), except for errors, which are
+ * written right away instead. Messages below a tag's level (see
+ * {@link Log#setLevel(String, Level)}) are skipped before anything is
+ * queued, and the {@link Supplier} overloads only build their message if it
+ * will be written.
  */
 public class Log {
 
@@ -41,13 +58,122 @@ public class Log {
     }
 
     /**
-     * A constant to help format the current date.
+     * The levels a message can be logged at, from least to most important.
+     */
+    public enum Level {
+        VERBOSE('v', Color.BLUE),
+        DEBUG('d', Color.RESET),
+        WARNING('w', Color.YELLOW),
+        ERROR('e', Color.RED);
+
+        private final char mType;
+        private final String mColor;
+
+        Level(char type, String color) {
+            mType = type;
+            mColor = color;
+        }
+    }
+
+    /**
+     * The number of messages the ring buffer holds. Must be a power of 2.
+     */
+    public static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The most messages written out before flushing.
+     */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /**
+     * How long {@link Log#flush()} waits for the writer, in ms.
+     */
+    private static final long FLUSH_TIMEOUT = 1000;
+
+    /**
+     * A constant to help format the current date. Only used on the writer
+     * thread, and unlike {@link java.text.SimpleDateFormat} it is
+     * thread-safe anyway.
+     */
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter
+            .ofPattern("yyyy/MM/dd hh:mm:ss.S a")
+            .withZone(ZoneId.systemDefault());
+
+    private static volatile PrintStream LOG_FILE;
+
+
+    ///// Static Variables /////////////////////////////////////////////////////
+
+    /**
+     * The level of each tag that does not use {@link Log#sDefaultLevel}.
+     */
+    private static final ConcurrentHashMap<String, Level> sLevels =
+            new ConcurrentHashMap<>();
+
+    /**
+     * The level for tags not in {@link Log#sLevels}.
+     */
+    private static volatile Level sDefaultLevel = Level.VERBOSE;
+
+    /**
+     * Whether or not console output is colored. Set by
+     * {@link Log#setColored(boolean)}, so the writer never has to reach into
+     * {@link Core}.
+     */
+    private static volatile boolean sIsColored = true;
+
+    /**
+     * The ring buffer. Each slot's sequence says whose turn it is: a slot at
+     * position p can be written when its sequence is p, and read once it is
+     * p + 1. The rest of the slot is kept in the parallel arrays below.
      */
-    private static SimpleDateFormat FORMATTER = new SimpleDateFormat(
-            "YYYY/MM/dd hh:mm:ss.S a"
-    );
+    private static final AtomicLongArray sSequences =
+            new AtomicLongArray(BUFFER_SIZE);
+    private static final long[] sTimes = new long[BUFFER_SIZE];
+    private static final Level[] sSlotLevels = new Level[BUFFER_SIZE];
+    private static final String[] sTags = new String[BUFFER_SIZE];
+    private static final Object[] sMessages = new Object[BUFFER_SIZE];
+    private static final Exception[] sErrors = new Exception[BUFFER_SIZE];
 
-    private static PrintStream LOG_FILE;
+    /**
+     * The next position to be claimed by a caller.
+     */
+    private static final AtomicLong sTail = new AtomicLong();
+
+    /**
+     * The next position to be written out. Only changed by the writer.
+     */
+    private static volatile long sHead = 0;
+
+    /**
+     * The number of messages dropped because the buffer was full.
+     */
+    private static final AtomicLong sDroppedCount = new AtomicLong();
+
+    /**
+     * The number of messages written out.
+     */
+    private static final AtomicLong sWrittenCount = new AtomicLong();
+
+    /**
+     * Whether or not the writer is parked waiting for messages.
+     */
+    private static volatile boolean sIsWriterWaiting = false;
+
+    /**
+     * Formats and writes the messages in the ring buffer.
+     */
+    private static final Thread sWriter;
+
+    static {
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            sSequences.set(i, i);
+        }
+        sWriter = new Thread(Log::write, "log-writer");
+        sWriter.setDaemon(true);
+        sWriter.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+    }
 
 
     ///// Constructor //////////////////////////////////////////////////////////
@@ -62,48 +188,158 @@ public class Log {
     ///// Printing Help Methods ////////////////////////////////////////////////
 
     /**
-     * Prints formatted text to the command line.
-     * @param color     The color the message should be displayed in, a
-     *                  constant from {@link Color}.
-     * @param debugType Any character, but generally d, w, e, and v for debug,
-     *                  warning, error, and verbose.
-     * @param tag       The tag used to identify here the statement came from.
-     * @param message   The actual message to be displayed.
-     * @param e         An Exception if there was one, otherwise
-     *                  <code>null</code>;
-     * @param stream    The stream to write the text out to.
-     */
-    private static void print(
-            String color,
-            char debugType,
-            String tag,
-            String message,
-            Exception e,
-            PrintStream stream,
-            boolean isColored) {
-        String reset = Color.RESET;
-        if (!isColored) {
-            color = "";
-            reset = "";
+     * Queues a message for the writer thread.
+     *
+     * @param level   The level being logged at.
+     * @param tag     The tag used to identify here the statement came from.
+     * @param message The message, either a String or a {@link Supplier}.
+     * @param e       An Exception if there was one, otherwise
+     *                <code>null</code>;
+     */
+    private static void log(Level level, String tag, Object message,
+                            Exception e) {
+        if (!isLoggable(tag, level)) return;
+        long time = System.currentTimeMillis();
+
+        long position = sTail.get();
+        while (true) {
+            long sequence = sSequences.get(index(position));
+            if (sequence == position) {
+                if (sTail.compareAndSet(position, position + 1)) break;
+                position = sTail.get();
+            } else if (sequence < position) {
+                // the buffer is full
+                if (level == Level.ERROR) {
+                    writeNow(time, level, tag, message, e);
+                } else {
+                    sDroppedCount.incrementAndGet();
+                }
+                return;
+            } else {
+                position = sTail.get();
+            }
+        }
+
+        int index = index(position);
+        sTimes[index] = time;
+        sSlotLevels[index] = level;
+        sTags[index] = tag;
+        sMessages[index] = message;
+        sErrors[index] = e;
+        // a full volatile write, so it can not be reordered with the read of
+        // sIsWriterWaiting below and miss waking the writer.
+        sSequences.set(index, position + 1);
+        if (sIsWriterWaiting) LockSupport.unpark(sWriter);
+    }
+
+    /**
+     * The writer thread's loop. Takes every message that is ready, formats
+     * them into one block for the console and one for the log file, and
+     * writes each block at once.
+     */
+    private static void write() {
+        StringBuilder console = new StringBuilder();
+        StringBuilder file = new StringBuilder();
+        long reportedDrops = 0;
+        while (true) {
+            int count = 0;
+            long head = sHead;
+            while (count < MAX_BATCH_SIZE) {
+                int index = index(head);
+                if (sSequences.get(index) != head + 1) break;
+                append(console, file, sTimes[index], sSlotLevels[index],
+                        sTags[index], sMessages[index], sErrors[index]);
+                sTags[index] = null;
+                sMessages[index] = null;
+                sErrors[index] = null;
+                sSequences.lazySet(index, head + BUFFER_SIZE);
+                head++;
+                count++;
+            }
+
+            long drops = sDroppedCount.get();
+            if (drops != reportedDrops) {
+                append(console, file, System.currentTimeMillis(),
+                        Level.WARNING, "utils", "Log buffer was full, dropped "
+                                + (drops - reportedDrops) + " messages", null);
+                reportedDrops = drops;
+            }
+
+            if (console.length() > 0) {
+                System.out.print(console);
+                System.out.flush();
+                PrintStream logFile = LOG_FILE;
+                if (logFile != null) {
+                    logFile.print(file);
+                    logFile.flush();
+                }
+                console.setLength(0);
+                file.setLength(0);
+                sWrittenCount.addAndGet(count);
+            }
+            sHead = head;
+
+            if (count == 0) {
+                sIsWriterWaiting = true;
+                if (sSequences.get(index(head)) != head + 1) {
+                    LockSupport.parkNanos(Log.class, 100_000_000L);
+                }
+                sIsWriterWaiting = false;
+            }
+        }
+    }
+
+    /**
+     * Writes a message on the calling thread, for errors when the buffer is
+     * full.
+     */
+    private static void writeNow(long time, Level level, String tag,
+                                 Object message, Exception e) {
+        StringBuilder console = new StringBuilder();
+        StringBuilder file = new StringBuilder();
+        append(console, file, time, level, tag, message, e);
+        System.out.print(console);
+        PrintStream logFile = LOG_FILE;
+        if (logFile != null) logFile.print(file);
+    }
+
+    /**
+     * Formats a message onto the end of the console and file output.
+     */
+    private static void append(StringBuilder console, StringBuilder file,
+                               long time, Level level, String tag,
+                               Object message, Exception e) {
+        String text;
+        try {
+            text = message instanceof Supplier
+                    ? String.valueOf(((Supplier<?>) message).get())
+                    : String.valueOf(message);
+        } catch (RuntimeException error) {
+            text = "Error building log message: " + error;
         }
-        if (stream != null) stream.println(color + getHeader(debugType, tag)
-                + message + (e == null ? "" : '\n' + stackTraceToString(e))
-                + reset);
+        String line = getHeader(time, level.mType, tag) + text
+                + (e == null ? "" : '\n' + stackTraceToString(e));
+        if (sIsColored) {
+            console.append(level.mColor).append(line).append(Color.RESET);
+        } else {
+            console.append(line);
+        }
+        console.append(System.lineSeparator());
+        file.append(line).append(System.lineSeparator());
     }
 
     /**
      * Returns the prefix for the debug messsage.
      *
+     * @param time      When the message was logged.
      * @param debugType The type of debug called, d, w, v, or e
      * @param tag       The tag used to identify here the statement came from.
      * @return A string in the format:
      *         "[YYYY/MM/DD hh/mm/ss.ms am/pm - v/d/e]tag: "
      */
-    private static String getHeader(char debugType, String tag) {
-        return String.format(
-                "[%s] %s_%c: ",
-                FORMATTER.format(System.currentTimeMillis()), tag, debugType
-        );
+    private static String getHeader(long time, char debugType, String tag) {
+        return "[" + FORMATTER.format(Instant.ofEpochMilli(time)) + "] "
+                + tag + '_' + debugType + ": ";
     }
 
     /**
@@ -119,6 +355,10 @@ public class Log {
         return sw.toString();
     }
 
+    private static int index(long position) {
+        return (int) (position & (BUFFER_SIZE - 1));
+    }
+
     /**
      * Opens the connection to the log file.
      */
@@ -133,10 +373,27 @@ public class Log {
     }
 
     /**
-     * Closes the connection to the log file.
+     * Writes out everything logged so far, then closes the connection to the
+     * log file.
      */
     public static void close() {
-        LOG_FILE.close();
+        flush();
+        PrintStream logFile = LOG_FILE;
+        LOG_FILE = null;
+        if (logFile != null) logFile.close();
+    }
+
+    /**
+     * Waits until every message logged before this call has been written,
+     * or {@link Log#FLUSH_TIMEOUT} passes.
+     */
+    public static void flush() {
+        long target = sTail.get();
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT * 1000000L;
+        while (sHead < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(sWriter);
+            LockSupport.parkNanos(100_000L);
+        }
     }
 
 
@@ -150,8 +407,16 @@ public class Log {
      * @param message The actual message to be displayed.
      */
     public static void d(String tag, String message) {
-        print(Color.RESET, 'd', tag, message, null, System.out, Core.isLogColored());
-        print(Color.RESET, 'd', tag, message, null, LOG_FILE, false);
+        log(Level.DEBUG, tag, message, null);
+    }
+
+    /**
+     * Same as {@link Log#d(String, String)}, but the message is only built
+     * if it will be written. It is built later on the log's thread, so it
+     * should only capture values that will not change.
+     */
+    public static void d(String tag, Supplier<String> message) {
+        log(Level.DEBUG, tag, message, null);
     }
 
     /**
@@ -162,8 +427,16 @@ public class Log {
      * @param message The actual message to be displayed.
      */
     public static void w(String tag, String message) {
-        print(Color.YELLOW, 'w', tag, message, null, System.out, Core.isLogColored());
-        print(Color.YELLOW, 'w', tag, message, null, LOG_FILE, false);
+        log(Level.WARNING, tag, message, null);
+    }
+
+    /**
+     * Same as {@link Log#w(String, String)}, but the message is only built
+     * if it will be written. It is built later on the log's thread, so it
+     * should only capture values that will not change.
+     */
+    public static void w(String tag, Supplier<String> message) {
+        log(Level.WARNING, tag, message, null);
     }
 
     /**
@@ -174,8 +447,16 @@ public class Log {
      * @param message The actual message to be displayed.
      */
     public static void v(String tag, String message) {
-        print(Color.BLUE, 'v', tag, message, null, System.out, Core.isLogColored());
-        print(Color.BLUE, 'v', tag, message, null, LOG_FILE, false);
+        log(Level.VERBOSE, tag, message, null);
+    }
+
+    /**
+     * Same as {@link Log#v(String, String)}, but the message is only built
+     * if it will be written. It is built later on the log's thread, so it
+     * should only capture values that will not change.
+     */
+    public static void v(String tag, Supplier<String> message) {
+        log(Level.VERBOSE, tag, message, null);
     }
 
     /**
@@ -200,8 +481,68 @@ public class Log {
      *                <code>System.err</code>
      */
     public static void e(String tag, String message, Exception e) {
-        print(Color.RED, 'e', tag, message, e, System.out, Core.isLogColored());
-        print(Color.RED, 'e', tag, message, e, LOG_FILE, false);
+        log(Level.ERROR, tag, message, e);
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @param tag   The tag of a message.
+     * @param level The level of the message.
+     * @return Whether a message with that tag and level would be written.
+     */
+    public static boolean isLoggable(String tag, Level level) {
+        Level tagLevel = tag == null ? null : sLevels.get(tag);
+        if (tagLevel == null) tagLevel = sDefaultLevel;
+        return level.compareTo(tagLevel) >= 0;
+    }
+
+    /**
+     * @return The number of messages dropped because the buffer was full.
+     */
+    public static long getDroppedCount() {
+        return sDroppedCount.get();
+    }
+
+    /**
+     * @return The number of messages written out.
+     */
+    public static long getWrittenCount() {
+        return sWrittenCount.get();
+    }
+
+    /**
+     * @return The number of messages waiting to be written.
+     */
+    public static int getQueuedCount() {
+        return (int) Math.max(0, sTail.get() - sHead);
+    }
+
+
+    ///// Setters //////////////////////////////////////////////////////////////
+
+    /**
+     * @param tag   A tag.
+     * @param level The lowest level written for messages with that tag.
+     */
+    public static void setLevel(String tag, Level level) {
+        sLevels.put(tag, level);
+    }
+
+    /**
+     * @param level The lowest level written for tags without their own level.
+     */
+    public static void setDefaultLevel(Level level) {
+        sDefaultLevel = level;
+    }
+
+    /**
+     * @param isColored Whether or not to color console output by level. On
+     *                  by default.
+     */
+    public static void setColored(boolean isColored) {
+        sIsColored = isColored;
     }
 
 }
@@ -4,6 +4,7 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.UnknownHostException;
 import java.util.Enumeration;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
 
 import com.klinker.droneos.utils.math.Point;
@@ -13,16 +14,49 @@ public class Utils {
     ///// Async Helpers ////////////////////////////////////////////////////////
 
     /**
-     * Makes the current thread sleep/pause for the specified amount of time.
+     * Makes the current thread sleep/pause for the specified amount of time,
+     * as kept by {@link Clock#get()}.
      * <p>
      * <code>1 s = 1000 ms</code>
      *
      * @param ms The number of milliseconds the current thread should sleep for.
      */
     public static void sleep(long ms) {
+        sleep(Clock.get(), ms);
+    }
+
+    /**
+     * Makes the current thread sleep/pause for the specified amount of time,
+     * as kept by a given clock. Use {@link Clock#SYSTEM} for waits that must
+     * follow the wall clock even in a simulation running faster than real
+     * time, like retrying a connection.
+     *
+     * @param clock The clock to sleep against.
+     * @param ms    The number of milliseconds the current thread should
+     *              sleep for.
+     */
+    public static void sleep(Clock clock, long ms) {
         if (ms <= 0) return;
+        long deadline = clock.deadlineAfter(ms);
         try {
-            Thread.sleep(ms);
+            // on a pool thread, this lets the pool start another thread while
+            // this one sleeps, so sleeping tasks can not starve the rest of
+            // the pool.
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    while (!clock.hasPassed(deadline)) {
+                        clock.parkUntil(this, deadline);
+                        if (Thread.interrupted()) throw new InterruptedException();
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return clock.hasPassed(deadline);
+                }
+            });
         } catch (InterruptedException e) {
             Log.e("utils", "Error trying to sleep", e);
         }
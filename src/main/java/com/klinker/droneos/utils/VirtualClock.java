@@ -0,0 +1,151 @@
+package com.klinker.droneos.utils;
+
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Clock} that only moves when {@link VirtualClock#advance(long)}
+ * is called, normally by the simulation after each frame. A thread waiting
+ * on it is woken as soon as the clock passes its deadline, however little
+ * wall time that took, so a node that sleeps for a simulated second does
+ * not hold up a simulation running 100 times faster than real time.
+ */
+public class VirtualClock extends Clock {
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The current time in ns.
+     */
+    private volatile long mNanos;
+
+    /**
+     * The threads parked on the clock, in the order of their deadlines.
+     */
+    private final ConcurrentSkipListSet<Sleeper> mSleepers;
+
+    /**
+     * Breaks ties between sleepers with the same deadline.
+     */
+    private final AtomicLong mSleeperCount;
+
+    /**
+     * Whether or not the clock follows the wall clock, after
+     * {@link VirtualClock#release()}.
+     */
+    private volatile boolean mIsReleased;
+
+    /**
+     * What to add to {@link System#nanoTime()} once released.
+     */
+    private volatile long mReleaseOffset;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * Creates a clock starting at 0.
+     */
+    public VirtualClock() {
+        mNanos = 0;
+        mSleepers = new ConcurrentSkipListSet<>();
+        mSleeperCount = new AtomicLong();
+        mIsReleased = false;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Moves the clock forward, waking every thread whose deadline has
+     * passed. Only one thread should advance the clock.
+     *
+     * @param nanos The time to move forward by in ns.
+     */
+    public void advance(long nanos) {
+        if (mIsReleased) return;
+        long now = mNanos + nanos;
+        mNanos = now;
+        for (Sleeper sleeper : mSleepers) {
+            if (sleeper.mDeadline - now > 0) break;
+            LockSupport.unpark(sleeper.mThread);
+        }
+    }
+
+    /**
+     * Lets the clock follow the wall clock from where it is now, for when
+     * the simulation stops advancing it. Threads still waiting on it then
+     * wake up after the same amount of wall time instead of never.
+     */
+    public void release() {
+        if (mIsReleased) return;
+        mReleaseOffset = mNanos - System.nanoTime();
+        mIsReleased = true;
+        for (Sleeper sleeper : mSleepers) {
+            LockSupport.unpark(sleeper.mThread);
+        }
+    }
+
+
+    ///// Clock Overrides //////////////////////////////////////////////////////
+
+    @Override
+    public long nanoTime() {
+        return mIsReleased ? System.nanoTime() + mReleaseOffset : mNanos;
+    }
+
+    @Override
+    public void parkUntil(Object blocker, long deadline) {
+        if (mIsReleased) {
+            LockSupport.parkNanos(blocker, deadline - nanoTime());
+            return;
+        }
+        Sleeper sleeper = new Sleeper(
+                deadline, mSleeperCount.incrementAndGet(), Thread.currentThread()
+        );
+        mSleepers.add(sleeper);
+        try {
+            // checked after being added, so an advance in between either
+            // shows up here or unparks this thread.
+            if (!hasPassed(deadline) && !mIsReleased) LockSupport.park(blocker);
+        } finally {
+            mSleepers.remove(sleeper);
+        }
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @return The number of threads parked on the clock.
+     */
+    public int getSleeperCount() {
+        return mSleepers.size();
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * A thread parked until a deadline.
+     */
+    private static class Sleeper implements Comparable<Sleeper> {
+        private final long mDeadline;
+        private final long mId;
+        private final Thread mThread;
+
+        private Sleeper(long deadline, long id, Thread thread) {
+            mDeadline = deadline;
+            mId = id;
+            mThread = thread;
+        }
+
+        @Override
+        public int compareTo(Sleeper other) {
+            int order = Long.compare(mDeadline, other.mDeadline);
+            return order != 0 ? order : Long.compare(mId, other.mId);
+        }
+    }
+
+}
@@ -1,16 +1,16 @@
 package com.klinker.droneos.utils.async;
 
+import java.lang.reflect.Method;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import com.klinker.droneos.utils.Log;
 
-public class RunnableExecutor {
-
-    public static final int MAX_PARALLEL_COUNT = 15;
+public class RunnableExecutor implements Executor {
 
     /**
      * The mode the executor will run in.
@@ -23,9 +23,22 @@ public class RunnableExecutor {
         /**
          * Run tasks at the same time.
          */
-        PARALLEL
+        PARALLEL,
+        /**
+         * Run every task at the same time on its own virtual thread, so tasks
+         * that block do not hold on to a platform thread. On JVMs without
+         * virtual threads, the tasks share a single work-stealing pool
+         * instead.
+         */
+        VIRTUAL
     }
 
+    /**
+     * Whether or not {@link RunnableExecutor#newDefault(int)} creates
+     * {@link Mode#VIRTUAL} executors.
+     */
+    private static volatile boolean sIsVirtualDefault = false;
+
     private LinkedList<Runnable> mRunnableList;
     private Mode mMode;
     private ExecutorService mExecutor;
@@ -38,16 +51,72 @@ public class RunnableExecutor {
         return new RunnableExecutor(Mode.SERIES, 0);
     }
 
+    public static RunnableExecutor newVirtual() {
+        return new RunnableExecutor(Mode.VIRTUAL, 0);
+    }
+
+    /**
+     * Creates the executor the manifest asked for, see
+     * {@link RunnableExecutor#setVirtualDefault(boolean)}.
+     *
+     * @param maxThreads The number of threads for a {@link Mode#PARALLEL}
+     *                   executor. Ignored for {@link Mode#VIRTUAL}.
+     */
+    public static RunnableExecutor newDefault(int maxThreads) {
+        return sIsVirtualDefault ? newVirtual() : newParallel(maxThreads);
+    }
+
+    /**
+     * @param isVirtual Whether {@link RunnableExecutor#newDefault(int)}
+     *                  should create {@link Mode#VIRTUAL} executors instead
+     *                  of {@link Mode#PARALLEL} ones.
+     */
+    public static void setVirtualDefault(boolean isVirtual) {
+        sIsVirtualDefault = isVirtual;
+    }
+
+    /**
+     * @return Whether or not this JVM has virtual threads. If it doesn't,
+     * {@link Mode#VIRTUAL} falls back to a shared work-stealing pool.
+     */
+    public static boolean isVirtualThreadSupported() {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null) return false;
+        executor.shutdown();
+        return true;
+    }
+
+    /**
+     * Calls <code>Executors.newVirtualThreadPerTaskExecutor()</code> through
+     * reflection, since this project is built for Java 8.
+     *
+     * @return The executor, or null if virtual threads are not available.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor"
+            );
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
     /**
      * Creates an instance that runs tasks based on a mode.
      *
-     * @param mode Either {@link Mode#SERIES} or {@link Mode#PARALLEL}.
+     * @param mode {@link Mode#SERIES}, {@link Mode#PARALLEL} or
+     *             {@link Mode#VIRTUAL}.
      */
     private RunnableExecutor(Mode mode, int parallelCount) {
         mRunnableList = new LinkedList<>();
         mMode = mode;
         if (mode == Mode.PARALLEL) {
             mExecutor = Executors.newFixedThreadPool(parallelCount);
+        } else if (mode == Mode.VIRTUAL) {
+            mExecutor = newVirtualThreadExecutor();
+            if (mExecutor == null) mExecutor = new SharedPoolExecutor();
         } else {
             mExecutor = Executors.newSingleThreadExecutor();
         }
@@ -71,6 +140,15 @@ public class RunnableExecutor {
         mExecutor.execute(runnable);
     }
 
+    /**
+     * Same as {@link RunnableExecutor#executeRunnable(Runnable)}, so this can
+     * be handed to APIs that take an {@link Executor}.
+     */
+    @Override
+    public void execute(Runnable runnable) {
+        executeRunnable(runnable);
+    }
+
     /**
      * Starts all the tasks either in {@link Mode#PARALLEL} or as a
      * {@link Mode#SERIES}.
@@ -0,0 +1,160 @@
+package com.klinker.droneos.utils.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link java.util.concurrent.ExecutorService} that runs its tasks on a
+ * single work-stealing {@link ForkJoinPool} shared by every instance, so
+ * creating one does not start any threads. Shutting it down only affects the
+ * tasks that were submitted through it, never the shared pool.
+ * <p>
+ * This backs {@link RunnableExecutor.Mode#VIRTUAL} on JVMs without virtual
+ * threads. Tasks that sleep through {@link com.klinker.droneos.utils.Utils#sleep(long)}
+ * let the pool start another thread in their place, so long-running node
+ * tasks do not starve the others.
+ */
+class SharedPoolExecutor extends AbstractExecutorService {
+
+    ///// Static Variables /////////////////////////////////////////////////////
+
+    /**
+     * The pool every instance runs its tasks on. Its worker threads are
+     * daemons, so it never keeps the program alive.
+     */
+    private static final ForkJoinPool sPool = new ForkJoinPool(
+            Runtime.getRuntime().availableProcessors(),
+            ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+            null,
+            true
+    );
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The tasks submitted that have not started yet.
+     */
+    private final Set<Task> mQueued;
+
+    /**
+     * The number of tasks submitted that have not finished.
+     */
+    private int mPendingCount;
+
+    /**
+     * Whether or not new tasks are being rejected.
+     */
+    private boolean mIsShutdown;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    SharedPoolExecutor() {
+        mQueued = ConcurrentHashMap.newKeySet();
+        mPendingCount = 0;
+        mIsShutdown = false;
+    }
+
+
+    ///// ExecutorService Overrides ////////////////////////////////////////////
+
+    @Override
+    public void execute(Runnable command) {
+        synchronized (this) {
+            if (mIsShutdown) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            mPendingCount++;
+        }
+        Task task = new Task(command);
+        mQueued.add(task);
+        sPool.execute(task);
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        mIsShutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * Shuts down, and keeps every task that has not started from running.
+     * Tasks already running are not interrupted, since they run on the
+     * shared pool's threads.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        List<Runnable> notStarted = new ArrayList<>();
+        for (Task task : mQueued) {
+            if (mQueued.remove(task)) {
+                notStarted.add(task.mCommand);
+                finished();
+            }
+        }
+        return notStarted;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return mIsShutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return mIsShutdown && mPendingCount == 0;
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    private synchronized void finished() {
+        mPendingCount--;
+        if (mPendingCount == 0) notifyAll();
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * A submitted task, which only runs if it has not been removed by
+     * {@link SharedPoolExecutor#shutdownNow()} first.
+     */
+    private class Task implements Runnable {
+        private final Runnable mCommand;
+
+        private Task(Runnable command) {
+            mCommand = command;
+        }
+
+        @Override
+        public void run() {
+            if (!mQueued.remove(this)) return;
+            try {
+                mCommand.run();
+            } finally {
+                finished();
+            }
+        }
+    }
+
+}
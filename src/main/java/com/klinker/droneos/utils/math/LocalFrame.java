@@ -0,0 +1,157 @@
+package com.klinker.droneos.utils.math;
+
+/**
+ * A flat east-north frame, in meters, tangent to the earth at an origin
+ * given as a GPS {@link Point}, where x is the longitude and y the latitude
+ * in degrees. The trig is done once, when the frame is created, so moving
+ * a point in or out of the frame, or finding the distance between two
+ * points, only takes a few multiplies and adds.
+ * <p>
+ * The frame is equirectangular: a degree of longitude is as long
+ * everywhere in it as it is at the origin. Compared to the haversine
+ * distance of {@link com.klinker.droneos.utils.Utils#distanceConversion},
+ * a distance measured within 10 km of the origin is off by less than 0.3%
+ * up to 60 degrees of latitude, and by less than 0.003% within 100 m, which
+ * is far less than a GPS fix can tell apart. LocalFrameTest checks both.
+ */
+public class LocalFrame {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The radius of the earth [m], the same as the haversine distance uses.
+     */
+    public static final double EARTH_RADIUS = 6378137;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    private final double mOriginLongitude;
+
+    private final double mOriginLatitude;
+
+    /**
+     * The meters in a degree of longitude at the origin.
+     */
+    private final double mMetersPerLongitude;
+
+    /**
+     * The meters in a degree of latitude.
+     */
+    private final double mMetersPerLatitude;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param origin The GPS location the frame is centered on, with the
+     *               longitude as x and the latitude as y.
+     */
+    public LocalFrame(Point origin) {
+        this(origin.x, origin.y);
+    }
+
+    /**
+     * @param longitude The longitude [deg] the frame is centered on.
+     * @param latitude  The latitude [deg] the frame is centered on.
+     */
+    public LocalFrame(double longitude, double latitude) {
+        mOriginLongitude = longitude;
+        mOriginLatitude = latitude;
+        mMetersPerLatitude = EARTH_RADIUS * Math.PI / 180;
+        mMetersPerLongitude = mMetersPerLatitude * Math.cos(Math.toRadians(latitude));
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @param gps A GPS location.
+     * @return How far [m] east of the origin it is.
+     */
+    public double getEast(Point gps) {
+        return (gps.x - mOriginLongitude) * mMetersPerLongitude;
+    }
+
+    /**
+     * @param gps A GPS location.
+     * @return How far [m] north of the origin it is.
+     */
+    public double getNorth(Point gps) {
+        return (gps.y - mOriginLatitude) * mMetersPerLatitude;
+    }
+
+    /**
+     * Moves a GPS location into the frame.
+     *
+     * @param gps    The GPS location.
+     * @param result Set to how far [m] east, as x, and north, as y, of the
+     *               origin the location is. Can be the same point as gps.
+     * @return The result.
+     */
+    public Point project(Point gps, Point result) {
+        double east = getEast(gps);
+        double north = getNorth(gps);
+        result.x = east;
+        result.y = north;
+        return result;
+    }
+
+    /**
+     * Moves a point in the frame back to a GPS location.
+     *
+     * @param east   How far [m] east of the origin the point is.
+     * @param north  How far [m] north of the origin the point is.
+     * @param result Set to the GPS location.
+     * @return The result.
+     */
+    public Point unproject(double east, double north, Point result) {
+        result.x = mOriginLongitude + east / mMetersPerLongitude;
+        result.y = mOriginLatitude + north / mMetersPerLatitude;
+        return result;
+    }
+
+    /**
+     * @return The square of the distance [m^2] between two GPS locations
+     * near the origin.
+     */
+    public double distanceSquared(Point gps1, Point gps2) {
+        double east = (gps2.x - gps1.x) * mMetersPerLongitude;
+        double north = (gps2.y - gps1.y) * mMetersPerLatitude;
+        return east * east + north * north;
+    }
+
+    /**
+     * @return The distance [m] between two GPS locations near the origin.
+     */
+    public double distance(Point gps1, Point gps2) {
+        return Math.sqrt(distanceSquared(gps1, gps2));
+    }
+
+    /**
+     * @return The degrees of longitude a distance east [m] covers at the
+     * origin.
+     */
+    public double toLongitude(double meters) {
+        return meters / mMetersPerLongitude;
+    }
+
+    /**
+     * @return The degrees of latitude a distance north [m] covers.
+     */
+    public double toLatitude(double meters) {
+        return meters / mMetersPerLatitude;
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    public double getOriginLongitude() {
+        return mOriginLongitude;
+    }
+
+    public double getOriginLatitude() {
+        return mOriginLatitude;
+    }
+
+}
@@ -0,0 +1,271 @@
+package com.klinker.droneos.utils.telemetry;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.klinker.droneos.utils.io.JsonFile;
+
+/**
+ * Reads the segments written by a {@link TelemetryRecorder}, and exports
+ * them to one CSV file per tag.
+ * <pre>
+ * java -cp ... com.klinker.droneos.utils.telemetry.TelemetryReader \
+ *     output/[run]/sensor sensor [csv directory]
+ * </pre>
+ */
+public class TelemetryReader {
+
+    ///// Interfaces ///////////////////////////////////////////////////////////
+
+    /**
+     * Called with each record, in the order they were recorded.
+     */
+    public interface OnRecordListener {
+        /**
+         * @param time   The time in ns since the recorder was opened.
+         * @param tag    The tag id.
+         * @param fields The fields of the record. The array is reused for
+         *               every record, so copy it to keep it.
+         * @param count  The number of fields in the record.
+         * @throws IOException Stops reading.
+         */
+        void onRecord(long time, int tag, double[] fields, int count)
+                throws IOException;
+    }
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The directory the segments are in.
+     */
+    private final File mDirectory;
+
+    /**
+     * The prefix the recorder was given.
+     */
+    private final String mName;
+
+    /**
+     * The tag names mapped by id.
+     */
+    private final HashMap<Integer, String> mTagNames;
+
+    /**
+     * The field names of each tag mapped by id.
+     */
+    private final HashMap<Integer, String[]> mTagFields;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param directory The directory the segments are in.
+     * @param name      The prefix the recorder was given.
+     * @throws IOException If the tags file can not be read.
+     */
+    public TelemetryReader(String directory, String name) throws IOException {
+        mDirectory = new File(directory);
+        mName = name;
+        mTagNames = new HashMap<>();
+        mTagFields = new HashMap<>();
+
+        JsonFile file = new JsonFile(
+                TelemetryRecorder.getTagsFile(mDirectory, name)
+        );
+        JsonElement json = file.read();
+        if (json == null) {
+            throw new IOException("Could not read '" + file.getPath() + "'");
+        }
+        for (JsonElement element
+                : json.getAsJsonObject().getAsJsonArray("tags")) {
+            JsonObject tag = element.getAsJsonObject();
+            int id = tag.get("id").getAsInt();
+            JsonArray fields = tag.getAsJsonArray("fields");
+            String[] names = new String[fields.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = fields.get(i).getAsString();
+            }
+            mTagNames.put(id, tag.get("name").getAsString());
+            mTagFields.put(id, names);
+        }
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Reads every record in every segment.
+     *
+     * @param listener Called with each record.
+     * @return The number of records read.
+     * @throws IOException If a segment can not be read.
+     */
+    public long read(OnRecordListener listener) throws IOException {
+        double[] fields = new double[TelemetryRecorder.MAX_FIELDS];
+        long count = 0;
+        for (int i = 0; ; i++) {
+            File file = TelemetryRecorder.getSegmentFile(mDirectory, mName, i);
+            if (!file.exists()) return count;
+            count += readSegment(file, fields, listener);
+        }
+    }
+
+    private long readSegment(File file, double[] fields,
+                             OnRecordListener listener) throws IOException {
+        MappedByteBuffer segment;
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ
+        )) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        if (segment.limit() < TelemetryRecorder.HEADER_SIZE
+                || segment.getInt(0) != TelemetryRecorder.MAGIC) {
+            throw new IOException("'" + file.getPath()
+                    + "' is not a telemetry segment");
+        }
+        int recordSize = segment.getInt(4);
+        int maxFields = segment.getInt(8);
+        // anything else would read across records, or never move on.
+        if (recordSize != TelemetryRecorder.RECORD_SIZE
+                || maxFields != TelemetryRecorder.MAX_FIELDS) {
+            throw new IOException("'" + file.getPath() + "' has records of "
+                    + recordSize + " bytes with " + maxFields + " fields, not "
+                    + TelemetryRecorder.RECORD_SIZE + " bytes with "
+                    + TelemetryRecorder.MAX_FIELDS + " fields");
+        }
+
+        long count = 0;
+        for (int position = TelemetryRecorder.HEADER_SIZE;
+             position + recordSize <= segment.limit();
+             position += recordSize) {
+            int tag = segment.getInt(position + TelemetryRecorder.TAG_OFFSET);
+            if (tag == 0) break;
+            int fieldCount = Math.max(0, Math.min(
+                    segment.getInt(position + TelemetryRecorder.COUNT_OFFSET),
+                    maxFields
+            ));
+            for (int f = 0; f < fieldCount; f++) {
+                fields[f] = segment.getDouble(
+                        position + TelemetryRecorder.FIELDS_OFFSET + f * 8
+                );
+            }
+            listener.onRecord(segment.getLong(position), tag, fields, fieldCount);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes every record to a CSV file named after its tag,
+     * <code>[name]-[tag].csv</code>. The first column is the time in
+     * seconds since the recorder was opened.
+     *
+     * @param directory The directory to write the CSV files to.
+     * @return The number of records written.
+     * @throws IOException If a segment can not be read or a CSV file can not
+     *                     be written.
+     */
+    public long exportCsv(String directory) throws IOException {
+        File dir = new File(directory);
+        dir.mkdirs();
+        HashMap<Integer, PrintWriter> writers = new HashMap<>();
+        try {
+            return read((time, tag, fields, count) -> {
+                PrintWriter writer = writers.get(tag);
+                if (writer == null) {
+                    writer = openCsv(dir, tag);
+                    writers.put(tag, writer);
+                }
+                writer.print(time / 1e9);
+                for (int i = 0; i < count; i++) {
+                    writer.print(',');
+                    writer.print(fields[i]);
+                }
+                writer.println();
+            });
+        } finally {
+            for (PrintWriter writer : writers.values()) {
+                writer.close();
+            }
+        }
+    }
+
+    private PrintWriter openCsv(File dir, int tag) throws IOException {
+        String name = getTagName(tag);
+        PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new FileWriter(new File(dir, mName + "-" + name + ".csv"))
+        ));
+        writer.print("time");
+        for (String field : getTagFields(tag)) {
+            writer.print(',');
+            writer.print(field);
+        }
+        writer.println();
+        return writer;
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @param tag A tag id.
+     * @return The tag's name, or "tag-[id]" if it was not registered.
+     */
+    public String getTagName(int tag) {
+        String name = mTagNames.get(tag);
+        return name == null ? "tag-" + tag : name;
+    }
+
+    /**
+     * @param tag A tag id.
+     * @return The names of the tag's fields.
+     */
+    public String[] getTagFields(int tag) {
+        String[] fields = mTagFields.get(tag);
+        return fields == null ? new String[0] : fields;
+    }
+
+    /**
+     * @return The tag names mapped by id.
+     */
+    public Map<Integer, String> getTagNames() {
+        return mTagNames;
+    }
+
+
+    ///// Main /////////////////////////////////////////////////////////////////
+
+    /**
+     * Exports a recording to CSV.
+     *
+     * @param args The directory of the segments, the prefix the recorder
+     *             was given, and optionally the directory to write the CSV
+     *             files to, which defaults to the segment directory.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println(
+                    "Usage: TelemetryReader <directory> <name> [csv directory]"
+            );
+            return;
+        }
+        TelemetryReader reader = new TelemetryReader(args[0], args[1]);
+        long count = reader.exportCsv(args.length > 2 ? args[2] : args[0]);
+        System.out.println("Exported " + count + " records");
+    }
+
+}
@@ -0,0 +1,544 @@
+package com.klinker.droneos.utils.telemetry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.klinker.droneos.utils.Log;
+import com.klinker.droneos.utils.io.JsonFile;
+
+/**
+ * Records numeric readings, like the drone's pose or the PWM values sent to
+ * the flight controller, as fixed size binary records. Unlike
+ * {@link Log}, nothing is formatted while recording: a record is a
+ * timestamp, a tag id and up to {@link TelemetryRecorder#MAX_FIELDS}
+ * doubles written straight into a memory-mapped segment file, so recording
+ * at 1 kHz costs well under a microsecond per reading and never waits on
+ * the disk.
+ * <p>
+ * When a segment fills up, recording rolls over to a new one. The next
+ * segment is created and mapped ahead of time, and the full one is forced
+ * to the disk afterwards, both on the recorder's own thread. Rolling over
+ * only waits if segments fill faster than that thread can map them.
+ * Segments are named <code>[name]-[index].tlm</code>, and the tags are
+ * described in <code>[name]-tags.json</code> next to them. Since the
+ * segments are mapped, everything recorded is kept by the OS even if the
+ * process is killed. Use {@link TelemetryReader} to read them back or
+ * export them to CSV.
+ * <p>
+ * Until {@link TelemetryRecorder#open()} is called, recording does nothing,
+ * so code can record without checking if it is running on a real drone.
+ */
+public class TelemetryRecorder {
+
+    ///// Constants ////////////////////////////////////////////////////////////
+
+    /**
+     * The first int of every segment, "TLM1".
+     */
+    public static final int MAGIC = 0x544C4D31;
+
+    /**
+     * The most fields a single record can hold.
+     */
+    public static final int MAX_FIELDS = 8;
+
+    /**
+     * The bytes at the start of each segment: the magic number, the record
+     * size, the max field count, the segment index and the start time.
+     */
+    public static final int HEADER_SIZE = 24;
+
+    /**
+     * The bytes in each record: the time in ns since the recorder was
+     * opened, the tag id, the field count and {@link #MAX_FIELDS} doubles.
+     */
+    public static final int RECORD_SIZE = 8 + 4 + 4 + MAX_FIELDS * 8;
+
+    /**
+     * The default size of each segment, which holds a little under a
+     * minute of readings at 1 kHz.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The offset of the tag id in a record. It is written last, so a record
+     * with a tag id of 0 is the end of the segment.
+     */
+    static final int TAG_OFFSET = 8;
+
+    /**
+     * The offset of the field count in a record.
+     */
+    static final int COUNT_OFFSET = 12;
+
+    /**
+     * The offset of the first field in a record.
+     */
+    static final int FIELDS_OFFSET = 16;
+
+
+    ///// Member Variables /////////////////////////////////////////////////////
+
+    /**
+     * The directory the segments are written to.
+     */
+    private final File mDirectory;
+
+    /**
+     * The prefix of every file this recorder writes.
+     */
+    private final String mName;
+
+    /**
+     * The size of each segment file in bytes.
+     */
+    private final int mSegmentSize;
+
+    /**
+     * The tag names, where the index is the tag id - 1.
+     */
+    private final ArrayList<String> mTagNames;
+
+    /**
+     * The field names of each tag, where the index is the tag id - 1.
+     */
+    private final ArrayList<String[]> mTagFields;
+
+    /**
+     * The segment being written to, or null when the recorder is not open.
+     */
+    private MappedByteBuffer mSegment;
+
+    /**
+     * The index of {@link TelemetryRecorder#mSegment}.
+     */
+    private int mSegmentIndex;
+
+    /**
+     * The segment after {@link TelemetryRecorder#mSegment}, being mapped
+     * ahead of time. Its value is null if it could not be created.
+     */
+    private Future<MappedByteBuffer> mNextSegment;
+
+    /**
+     * Maps the next segment and forces full ones to the disk, so the
+     * recording threads don't have to. Only set while the recorder is open.
+     */
+    private ExecutorService mDiskExecutor;
+
+    /**
+     * Where the next record goes in {@link TelemetryRecorder#mSegment}.
+     */
+    private int mPosition;
+
+    /**
+     * {@link System#nanoTime()} when the recorder was opened.
+     */
+    private long mStartNanos;
+
+    /**
+     * {@link System#currentTimeMillis()} when the recorder was opened.
+     */
+    private long mStartMillis;
+
+    /**
+     * Whether or not the recorder is open, checked before taking the lock
+     * so recording while closed is free.
+     */
+    private volatile boolean mIsOpen;
+
+    /**
+     * The number of records written.
+     */
+    private long mRecordCount;
+
+    /**
+     * The number of records lost because a segment could not be created.
+     */
+    private long mDroppedCount;
+
+
+    ///// Constructors /////////////////////////////////////////////////////////
+
+    /**
+     * @param directory The directory to write the segments to.
+     * @param name      The prefix of the files written.
+     */
+    public TelemetryRecorder(String directory, String name) {
+        this(directory, name, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory   The directory to write the segments to.
+     * @param name        The prefix of the files written.
+     * @param segmentSize The size of each segment file in bytes.
+     */
+    public TelemetryRecorder(String directory, String name, int segmentSize) {
+        mDirectory = new File(directory);
+        mName = name;
+        mSegmentSize = Math.max(segmentSize, HEADER_SIZE + RECORD_SIZE);
+        mTagNames = new ArrayList<>();
+        mTagFields = new ArrayList<>();
+        mSegmentIndex = -1;
+        mIsOpen = false;
+    }
+
+
+    ///// Member Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Registers a kind of record. Registering a name that is already
+     * registered returns the same id.
+     *
+     * @param name   The name of the tag, ex: "pwm". It names the CSV file
+     *               the tag is exported to.
+     * @param fields The name of each field recorded with the tag.
+     * @return The id to pass to {@link TelemetryRecorder#record}.
+     */
+    public synchronized int registerTag(String name, String... fields) {
+        int index = mTagNames.indexOf(name);
+        if (index >= 0) return index + 1;
+        if (fields.length > MAX_FIELDS) {
+            throw new IllegalArgumentException("'" + name + "' has "
+                    + fields.length + " fields, the most is " + MAX_FIELDS);
+        }
+        mTagNames.add(name);
+        mTagFields.add(fields.clone());
+        if (mIsOpen) writeTags();
+        return mTagNames.size();
+    }
+
+    /**
+     * Creates the first segment and starts recording. This does nothing if
+     * the recorder is already open.
+     */
+    public synchronized void open() {
+        if (mIsOpen) return;
+        mStartNanos = System.nanoTime();
+        mStartMillis = System.currentTimeMillis();
+        mIsOpen = true;
+        mDiskExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "telemetry-" + mName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        mDirectory.mkdirs();
+        writeTags();
+        mSegmentIndex = 0;
+        mSegment = createSegment(mSegmentIndex);
+        mPosition = HEADER_SIZE;
+        prepareNextSegment();
+    }
+
+    /**
+     * Writes everything recorded to the disk and stops recording.
+     */
+    public synchronized void close() {
+        if (!mIsOpen) return;
+        mIsOpen = false;
+        if (mSegment != null) {
+            mSegment.force();
+            mSegment = null;
+        }
+
+        // waits for the full segments to be forced.
+        mDiskExecutor.shutdown();
+        try {
+            mDiskExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mDiskExecutor = null;
+        // the next segment was never used, so don't leave it looking like
+        // part of the recording. It is still mapped, so some OSes won't
+        // delete it, but with no records it reads back as empty anyway.
+        if (mNextSegment != null) {
+            mNextSegment = null;
+            getSegmentFile(mDirectory, mName, mSegmentIndex + 1).delete();
+        }
+        Log.d("io", "Recorded " + mRecordCount + " '" + mName + "' records in "
+                + (mSegmentIndex + 1) + " segments, dropped " + mDroppedCount);
+    }
+
+    /**
+     * Records a reading with one field.
+     *
+     * @param tag A tag id from {@link TelemetryRecorder#registerTag}.
+     * @return <code>false</code> if the reading was not recorded.
+     */
+    public boolean record(int tag, double f0) {
+        if (!mIsOpen) return false;
+        synchronized (this) {
+            int position = reserve();
+            if (position < 0) return false;
+            mSegment.putDouble(position + FIELDS_OFFSET, f0);
+            return commit(position, tag, 1);
+        }
+    }
+
+    /**
+     * Records a reading with two fields.
+     *
+     * @param tag A tag id from {@link TelemetryRecorder#registerTag}.
+     * @return <code>false</code> if the reading was not recorded.
+     */
+    public boolean record(int tag, double f0, double f1) {
+        if (!mIsOpen) return false;
+        synchronized (this) {
+            int position = reserve();
+            if (position < 0) return false;
+            mSegment.putDouble(position + FIELDS_OFFSET, f0);
+            mSegment.putDouble(position + FIELDS_OFFSET + 8, f1);
+            return commit(position, tag, 2);
+        }
+    }
+
+    /**
+     * Records a reading with three fields.
+     *
+     * @param tag A tag id from {@link TelemetryRecorder#registerTag}.
+     * @return <code>false</code> if the reading was not recorded.
+     */
+    public boolean record(int tag, double f0, double f1, double f2) {
+        if (!mIsOpen) return false;
+        synchronized (this) {
+            int position = reserve();
+            if (position < 0) return false;
+            mSegment.putDouble(position + FIELDS_OFFSET, f0);
+            mSegment.putDouble(position + FIELDS_OFFSET + 8, f1);
+            mSegment.putDouble(position + FIELDS_OFFSET + 16, f2);
+            return commit(position, tag, 3);
+        }
+    }
+
+    /**
+     * Records a reading with four fields.
+     *
+     * @param tag A tag id from {@link TelemetryRecorder#registerTag}.
+     * @return <code>false</code> if the reading was not recorded.
+     */
+    public boolean record(int tag, double f0, double f1, double f2,
+                          double f3) {
+        if (!mIsOpen) return false;
+        synchronized (this) {
+            int position = reserve();
+            if (position < 0) return false;
+            mSegment.putDouble(position + FIELDS_OFFSET, f0);
+            mSegment.putDouble(position + FIELDS_OFFSET + 8, f1);
+            mSegment.putDouble(position + FIELDS_OFFSET + 16, f2);
+            mSegment.putDouble(position + FIELDS_OFFSET + 24, f3);
+            return commit(position, tag, 4);
+        }
+    }
+
+    /**
+     * Records a reading with any number of fields. Passing an array that is
+     * reused between readings keeps this from allocating.
+     *
+     * @param tag    A tag id from {@link TelemetryRecorder#registerTag}.
+     * @param fields Up to {@link TelemetryRecorder#MAX_FIELDS} values. Any
+     *               more are not recorded.
+     * @return <code>false</code> if the reading was not recorded.
+     */
+    public boolean record(int tag, double... fields) {
+        if (!mIsOpen) return false;
+        int count = Math.min(fields.length, MAX_FIELDS);
+        synchronized (this) {
+            int position = reserve();
+            if (position < 0) return false;
+            for (int i = 0; i < count; i++) {
+                mSegment.putDouble(position + FIELDS_OFFSET + i * 8, fields[i]);
+            }
+            return commit(position, tag, count);
+        }
+    }
+
+    /**
+     * Finds room for a record, rolling over to a new segment if the current
+     * one is full. Must be called while holding the lock.
+     *
+     * @return The position of the record, or -1 if there is no segment to
+     * write to.
+     */
+    private int reserve() {
+        if (mSegment != null && mPosition + RECORD_SIZE > mSegmentSize) {
+            nextSegment();
+        }
+        if (mSegment == null) {
+            mDroppedCount++;
+            return -1;
+        }
+        int position = mPosition;
+        mPosition += RECORD_SIZE;
+        return position;
+    }
+
+    /**
+     * Writes the time, count and tag of a record whose fields are already
+     * written. The tag goes last, since a tag of 0 marks the end of the
+     * records.
+     */
+    private boolean commit(int position, int tag, int count) {
+        mSegment.putLong(position, System.nanoTime() - mStartNanos);
+        mSegment.putInt(position + COUNT_OFFSET, count);
+        mSegment.putInt(position + TAG_OFFSET, tag);
+        mRecordCount++;
+        return true;
+    }
+
+    /**
+     * Switches to the segment mapped ahead of time, and has the full one
+     * forced to the disk on the disk thread. If the next segment could not
+     * be created, records are dropped until the recorder is closed.
+     */
+    private void nextSegment() {
+        MappedByteBuffer full = mSegment;
+        mSegment = null;
+        mSegmentIndex++;
+        try {
+            // only waits if it isn't mapped yet.
+            mSegment = mNextSegment.get();
+        } catch (ExecutionException e) {
+            Log.e("io", "Could not create segment " + mSegmentIndex + " of '"
+                    + mName + "'", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mNextSegment = null;
+        mPosition = HEADER_SIZE;
+
+        if (mSegment != null) prepareNextSegment();
+        mDiskExecutor.execute(full::force);
+    }
+
+    /**
+     * Starts mapping the segment after the current one on the disk thread.
+     */
+    private void prepareNextSegment() {
+        int index = mSegmentIndex + 1;
+        mNextSegment = mDiskExecutor.submit(() -> createSegment(index));
+    }
+
+    /**
+     * Creates and maps a segment file and writes its header.
+     *
+     * @param index The index of the segment.
+     * @return The segment, or null if it could not be created.
+     */
+    private MappedByteBuffer createSegment(int index) {
+        File file = getSegmentFile(mDirectory, mName, index);
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            // the mapping stays valid after the channel is closed.
+            MappedByteBuffer segment = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, mSegmentSize
+            );
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segment.putInt(0, MAGIC);
+            segment.putInt(4, RECORD_SIZE);
+            segment.putInt(8, MAX_FIELDS);
+            segment.putInt(12, index);
+            segment.putLong(16, mStartMillis);
+            return segment;
+        } catch (IOException e) {
+            Log.e("io", "Could not create '" + file.getPath() + "'", e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the tag names and field names next to the segments.
+     */
+    private void writeTags() {
+        JsonObject json = new JsonObject();
+        json.addProperty("start", mStartMillis);
+        JsonArray tags = new JsonArray();
+        for (int i = 0; i < mTagNames.size(); i++) {
+            JsonObject tag = new JsonObject();
+            tag.addProperty("id", i + 1);
+            tag.addProperty("name", mTagNames.get(i));
+            JsonArray fields = new JsonArray();
+            for (String field : mTagFields.get(i)) {
+                fields.add(new JsonPrimitive(field));
+            }
+            tag.add("fields", fields);
+            tags.add(tag);
+        }
+        json.add("tags", tags);
+        new JsonFile(getTagsFile(mDirectory, mName)).write(json);
+    }
+
+
+    ///// Getters //////////////////////////////////////////////////////////////
+
+    /**
+     * @param directory The directory the segments are in.
+     * @param name      The prefix the recorder was given.
+     * @param index     The index of the segment.
+     * @return The segment file.
+     */
+    public static File getSegmentFile(File directory, String name, int index) {
+        return new File(
+                directory,
+                String.format(Locale.US, "%s-%04d.tlm", name, index)
+        );
+    }
+
+    /**
+     * @param directory The directory the segments are in.
+     * @param name      The prefix the recorder was given.
+     * @return The file describing the tags.
+     */
+    public static File getTagsFile(File directory, String name) {
+        return new File(directory, name + "-tags.json");
+    }
+
+    /**
+     * @return Whether or not the recorder is open.
+     */
+    public boolean isOpen() {
+        return mIsOpen;
+    }
+
+    /**
+     * @return The number of records written.
+     */
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return The number of records lost because a segment could not be
+     * created.
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return The number of segments created since the recorder was opened.
+     */
+    public synchronized int getSegmentCount() {
+        return mSegmentIndex + 1;
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.klinker.droneos;
+
+import com.google.gson.JsonObject;
+import com.klinker.droneos.arch.communication.messages.ControlMessage;
+import com.klinker.droneos.arch.communication.messages.JsonMessage;
+import com.klinker.droneos.utils.benchmark.Benchmark;
+
+/**
+ * Measures a single control command from the {@link NetworkNode} to the
+ * {@link ControlsNode}: building the message the way
+ * {@link com.klinker.droneos.network.ManualControlHandler} does, and
+ * handling it in {@link ControlsNode#onReceiveMessage}. It compares the
+ * old {@link JsonMessage} commands to {@link ControlMessage}s.
+ * <p>
+ * The flight controller is never armed, so nothing is sent to the hardware.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.ControlsBenchmark
+ * </pre>
+ */
+public class ControlsBenchmark {
+
+    /**
+     * The number of commands measured. The same amount are ran first to
+     * warm up.
+     */
+    private static final int COUNT = 1000000;
+
+    public static void main(String[] args) {
+        ControlsNode node = new ControlsNode("");
+
+        Benchmark.run("json command", COUNT, i -> {
+            JsonObject data = new JsonObject();
+            data.addProperty("strafeX", (i & 0xff) / 255.0);
+            data.addProperty("strafeY", 0.5);
+            data.addProperty("angle", 0.25);
+            data.addProperty("lift", 0.75);
+            data.addProperty("isManual", true);
+            node.onReceiveMessage(new JsonMessage(
+                    ControlsNode.class, NetworkNode.class,
+                    ControlsNode.MESSAGE_CONTROL, data
+            ));
+            return null;
+        });
+
+        Benchmark.run("typed command", COUNT, i -> {
+            node.onReceiveMessage(ControlMessage.obtain(
+                    ControlsNode.class, NetworkNode.class,
+                    ControlsNode.MESSAGE_CONTROL,
+                    (i & 0xff) / 255.0, 0.5, 0.25, 0.75, true
+            ));
+            return null;
+        });
+
+        // the whole path through the mailbox. Only the sending thread's
+        // allocations are measured, the mailbox's thread handles them.
+        Benchmark.run("typed command, sent", COUNT, i -> {
+            node.receiveMessage(ControlMessage.obtain(
+                    ControlsNode.class, NetworkNode.class,
+                    ControlsNode.MESSAGE_CONTROL,
+                    (i & 0xff) / 255.0, 0.5, 0.25, 0.75, true
+            ));
+            return null;
+        });
+    }
+
+}
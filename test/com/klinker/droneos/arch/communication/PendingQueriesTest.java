@@ -0,0 +1,156 @@
+package com.klinker.droneos.arch.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.gson.JsonObject;
+import com.klinker.droneos.arch.communication.messages.Query;
+import com.klinker.droneos.utils.Clock;
+import com.klinker.droneos.utils.VirtualClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PendingQueriesTest {
+
+    private static final long MS = 1000000L;
+
+    private PendingQueries mQueries;
+
+    @Before
+    public void setUp() {
+        mQueries = new PendingQueries();
+    }
+
+    @After
+    public void tearDown() {
+        mQueries.cancelAll();
+        Clock.set(null);
+    }
+
+    @Test
+    public void completeDeliversTheResult() throws Exception {
+        Query query = new Query(null, null);
+        CompletableFuture<JsonObject> future = mQueries.add(query, 60000);
+        JsonObject result = new JsonObject();
+        result.addProperty("speed", 2);
+
+        assertEquals(1, mQueries.size());
+        assertTrue(mQueries.complete(query.getUUID(), result));
+        assertEquals(result, future.get(5, TimeUnit.SECONDS));
+        assertEquals(0, mQueries.size());
+        // a late or repeated result is turned away.
+        assertFalse(mQueries.complete(query.getUUID(), new JsonObject()));
+        assertFalse(mQueries.complete("not-sent-from-here", result));
+    }
+
+    @Test
+    public void failDeliversTheError() throws Exception {
+        Query query = new Query(null, null);
+        CompletableFuture<JsonObject> future = mQueries.add(query, 60000);
+        IllegalStateException error = new IllegalStateException("not connected");
+
+        assertTrue(mQueries.fail(query.getUUID(), error));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Completed instead of failing");
+        } catch (ExecutionException e) {
+            assertEquals(error, e.getCause());
+        }
+        assertEquals(0, mQueries.size());
+    }
+
+    @Test
+    public void timesOutOnTheWallClock() throws Exception {
+        Query query = new Query(null, null);
+        long start = System.nanoTime();
+        CompletableFuture<JsonObject> future = mQueries.add(query, 50);
+
+        assertTimedOut(future);
+        assertTrue(System.nanoTime() - start >= 50 * MS);
+        assertEquals(0, mQueries.size());
+        assertFalse(mQueries.complete(query.getUUID(), new JsonObject()));
+    }
+
+    @Test
+    public void cancelledByTheCallerIsRemoved() {
+        Query query = new Query(null, null);
+        CompletableFuture<JsonObject> future = mQueries.add(query, 60000);
+
+        future.cancel(false);
+
+        assertEquals(0, mQueries.size());
+        assertFalse(mQueries.complete(query.getUUID(), new JsonObject()));
+    }
+
+    @Test
+    public void cancelAllCancelsWaitingAndLaterQueries() {
+        CompletableFuture<JsonObject> first = mQueries.add(new Query(null, null), 60000);
+        CompletableFuture<JsonObject> second = mQueries.add(new Query(null, null), 60000);
+
+        mQueries.cancelAll();
+
+        assertTrue(first.isCancelled());
+        assertTrue(second.isCancelled());
+        assertEquals(0, mQueries.size());
+        CompletableFuture<JsonObject> later = mQueries.add(new Query(null, null), 60000);
+        assertTrue(later.isCancelled());
+        assertEquals(0, mQueries.size());
+    }
+
+    @Test
+    public void timeoutFollowsTheVirtualClock() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        Clock.set(clock);
+        CompletableFuture<JsonObject> future = mQueries.add(new Query(null, null), 1000);
+
+        Thread.sleep(50);
+        clock.advance(999 * MS);
+        Thread.sleep(50);
+        assertFalse("timed out before its simulated deadline", future.isDone());
+
+        clock.advance(MS);
+
+        assertTimedOut(future);
+        assertEquals(0, mQueries.size());
+    }
+
+    @Test
+    public void soonerDeadlineIsNotHeldUpByALaterOne() throws Exception {
+        VirtualClock clock = new VirtualClock();
+        Clock.set(clock);
+        CompletableFuture<JsonObject> later = mQueries.add(new Query(null, null), 60000);
+        Thread.sleep(20);
+        CompletableFuture<JsonObject> sooner = mQueries.add(new Query(null, null), 10);
+
+        clock.advance(10 * MS);
+
+        assertTimedOut(sooner);
+        assertFalse(later.isDone());
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Waits up to 5 s of wall time for the future to fail with a timeout.
+     */
+    private static void assertTimedOut(CompletableFuture<JsonObject> future)
+            throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Completed instead of timing out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+}
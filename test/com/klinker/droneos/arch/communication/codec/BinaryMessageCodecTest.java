@@ -0,0 +1,409 @@
+package com.klinker.droneos.arch.communication.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.klinker.droneos.arch.communication.messages.ControlMessage;
+import com.klinker.droneos.arch.communication.messages.JsonMessage;
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.arch.communication.messages.Query;
+import com.klinker.droneos.arch.communication.messages.QueryResult;
+import com.klinker.droneos.arch.communication.messages.TextMessage;
+import com.klinker.droneos.arch.nodes.Node;
+
+import org.junit.Test;
+
+public class BinaryMessageCodecTest {
+
+    // the frame types and json element types, as written by the codec.
+    private static final int TYPE_TEXT = 1;
+    private static final int TYPE_JSON = 2;
+    private static final int JSON_OBJECT = 1;
+    private static final int JSON_ARRAY = 2;
+
+    /**
+     * Set by the static initializers of the classes below, which must never
+     * run just because their name was read off the wire.
+     */
+    private static final AtomicBoolean sInitialized = new AtomicBoolean();
+
+    private final BinaryMessageCodec mCodec = new BinaryMessageCodec();
+
+
+    ///// Round Trips //////////////////////////////////////////////////////////
+
+    @Test
+    public void textMessageRoundTrips() throws IOException {
+        Message<?> read = roundTrip(new TextMessage(
+                ToNode.class, FromNode.class, "greeting", "hello, drone"
+        ));
+
+        assertSame(TextMessage.class, read.getClass());
+        assertSame(ToNode.class, read.getTo());
+        assertSame(FromNode.class, read.getFrom());
+        assertEquals("greeting", read.getName());
+        assertEquals("hello, drone", read.getData());
+    }
+
+    @Test
+    public void jsonMessageRoundTrips() throws IOException {
+        JsonArray array = new JsonArray();
+        array.add(new JsonPrimitive(1));
+        array.add(new JsonPrimitive("two"));
+        array.add(JsonNull.INSTANCE);
+        JsonObject nested = new JsonObject();
+        nested.addProperty("armed", false);
+        JsonObject data = new JsonObject();
+        data.addProperty("altitude", 12.5);
+        data.addProperty("count", -3);
+        data.addProperty("big", Long.MAX_VALUE);
+        data.addProperty("label", "pad");
+        data.addProperty("isLanded", true);
+        data.add("history", array);
+        data.add("state", nested);
+
+        Message<?> read = roundTrip(new JsonMessage(
+                ToNode.class, FromNode.class, "state", data
+        ));
+
+        assertSame(JsonMessage.class, read.getClass());
+        assertEquals(data, read.getData());
+    }
+
+    @Test
+    public void queryKeepsItsUUID() throws IOException {
+        Query query = new Query(ToNode.class, FromNode.class);
+        query.requestProperty("altitude");
+
+        Query read = (Query) roundTrip(query);
+
+        assertEquals(query.getUUID(), read.getUUID());
+        assertEquals(query.getData(), read.getData());
+    }
+
+    @Test
+    public void queryResultKeepsItsUUID() throws IOException {
+        JsonObject data = new JsonObject();
+        data.addProperty("altitude", 3);
+
+        QueryResult read = (QueryResult) roundTrip(new QueryResult(
+                FromNode.class, ToNode.class, "abc123", data
+        ));
+
+        assertEquals("abc123", read.getUUID());
+        assertEquals(data, read.getData());
+    }
+
+    @Test
+    public void controlMessageRoundTrips() throws IOException {
+        ControlMessage read = (ControlMessage) roundTrip(ControlMessage.obtain(
+                ToNode.class, FromNode.class, "control", 0.25, -0.5, 1.5, 0.75, true
+        ));
+
+        assertEquals("control", read.getName());
+        assertEquals(0.25, read.getStrafeX(), 0);
+        assertEquals(-0.5, read.getStrafeY(), 0);
+        assertEquals(1.5, read.getAngle(), 0);
+        assertEquals(0.75, read.getLift(), 0);
+        assertTrue(read.isManual());
+    }
+
+    @Test
+    public void streamRoundTrips() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        mCodec.write(out, new TextMessage(ToNode.class, FromNode.class, "a", "first"));
+        mCodec.write(out, new TextMessage(ToNode.class, FromNode.class, "b", "second"));
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())
+        );
+        assertEquals("first", mCodec.read(in).getData());
+        assertEquals("second", mCodec.read(in).getData());
+    }
+
+    @Test
+    public void bufferHoldsSeveralFrames() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(mCodec.write(buffer, new TextMessage(
+                    ToNode.class, FromNode.class, "n", "message " + i
+            )));
+        }
+        buffer.flip();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("message " + i, mCodec.read(buffer).getData());
+        }
+        assertNull(mCodec.read(buffer));
+    }
+
+    @Test
+    public void writeDoesNotFitInSmallBuffer() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+
+        assertFalse(mCodec.write(buffer, new TextMessage(
+                ToNode.class, FromNode.class, "n", "too long for the buffer"
+        )));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void partialFrameIsLeftInBuffer() throws IOException {
+        ByteBuffer whole = ByteBuffer.allocate(256);
+        mCodec.write(whole, new TextMessage(ToNode.class, FromNode.class, "n", "data"));
+        whole.flip();
+        ByteBuffer partial = ByteBuffer.allocate(256);
+        partial.put(whole.array(), 0, whole.limit() - 1).flip();
+
+        assertNull(mCodec.read(partial));
+        assertEquals(0, partial.position());
+    }
+
+
+    ///// Malformed Frames /////////////////////////////////////////////////////
+
+    @Test
+    public void frameWithoutClassesOrName() throws IOException {
+        Message<?> read = decode(TYPE_TEXT, 0, 0, 0, 2, 'h', 'i');
+
+        assertNull(read.getTo());
+        assertNull(read.getFrom());
+        assertNull(read.getName());
+        assertEquals("hi", read.getData());
+    }
+
+    @Test
+    public void negativeFrameSize() {
+        assertMalformed(frame(-1));
+    }
+
+    @Test
+    public void frameSizeTooLarge() {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(BinaryMessageCodec.MAX_FRAME_SIZE + 1).flip();
+        assertMalformed(buffer);
+    }
+
+    @Test
+    public void unknownFrameType() {
+        assertMalformed(frame(99, 0, 0, 0));
+    }
+
+    @Test
+    public void serializedFrameIsRejected() {
+        // the old Java serialization frame type, followed by a stream header.
+        assertMalformed(frame(0, 0xAC, 0xED, 0, 5));
+    }
+
+    @Test
+    public void otherMessageTypesAreNotSent() {
+        Message<String> message = new Message<String>(ToNode.class, FromNode.class, "n", "d") {
+        };
+
+        try {
+            mCodec.write(ByteBuffer.allocate(4096), message);
+            fail("Wrote a message the codec doesn't know");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void literalClassIsNotInitialized() throws IOException {
+        assertMalformed(frame(TYPE_TEXT, bytes(1, NotANode.class.getName()), 0, 0, 0));
+        Message<?> read = decode(TYPE_TEXT, bytes(1, InitializedNode.class.getName()), 0, 0, 0);
+
+        assertSame(InitializedNode.class, read.getTo());
+        assertFalse(sInitialized.get());
+    }
+
+    @Test
+    public void classIdOutOfRange() {
+        assertMalformed(frame(TYPE_TEXT, 40, 0, 0, 0));
+    }
+
+    @Test
+    public void nameIdOutOfRange() {
+        assertMalformed(frame(TYPE_TEXT, 0, 0, 40, 0));
+    }
+
+    @Test
+    public void unknownClass() {
+        assertMalformed(frame(TYPE_TEXT, bytes(1, "com.example.Missing"), 0, 0, 0));
+    }
+
+    @Test
+    public void classThatIsNotANode() {
+        assertMalformed(frame(TYPE_TEXT, bytes(1, "java.lang.String"), 0, 0, 0));
+    }
+
+    @Test
+    public void stringLongerThanFrame() {
+        assertMalformed(frame(TYPE_TEXT, 0, 0, 0, 100, 'h', 'i'));
+    }
+
+    @Test
+    public void frameEndsMidValue() {
+        assertMalformed(frame(TYPE_TEXT, 0, 0));
+    }
+
+    @Test
+    public void jsonDataThatIsNotAnObject() {
+        assertMalformed(frame(TYPE_JSON, 0, 0, 0, JSON_ARRAY, 0));
+    }
+
+    @Test
+    public void nullJsonKey() {
+        assertMalformed(frame(TYPE_JSON, 0, 0, 0, JSON_OBJECT, 1, 0, JSON_OBJECT, 0));
+    }
+
+    @Test
+    public void streamEndsMidFrame() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(10);
+        out.write(new byte[]{TYPE_TEXT, 0, 0});
+
+        try {
+            mCodec.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("Read a frame cut short");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void goodFrameAfterMalformedOne() throws IOException {
+        assertMalformed(frame(TYPE_TEXT, 0, 0, 0, 100));
+        assertEquals("ok", decode(TYPE_TEXT, 0, 0, 0, 2, 'o', 'k').getData());
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private Message<?> roundTrip(Message<?> message) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        assertTrue(mCodec.write(buffer, message));
+        buffer.flip();
+        Message<?> read = mCodec.read(buffer);
+        assertFalse(buffer.hasRemaining());
+        return read;
+    }
+
+    private Message<?> decode(Object... body) throws IOException {
+        return mCodec.read(frame(body));
+    }
+
+    private void assertMalformed(ByteBuffer frame) {
+        try {
+            Message<?> read = mCodec.read(frame);
+            fail("Read a malformed frame as " + read);
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * @param body Each value is a byte, or a byte array from
+     *             {@link #bytes(int, String)}. Small ints are their own
+     *             varint.
+     * @return A frame holding the body, with its length in front.
+     */
+    private static ByteBuffer frame(Object... body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object value : body) {
+            if (value instanceof byte[]) {
+                byte[] array = (byte[]) value;
+                bytes.write(array, 0, array.length);
+            } else if (value instanceof Character) {
+                bytes.write((Character) value);
+            } else {
+                bytes.write((Integer) value);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.size());
+        buffer.putInt(bytes.size()).put(bytes.toByteArray()).flip();
+        return buffer;
+    }
+
+    /**
+     * @return A frame of only a length, with no body.
+     */
+    private static ByteBuffer frame(int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        buffer.putInt(size).flip();
+        return buffer;
+    }
+
+    /**
+     * @return A varint followed by a string shorter than 128 bytes.
+     */
+    private static byte[] bytes(int varint, String string) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[utf8.length + 2];
+        bytes[0] = (byte) varint;
+        bytes[1] = (byte) utf8.length;
+        System.arraycopy(utf8, 0, bytes, 2, utf8.length);
+        return bytes;
+    }
+
+
+    ///// Test Nodes ///////////////////////////////////////////////////////////
+
+    public static class ToNode extends Node {
+        public ToNode(String dataPath) {
+            super(dataPath);
+        }
+
+        @Override
+        protected void onReceiveMessage(Message message) {
+        }
+
+        @Override
+        protected JsonPrimitive queryProperty(String property, JsonObject inputs) {
+            return null;
+        }
+    }
+
+    public static class FromNode extends ToNode {
+        public FromNode(String dataPath) {
+            super(dataPath);
+        }
+    }
+
+    public static class InitializedNode extends ToNode {
+        static {
+            sInitialized.set(true);
+        }
+
+        public InitializedNode(String dataPath) {
+            super(dataPath);
+        }
+    }
+
+    public static class NotANode {
+        static {
+            sInitialized.set(true);
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.klinker.droneos.arch.communication.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.google.gson.JsonObject;
+import com.klinker.droneos.ControlsNode;
+import com.klinker.droneos.NetworkNode;
+import com.klinker.droneos.arch.Core;
+import com.klinker.droneos.arch.communication.messages.ControlMessage;
+import com.klinker.droneos.arch.communication.messages.JsonMessage;
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.arch.communication.messages.Query;
+import com.klinker.droneos.arch.communication.messages.TextMessage;
+import com.klinker.droneos.arch.manifest.Manifest;
+import com.klinker.droneos.utils.benchmark.Benchmark;
+
+/**
+ * Compares the {@link BinaryMessageCodec} to the Java serialization the
+ * {@link com.klinker.droneos.arch.communication.Client} and
+ * {@link com.klinker.droneos.arch.communication.Server} used before it: a
+ * single long-lived {@link ObjectOutputStream} per connection.
+ * <p>
+ * For each message type it prints the average bytes per message on the
+ * wire, and the time to encode and decode one message.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.arch.communication.codec.CodecBenchmark -PappArgs="['manifest']"
+ * </pre>
+ */
+public class CodecBenchmark {
+
+    /**
+     * The number of messages measured. The same amount are ran first to
+     * warm up.
+     */
+    private static final int COUNT = 50000;
+
+    /**
+     * Builds one of the messages to send. Each one is a new object, so the
+     * {@link ObjectOutputStream} can not just write a back-reference.
+     */
+    private interface MessageFactory {
+        Message<?> create(int i);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String manifestPath = args.length > 0
+                ? args[0] : Core.DIR_RESOURCES + "/manifest.json";
+        MessageCodec codec = new BinaryMessageCodec(
+                Manifest.fromPath(manifestPath)
+        );
+
+        compare("control", codec, i -> {
+            JsonObject data = new JsonObject();
+            data.addProperty("strafeX", Math.sin(i));
+            data.addProperty("strafeY", Math.cos(i));
+            data.addProperty("angle", 0.25);
+            data.addProperty("lift", 0.5);
+            data.addProperty("isManual", true);
+            return new JsonMessage(
+                    ControlsNode.class, NetworkNode.class,
+                    ControlsNode.MESSAGE_CONTROL, data
+            );
+        });
+        compare("control command", codec, i -> ControlMessage.obtain(
+                ControlsNode.class, NetworkNode.class,
+                ControlsNode.MESSAGE_CONTROL,
+                Math.sin(i), Math.cos(i), 0.25, 0.5, true
+        ));
+        compare("text", codec, i -> new TextMessage(
+                ControlsNode.class, NetworkNode.class, "log", "message " + i
+        ));
+        compare("query", codec, i -> {
+            Query query = new Query(ControlsNode.class, NetworkNode.class);
+            query.requestProperty("strafeX");
+            query.requestProperty("lift");
+            query.addInput("index", i);
+            return query;
+        });
+    }
+
+    private static void compare(String name, MessageCodec codec,
+                                MessageFactory factory) throws Exception {
+        Message<?>[] messages = new Message<?>[COUNT * 2];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = factory.create(i);
+        }
+        System.out.println("----- " + name + " -----");
+
+        // Binary codec
+        ByteArrayOutputStream binaryBytes = new ByteArrayOutputStream();
+        DataOutputStream binaryOut = new DataOutputStream(binaryBytes);
+        int[] next = {0};
+        Benchmark.run(name + " binary encode", COUNT, i -> {
+            codec.write(binaryOut, messages[next[0]++]);
+            return null;
+        });
+        DataInputStream binaryIn = new DataInputStream(
+                new ByteArrayInputStream(binaryBytes.toByteArray())
+        );
+        Benchmark.run(name + " binary decode", COUNT,
+                i -> codec.read(binaryIn));
+
+        // Java serialization over a single stream
+        ByteArrayOutputStream objectBytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(objectBytes);
+        next[0] = 0;
+        Benchmark.run(name + " serialized encode", COUNT, i -> {
+            objectOut.writeObject(messages[next[0]++]);
+            return null;
+        });
+        objectOut.flush();
+        ObjectInputStream objectIn = new ObjectInputStream(
+                new ByteArrayInputStream(objectBytes.toByteArray())
+        );
+        Benchmark.run(name + " serialized decode", COUNT,
+                i -> objectIn.readObject());
+
+        System.out.println(String.format(
+                "%-40s %8.1f B/message binary, %8.1f B/message serialized",
+                name + " size",
+                binaryBytes.size() / (double) messages.length,
+                objectBytes.size() / (double) messages.length
+        ));
+    }
+
+}
@@ -0,0 +1,182 @@
+package com.klinker.droneos.arch.communication.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.klinker.droneos.arch.nodes.Mailbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ControlMessageTest {
+
+    /**
+     * More than the pool holds, so obtaining this many empties it.
+     */
+    private static final int MORE_THAN_POOLED = 64;
+
+    /**
+     * Set when the consumer is holding the first message.
+     */
+    private final CountDownLatch mHolding = new CountDownLatch(1);
+
+    /**
+     * Lets the consumer go on past the first message.
+     */
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    private Mailbox mMailbox;
+
+    @Before
+    public void setUp() {
+        drainPool();
+        mMailbox = new Mailbox("test", 1, 1, message -> {
+            if (mHolding.getCount() > 0) {
+                mHolding.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        mMailbox.start();
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mMailbox.stop();
+    }
+
+    @Test
+    public void obtainReusesARecycledMessage() {
+        ControlMessage first = obtain("control", 0.5);
+        first.recycle();
+
+        ControlMessage second = ControlMessage.obtain(
+                null, null, "hover", -0.25, 0.75, 0.125, 1, false
+        );
+
+        assertSame(first, second);
+        assertEquals("hover", second.getName());
+        assertEquals(-0.25, second.getStrafeX(), 0);
+        assertEquals(0.75, second.getStrafeY(), 0);
+        assertEquals(0.125, second.getAngle(), 0);
+        assertEquals(1, second.getLift(), 0);
+        assertFalse(second.isManual());
+    }
+
+    @Test
+    public void obtainCreatesOnceThePoolIsEmpty() {
+        ControlMessage first = obtain("control", 0);
+        ControlMessage second = obtain("control", 0);
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void poolKeepsALimitedNumber() {
+        ControlMessage[] messages = new ControlMessage[MORE_THAN_POOLED];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = obtain("control", i);
+        }
+        for (ControlMessage message : messages) {
+            message.recycle();
+        }
+
+        int reused = 0;
+        for (int i = 0; i < messages.length; i++) {
+            ControlMessage message = obtain("control", i);
+            for (ControlMessage recycled : messages) {
+                if (message == recycled) reused++;
+            }
+        }
+        assertTrue(reused > 0);
+        assertTrue("kept " + reused, reused < messages.length);
+    }
+
+    @Test
+    public void droppedMessageIsRecycled() throws InterruptedException {
+        mMailbox.setDefaultPolicy(Mailbox.Policy.DROP_NEWEST);
+        holdConsumer();
+        mMailbox.post(obtain("control", 0));
+        ControlMessage dropped = obtain("control", 1);
+
+        mMailbox.post(dropped);
+
+        assertEquals(1, mMailbox.getDroppedCount());
+        assertSame(dropped, obtain("control", 2));
+    }
+
+    @Test
+    public void replacedMessageIsRecycled() throws InterruptedException {
+        mMailbox.setPolicy("control", Mailbox.Policy.COALESCE_LATEST);
+        holdConsumer();
+        ControlMessage replaced = obtain("control", 0);
+        mMailbox.post(replaced);
+
+        mMailbox.post(obtain("control", 1));
+
+        assertEquals(1, mMailbox.getCoalescedCount());
+        assertSame(replaced, obtain("control", 2));
+    }
+
+    @Test
+    public void sameNameGivesTheSameId() {
+        int arm = Message.getNameId("arm");
+
+        assertEquals(arm, Message.getNameId(new String("arm")));
+        assertNotEquals(arm, Message.getNameId("hover"));
+        assertNotEquals(0, arm);
+        assertEquals(0, Message.getNameId(null));
+    }
+
+    @Test
+    public void messageIdFollowsItsName() {
+        ControlMessage message = obtain("control", 0);
+        assertEquals(Message.getNameId("control"), message.getNameId());
+        message.recycle();
+
+        // a recycled message sent under another name.
+        ControlMessage renamed = obtain("control-switch", 0);
+
+        assertSame(message, renamed);
+        assertEquals(Message.getNameId("control-switch"), renamed.getNameId());
+        assertEquals(Message.getNameId("control"),
+                new TextMessage(null, null, "control", "").getNameId());
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private static ControlMessage obtain(String name, double strafeX) {
+        return ControlMessage.obtain(null, null, name, strafeX, 0, 0, 0, true);
+    }
+
+    /**
+     * Takes every message out of the pool, so each test starts from empty.
+     */
+    private static void drainPool() {
+        for (int i = 0; i < MORE_THAN_POOLED; i++) {
+            obtain("drain", 0);
+        }
+    }
+
+    /**
+     * Has the consumer hold one message, so the next fills the queue.
+     */
+    private void holdConsumer() throws InterruptedException {
+        mMailbox.post(new TextMessage(null, null, "held", ""));
+        assertTrue(mHolding.await(5, TimeUnit.SECONDS));
+    }
+
+}
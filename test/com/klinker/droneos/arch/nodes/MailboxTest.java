@@ -0,0 +1,245 @@
+package com.klinker.droneos.arch.nodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.klinker.droneos.arch.communication.messages.Message;
+import com.klinker.droneos.arch.communication.messages.TextMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MailboxTest {
+
+    private static final int CAPACITY = 2;
+
+    /**
+     * The data of each message handled, in order.
+     */
+    private final List<String> mHandled = new ArrayList<>();
+
+    /**
+     * Set when the consumer is holding the first message.
+     */
+    private final CountDownLatch mHolding = new CountDownLatch(1);
+
+    /**
+     * Lets the consumer go on past the first message.
+     */
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    private Mailbox mMailbox;
+
+    @Before
+    public void setUp() {
+        mMailbox = new Mailbox("test", 1, CAPACITY, message -> {
+            synchronized (mHandled) {
+                mHandled.add((String) message.getData());
+            }
+            if (mHolding.getCount() > 0) {
+                mHolding.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        mMailbox.start();
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mMailbox.stop();
+    }
+
+    @Test
+    public void handlesMessagesInOrder() throws InterruptedException {
+        mRelease.countDown();
+        for (int i = 0; i < 10; i++) {
+            mMailbox.post(message("n", "m" + i));
+        }
+
+        awaitHandled(10);
+        assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9"),
+                getHandled());
+        assertEquals(10, mMailbox.getReceivedCount());
+        assertEquals(0, mMailbox.getDroppedCount());
+    }
+
+    @Test
+    public void dropNewestDropsTheMessageSent() throws InterruptedException {
+        mMailbox.setDefaultPolicy(Mailbox.Policy.DROP_NEWEST);
+        fillBehindHeldMessage("n");
+        mMailbox.post(message("n", "dropped"));
+
+        assertEquals(1, mMailbox.getDroppedCount());
+        assertEquals(CAPACITY, mMailbox.getDepth());
+        mRelease.countDown();
+        awaitHandled(3);
+        assertEquals(Arrays.asList("held", "q0", "q1"), getHandled());
+    }
+
+    @Test
+    public void dropOldestMakesRoom() throws InterruptedException {
+        mMailbox.setDefaultPolicy(Mailbox.Policy.DROP_OLDEST);
+        fillBehindHeldMessage("n");
+        mMailbox.post(message("n", "newest"));
+
+        assertEquals(1, mMailbox.getDroppedCount());
+        assertEquals(CAPACITY, mMailbox.getDepth());
+        mRelease.countDown();
+        awaitHandled(3);
+        assertEquals(Arrays.asList("held", "q1", "newest"), getHandled());
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws InterruptedException {
+        fillBehindHeldMessage("n");
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            mMailbox.post(message("n", "waited"));
+            sent.countDown();
+        });
+        sender.start();
+
+        assertEquals(1, sent.getCount());
+        Thread.sleep(100);
+        assertEquals("the sender should still be waiting for room", 1, sent.getCount());
+        mRelease.countDown();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        awaitHandled(4);
+        assertEquals(Arrays.asList("held", "q0", "q1", "waited"), getHandled());
+        assertEquals(0, mMailbox.getDroppedCount());
+    }
+
+    @Test
+    public void stopDropsTheBlockedMessage() throws InterruptedException {
+        fillBehindHeldMessage("n");
+        Message<?> blocked = message("n", "blocked");
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            mMailbox.post(blocked);
+            sent.countDown();
+        });
+        sender.start();
+        Thread.sleep(50);
+        assertEquals(1, sent.getCount());
+
+        mMailbox.stop();
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mMailbox.getDroppedCount());
+        assertEquals(0, mMailbox.getDepth());
+    }
+
+    @Test
+    public void interruptedSenderGivesUp() throws InterruptedException {
+        fillBehindHeldMessage("n");
+        CountDownLatch sent = new CountDownLatch(1);
+        Thread sender = new Thread(() -> {
+            mMailbox.post(message("n", "interrupted"));
+            sent.countDown();
+        });
+        sender.start();
+        Thread.sleep(50);
+
+        sender.interrupt();
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mMailbox.getDroppedCount());
+        mRelease.countDown();
+        awaitHandled(3);
+        assertEquals(Arrays.asList("held", "q0", "q1"), getHandled());
+    }
+
+    @Test
+    public void coalesceKeepsOnlyTheLatest() throws InterruptedException {
+        mMailbox.setPolicy("pose", Mailbox.Policy.COALESCE_LATEST);
+        mMailbox.post(message("other", "held"));
+        assertTrue(mHolding.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            mMailbox.post(message("pose", "pose" + i));
+        }
+        mMailbox.post(message("other", "after"));
+
+        assertEquals(4, mMailbox.getCoalescedCount());
+        mRelease.countDown();
+        awaitHandled(3);
+        // the latest pose keeps the first one's place, ahead of "after".
+        assertEquals(Arrays.asList("held", "pose4", "after"), getHandled());
+    }
+
+    @Test
+    public void coalesceNeverWaitsForRoom() throws InterruptedException {
+        mMailbox.setPolicy("pose", Mailbox.Policy.COALESCE_LATEST);
+        fillBehindHeldMessage("other");
+        for (int i = 0; i < 100; i++) {
+            mMailbox.post(message("pose", "pose" + i));
+        }
+
+        assertEquals(0, mMailbox.getDroppedCount());
+        mRelease.countDown();
+        awaitHandled(4);
+        assertEquals(Arrays.asList("held", "q0", "q1", "pose99"), getHandled());
+    }
+
+    @Test
+    public void policyByName() {
+        mMailbox.setDefaultPolicy(Mailbox.Policy.DROP_OLDEST);
+        mMailbox.setPolicy("pose", Mailbox.Policy.COALESCE_LATEST);
+
+        assertEquals(Mailbox.Policy.COALESCE_LATEST, mMailbox.getPolicy("pose"));
+        assertEquals(Mailbox.Policy.DROP_OLDEST, mMailbox.getPolicy("other"));
+        assertEquals(Mailbox.Policy.DROP_OLDEST, mMailbox.getPolicy(null));
+        assertEquals(Mailbox.Policy.DROP_NEWEST, Mailbox.Policy.fromName(" drop-newest"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownPolicyName() {
+        Mailbox.Policy.fromName("drop-everything");
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Has the consumer hold a message, then fills the queue behind it with
+     * "q0" and "q1".
+     */
+    private void fillBehindHeldMessage(String name) throws InterruptedException {
+        mMailbox.post(message(name, "held"));
+        assertTrue(mHolding.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < CAPACITY; i++) {
+            mMailbox.post(message(name, "q" + i));
+        }
+        assertEquals(CAPACITY, mMailbox.getDepth());
+    }
+
+    private void awaitHandled(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mMailbox.getHandledCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, mMailbox.getHandledCount());
+    }
+
+    private List<String> getHandled() {
+        synchronized (mHandled) {
+            return new ArrayList<>(mHandled);
+        }
+    }
+
+    private static Message<?> message(String name, String data) {
+        return new TextMessage(null, null, name, data);
+    }
+
+}
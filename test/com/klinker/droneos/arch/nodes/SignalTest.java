@@ -0,0 +1,121 @@
+package com.klinker.droneos.arch.nodes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SignalTest {
+
+    @Test
+    public void awaitReturnsRightAwayWhenSet() {
+        Signal signal = new Signal(true);
+
+        assertTrue(signal.await());
+        assertTrue(signal.await(1));
+        assertFalse(signal.awaitClear(0));
+    }
+
+    @Test
+    public void setWakesEveryWaiter() throws InterruptedException {
+        Signal signal = new Signal();
+        int waiters = 4;
+        CountDownLatch started = new CountDownLatch(waiters);
+        CountDownLatch woken = new CountDownLatch(waiters);
+        AtomicInteger setCount = new AtomicInteger();
+        for (int i = 0; i < waiters; i++) {
+            Thread thread = new Thread(() -> {
+                started.countDown();
+                if (signal.await()) setCount.incrementAndGet();
+                woken.countDown();
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals("nothing should wake before the signal is set",
+                waiters, woken.getCount());
+
+        signal.set();
+
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+        assertEquals(waiters, setCount.get());
+    }
+
+    @Test
+    public void clearWakesAwaitClear() throws InterruptedException {
+        Signal signal = new Signal(true);
+        CountDownLatch woken = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            if (signal.awaitClear()) woken.countDown();
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        Thread.sleep(50);
+        signal.clear();
+
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void awaitTimesOut() {
+        Signal signal = new Signal();
+
+        long start = System.nanoTime();
+        boolean isSet = signal.await(100);
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertFalse(isSet);
+        assertTrue("waited only " + waited + " ms", waited >= 90);
+        assertTrue("waited " + waited + " ms", waited < 2000);
+    }
+
+    @Test
+    public void setBeforeTimeout() throws InterruptedException {
+        Signal signal = new Signal();
+        Thread setter = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            signal.set();
+        });
+        setter.start();
+
+        long start = System.nanoTime();
+        assertTrue(signal.await(5000));
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("waited " + waited + " ms", waited < 2000);
+        setter.join();
+    }
+
+    @Test
+    public void interruptStopsWaiting() throws InterruptedException {
+        Signal signal = new Signal();
+        AtomicBoolean result = new AtomicBoolean(true);
+        AtomicBoolean isInterrupted = new AtomicBoolean();
+        Thread waiter = new Thread(() -> {
+            result.set(signal.await());
+            isInterrupted.set(Thread.currentThread().isInterrupted());
+        });
+        waiter.start();
+        Thread.sleep(50);
+
+        waiter.interrupt();
+        waiter.join(5000);
+
+        assertFalse(waiter.isAlive());
+        assertFalse(result.get());
+        assertTrue("the interrupt should be kept", isInterrupted.get());
+    }
+
+}
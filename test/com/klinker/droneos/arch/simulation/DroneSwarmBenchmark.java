@@ -0,0 +1,95 @@
+package com.klinker.droneos.arch.simulation;
+
+import java.util.Random;
+
+import com.klinker.droneos.arch.simulation.map.DroneCollision;
+import com.klinker.droneos.utils.Log;
+import com.klinker.droneos.utils.benchmark.Benchmark;
+
+/**
+ * Compares how many drone updates a second a {@link DroneSwarm} and the
+ * same number of {@link DroneCollision}s can do, for swarms of 1 to 100,000
+ * drones.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.arch.simulation.DroneSwarmBenchmark
+ * </pre>
+ */
+public class DroneSwarmBenchmark {
+
+    /**
+     * The drone counts measured.
+     */
+    private static final int[] COUNTS = {1, 10, 100, 1000, 10000, 100000};
+
+    /**
+     * The total drone updates measured for each count.
+     */
+    private static final long UPDATES = 20000000;
+
+    private static final double DT = 1 / (Simulation.FPS * Simulation.DEFAULT_SUB_STEPS);
+
+    public static void main(String[] args) {
+        // hard landings would otherwise be logged for every drone.
+        Log.setLevel("simulation", Log.Level.ERROR);
+
+        for (int count : COUNTS) {
+            DroneCollision[] objects = createDrones(count, new Random(count));
+            DroneSwarm batch = createSwarm(objects);
+            int iterations = (int) Math.max(10, UPDATES / count);
+
+            Benchmark.Result swarmResult = Benchmark.run(
+                    "swarm " + count, iterations, i -> {
+                        batch.step(DT);
+                        return null;
+                    }
+            );
+            Benchmark.Result objectResult = Benchmark.run(
+                    "objects " + count, iterations, i -> {
+                        for (DroneCollision drone : objects) {
+                            drone.updatePosition(DT);
+                        }
+                        return null;
+                    }
+            );
+            System.out.println(String.format(
+                    "%6d drones: swarm %.1fM drones/s, objects %.1fM drones/s",
+                    count,
+                    count * 1e3 / swarmResult.getNanosPerOp(),
+                    count * 1e3 / objectResult.getNanosPerOp()
+            ));
+        }
+        Log.flush();
+    }
+
+    /**
+     * Creates drones in the air with random poses and PWM signals.
+     */
+    private static DroneCollision[] createDrones(int count, Random random) {
+        DroneCollision[] drones = new DroneCollision[count];
+        for (int i = 0; i < count; i++) {
+            DroneCollision drone = new DroneCollision(
+                    null,
+                    random.nextDouble() * 100,
+                    random.nextDouble() * 100,
+                    random.nextDouble() * Math.PI * 2
+            );
+            drone.getPoint().z = 1 + random.nextDouble() * 10;
+            drone.setStrafeXPWM(random.nextInt(DroneCollision.MAX_PWM + 1));
+            drone.setStrafeYPWM(random.nextInt(DroneCollision.MAX_PWM + 1));
+            drone.setAnglePWM(random.nextInt(DroneCollision.MAX_PWM + 1));
+            // mostly hovering, with some climbing and some falling.
+            drone.setLiftPWM(800 + random.nextInt(300));
+            drones[i] = drone;
+        }
+        return drones;
+    }
+
+    private static DroneSwarm createSwarm(DroneCollision[] drones) {
+        DroneSwarm swarm = new DroneSwarm(drones.length);
+        for (int i = 0; i < drones.length; i++) {
+            swarm.set(i, drones[i]);
+        }
+        return swarm;
+    }
+
+}
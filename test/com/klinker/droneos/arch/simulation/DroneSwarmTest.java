@@ -0,0 +1,146 @@
+package com.klinker.droneos.arch.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import com.klinker.droneos.arch.simulation.map.DroneCollision;
+import com.klinker.droneos.utils.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DroneSwarmTest {
+
+    private static final double DT = 1 / (Simulation.FPS * Simulation.DEFAULT_SUB_STEPS);
+
+    /**
+     * The PWM signal for no strafing or turning.
+     */
+    private static final int CENTER_PWM = DroneCollision.MAX_PWM / 2;
+
+    @Before
+    public void setUp() {
+        // hard landings would otherwise be logged for every drone.
+        Log.setLevel("simulation", Log.Level.ERROR);
+    }
+
+    @Test
+    public void crashMatches() {
+        DroneCollision drone = drone(2, 0, CENTER_PWM, 0);
+        DroneCollision[] drones = {drone};
+        DroneSwarm swarm = swarm(drones);
+
+        step(drones, swarm, 240);
+
+        assertTrue(drone.isCrashed());
+        assertMatches(drones, swarm);
+    }
+
+    @Test
+    public void hardLandingMatches() {
+        DroneCollision drone = drone(0.1, -0.7, CENTER_PWM, 818);
+        DroneCollision[] drones = {drone};
+        DroneSwarm swarm = swarm(drones);
+
+        step(drones, swarm, 240);
+
+        assertFalse(drone.isCrashed());
+        assertEquals(1, drone.getHardLandingCount());
+        assertMatches(drones, swarm);
+    }
+
+    @Test
+    public void dragMatches() {
+        DroneCollision drone = drone(5, 0, CENTER_PWM, 818);
+        drone.getVelocity().x = 4;
+        drone.getVelocity().y = -3;
+        DroneCollision[] drones = {drone};
+        DroneSwarm swarm = swarm(drones);
+
+        step(drones, swarm, 240);
+
+        assertEquals(0, drone.getLinearAcceleration().x, 0);
+        assertTrue(Math.abs(drone.getVelocity().x) < 1);
+        assertTrue(Math.abs(drone.getVelocity().y) < 1);
+        assertMatches(drones, swarm);
+    }
+
+    @Test
+    public void randomSwarmMatches() {
+        Random random = new Random(0);
+        DroneCollision[] drones = new DroneCollision[1000];
+        for (int i = 0; i < drones.length; i++) {
+            drones[i] = drone(
+                    1 + random.nextDouble() * 10, 0,
+                    random.nextInt(DroneCollision.MAX_PWM + 1),
+                    // mostly hovering, with some climbing and some falling.
+                    800 + random.nextInt(300)
+            );
+            drones[i].setStrafeYPWM(random.nextInt(DroneCollision.MAX_PWM + 1));
+            drones[i].setAnglePWM(random.nextInt(DroneCollision.MAX_PWM + 1));
+        }
+        DroneSwarm swarm = swarm(drones);
+
+        step(drones, swarm, 2000);
+
+        assertMatches(drones, swarm);
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Creates a drone facing 30 degrees off the x-axis.
+     */
+    private static DroneCollision drone(double z, double velocityZ,
+                                        int strafePWM, int liftPWM) {
+        DroneCollision drone = new DroneCollision(null, 10, 20, Math.PI / 6);
+        drone.getPoint().z = z;
+        drone.getVelocity().z = velocityZ;
+        drone.setStrafeXPWM(strafePWM);
+        drone.setStrafeYPWM(CENTER_PWM);
+        drone.setAnglePWM(CENTER_PWM);
+        drone.setLiftPWM(liftPWM);
+        return drone;
+    }
+
+    private static DroneSwarm swarm(DroneCollision[] drones) {
+        DroneSwarm swarm = new DroneSwarm(drones.length);
+        for (int i = 0; i < drones.length; i++) {
+            swarm.set(i, drones[i]);
+        }
+        return swarm;
+    }
+
+    private static void step(DroneCollision[] drones, DroneSwarm swarm, int steps) {
+        for (int step = 0; step < steps; step++) {
+            for (DroneCollision drone : drones) {
+                drone.updatePosition(DT);
+            }
+            swarm.step(DT);
+        }
+    }
+
+    /**
+     * Checks every drone is in exactly the same state in both.
+     */
+    private static void assertMatches(DroneCollision[] drones, DroneSwarm swarm) {
+        for (int i = 0; i < drones.length; i++) {
+            DroneCollision drone = drones[i];
+            String name = "drone " + i;
+            assertEquals(name, drone.getPoint().x, swarm.getX(i), 0);
+            assertEquals(name, drone.getPoint().y, swarm.getY(i), 0);
+            assertEquals(name, drone.getPoint().z, swarm.getZ(i), 0);
+            assertEquals(name, drone.getAngle(), swarm.getAngle(i), 0);
+            assertEquals(name, drone.getVelocity().x, swarm.getVelocityX(i), 0);
+            assertEquals(name, drone.getVelocity().y, swarm.getVelocityY(i), 0);
+            assertEquals(name, drone.getVelocity().z, swarm.getVelocityZ(i), 0);
+            assertEquals(name, drone.isCrashed(), swarm.isCrashed(i));
+            assertEquals(name, drone.getHardLandingCount(), swarm.getHardLandingCount(i));
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.klinker.droneos.arch.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import com.klinker.droneos.arch.simulation.MonteCarloRunner.Outcome;
+import com.klinker.droneos.utils.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonteCarloRunnerTest {
+
+    private static final int ROLLOUT_COUNT = 24;
+
+    private static final long SEED = 42;
+
+    /**
+     * The standard deviation [m] of the position noise given to the pilots,
+     * so the rollouts use their random numbers after starting.
+     */
+    private static final double NOISE = 0.05;
+
+    @Before
+    public void setUp() {
+        // hard landings would otherwise be logged for every rollout.
+        Log.setLevel("simulation", Log.Level.ERROR);
+    }
+
+    @Test
+    public void sameSeedMatchesAtEveryParallelism() {
+        MonteCarloRunner.Results results = runner(SEED, 1).run();
+        Outcome[] single = results.getOutcomes();
+        // landings are where the rollouts differ most, so some have to land.
+        assertTrue(results.getLandedCount() > 0);
+
+        for (int parallelism : new int[] {2, 3, 8}) {
+            Outcome[] outcomes = runner(SEED, parallelism).run().getOutcomes();
+
+            assertEquals(single.length, outcomes.length);
+            for (int i = 0; i < single.length; i++) {
+                assertMatches(parallelism + " threads, rollout " + i,
+                        single[i], outcomes[i]);
+            }
+        }
+    }
+
+    @Test
+    public void rolloutMatchesWhenFlownAlone() {
+        MonteCarloRunner runner = runner(SEED, 4);
+        Outcome[] outcomes = runner.run().getOutcomes();
+
+        for (int i : new int[] {0, 7, ROLLOUT_COUNT - 1}) {
+            assertMatches("rollout " + i, outcomes[i], runner.runRollout(i));
+        }
+    }
+
+    @Test
+    public void otherSeedDiffers() {
+        Outcome[] outcomes = runner(SEED, 1).run().getOutcomes();
+        Outcome[] others = runner(SEED + 1, 1).run().getOutcomes();
+
+        assertFalse(Arrays.equals(landingErrors(outcomes), landingErrors(others)));
+    }
+
+    @Test
+    public void rolloutsStartApart() {
+        double[] errors = landingErrors(runner(SEED, 1).run().getOutcomes());
+
+        // each rollout gets its own random numbers, not its neighbour's.
+        for (int i = 1; i < errors.length; i++) {
+            assertTrue("rollout " + i, errors[i] != errors[i - 1]);
+        }
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private static MonteCarloRunner runner(long seed, int parallelism) {
+        MonteCarloRunner runner = new MonteCarloRunner(
+                random -> new LandingPilot(1, random, NOISE)
+        );
+        runner.setRolloutCount(ROLLOUT_COUNT);
+        runner.setSeed(seed);
+        runner.setDuration(20);
+        runner.setParallelism(parallelism);
+        return runner;
+    }
+
+    private static double[] landingErrors(Outcome[] outcomes) {
+        double[] errors = new double[outcomes.length];
+        for (int i = 0; i < outcomes.length; i++) {
+            errors[i] = outcomes[i].getLandingError();
+        }
+        return errors;
+    }
+
+    /**
+     * Asserts two outcomes are exactly the same, down to the last bit.
+     */
+    private static void assertMatches(String message, Outcome expected, Outcome actual) {
+        assertEquals(message, expected.getLandingError(), actual.getLandingError(), 0);
+        assertEquals(message, expected.isLanded(), actual.isLanded());
+        assertEquals(message, expected.getHardLandingCount(), actual.getHardLandingCount());
+        assertEquals(message, expected.isCrashed(), actual.isCrashed());
+        assertEquals(message, expected.getSimulatedTime(), actual.getSimulatedTime(), 0);
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.klinker.droneos.arch.simulation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.klinker.droneos.utils.Clock;
+import com.klinker.droneos.utils.VirtualClock;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SimulationTest {
+
+    /**
+     * How long the simulations started in the background run for, in ms.
+     */
+    private static final long RUN_TIME = 500;
+
+    @After
+    public void tearDown() {
+        Clock.set(null);
+    }
+
+    @Test
+    public void stepTimeIsSplitBetweenSubSteps() {
+        Simulation simulation = new Simulation(0, 0, 0);
+        simulation.setFrameRate(50);
+        simulation.setSubSteps(4);
+
+        assertEquals(1 / 200.0, simulation.getStepTime(), 0);
+    }
+
+    @Test
+    public void observersRunOnSimulatedTime() {
+        Simulation simulation = new Simulation(0, 0, 0);
+        simulation.setFrameRate(60);
+        simulation.setObservationRate(20);
+        AtomicInteger observed = new AtomicInteger();
+        simulation.addObserver(s -> observed.incrementAndGet());
+
+        for (int i = 0; i < 600; i++) {
+            simulation.step();
+        }
+
+        assertEquals(600, simulation.getFrameCount());
+        assertEquals(10, simulation.getSimulatedTime(), 1e-9);
+        // every third frame, give or take one from rounding.
+        assertEquals(200, observed.get(), 1);
+    }
+
+    @Test
+    public void realTimeKeepsTheFrameRate() throws InterruptedException {
+        Simulation simulation = new Simulation(0, 0, 0);
+        simulation.setFrameRate(60);
+
+        run(simulation);
+
+        assertSame(Clock.SYSTEM, Clock.get());
+        double rate = simulation.getFrameCount() / simulation.getElapsedTime();
+        assertTrue(rate + " fps", rate > 45 && rate < 65);
+        assertEquals(1, simulation.getThroughput(), 0.2);
+    }
+
+    @Test
+    public void asFastAsPossibleAdvancesTheClockEachFrame() throws InterruptedException {
+        Simulation simulation = new Simulation(0, 0, 0);
+        simulation.setFrameRate(100);
+        simulation.setSpeed(0);
+        AtomicBoolean inStep = new AtomicBoolean(true);
+        simulation.addObserver(s -> {
+            // the clock moves on after the frame, so it is a frame behind.
+            long expected = (s.getFrameCount() - 1) * 10_000_000L;
+            if (Clock.get().nanoTime() != expected) inStep.set(false);
+        });
+
+        Runnable runnable = simulation.startRunnable();
+        VirtualClock clock = simulation.getClock();
+        assertNotNull(clock);
+        assertSame(clock, Clock.get());
+        run(simulation, runnable);
+
+        assertTrue(inStep.get());
+        assertEquals(0, simulation.getOverrunCount());
+        // far more than the 50 frames that would run in real time.
+        assertTrue(simulation.getFrameCount() + " frames",
+                simulation.getFrameCount() > 500);
+        assertSame(Clock.SYSTEM, Clock.get());
+        // released, so it now follows the wall clock from where it stopped.
+        long stopped = clock.nanoTime();
+        Thread.sleep(20);
+        assertTrue(clock.nanoTime() - stopped >= 20_000_000L);
+    }
+
+    @Test
+    public void fasterSpeedRunsMoreFramesPerSecond() throws InterruptedException {
+        Simulation simulation = new Simulation(0, 0, 0);
+        simulation.setFrameRate(60);
+        simulation.setSpeed(4);
+
+        run(simulation);
+
+        assertEquals(4, simulation.getThroughput(), 0.8);
+    }
+
+    @Test
+    public void fallingFarBehindSkipsFrames() throws InterruptedException {
+        Simulation simulation = new Simulation(0, 0, 0);
+        simulation.setFrameRate(60);
+        AtomicBoolean stalled = new AtomicBoolean();
+        simulation.addObserver(s -> {
+            // well past the 250 ms the simulation tries to catch up on.
+            if (s.getFrameCount() > 5 && stalled.compareAndSet(false, true)) {
+                sleep(400);
+            }
+        });
+
+        run(simulation);
+
+        assertTrue(simulation.getOverrunCount() >= 1);
+        // 400 ms behind is about 24 frames, all skipped at once.
+        assertTrue(simulation.getSkippedFrameCount() + " skipped",
+                simulation.getSkippedFrameCount() >= 15);
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private static void run(Simulation simulation) throws InterruptedException {
+        run(simulation, simulation.startRunnable());
+    }
+
+    /**
+     * Runs the simulation in the background for {@link #RUN_TIME} ms, then
+     * stops it and waits for it to finish.
+     */
+    private static void run(Simulation simulation, Runnable runnable)
+            throws InterruptedException {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        // stopping before the runnable starts would be undone when it does.
+        while (!simulation.isRunning()) Thread.sleep(1);
+        Thread.sleep(RUN_TIME);
+        simulation.stop();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import java.util.Random;
+
+import com.klinker.droneos.utils.benchmark.Benchmark;
+import com.klinker.droneos.utils.math.Point;
+
+/**
+ * Measures the narrow phase for each pair of collision types, both through
+ * {@link CollisionObject#collide(CollisionObject)}, which allocates the
+ * point of each hit, and through
+ * {@link CollisionObject#collide(CollisionObject, Point)}, which writes it
+ * into a reused point and should allocate nothing. About half of the
+ * checks are hits.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.arch.simulation.map.CollisionBenchmark
+ * </pre>
+ */
+public class CollisionBenchmark {
+
+    /**
+     * The number of objects of each type, checked in turn.
+     */
+    private static final int COUNT = 1024;
+
+    private static final int ITERATIONS = 10000000;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        CollisionObject[] circles = new CollisionObject[COUNT];
+        CollisionObject[] lines = new CollisionObject[COUNT];
+        CollisionObject[] segments = new CollisionObject[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            circles[i] = new CircleCollision(point(random), 0.25 + random.nextDouble() / 2);
+            lines[i] = new LineCollision(point(random), point(random));
+            segments[i] = new LineSegmentCollision(point(random), point(random));
+        }
+
+        measure("circle-circle", circles, circles);
+        measure("circle-line", circles, lines);
+        measure("circle-segment", circles, segments);
+        measure("line-line", lines, lines);
+        measure("line-segment", lines, segments);
+        measure("segment-segment", segments, segments);
+    }
+
+    private static void measure(String name, CollisionObject[] first,
+                                CollisionObject[] second) {
+        Point result = new Point(0, 0);
+        Benchmark.Result reused = Benchmark.run(
+                name + " reused", ITERATIONS,
+                i -> first[i & (COUNT - 1)].collide(second[(i * 7 + 1) & (COUNT - 1)], result)
+        );
+        Benchmark.Result allocated = Benchmark.run(
+                name + " allocated", ITERATIONS,
+                i -> first[i & (COUNT - 1)].collide(second[(i * 7 + 1) & (COUNT - 1)])
+        );
+
+        int hits = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if (first[i].collide(second[(i * 7 + 1) & (COUNT - 1)], result)) hits++;
+        }
+        System.out.println(String.format(
+                "%-16s %5.1f ns %5.1f B/op (allocating %5.1f ns %5.1f B/op), %d%% hits",
+                name,
+                reused.getNanosPerOp(), reused.getBytesPerOp(),
+                allocated.getNanosPerOp(), allocated.getBytesPerOp(),
+                hits * 100 / COUNT
+        ));
+    }
+
+    private static Point point(Random random) {
+        return new Point(random.nextDouble() * 2, random.nextDouble() * 2);
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+
+import com.google.gson.JsonParser;
+import com.klinker.droneos.utils.benchmark.Benchmark;
+
+/**
+ * Writes courses of up to a million objects, then compares parsing them
+ * into a tree with {@link JsonParser}, streaming them into a
+ * {@link SimulationMap}, and loading them from the map cache.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.arch.simulation.map.SimulationMapBenchmark
+ * </pre>
+ */
+public class SimulationMapBenchmark {
+
+    /**
+     * The object counts measured.
+     */
+    private static final int[] COUNTS = {1000, 10000, 100000, 1000000};
+
+    public static void main(String[] args) throws IOException {
+        File dir = Files.createTempDirectory("maps").toFile();
+        String cacheDir = new File(dir, "cache").getPath();
+
+        for (int count : COUNTS) {
+            File file = new File(dir, "course-" + count + ".json");
+            writeCourse(file, count, new Random(count));
+            int iterations = Math.max(3, 100000 / count);
+
+            Benchmark.Result tree = Benchmark.run(
+                    "tree " + count, iterations,
+                    i -> {
+                        try (Reader reader = Files.newBufferedReader(file.toPath())) {
+                            return new JsonParser().parse(reader);
+                        }
+                    }
+            );
+            Benchmark.Result stream = Benchmark.run(
+                    "stream " + count, iterations,
+                    i -> SimulationMap.parse(file).getIndex()
+            );
+            SimulationMap.load(file.getPath(), cacheDir);
+            Benchmark.Result cached = Benchmark.run(
+                    "cached " + count, iterations,
+                    i -> SimulationMap.load(file.getPath(), cacheDir).getIndex()
+            );
+
+            System.out.println(String.format(
+                    "%7d objects (%.1f MB): tree %.1f ms, stream and index %.1f ms, "
+                            + "cached and index %.1f ms",
+                    count, file.length() / 1e6,
+                    tree.getNanosPerOp() / 1e6,
+                    stream.getNanosPerOp() / 1e6,
+                    cached.getNanosPerOp() / 1e6
+            ));
+        }
+    }
+
+    /**
+     * Writes a course of buoys and walls spread at random, with a waypoint
+     * every hundred objects.
+     */
+    private static void writeCourse(File file, int count, Random random)
+            throws IOException {
+        double side = Math.sqrt(count) * 2;
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("{\n  \"name\": \"benchmark\",\n  \"buoys\": [\n");
+            for (int i = 0; i < count / 2; i++) {
+                writer.write(String.format(
+                        Locale.US, "    { \"x\": %.6f, \"y\": %.6f, \"color\": \"#%06x\" }%s\n",
+                        random.nextDouble() * side, random.nextDouble() * side,
+                        random.nextInt(0x1000000), i < count / 2 - 1 ? "," : ""
+                ));
+            }
+            writer.write("  ],\n  \"walls\": [\n");
+            for (int i = 0; i < count - count / 2; i++) {
+                double x = random.nextDouble() * side;
+                double y = random.nextDouble() * side;
+                writer.write(String.format(
+                        Locale.US, "    { \"x1\": %.6f, \"y1\": %.6f, \"x2\": %.6f, \"y2\": %.6f }%s\n",
+                        x, y, x + random.nextDouble() * 2, y + random.nextDouble() * 2,
+                        i < count - count / 2 - 1 ? "," : ""
+                ));
+            }
+            writer.write("  ],\n  \"waypoints\": [\n");
+            for (int i = 0; i < count / 100; i++) {
+                writer.write(String.format(
+                        Locale.US, "    { \"x\": %.6f, \"y\": %.6f, \"radius\": 1 }%s\n",
+                        random.nextDouble() * side, random.nextDouble() * side,
+                        i < count / 100 - 1 ? "," : ""
+                ));
+            }
+            writer.write("  ]\n}\n");
+        }
+    }
+
+}
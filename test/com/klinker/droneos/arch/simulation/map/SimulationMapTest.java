@@ -0,0 +1,259 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import com.klinker.droneos.utils.Utils;
+import com.klinker.droneos.utils.math.LocalFrame;
+import com.klinker.droneos.utils.math.Point;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SimulationMapTest {
+
+    private static final String COURSE = "{\n"
+            + "  \"name\": \"test course\",\n"
+            + "  \"buoys\": [\n"
+            + "    { \"x\": -4, \"y\": 2, \"color\": \"#ff0000\" },\n"
+            + "    { \"x\": 4.5, \"y\": -2, \"color\": \"#00ff00\", \"extra\": [1, 2] }\n"
+            + "  ],\n"
+            + "  \"walls\": [{ \"x1\": -10, \"y1\": -10, \"x2\": 10, \"y2\": -10 }],\n"
+            + "  \"lines\": [{ \"x1\": 0, \"y1\": 20, \"x2\": 1, \"y2\": 20 }],\n"
+            + "  \"waypoints\": [\n"
+            + "    { \"x\": -4, \"y\": 0, \"radius\": 1 },\n"
+            + "    { \"x\": 0, \"y\": 0.5, \"radius\": 0.5 }\n"
+            + "  ]\n"
+            + "}\n";
+
+    private File mDirectory;
+
+    private File mCourse;
+
+    private File mCacheDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("map").toFile();
+        mCourse = new File(mDirectory, "course.json");
+        mCacheDirectory = new File(mDirectory, "cache");
+        write(mCourse, COURSE);
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    @Test
+    public void parsesEverySection() throws IOException {
+        SimulationMap map = SimulationMap.parse(new StringReader(COURSE));
+
+        checkCourse(map);
+    }
+
+    @Test
+    public void emptyMap() throws IOException {
+        SimulationMap map = SimulationMap.parse(new StringReader("{}"));
+
+        assertEquals(0, map.getObjects().size());
+        assertEquals(0, map.getWaypoints().size());
+    }
+
+    @Test(expected = IOException.class)
+    public void notAMap() throws IOException {
+        SimulationMap.parse(new StringReader("[1, 2, 3]"));
+    }
+
+    @Test(expected = IOException.class)
+    public void badNumber() throws IOException {
+        SimulationMap.parse(new StringReader("{ \"buoys\": [{ \"x\": \"left\" }] }"));
+    }
+
+    @Test
+    public void cacheRoundTrips() throws IOException {
+        SimulationMap parsed = SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+        SimulationMap cached = SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+
+        checkCourse(parsed);
+        checkCourse(cached);
+        assertEquals(1, mCacheDirectory.listFiles().length);
+    }
+
+    @Test
+    public void unchangedCourseIsReadFromCache() throws IOException {
+        SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+        File cache = getCache();
+        byte[] bytes = Files.readAllBytes(cache.toPath());
+        // the first buoy's color, after the header and its position.
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(6 * 4 + 2 * 8, 0x123456);
+        Files.write(cache.toPath(), bytes);
+
+        SimulationMap map = SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+
+        assertEquals(0x123456, map.getBuoys().get(0).getColor());
+    }
+
+    @Test
+    public void changedCourseIsParsedAgain() throws IOException {
+        SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+        write(mCourse, "{ \"buoys\": [{ \"x\": 1, \"y\": 1, \"color\": \"#0000ff\" }] }");
+
+        SimulationMap map = SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+
+        assertEquals(1, map.getBuoys().size());
+        assertEquals(0x0000ff, map.getBuoys().get(0).getColor());
+        assertEquals(2, mCacheDirectory.listFiles().length);
+    }
+
+    @Test
+    public void garbageCacheIsIgnored() throws IOException {
+        SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+        File cache = getCache();
+        Files.write(cache.toPath(), "not a cache".getBytes(StandardCharsets.UTF_8));
+
+        checkCourse(SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath()));
+        // and it was written again.
+        assertTrue(getCache().length() > "not a cache".length());
+        checkCourse(SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath()));
+    }
+
+    @Test
+    public void truncatedCacheIsIgnored() throws IOException {
+        SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+        File cache = getCache();
+        byte[] bytes = Files.readAllBytes(cache.toPath());
+        Files.write(cache.toPath(), Arrays.copyOf(bytes, bytes.length - 5));
+
+        checkCourse(SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath()));
+    }
+
+    @Test
+    public void cacheWithHugeCountIsIgnored() throws IOException {
+        SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath());
+        File cache = getCache();
+        byte[] bytes = Files.readAllBytes(cache.toPath());
+        // the buoy count, after the magic number and version.
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(8, Integer.MAX_VALUE);
+        Files.write(cache.toPath(), bytes);
+
+        checkCourse(SimulationMap.load(mCourse.getPath(), mCacheDirectory.getPath()));
+    }
+
+    @Test
+    public void loadsWithoutCache() throws IOException {
+        checkCourse(SimulationMap.load(mCourse.getPath(), null));
+
+        assertTrue(!mCacheDirectory.exists());
+    }
+
+    @Test
+    public void gpsWaypointsAreMovedIntoMeters() throws IOException {
+        SimulationMap map = SimulationMap.parse(new StringReader("{\n"
+                + "  \"waypoints\": [{ \"x\": 1, \"y\": 2, \"radius\": 1 }],\n"
+                + "  \"gps_waypoints\": [\n"
+                + "    { \"longitude\": -86.2, \"latitude\": 41.7, \"radius\": 2 },\n"
+                + "    { \"longitude\": -86.199, \"latitude\": 41.701, \"radius\": 3 }\n"
+                + "  ],\n"
+                + "  \"origin\": { \"longitude\": -86.2, \"latitude\": 41.7 }\n"
+                + "}"));
+
+        assertEquals(3, map.getWaypoints().size());
+        assertEquals(1, map.getWaypoints().get(0).x, 0);
+        Waypoint origin = map.getWaypoints().get(1);
+        assertEquals(0, origin.x, 0);
+        assertEquals(0, origin.y, 0);
+        assertEquals(2, origin.getRadius(), 0);
+        Waypoint waypoint = map.getWaypoints().get(2);
+        LocalFrame frame = new LocalFrame(-86.2, 41.7);
+        assertEquals(frame.getEast(new Point(-86.199, 41.701)), waypoint.x, 1e-9);
+        assertEquals(frame.getNorth(new Point(-86.199, 41.701)), waypoint.y, 1e-9);
+        assertEquals(3, waypoint.getRadius(), 0);
+        // about 83 m east and 111 m north, as far as the haversine says.
+        double distance = Utils.distanceConversion(
+                new Point(-86.2, 41.7), new Point(-86.199, 41.701)
+        );
+        assertEquals(distance, Math.hypot(waypoint.x, waypoint.y), distance * 1e-4);
+    }
+
+    @Test(expected = IOException.class)
+    public void gpsWaypointsNeedAnOrigin() throws IOException {
+        SimulationMap.parse(new StringReader(
+                "{ \"gps_waypoints\": [{ \"longitude\": 1, \"latitude\": 2 }] }"
+        ));
+    }
+
+    @Test
+    public void indexHoldsEveryObject() throws IOException {
+        SimulationMap map = SimulationMap.parse(new StringReader(COURSE));
+
+        assertEquals(4, map.getIndex().getObjectCount());
+        map.addBuoy(new BuoyCollision(0, 0, 0));
+        assertEquals(5, map.getIndex().getObjectCount());
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Checks a map holds exactly what {@link #COURSE} describes.
+     */
+    private static void checkCourse(SimulationMap map) {
+        assertEquals(2, map.getBuoys().size());
+        BuoyCollision buoy = map.getBuoys().get(1);
+        assertEquals(4.5, buoy.c.x, 0);
+        assertEquals(-2, buoy.c.y, 0);
+        assertEquals(BuoyCollision.RADIUS, buoy.r, 0);
+        assertEquals(0x00ff00, buoy.getColor());
+        assertEquals(0xff0000, map.getBuoys().get(0).getColor());
+
+        assertEquals(1, map.getWalls().size());
+        LineSegmentCollision wall = map.getWalls().get(0);
+        assertEquals(-10, wall.p1.x, 0);
+        assertEquals(-10, wall.p1.y, 0);
+        assertEquals(10, wall.p2.x, 0);
+        assertEquals(-10, wall.p2.y, 0);
+
+        assertEquals(1, map.getLines().size());
+        assertEquals(20, map.getLines().get(0).p1.y, 0);
+        assertEquals(4, map.getObjects().size());
+
+        assertEquals(2, map.getWaypoints().size());
+        Waypoint waypoint = map.getWaypoints().get(1);
+        assertEquals(0, waypoint.x, 0);
+        assertEquals(0.5, waypoint.y, 0);
+        assertEquals(0.5, waypoint.getRadius(), 0);
+    }
+
+    private File getCache() {
+        File[] files = mCacheDirectory.listFiles();
+        assertEquals(1, files.length);
+        assertTrue(files[0].getName().endsWith(".map"));
+        return files[0];
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
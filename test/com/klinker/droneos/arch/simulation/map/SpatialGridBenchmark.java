@@ -0,0 +1,185 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.klinker.droneos.utils.benchmark.Benchmark;
+import com.klinker.droneos.utils.math.Point;
+
+/**
+ * Checks that a {@link SpatialGrid} finds exactly the same overlapping
+ * pairs as checking every object against every other one, then compares
+ * the two for maps of buoys and walls, both for checking the drone each
+ * frame and for finding every pair.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.arch.simulation.map.SpatialGridBenchmark
+ * </pre>
+ */
+public class SpatialGridBenchmark {
+
+    /**
+     * The object counts measured.
+     */
+    private static final int[] COUNTS = {100, 1000, 10000, 100000};
+
+    /**
+     * The most objects the pairs of are found by brute force.
+     */
+    private static final int MAX_BRUTE_FORCE_PAIRS = 10000;
+
+    /**
+     * The space [m^2] of map for each object.
+     */
+    private static final double AREA_PER_OBJECT = 4;
+
+    public static void main(String[] args) {
+        List<CollisionObject> check = createMap(2000, new Random(0));
+        System.out.println("Same pairs as brute force: "
+                + pairs(SpatialGrid.build(check)).equals(bruteForcePairs(check)));
+
+        for (int count : COUNTS) {
+            List<CollisionObject> objects = createMap(count, new Random(count));
+            CollisionObject[] array = objects.toArray(new CollisionObject[0]);
+            SpatialGrid grid = SpatialGrid.build(objects);
+            Benchmark.Result build = Benchmark.run(
+                    "build " + count, Math.max(5, 1000000 / count),
+                    i -> SpatialGrid.build(objects)
+            );
+
+            // a drone sized box moving around the map.
+            Random random = new Random(1);
+            double side = Math.sqrt(count * AREA_PER_OBJECT);
+            double radius = DroneCollision.WIDTH;
+            int[] sink = new int[1];
+            SpatialGrid.OnCandidateListener listener = candidate -> sink[0]++;
+            Benchmark.Result gridQuery = Benchmark.run(
+                    "grid query " + count, 200000, i -> {
+                        double x = random.nextDouble() * side;
+                        double y = random.nextDouble() * side;
+                        return grid.query(x - radius, y - radius, x + radius, y + radius, listener);
+                    }
+            );
+            Benchmark.Result bruteQuery = Benchmark.run(
+                    "brute force query " + count, Math.max(100, 20000000 / count), i -> {
+                        double x = random.nextDouble() * side;
+                        double y = random.nextDouble() * side;
+                        return bruteForceQuery(array, x - radius, y - radius, x + radius, y + radius);
+                    }
+            );
+            Benchmark.Result gridPairs = Benchmark.run(
+                    "grid pairs " + count, Math.max(5, 1000000 / count),
+                    i -> grid.queryPairs((first, second) -> sink[0]++)
+            );
+
+            String brutePairs = "-";
+            if (count <= MAX_BRUTE_FORCE_PAIRS) {
+                Benchmark.Result result = Benchmark.run(
+                        "brute force pairs " + count, Math.max(2, 1000000 / count / count * 100),
+                        i -> bruteForcePairCount(array)
+                );
+                brutePairs = String.format("%.3f ms", result.getNanosPerOp() / 1e6);
+            }
+
+            System.out.println(String.format(
+                    "%6d objects: build %.3f ms, drone query %.2f us (brute force %.2f us), "
+                            + "all pairs %.3f ms (brute force %s)",
+                    count,
+                    build.getNanosPerOp() / 1e6,
+                    gridQuery.getNanosPerOp() / 1e3,
+                    bruteQuery.getNanosPerOp() / 1e3,
+                    gridPairs.getNanosPerOp() / 1e6,
+                    brutePairs
+            ));
+        }
+    }
+
+    /**
+     * Creates a map of buoys and short walls scattered at random, with a few
+     * long walls and one infinite line.
+     */
+    private static List<CollisionObject> createMap(int count, Random random) {
+        double side = Math.sqrt(count * AREA_PER_OBJECT);
+        List<CollisionObject> objects = new ArrayList<>();
+        objects.add(new LineCollision(
+                new Point(0, 0),
+                new Point(side, side)
+        ));
+        for (int i = 1; i < count; i++) {
+            double x = random.nextDouble() * side;
+            double y = random.nextDouble() * side;
+            if (i % 2 == 0) {
+                objects.add(new BuoyCollision(x, y, "#ff0000"));
+            } else {
+                double length = i % 100 == 1 ? side / 4 : random.nextDouble() * 2;
+                double angle = random.nextDouble() * Math.PI * 2;
+                objects.add(new LineSegmentCollision(
+                        new Point(x, y),
+                        new Point(
+                                x + length * Math.cos(angle),
+                                y + length * Math.sin(angle)
+                        )
+                ));
+            }
+        }
+        return objects;
+    }
+
+    private static Set<String> pairs(SpatialGrid grid) {
+        Set<String> pairs = new HashSet<>();
+        grid.queryPairs((first, second) -> {
+            if (!pairs.add(key(first, second))) {
+                System.out.println("Pair given twice: " + first + ", " + second);
+            }
+        });
+        return pairs;
+    }
+
+    private static Set<String> bruteForcePairs(List<CollisionObject> objects) {
+        Set<String> pairs = new HashSet<>();
+        for (int i = 0; i < objects.size(); i++) {
+            for (int j = i + 1; j < objects.size(); j++) {
+                if (overlaps(objects.get(i), objects.get(j))) {
+                    pairs.add(key(objects.get(i), objects.get(j)));
+                }
+            }
+        }
+        return pairs;
+    }
+
+    private static int bruteForcePairCount(CollisionObject[] objects) {
+        int count = 0;
+        for (int i = 0; i < objects.length; i++) {
+            for (int j = i + 1; j < objects.length; j++) {
+                if (overlaps(objects[i], objects[j])) count++;
+            }
+        }
+        return count;
+    }
+
+    private static int bruteForceQuery(CollisionObject[] objects, double minX,
+                                       double minY, double maxX, double maxY) {
+        int count = 0;
+        for (CollisionObject object : objects) {
+            if (object.getMaxX() >= minX && object.getMinX() <= maxX
+                    && object.getMaxY() >= minY && object.getMinY() <= maxY) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean overlaps(CollisionObject a, CollisionObject b) {
+        return a.getMaxX() >= b.getMinX() && a.getMinX() <= b.getMaxX()
+                && a.getMaxY() >= b.getMinY() && a.getMinY() <= b.getMaxY();
+    }
+
+    private static String key(CollisionObject a, CollisionObject b) {
+        int first = System.identityHashCode(a);
+        int second = System.identityHashCode(b);
+        return Math.min(first, second) + ":" + Math.max(first, second);
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import com.klinker.droneos.utils.math.Point;
+
+import org.junit.Test;
+
+public class SpatialGridTest {
+
+    /**
+     * The width [m] of the square the random maps are spread over.
+     */
+    private static final double SIDE = 100;
+
+    @Test
+    public void queryMatchesBruteForce() {
+        for (int seed = 0; seed < 5; seed++) {
+            Random random = new Random(seed);
+            List<CollisionObject> objects = createMap(500, random);
+            checkQueries(SpatialGrid.build(objects), objects, random);
+        }
+    }
+
+    @Test
+    public void queryMatchesBruteForceWithAnyCellSize() {
+        Random random = new Random(42);
+        List<CollisionObject> objects = createMap(300, random);
+        for (double cellSize : new double[]{0.01, 0.5, 3, 40, 1000}) {
+            checkQueries(SpatialGrid.build(objects, cellSize), objects, random);
+        }
+    }
+
+    @Test
+    public void pairsMatchBruteForce() {
+        for (int seed = 0; seed < 5; seed++) {
+            List<CollisionObject> objects = createMap(400, new Random(seed));
+            checkPairs(SpatialGrid.build(objects), objects);
+        }
+    }
+
+    @Test
+    public void pairsMatchBruteForceWithAnyCellSize() {
+        List<CollisionObject> objects = createMap(300, new Random(7));
+        for (double cellSize : new double[]{0.01, 0.5, 3, 40, 1000}) {
+            checkPairs(SpatialGrid.build(objects, cellSize), objects);
+        }
+    }
+
+    @Test
+    public void queryOutsideTheMapOnlyFindsUnbounded() {
+        List<CollisionObject> objects = createMap(50, new Random(3));
+        SpatialGrid grid = SpatialGrid.build(objects);
+        List<CollisionObject> found = new ArrayList<>();
+
+        grid.query(SIDE * 10, SIDE * 10, SIDE * 11, SIDE * 11, found::add);
+
+        assertEquals(1, found.size());
+        assertEquals(LineCollision.class, found.get(0).getClass());
+    }
+
+    @Test
+    public void touchingBoxesAreCandidates() {
+        List<CollisionObject> objects = new ArrayList<>();
+        objects.add(new BuoyCollision(0, 0, 0));
+        objects.add(new BuoyCollision(2 * BuoyCollision.RADIUS, 0, 0));
+        SpatialGrid grid = SpatialGrid.build(objects);
+        List<CollisionObject> found = new ArrayList<>();
+
+        grid.query(BuoyCollision.RADIUS, -1, BuoyCollision.RADIUS, 1, found::add);
+
+        assertEquals(2, found.size());
+        assertEquals(1, grid.queryPairs((first, second) -> { }));
+    }
+
+    @Test
+    public void emptyGrid() {
+        SpatialGrid grid = SpatialGrid.build(new ArrayList<CollisionObject>());
+
+        assertEquals(0, grid.query(0, 0, 1, 1, candidate -> { }));
+        assertEquals(0, grid.queryPairs((first, second) -> { }));
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private static void checkQueries(SpatialGrid grid, List<CollisionObject> objects,
+                                     Random random) {
+        for (int i = 0; i < 200; i++) {
+            double x = random.nextDouble() * SIDE * 1.2 - SIDE * 0.1;
+            double y = random.nextDouble() * SIDE * 1.2 - SIDE * 0.1;
+            double size = random.nextDouble() * SIDE / 5;
+            Set<CollisionObject> expected = new HashSet<>();
+            for (CollisionObject object : objects) {
+                if (!object.isBounded() || overlaps(object, x, y, x + size, y + size)) {
+                    expected.add(object);
+                }
+            }
+
+            Set<CollisionObject> found = new HashSet<>();
+            int count = grid.query(x, y, x + size, y + size, found::add);
+
+            assertEquals(expected, found);
+            assertEquals("a candidate was given more than once", found.size(), count);
+        }
+    }
+
+    private static void checkPairs(SpatialGrid grid, List<CollisionObject> objects) {
+        Set<Set<CollisionObject>> expected = new HashSet<>();
+        for (int i = 0; i < objects.size(); i++) {
+            for (int j = i + 1; j < objects.size(); j++) {
+                CollisionObject a = objects.get(i), b = objects.get(j);
+                if (!a.isBounded() || !b.isBounded() || overlaps(
+                        a, b.getMinX(), b.getMinY(), b.getMaxX(), b.getMaxY())) {
+                    expected.add(pair(a, b));
+                }
+            }
+        }
+
+        Set<Set<CollisionObject>> found = new HashSet<>();
+        int count = grid.queryPairs((first, second) -> found.add(pair(first, second)));
+
+        assertEquals(expected, found);
+        assertEquals("a pair was given more than once", found.size(), count);
+    }
+
+    private static boolean overlaps(CollisionObject object, double minX, double minY,
+                                    double maxX, double maxY) {
+        return object.getMaxX() >= minX && object.getMinX() <= maxX
+                && object.getMaxY() >= minY && object.getMinY() <= maxY;
+    }
+
+    private static Set<CollisionObject> pair(CollisionObject a, CollisionObject b) {
+        Set<CollisionObject> pair = new HashSet<>();
+        pair.add(a);
+        pair.add(b);
+        return pair;
+    }
+
+    /**
+     * Buoys and short walls scattered at random, with a few long walls and
+     * one infinite line.
+     */
+    private static List<CollisionObject> createMap(int count, Random random) {
+        List<CollisionObject> objects = new ArrayList<>();
+        objects.add(new LineCollision(new Point(0, 0), new Point(SIDE, SIDE)));
+        for (int i = 1; i < count; i++) {
+            double x = random.nextDouble() * SIDE;
+            double y = random.nextDouble() * SIDE;
+            if (i % 2 == 0) {
+                objects.add(new BuoyCollision(x, y, 0xff0000));
+            } else {
+                double length = i % 50 == 1 ? SIDE / 3 : random.nextDouble() * 3;
+                double angle = random.nextDouble() * Math.PI * 2;
+                objects.add(new LineSegmentCollision(
+                        new Point(x, y),
+                        new Point(x + length * Math.cos(angle), y + length * Math.sin(angle))
+                ));
+            }
+        }
+        return objects;
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.klinker.droneos.arch.simulation.map;
+
+import static org.junit.Assert.assertEquals;
+
+import com.klinker.droneos.utils.math.Point;
+
+import org.junit.Test;
+
+/**
+ * Sweeps a circle the size of the drone, from the origin, against each kind
+ * of object, and checks the fraction of the move it first touches them at
+ * against values worked out by hand.
+ */
+public class TimeOfImpactTest {
+
+    private static final double R = 0.25;
+
+    private static final double DELTA = 1e-9;
+
+
+    ///// Circles //////////////////////////////////////////////////////////////
+
+    @Test
+    public void circleHeadOn() {
+        CircleCollision buoy = new CircleCollision(new Point(5, 0), 0.25);
+
+        // touches once the centers are 0.5 apart, at x = 4.5.
+        assertEquals(0.45, buoy.timeOfImpact(0, 0, R, 10, 0), DELTA);
+    }
+
+    @Test
+    public void circleOffCenter() {
+        CircleCollision buoy = new CircleCollision(new Point(5, 0.3), 0.25);
+
+        // (x - 5)^2 + 0.3^2 = 0.5^2, so x = 4.6.
+        assertEquals(0.46, buoy.timeOfImpact(0, 0, R, 10, 0), DELTA);
+    }
+
+    @Test
+    public void circleMissed() {
+        CircleCollision buoy = new CircleCollision(new Point(5, 0.6), 0.25);
+
+        assertEquals(CollisionObject.NO_IMPACT, buoy.timeOfImpact(0, 0, R, 10, 0), 0);
+    }
+
+    @Test
+    public void circleOutOfReach() {
+        CircleCollision buoy = new CircleCollision(new Point(5, 0), 0.25);
+
+        assertEquals(CollisionObject.NO_IMPACT, buoy.timeOfImpact(0, 0, R, 4, 0), 0);
+        assertEquals(CollisionObject.NO_IMPACT, buoy.timeOfImpact(0, 0, R, -10, 0), 0);
+    }
+
+    @Test
+    public void circleAlreadyTouching() {
+        CircleCollision buoy = new CircleCollision(new Point(0.4, 0), 0.25);
+
+        assertEquals(0, buoy.timeOfImpact(0, 0, R, 1, 0), 0);
+        // moving away, so it can always get free.
+        assertEquals(CollisionObject.NO_IMPACT, buoy.timeOfImpact(0, 0, R, -1, 0), 0);
+    }
+
+    @Test
+    public void circleStandingStill() {
+        CircleCollision buoy = new CircleCollision(new Point(5, 0), 0.25);
+
+        assertEquals(CollisionObject.NO_IMPACT, buoy.timeOfImpact(0, 0, R, 0, 0), 0);
+    }
+
+
+    ///// Segments /////////////////////////////////////////////////////////////
+
+    @Test
+    public void segmentBody() {
+        LineSegmentCollision wall = new LineSegmentCollision(new Point(5, -1), new Point(5, 1));
+
+        // the edge of the circle reaches x = 5 when its center is at 4.75.
+        assertEquals(0.475, wall.timeOfImpact(0, 0, R, 10, 0), DELTA);
+    }
+
+    @Test
+    public void segmentCap() {
+        LineSegmentCollision wall = new LineSegmentCollision(new Point(5, 0.2), new Point(5, 2));
+
+        // passes below the body, and touches the end at (5, 0.2) when
+        // (x - 5)^2 + 0.2^2 = 0.25^2, so x = 4.85.
+        assertEquals(0.485, wall.timeOfImpact(0, 0, R, 10, 0), DELTA);
+    }
+
+    @Test
+    public void segmentEndOn() {
+        LineSegmentCollision wall = new LineSegmentCollision(new Point(4, 0), new Point(8, 0));
+
+        // moving along the wall, so only its near end can be touched.
+        assertEquals(0.375, wall.timeOfImpact(0, 0, R, 10, 0), DELTA);
+    }
+
+    @Test
+    public void segmentPassedBeside() {
+        LineSegmentCollision wall = new LineSegmentCollision(new Point(5, 0.3), new Point(5, 2));
+
+        assertEquals(CollisionObject.NO_IMPACT, wall.timeOfImpact(0, 0, R, 10, 0), 0);
+    }
+
+    @Test
+    public void segmentFastMoveCannotTunnel() {
+        LineSegmentCollision wall = new LineSegmentCollision(new Point(5, -1), new Point(5, 1));
+
+        // a move far longer than the wall is thick still stops at it.
+        assertEquals(4.75 / 1000, wall.timeOfImpact(0, 0, R, 1000, 0), DELTA);
+    }
+
+    @Test
+    public void segmentAlreadyTouching() {
+        LineSegmentCollision wall = new LineSegmentCollision(new Point(0.2, -1), new Point(0.2, 1));
+
+        assertEquals(0, wall.timeOfImpact(0, 0, R, 1, 0), 0);
+        assertEquals(CollisionObject.NO_IMPACT, wall.timeOfImpact(0, 0, R, -1, 0), 0);
+    }
+
+    @Test
+    public void segmentDiagonalMove() {
+        LineSegmentCollision wall = new LineSegmentCollision(new Point(5, -10), new Point(5, 10));
+
+        // only the move across the wall matters.
+        assertEquals(0.475, wall.timeOfImpact(0, 0, R, 10, 7), DELTA);
+    }
+
+
+    ///// Lines ////////////////////////////////////////////////////////////////
+
+    @Test
+    public void lineGoesOnForever() {
+        LineCollision line = new LineCollision(new Point(5, 100), new Point(5, 101));
+
+        assertEquals(0.475, line.timeOfImpact(0, 0, R, 10, 0), DELTA);
+    }
+
+    @Test
+    public void lineParallelMove() {
+        LineCollision line = new LineCollision(new Point(0, 1), new Point(1, 1));
+
+        assertEquals(CollisionObject.NO_IMPACT, line.timeOfImpact(0, 0, R, 10, 0), 0);
+    }
+
+    @Test
+    public void lineFromTheOtherSide() {
+        LineCollision line = new LineCollision(new Point(-5, 0), new Point(-5, 1));
+
+        assertEquals(0.475, line.timeOfImpact(0, 0, R, -10, 0), DELTA);
+    }
+
+}
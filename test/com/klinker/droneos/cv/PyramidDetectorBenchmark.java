@@ -0,0 +1,274 @@
+package com.klinker.droneos.cv;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.klinker.droneos.hardware.Camera;
+import com.klinker.droneos.utils.benchmark.Benchmark;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Compares searching recorded frames for the landing pad whole, the way
+ * {@link CVUtils#findChessboard(Mat)} does, with the default
+ * {@link PyramidDetector}, one searching only its smallest level, one
+ * searching every level on every miss, and a {@link ChessboardTracker}
+ * using the default. For each, the time per
+ * frame, the share of frames the chessboard is found in, and how far
+ * [px] its corners are from the ones found searching whole frames are
+ * printed, along with the time per frame for frames of only background,
+ * where the chessboard is missed.
+ * <p>
+ * The frames are read from a video, or a directory of images in name order,
+ * given as the only argument. Without one, an approach to the landing pad
+ * is drawn, from too far away to see it at full size to filling the frame.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.cv.PyramidDetectorBenchmark -PappArgs="['frames']"
+ * </pre>
+ */
+public class PyramidDetectorBenchmark {
+
+    /**
+     * The number of frames drawn when none are given.
+     */
+    private static final int DRAWN_FRAMES = 120;
+
+    /**
+     * The number of frames of only background searched to time misses.
+     */
+    private static final int EMPTY_FRAMES = 30;
+
+    /**
+     * The grey [0-255] of the background the chessboard is drawn on.
+     */
+    private static final int BACKGROUND = 110;
+
+    private static final Size DRAWN_SIZE = new Size(1280, 720);
+
+    /**
+     * The side [px] of a square of the drawn chessboard before it is scaled.
+     */
+    private static final int SQUARE = 40;
+
+    private interface Detector {
+        boolean find(Mat grey, MatOfPoint2f corners);
+    }
+
+    public static void main(String[] args) throws ClassNotFoundException {
+        // loads the OpenCV natives.
+        Class.forName(Camera.class.getName());
+
+        List<Mat> frames = args.length > 0 ? read(new File(args[0])) : draw();
+        if (frames.isEmpty()) {
+            System.out.println("No frames to search");
+            return;
+        }
+        System.out.println(String.format(
+                "%d frames of %dx%d", frames.size(),
+                frames.get(0).cols(), frames.get(0).rows()
+        ));
+
+        // the corners found searching whole frames, to measure the others by.
+        List<MatOfPoint2f> expected = new ArrayList<>();
+        for (Mat frame : frames) {
+            MatOfPoint2f corners = new MatOfPoint2f();
+            expected.add(CVUtils.findChessboardCorners(frame, corners) ? corners : null);
+        }
+
+        List<Mat> empty = drawEmpty(frames.get(0).size());
+
+        PyramidDetector pyramid = new PyramidDetector();
+        PyramidDetector coarse = new PyramidDetector(PyramidDetector.DEFAULT_LEVELS, 0);
+        PyramidDetector finer = new PyramidDetector(PyramidDetector.DEFAULT_LEVELS, 1);
+        ChessboardTracker tracker = new ChessboardTracker();
+        measure("whole", frames, empty, expected, CVUtils::findChessboardCorners);
+        measure("pyramid", frames, empty, expected, pyramid::find);
+        measure("coarse", frames, empty, expected, coarse::find);
+        measure("finer", frames, empty, expected, finer::find);
+        measure("tracked", frames, empty, expected, tracker::find);
+        System.out.println(pyramid);
+        System.out.println(coarse);
+        System.out.println(finer);
+        System.out.println(tracker);
+        pyramid.release();
+        coarse.release();
+        finer.release();
+        tracker.release();
+        for (Mat frame : empty) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Runs a detector over every frame, in order, then times it doing so
+     * again, and doing so over the empty frames, and prints how it did.
+     */
+    private static void measure(String name, List<Mat> frames, List<Mat> empty,
+                                List<MatOfPoint2f> expected, Detector detector) {
+        MatOfPoint2f corners = new MatOfPoint2f();
+        int found = 0;
+        int compared = 0;
+        double error = 0;
+        for (int i = 0; i < frames.size(); i++) {
+            if (!detector.find(frames.get(i), corners)) continue;
+            found++;
+            if (expected.get(i) != null) {
+                error += getError(corners, expected.get(i));
+                compared++;
+            }
+        }
+
+        Benchmark.Result result = Benchmark.run(
+                name, frames.size() * 3,
+                i -> detector.find(frames.get(i % frames.size()), corners)
+        );
+        Benchmark.Result missResult = Benchmark.run(
+                name + " miss", empty.size() * 3,
+                i -> detector.find(empty.get(i % empty.size()), corners)
+        );
+        System.out.println(String.format(
+                "%-8s %7.2f ms/frame, found in %5.1f%% of frames, "
+                        + "%.2f px from whole frame corners, %7.2f ms/frame missed",
+                name, result.getNanosPerOp() / 1e6,
+                found * 100.0 / frames.size(),
+                compared == 0 ? 0 : error / compared,
+                missResult.getNanosPerOp() / 1e6
+        ));
+        corners.release();
+    }
+
+    /**
+     * @return The average distance from each corner to the nearest expected
+     * corner, so the order they were found in doesn't matter.
+     */
+    private static double getError(MatOfPoint2f corners, MatOfPoint2f expected) {
+        Point[] expectedPoints = expected.toArray();
+        double total = 0;
+        Point[] points = corners.toArray();
+        for (Point p : points) {
+            double nearest = Double.MAX_VALUE;
+            for (Point e : expectedPoints) {
+                double dx = p.x - e.x, dy = p.y - e.y;
+                nearest = Math.min(nearest, dx * dx + dy * dy);
+            }
+            total += Math.sqrt(nearest);
+        }
+        return total / points.length;
+    }
+
+    /**
+     * Reads greyscale frames from a video, or every image in a directory.
+     */
+    private static List<Mat> read(File source) {
+        List<Mat> frames = new ArrayList<>();
+        if (source.isDirectory()) {
+            File[] files = source.listFiles();
+            if (files == null) return frames;
+            Arrays.sort(files);
+            for (File file : files) {
+                Mat frame = Imgcodecs.imread(file.getPath(), Imgcodecs.IMREAD_GRAYSCALE);
+                if (frame.empty()) frame.release();
+                else frames.add(frame);
+            }
+            return frames;
+        }
+
+        VideoCapture capture = new VideoCapture(source.getPath());
+        Mat image = new Mat();
+        while (capture.read(image) && !image.empty()) {
+            Mat frame = new Mat();
+            CVUtils.toGreyscale(image, frame);
+            frames.add(frame);
+        }
+        image.release();
+        capture.release();
+        return frames;
+    }
+
+    /**
+     * Draws the landing pad drifting and turning across the frame as it is
+     * flown toward, with blur and noise like a camera's.
+     */
+    private static List<Mat> draw() {
+        int across = (int) CVUtils.CHESSBOARD_SIZE.width + 1;
+        int down = (int) CVUtils.CHESSBOARD_SIZE.height + 1;
+        Mat board = new Mat(
+                (down + 2) * SQUARE, (across + 2) * SQUARE, CvType.CV_8UC1, new Scalar(255)
+        );
+        for (int row = 0; row < down; row++) {
+            for (int col = (row % 2); col < across; col += 2) {
+                Imgproc.rectangle(
+                        board,
+                        new Point((col + 1) * SQUARE, (row + 1) * SQUARE),
+                        new Point((col + 2) * SQUARE - 1, (row + 2) * SQUARE - 1),
+                        new Scalar(0), -1
+                );
+            }
+        }
+
+        List<Mat> frames = new ArrayList<>();
+        Mat noise = new Mat(DRAWN_SIZE, CvType.CV_8UC1);
+        Point boardCenter = new Point(board.cols() / 2.0, board.rows() / 2.0);
+        for (int i = 0; i < DRAWN_FRAMES; i++) {
+            double t = i / (DRAWN_FRAMES - 1.0);
+            // from a board 1/5 of its drawn size to 2 1/2 times it.
+            double scale = 0.2 * Math.pow(12.5, t);
+            Mat transform = Imgproc.getRotationMatrix2D(boardCenter, 30 * t, scale);
+            double x = DRAWN_SIZE.width * (0.5 + 0.25 * Math.sin(t * 5));
+            double y = DRAWN_SIZE.height * (0.5 + 0.2 * Math.cos(t * 3));
+            transform.put(0, 2, transform.get(0, 2)[0] + x - boardCenter.x);
+            transform.put(1, 2, transform.get(1, 2)[0] + y - boardCenter.y);
+
+            Mat frame = new Mat();
+            Imgproc.warpAffine(
+                    board, frame, transform, DRAWN_SIZE, Imgproc.INTER_LINEAR,
+                    Core.BORDER_CONSTANT, new Scalar(BACKGROUND)
+            );
+            addCameraNoise(frame, noise);
+            frames.add(frame);
+            transform.release();
+        }
+        noise.release();
+        board.release();
+        return frames;
+    }
+
+    /**
+     * Draws frames of only the background, with noise like a camera's, so
+     * the chessboard is never found in them.
+     */
+    private static List<Mat> drawEmpty(Size size) {
+        List<Mat> frames = new ArrayList<>();
+        Mat noise = new Mat(size, CvType.CV_8UC1);
+        for (int i = 0; i < EMPTY_FRAMES; i++) {
+            Mat frame = new Mat(size, CvType.CV_8UC1, new Scalar(BACKGROUND));
+            addCameraNoise(frame, noise);
+            frames.add(frame);
+        }
+        noise.release();
+        return frames;
+    }
+
+    /**
+     * Blurs a frame and adds noise to it, in place.
+     *
+     * @param noise Scratch of the frame's size, written over.
+     */
+    private static void addCameraNoise(Mat frame, Mat noise) {
+        Imgproc.GaussianBlur(frame, frame, new Size(5, 5), 1);
+        Core.randn(noise, 128, 6);
+        Core.addWeighted(frame, 1, noise, 1, -128, frame);
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.klinker.droneos.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogTest {
+
+    private static final String TAG = "logtest";
+
+    private PrintStream mConsole;
+
+    private ByteArrayOutputStream mOutput;
+
+    @Before
+    public void setUp() {
+        Log.setColored(false);
+        Log.setLevel(TAG, Log.Level.VERBOSE);
+        drain();
+        mConsole = System.out;
+        mOutput = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(mOutput, true));
+    }
+
+    @After
+    public void tearDown() {
+        drain();
+        System.setOut(mConsole);
+    }
+
+    @Test
+    public void everyMessageIsWrittenOnceInOrder() throws InterruptedException {
+        // fits in the ring buffer, so nothing can be dropped.
+        int threads = 8;
+        int perThread = Log.BUFFER_SIZE / threads / 2;
+        long written = Log.getWrittenCount();
+        long dropped = Log.getDroppedCount();
+
+        logFromThreads(threads, perThread);
+        drain();
+
+        assertEquals(dropped, Log.getDroppedCount());
+        assertEquals(threads * perThread, Log.getWrittenCount() - written);
+        int[] counts = checkOrder(threads);
+        for (int count : counts) {
+            assertEquals(perThread, count);
+        }
+    }
+
+    @Test
+    public void fullBufferDropsWithoutLosingOrder() throws InterruptedException {
+        int threads = 8;
+        int perThread = Log.BUFFER_SIZE;
+        long written = Log.getWrittenCount();
+        long dropped = Log.getDroppedCount();
+
+        logFromThreads(threads, perThread);
+        drain();
+
+        long writtenNow = Log.getWrittenCount() - written;
+        long droppedNow = Log.getDroppedCount() - dropped;
+        assertEquals(threads * perThread, writtenNow + droppedNow);
+        int[] counts = checkOrder(threads);
+        long lines = 0;
+        for (int count : counts) {
+            lines += count;
+        }
+        assertEquals(writtenNow, lines);
+    }
+
+    @Test
+    public void lazyMessageIsOnlyBuiltWhenLogged() {
+        AtomicBoolean isBuilt = new AtomicBoolean();
+        Log.setLevel(TAG, Log.Level.WARNING);
+
+        Log.d(TAG, () -> {
+            isBuilt.set(true);
+            return "hidden";
+        });
+        drain();
+
+        assertFalse(Log.isLoggable(TAG, Log.Level.DEBUG));
+        assertTrue(Log.isLoggable(TAG, Log.Level.ERROR));
+        assertFalse(isBuilt.get());
+        assertFalse(getOutput().contains("hidden"));
+
+        Log.w(TAG, () -> "shown");
+        drain();
+        assertTrue(getOutput().contains(TAG + "_w: shown"));
+    }
+
+    @Test
+    public void uncoloredOutputHasNoEscapes() {
+        Log.e(TAG, "plain", new IllegalStateException("broken"));
+        drain();
+
+        String output = getOutput();
+        assertTrue(output.contains(TAG + "_e: plain"));
+        assertTrue(output.contains("IllegalStateException: broken"));
+        assertFalse(output.contains("\u001B["));
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Logs "[thread] [i]" perThread times from each thread, all starting at
+     * once.
+     */
+    private static void logFromThreads(int threads, int perThread)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] loggers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            loggers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    Log.d(TAG, thread + " " + i);
+                }
+            });
+            loggers[t].start();
+        }
+        start.countDown();
+        for (Thread logger : loggers) {
+            logger.join();
+        }
+    }
+
+    /**
+     * Checks that each thread's messages were written in the order they
+     * were logged, each at most once.
+     *
+     * @return The number of messages written from each thread.
+     */
+    private int[] checkOrder(int threads) {
+        int[] counts = new int[threads];
+        int[] last = new int[threads];
+        Arrays.fill(last, -1);
+        String marker = TAG + "_d: ";
+        for (String line : getOutput().split("\\R")) {
+            int start = line.indexOf(marker);
+            if (start < 0) continue;
+            String[] parts = line.substring(start + marker.length()).split(" ");
+            int thread = Integer.parseInt(parts[0]);
+            int i = Integer.parseInt(parts[1]);
+            assertTrue("thread " + thread + " wrote " + i + " after " + last[thread],
+                    i > last[thread]);
+            last[thread] = i;
+            counts[thread]++;
+        }
+        return counts;
+    }
+
+    private String getOutput() {
+        return new String(mOutput.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Waits for everything logged to be written.
+     */
+    private static void drain() {
+        while (Log.getQueuedCount() > 0) {
+            Log.flush();
+        }
+    }
+
+}
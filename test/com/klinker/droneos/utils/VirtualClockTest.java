@@ -0,0 +1,128 @@
+package com.klinker.droneos.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class VirtualClockTest {
+
+    private static final long MS = 1000000L;
+
+    @After
+    public void tearDown() {
+        Clock.set(null);
+    }
+
+    @Test
+    public void onlyMovesWhenAdvanced() throws InterruptedException {
+        VirtualClock clock = new VirtualClock();
+
+        assertEquals(0, clock.nanoTime());
+        Thread.sleep(20);
+        assertEquals(0, clock.nanoTime());
+        clock.advance(5 * MS);
+        assertEquals(5 * MS, clock.nanoTime());
+        assertTrue(clock.hasPassed(5 * MS));
+        assertFalse(clock.hasPassed(5 * MS + 1));
+    }
+
+    @Test
+    public void advanceWakesSleepersOncePastTheirDeadline() throws InterruptedException {
+        VirtualClock clock = new VirtualClock();
+        CountDownLatch early = sleepUntil(clock, 10 * MS);
+        CountDownLatch late = sleepUntil(clock, 20 * MS);
+        awaitSleepers(clock, 2);
+
+        clock.advance(9 * MS);
+        Thread.sleep(50);
+        assertEquals("woke before its deadline", 1, early.getCount());
+
+        clock.advance(MS);
+        assertTrue(early.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals("woke before its deadline", 1, late.getCount());
+        assertEquals(1, clock.getSleeperCount());
+
+        clock.advance(100 * MS);
+        assertTrue(late.await(5, TimeUnit.SECONDS));
+        awaitSleepers(clock, 0);
+    }
+
+    @Test
+    public void releasedClockFollowsTheWallClock() throws InterruptedException {
+        VirtualClock clock = new VirtualClock();
+        clock.advance(1000 * MS);
+        CountDownLatch woken = sleepUntil(clock, 1050 * MS);
+        awaitSleepers(clock, 1);
+
+        long start = System.nanoTime();
+        clock.release();
+        assertTrue(clock.nanoTime() >= 1000 * MS);
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+        long waited = (System.nanoTime() - start) / MS;
+
+        assertTrue("woke after only " + waited + " ms", waited >= 40);
+        // advancing a released clock does nothing.
+        long now = clock.nanoTime();
+        clock.advance(1000000 * MS);
+        assertTrue(clock.nanoTime() - now < 1000 * MS);
+    }
+
+    @Test
+    public void sleepFollowsTheClockInUse() throws InterruptedException {
+        VirtualClock clock = new VirtualClock();
+        Clock.set(clock);
+        CountDownLatch woken = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            Utils.sleep(60000);
+            woken.countDown();
+        });
+        thread.setDaemon(true);
+        thread.start();
+        awaitSleepers(clock, 1);
+
+        for (int i = 0; i < 60; i++) {
+            clock.advance(1000 * MS);
+        }
+
+        // a simulated minute, in far less than a real one.
+        assertTrue(woken.await(5, TimeUnit.SECONDS));
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Starts a thread that waits on the clock until the deadline.
+     *
+     * @return Counted down once the thread has woken past the deadline.
+     */
+    private static CountDownLatch sleepUntil(Clock clock, long deadline) {
+        CountDownLatch woken = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            while (!clock.hasPassed(deadline)) {
+                clock.parkUntil(VirtualClockTest.class, deadline);
+            }
+            woken.countDown();
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return woken;
+    }
+
+    private static void awaitSleepers(VirtualClock clock, int count)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (clock.getSleeperCount() != count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, clock.getSleeperCount());
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.klinker.droneos.utils.async;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+
+import com.klinker.droneos.utils.Utils;
+
+/**
+ * Compares {@link RunnableExecutor.Mode#PARALLEL} to
+ * {@link RunnableExecutor.Mode#VIRTUAL} the way the
+ * {@link com.klinker.droneos.arch.nodes.NodeManager} uses them: one
+ * executor per task, with one runnable per node, where most runnables just
+ * wait like <code>ControlsNode.onManualFindTask()</code> does.
+ * <p>
+ * For each number of tasks it prints the time until every task has started,
+ * the time until they have all finished, and the most threads alive at once.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.utils.async.RunnableExecutorBenchmark
+ * </pre>
+ */
+public class RunnableExecutorBenchmark {
+
+    /**
+     * How long each task waits for, in ms.
+     */
+    private static final long TASK_TIME = 200;
+
+    /**
+     * The numbers of tasks ran at once.
+     */
+    private static final int[] TASK_COUNTS = {4, 16, 64, 256, 1024};
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("Virtual threads supported: "
+                + RunnableExecutor.isVirtualThreadSupported());
+        // warm up both modes once so class loading is not measured.
+        run(RunnableExecutor.Mode.PARALLEL, 4);
+        run(RunnableExecutor.Mode.VIRTUAL, 4);
+
+        for (int count : TASK_COUNTS) {
+            for (RunnableExecutor.Mode mode : new RunnableExecutor.Mode[] {
+                    RunnableExecutor.Mode.PARALLEL,
+                    RunnableExecutor.Mode.VIRTUAL
+            }) {
+                System.out.println(run(mode, count));
+            }
+        }
+    }
+
+    private static String run(RunnableExecutor.Mode mode, int count)
+            throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        int threadsBefore = threads.getThreadCount();
+
+        CountDownLatch started = new CountDownLatch(count);
+        long start = System.nanoTime();
+        RunnableExecutor executor = mode == RunnableExecutor.Mode.VIRTUAL
+                ? RunnableExecutor.newVirtual()
+                : RunnableExecutor.newParallel(count);
+        for (int i = 0; i < count; i++) {
+            executor.addRunnable(() -> {
+                started.countDown();
+                Utils.sleep(TASK_TIME);
+            });
+        }
+        executor.start();
+        started.await();
+        long startup = System.nanoTime() - start;
+        executor.join();
+        long total = System.nanoTime() - start;
+
+        return String.format(
+                "%-8s %5d tasks: %8.2f ms to start, %8.2f ms total, %5d peak threads",
+                mode.name().toLowerCase(),
+                count,
+                startup / 1e6,
+                total / 1e6,
+                threads.getPeakThreadCount() - threadsBefore
+        );
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.klinker.droneos.utils.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.klinker.droneos.utils.Utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RunnableExecutorTest {
+
+    /**
+     * How long each sleeping task sleeps for, in ms.
+     */
+    private static final long SLEEP = 100;
+
+    @After
+    public void tearDown() {
+        RunnableExecutor.setVirtualDefault(false);
+    }
+
+    @Test
+    public void virtualRunsEveryTask() {
+        RunnableExecutor executor = RunnableExecutor.newVirtual();
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 1000; i++) {
+            executor.addRunnable(ran::incrementAndGet);
+        }
+
+        executor.start();
+        executor.join();
+
+        assertEquals(1000, ran.get());
+    }
+
+    @Test
+    public void sleepingVirtualTasksDoNotWaitForEachOther() {
+        int tasks = Runtime.getRuntime().availableProcessors() * 8;
+        RunnableExecutor executor = RunnableExecutor.newVirtual();
+        for (int i = 0; i < tasks; i++) {
+            executor.addRunnable(() -> Utils.sleep(SLEEP));
+        }
+
+        long start = System.nanoTime();
+        executor.start();
+        executor.join();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // one after another they would take tasks * SLEEP.
+        assertTrue("took " + elapsed + " ms", elapsed < SLEEP * tasks / 2);
+    }
+
+    @Test
+    public void virtualRunsOnDaemonThreads() throws Exception {
+        RunnableExecutor executor = RunnableExecutor.newVirtual();
+
+        // as an Executor, the way nodes fill out queries.
+        CompletableFuture<Boolean> isDaemon = CompletableFuture.supplyAsync(
+                () -> Thread.currentThread().isDaemon(), executor
+        );
+
+        assertTrue(isDaemon.get(5, TimeUnit.SECONDS));
+        executor.join();
+    }
+
+    @Test
+    public void defaultIgnoresTheThreadCountWhenVirtual() throws InterruptedException {
+        RunnableExecutor.setVirtualDefault(true);
+        RunnableExecutor executor = RunnableExecutor.newDefault(1);
+        CountDownLatch started = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            executor.addRunnable(() -> {
+                started.countDown();
+                // only ends if both tasks run at once, which a pool of one
+                // thread never would.
+                while (started.getCount() > 0) Utils.sleep(1);
+            });
+        }
+
+        executor.start();
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        executor.join();
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.klinker.droneos.utils.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SharedPoolExecutorTest {
+
+    @Test
+    public void runsOnDaemonPoolThreads() throws InterruptedException {
+        SharedPoolExecutor executor = new SharedPoolExecutor();
+        AtomicBoolean isPoolDaemon = new AtomicBoolean();
+        CountDownLatch ran = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            Thread thread = Thread.currentThread();
+            isPoolDaemon.set(thread instanceof ForkJoinWorkerThread && thread.isDaemon());
+            ran.countDown();
+        });
+
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        assertTrue(isPoolDaemon.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void awaitTerminationWaitsForItsTasks() throws InterruptedException {
+        SharedPoolExecutor executor = new SharedPoolExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> await(release));
+
+        executor.shutdown();
+
+        assertTrue(executor.isShutdown());
+        assertFalse(executor.awaitTermination(50, TimeUnit.MILLISECONDS));
+        assertFalse(executor.isTerminated());
+        release.countDown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(executor.isTerminated());
+    }
+
+    @Test
+    public void shutdownRejectsNewTasks() {
+        SharedPoolExecutor executor = new SharedPoolExecutor();
+        executor.shutdown();
+
+        try {
+            executor.execute(() -> { });
+            fail("Ran a task after shutting down");
+        } catch (RejectedExecutionException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void shutdownNowKeepsTasksThatHaveNotStarted() throws InterruptedException {
+        SharedPoolExecutor executor = new SharedPoolExecutor();
+        AtomicInteger ran = new AtomicInteger();
+        int submitted = 1000;
+        for (int i = 0; i < submitted; i++) {
+            executor.execute(ran::incrementAndGet);
+        }
+
+        List<Runnable> notStarted = executor.shutdownNow();
+
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // every task either ran or was handed back, never both.
+        assertEquals(submitted, ran.get() + notStarted.size());
+        Thread.sleep(50);
+        assertEquals(submitted - notStarted.size(), ran.get());
+    }
+
+    @Test
+    public void shuttingDownOneLeavesTheOthersRunning() throws InterruptedException {
+        SharedPoolExecutor stopped = new SharedPoolExecutor();
+        SharedPoolExecutor running = new SharedPoolExecutor();
+        CountDownLatch release = new CountDownLatch(1);
+        running.execute(() -> await(release));
+
+        stopped.shutdownNow();
+
+        assertTrue(stopped.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(running.isShutdown());
+        CountDownLatch ran = new CountDownLatch(1);
+        running.execute(ran::countDown);
+        release.countDown();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+        running.shutdown();
+        assertTrue(running.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.klinker.droneos.utils.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A small micro-benchmark harness for the <code>*Benchmark</code> classes in
+ * this project. Each operation is warmed up so the JIT has compiled it, then
+ * timed over a number of iterations. The bytes allocated by the calling
+ * thread are measured over the same iterations.
+ * <p>
+ * Results are printed to <code>System.out</code> rather than through
+ * {@link com.klinker.droneos.utils.Log}, so they can be copied straight out
+ * of the terminal.
+ */
+public class Benchmark {
+
+    ///// Interfaces ///////////////////////////////////////////////////////////
+
+    /**
+     * A single operation to measure.
+     */
+    public interface Operation {
+        /**
+         * @param i The index of the iteration.
+         * @return Anything the operation computed. It is consumed by the
+         * harness so the JIT can not remove the work as dead code.
+         * @throws Exception Any error stops the benchmark.
+         */
+        Object run(int i) throws Exception;
+    }
+
+
+    ///// Static Variables /////////////////////////////////////////////////////
+
+    /**
+     * Consumes the results of each {@link Operation}.
+     */
+    private static volatile int sSink;
+
+
+    ///// Constructor //////////////////////////////////////////////////////////
+
+    /**
+     * Prevents instantiation. Use the static methods.
+     */
+    private Benchmark() { }
+
+
+    ///// Static Methods ///////////////////////////////////////////////////////
+
+    /**
+     * Warms up, then measures an operation and prints the result.
+     *
+     * @param name       The name printed with the result.
+     * @param iterations The number of measured iterations. The same number
+     *                   are ran beforehand as warm up.
+     * @param operation  The operation to measure.
+     * @return The result of the measured iterations.
+     */
+    public static Result run(String name, int iterations, Operation operation) {
+        try {
+            consume(operation, iterations);
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            consume(operation, iterations);
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - startBytes;
+            Result result = new Result(name, iterations, elapsed, allocated);
+            System.out.println(result);
+            return result;
+        } catch (Exception e) {
+            throw new RuntimeException("Benchmark '" + name + "' failed", e);
+        }
+    }
+
+    private static void consume(Operation operation, int iterations)
+            throws Exception {
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            Object o = operation.run(i);
+            if (o != null) sink += o.hashCode();
+        }
+        sSink += sink;
+    }
+
+    /**
+     * @return The bytes allocated by the current thread so far, or 0 if the
+     * JVM can not measure it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+                ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+
+    ///// Inner Classes ////////////////////////////////////////////////////////
+
+    /**
+     * The measurements from {@link Benchmark#run(String, int, Operation)}.
+     */
+    public static class Result {
+
+        private final String mName;
+        private final int mIterations;
+        private final long mElapsedNanos;
+        private final long mAllocatedBytes;
+
+        private Result(String name, int iterations, long elapsedNanos,
+                       long allocatedBytes) {
+            mName = name;
+            mIterations = iterations;
+            mElapsedNanos = elapsedNanos;
+            mAllocatedBytes = allocatedBytes;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return The average time of a single operation in nanoseconds.
+         */
+        public double getNanosPerOp() {
+            return mElapsedNanos / (double) mIterations;
+        }
+
+        /**
+         * @return The number of operations per second.
+         */
+        public double getOpsPerSecond() {
+            return mIterations * 1e9 / mElapsedNanos;
+        }
+
+        /**
+         * @return The average bytes allocated by a single operation.
+         */
+        public double getBytesPerOp() {
+            return mAllocatedBytes / (double) mIterations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%-40s %12.1f ns/op %14.0f ops/s %10.1f B/op",
+                    mName,
+                    getNanosPerOp(),
+                    getOpsPerSecond(),
+                    getBytesPerOp()
+            );
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.klinker.droneos.utils.math;
+
+import java.util.Random;
+
+import com.klinker.droneos.arch.simulation.map.Waypoint;
+import com.klinker.droneos.utils.Utils;
+import com.klinker.droneos.utils.benchmark.Benchmark;
+
+/**
+ * Measures how far distances in a {@link LocalFrame} are from the haversine
+ * distance of {@link Utils#distanceConversion}, at several latitudes and
+ * distances from the origin, then compares how fast each checks a point
+ * against a list of waypoints.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.utils.math.LocalFrameBenchmark
+ * </pre>
+ */
+public class LocalFrameBenchmark {
+
+    private static final double[] LATITUDES = {0, 30, 45, 60, 75};
+
+    /**
+     * The distances [m] from the origin measured.
+     */
+    private static final double[] DISTANCES = {10, 100, 1000, 10000};
+
+    private static final int SAMPLES = 100000;
+
+    private static final int WAYPOINTS = 64;
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        System.out.println("Most relative error against haversine:");
+        System.out.print("latitude");
+        for (double distance : DISTANCES) {
+            System.out.print(String.format("%12s", (int) distance + " m"));
+        }
+        System.out.println();
+        for (double latitude : LATITUDES) {
+            System.out.print(String.format("%8.0f", latitude));
+            for (double distance : DISTANCES) {
+                System.out.print(String.format(
+                        "%11.5f%%", maxError(latitude, distance, random) * 100
+                ));
+            }
+            System.out.println();
+        }
+
+        // a drone flying around a course of waypoints 100 m across. They are
+        // moved into meters once, in a frame centered on the mission origin,
+        // and each GPS fix is moved in before it is checked.
+        Point origin = new Point(-86.9, 40.4);
+        LocalFrame frame = new LocalFrame(origin);
+        Point[] gpsWaypoints = new Point[WAYPOINTS];
+        Waypoint[] waypoints = new Waypoint[WAYPOINTS];
+        for (int i = 0; i < WAYPOINTS; i++) {
+            gpsWaypoints[i] = frame.unproject(
+                    random.nextDouble() * 100, random.nextDouble() * 100, new Point(0, 0)
+            );
+            Point meters = frame.project(gpsWaypoints[i], new Point(0, 0));
+            waypoints[i] = new Waypoint(meters.x, meters.y, 2);
+        }
+        Point[] positions = new Point[1024];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = frame.unproject(
+                    random.nextDouble() * 100, random.nextDouble() * 100, new Point(0, 0)
+            );
+        }
+
+        Point projected = new Point(0, 0);
+        Benchmark.Result frameResult = Benchmark.run(
+                "local frame", 200000, i -> {
+                    frame.project(positions[i & (positions.length - 1)], projected);
+                    int reached = 0;
+                    for (Waypoint waypoint : waypoints) {
+                        if (waypoint.checkPoint(projected)) reached++;
+                    }
+                    return reached;
+                }
+        );
+        Benchmark.Result haversineResult = Benchmark.run(
+                "haversine", 200000, i -> {
+                    Point position = positions[i & (positions.length - 1)];
+                    int reached = 0;
+                    for (int j = 0; j < WAYPOINTS; j++) {
+                        double distance = Utils.distanceConversion(gpsWaypoints[j], position);
+                        if (distance < waypoints[j].getRadius()) reached++;
+                    }
+                    return reached;
+                }
+        );
+        System.out.println(String.format(
+                "Checking %d waypoints: local frame %.1f ns each, haversine %.1f ns each",
+                WAYPOINTS,
+                frameResult.getNanosPerOp() / WAYPOINTS,
+                haversineResult.getNanosPerOp() / WAYPOINTS
+        ));
+    }
+
+    /**
+     * @return The largest relative error in the distance between the origin
+     * and random points up to a distance away, and between pairs of them.
+     */
+    private static double maxError(double latitude, double distance,
+                                   Random random) {
+        Point origin = new Point(random.nextDouble() * 360 - 180, latitude);
+        LocalFrame frame = new LocalFrame(origin);
+        double maxError = 0;
+        Point previous = origin;
+        for (int i = 0; i < SAMPLES; i++) {
+            double angle = random.nextDouble() * Math.PI * 2;
+            double range = distance * Math.sqrt(random.nextDouble());
+            Point point = frame.unproject(
+                    range * Math.cos(angle), range * Math.sin(angle), new Point(0, 0)
+            );
+            for (Point other : new Point[]{origin, previous}) {
+                double haversine = Utils.distanceConversion(other, point);
+                if (haversine < distance / 100) continue;
+                double error = Math.abs(frame.distance(other, point) - haversine) / haversine;
+                maxError = Math.max(maxError, error);
+            }
+            previous = point;
+        }
+        return maxError;
+    }
+
+}
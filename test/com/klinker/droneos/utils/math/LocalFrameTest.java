@@ -0,0 +1,94 @@
+package com.klinker.droneos.utils.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import com.klinker.droneos.utils.Utils;
+
+import org.junit.Test;
+
+public class LocalFrameTest {
+
+    private static final double[] LATITUDES = {0, 30, 45, 60, -60};
+
+    private static final int SAMPLES = 2000;
+
+    @Test
+    public void within10KmIsWithinPoint3PercentOfHaversine() {
+        for (double latitude : LATITUDES) {
+            double error = maxError(latitude, 10000, new Random(7));
+            assertTrue(error + " off at " + latitude + " degrees", error < 0.003);
+        }
+    }
+
+    @Test
+    public void within100MIsWithinPoint003PercentOfHaversine() {
+        for (double latitude : LATITUDES) {
+            double error = maxError(latitude, 100, new Random(7));
+            assertTrue(error + " off at " + latitude + " degrees", error < 0.00003);
+        }
+    }
+
+    @Test
+    public void projectGoesEastAndNorth() {
+        LocalFrame frame = new LocalFrame(-86.2, 41.7);
+        Point east = new Point(-86.2 + frame.toLongitude(50), 41.7);
+        Point north = new Point(-86.2, 41.7 + frame.toLatitude(50));
+
+        assertEquals(50, frame.getEast(east), 1e-9);
+        assertEquals(0, frame.getNorth(east), 1e-9);
+        assertEquals(0, frame.getEast(north), 1e-9);
+        assertEquals(50, frame.getNorth(north), 1e-9);
+        assertEquals(50, Utils.distanceConversion(frame.unproject(0, 0, new Point(0, 0)), east), 1e-3);
+    }
+
+    @Test
+    public void unprojectUndoesProject() {
+        LocalFrame frame = new LocalFrame(new Point(151.2, -33.9));
+        Point gps = new Point(151.21, -33.88);
+
+        Point local = frame.project(gps, new Point(0, 0));
+        Point back = frame.unproject(local.x, local.y, new Point(0, 0));
+
+        assertEquals(gps.x, back.x, 1e-12);
+        assertEquals(gps.y, back.y, 1e-12);
+        assertEquals(local.x * local.x + local.y * local.y,
+                frame.distanceSquared(new Point(151.2, -33.9), gps), 1e-6);
+        // projecting in place.
+        assertEquals(local.x, frame.project(gps, gps).x, 0);
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @return The largest relative error against the haversine distance of
+     * {@link Utils#distanceConversion} in the distance between the origin
+     * and random points up to a distance away, and between pairs of them.
+     */
+    private static double maxError(double latitude, double distance, Random random) {
+        Point origin = new Point(random.nextDouble() * 360 - 180, latitude);
+        LocalFrame frame = new LocalFrame(origin);
+        double maxError = 0;
+        Point previous = origin;
+        for (int i = 0; i < SAMPLES; i++) {
+            double angle = random.nextDouble() * Math.PI * 2;
+            double range = distance * Math.sqrt(random.nextDouble());
+            Point point = frame.unproject(
+                    range * Math.cos(angle), range * Math.sin(angle), new Point(0, 0)
+            );
+            for (Point other : new Point[]{origin, previous}) {
+                double haversine = Utils.distanceConversion(other, point);
+                // too close for the error to mean anything.
+                if (haversine < distance / 100) continue;
+                double error = Math.abs(frame.distance(other, point) - haversine) / haversine;
+                maxError = Math.max(maxError, error);
+            }
+            previous = point;
+        }
+        return maxError;
+    }
+
+}
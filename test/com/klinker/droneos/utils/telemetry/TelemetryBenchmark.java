@@ -0,0 +1,66 @@
+package com.klinker.droneos.utils.telemetry;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import com.klinker.droneos.utils.benchmark.Benchmark;
+
+/**
+ * Measures the cost of recording a reading with a
+ * {@link TelemetryRecorder}, including rolling over to new segments, then
+ * reads the recording back to check that nothing was lost.
+ * <p>
+ * A control loop at 1 kHz has 1,000,000 ns per iteration, so the time per
+ * record printed here is the fraction of that budget spent recording.
+ * <pre>
+ * gradle runBenchmark -Pbenchmark=com.klinker.droneos.utils.telemetry.TelemetryBenchmark
+ * </pre>
+ */
+public class TelemetryBenchmark {
+
+    /**
+     * The number of records measured. The same amount are recorded first to
+     * warm up.
+     */
+    private static final int COUNT = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("telemetry").toFile();
+        // small segments, so rolling over is part of what is measured.
+        TelemetryRecorder recorder = new TelemetryRecorder(
+                dir.getPath(), "benchmark", 1024 * 1024
+        );
+        int pose = recorder.registerTag("pose", "x", "y", "z", "angle");
+        int offset = recorder.registerTag("cv-offset", "x", "y");
+        double[] fields = new double[6];
+        recorder.open();
+
+        Benchmark.run("pose (4 fields)", COUNT, i ->
+                recorder.record(pose, i, i * 0.5, 1.5, 0.25) ? null : i
+        );
+        Benchmark.run("cv-offset (2 fields)", COUNT, i ->
+                recorder.record(offset, i, -i) ? null : i
+        );
+        Benchmark.run("6 fields, reused array", COUNT, i -> {
+            fields[0] = i;
+            return recorder.record(pose, fields) ? null : i;
+        });
+        recorder.close();
+
+        long[] counts = new long[3];
+        long read = new TelemetryReader(dir.getPath(), "benchmark")
+                .read((time, tag, values, count) -> counts[tag]++);
+        System.out.println(String.format(
+                "Recorded %d in %d segments, read back %d (pose: %d, "
+                        + "cv-offset: %d), dropped %d",
+                recorder.getRecordCount(), recorder.getSegmentCount(), read,
+                counts[pose], counts[offset], recorder.getDroppedCount()
+        ));
+
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.klinker.droneos.utils.telemetry;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TelemetryRecorderTest {
+
+    private static final String NAME = "test";
+
+    /**
+     * Room for this many records in each segment, so a few records roll
+     * over several times.
+     */
+    private static final int RECORDS_PER_SEGMENT = 10;
+
+    private static final int SEGMENT_SIZE = TelemetryRecorder.HEADER_SIZE
+            + RECORDS_PER_SEGMENT * TelemetryRecorder.RECORD_SIZE;
+
+    private File mDirectory;
+
+    private TelemetryRecorder mRecorder;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("telemetry").toFile();
+        mRecorder = new TelemetryRecorder(mDirectory.getPath(), NAME, SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        mRecorder.close();
+        delete(mDirectory);
+    }
+
+    @Test
+    public void recordsRollOverIntoNewSegments() throws IOException {
+        int pose = mRecorder.registerTag("pose", "x", "y", "z");
+        mRecorder.open();
+        int records = RECORDS_PER_SEGMENT * 3 + 5;
+        for (int i = 0; i < records; i++) {
+            assertTrue(mRecorder.record(pose, i, -i, i * 0.5));
+        }
+        mRecorder.close();
+
+        assertEquals(records, mRecorder.getRecordCount());
+        assertEquals(0, mRecorder.getDroppedCount());
+        assertEquals(4, mRecorder.getSegmentCount());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(TelemetryRecorder.getSegmentFile(mDirectory, NAME, i).exists());
+        }
+        assertFalse("the spare segment should be deleted",
+                TelemetryRecorder.getSegmentFile(mDirectory, NAME, 4).exists());
+
+        List<double[]> read = readAll();
+        assertEquals(records, read.size());
+        long lastTime = -1;
+        for (int i = 0; i < records; i++) {
+            double[] record = read.get(i);
+            assertEquals(pose, (int) record[1]);
+            assertTrue(record[0] >= lastTime);
+            lastTime = (long) record[0];
+            assertArrayEquals(new double[]{i, -i, i * 0.5},
+                    Arrays.copyOfRange(record, 2, record.length), 0);
+        }
+    }
+
+    @Test
+    public void eachRecordKeepsItsFieldCount() throws IOException {
+        int one = mRecorder.registerTag("one", "a");
+        int many = mRecorder.registerTag("many", "a", "b", "c", "d", "e");
+        mRecorder.open();
+        mRecorder.record(one, 1);
+        mRecorder.record(many, 1, 2, 3, 4, 5);
+        mRecorder.record(one, 2);
+        mRecorder.close();
+
+        List<double[]> read = readAll();
+        assertEquals(3, read.size());
+        assertArrayEquals(new double[]{1}, Arrays.copyOfRange(read.get(0), 2, read.get(0).length), 0);
+        assertArrayEquals(new double[]{1, 2, 3, 4, 5},
+                Arrays.copyOfRange(read.get(1), 2, read.get(1).length), 0);
+        assertEquals(many, (int) read.get(1)[1]);
+    }
+
+    @Test
+    public void recordingWhileClosedIsRefused() throws IOException {
+        int tag = mRecorder.registerTag("tag", "a");
+        assertFalse(mRecorder.record(tag, 1));
+
+        mRecorder.open();
+        assertTrue(mRecorder.record(tag, 1));
+        mRecorder.close();
+        assertFalse(mRecorder.record(tag, 2));
+
+        assertEquals(1, readAll().size());
+    }
+
+    @Test
+    public void registeringTwiceGivesTheSameId() {
+        int first = mRecorder.registerTag("pose", "x");
+        int other = mRecorder.registerTag("offset", "x");
+
+        assertEquals(first, mRecorder.registerTag("pose", "x"));
+        assertTrue(first != other);
+        assertTrue(first > 0 && other > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyFields() {
+        String[] fields = new String[TelemetryRecorder.MAX_FIELDS + 1];
+        Arrays.fill(fields, "f");
+        mRecorder.registerTag("wide", fields);
+    }
+
+    @Test
+    public void exportsOneCsvPerTag() throws IOException {
+        int pose = mRecorder.registerTag("pose", "x", "y");
+        int pwm = mRecorder.registerTag("pwm", "motor");
+        mRecorder.open();
+        for (int i = 0; i < RECORDS_PER_SEGMENT * 2; i++) {
+            mRecorder.record(pose, i, i + 0.5);
+            if (i % 4 == 0) mRecorder.record(pwm, 1500 + i);
+        }
+        mRecorder.close();
+
+        File csvDirectory = new File(mDirectory, "csv");
+        long exported = new TelemetryReader(mDirectory.getPath(), NAME)
+                .exportCsv(csvDirectory.getPath());
+
+        assertEquals(RECORDS_PER_SEGMENT * 2 + 5, exported);
+        List<String> poseLines = readLines(new File(csvDirectory, NAME + "-pose.csv"));
+        assertEquals("time,x,y", poseLines.get(0));
+        assertEquals(RECORDS_PER_SEGMENT * 2 + 1, poseLines.size());
+        String[] row = poseLines.get(4).split(",");
+        assertEquals(3, row.length);
+        assertEquals(3, Double.parseDouble(row[1]), 0);
+        assertEquals(3.5, Double.parseDouble(row[2]), 0);
+
+        List<String> pwmLines = readLines(new File(csvDirectory, NAME + "-pwm.csv"));
+        assertEquals("time,motor", pwmLines.get(0));
+        assertEquals(6, pwmLines.size());
+        assertEquals(1504, Double.parseDouble(pwmLines.get(2).split(",")[1]), 0);
+    }
+
+    @Test
+    public void segmentWithAnotherRecordSizeIsRejected() throws IOException {
+        int pose = mRecorder.registerTag("pose", "x");
+        mRecorder.open();
+        mRecorder.record(pose, 1);
+        mRecorder.close();
+        File segment = TelemetryRecorder.getSegmentFile(mDirectory, NAME, 0);
+        byte[] bytes = Files.readAllBytes(segment.toPath());
+        // the record size, after the magic number.
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putInt(4, 0);
+        Files.write(segment.toPath(), bytes);
+
+        try {
+            readAll();
+            fail("Read a segment with 0 byte records");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("0 bytes"));
+        }
+    }
+
+
+    ///// Helper Methods ///////////////////////////////////////////////////////
+
+    /**
+     * @return Every record read back, as the time, the tag, then its fields.
+     */
+    private List<double[]> readAll() throws IOException {
+        List<double[]> records = new ArrayList<>();
+        new TelemetryReader(mDirectory.getPath(), NAME).read((time, tag, fields, count) -> {
+            double[] record = new double[count + 2];
+            record[0] = time;
+            record[1] = tag;
+            System.arraycopy(fields, 0, record, 2, count);
+            records.add(record);
+        });
+        return records;
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}